@@ -12,7 +12,9 @@ import net.william278.husksync.data.CompressedDataAdapter;
 import net.william278.husksync.data.DataAdapter;
 import net.william278.husksync.data.JsonDataAdapter;
 import net.william278.husksync.database.Database;
+import net.william278.husksync.database.EmbeddedDatabase;
 import net.william278.husksync.database.MySqlDatabase;
+import net.william278.husksync.database.ShardedDatabase;
 import net.william278.husksync.event.BukkitEventCannon;
 import net.william278.husksync.event.EventCannon;
 import net.william278.husksync.hook.PlanHook;
@@ -110,7 +112,12 @@ public class BukkitHuskSync extends JavaPlugin implements HuskSync {
             }
 
             // Prepare database connection
-            this.database = new MySqlDatabase(this);
+            if (settings.getDatabaseType() == Settings.DatabaseType.EMBEDDED) {
+                this.database = new EmbeddedDatabase(this);
+            } else {
+                this.database = settings.getDatabaseShards().isEmpty() ? new MySqlDatabase(this)
+                        : new ShardedDatabase(this);
+            }
             log(Level.INFO, "Attempting to establish connection to the database...");
             initialized.set(this.database.initialize());
             if (initialized.get()) {
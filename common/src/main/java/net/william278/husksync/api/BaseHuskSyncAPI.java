@@ -2,11 +2,15 @@ package net.william278.husksync.api;
 
 import net.william278.husksync.HuskSync;
 import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.StatisticsProjection;
 import net.william278.husksync.data.UserData;
 import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.database.Database;
+import net.william278.husksync.database.LeaderboardEntry;
 import net.william278.husksync.player.OnlineUser;
 import net.william278.husksync.player.User;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 import java.util.Optional;
@@ -21,6 +25,11 @@ import java.util.concurrent.CompletableFuture;
 @SuppressWarnings("unused")
 public abstract class BaseHuskSyncAPI {
 
+    /**
+     * The maximum number of entries in a page of a leaderboard
+     */
+    public static final int MAX_LEADERBOARD_PAGE_SIZE = 1000;
+
     /**
      * <b>(Internal use only)</b> - Instance of the implementing plugin.
      */
@@ -66,7 +75,8 @@ public abstract class BaseHuskSyncAPI {
      * </p>
      * Because of this, if the user is online on another server on the network,
      * then the {@link UserData} returned by this method will <i>not necessarily reflective of
-     * their current state</i>
+     * their current state</i>. If a read replica is configured, it may also be read from the replica
+     * and be a few seconds out of date
      * @since 2.0
      */
     public final CompletableFuture<Optional<UserData>> getUserData(@NotNull User user) {
@@ -74,11 +84,27 @@ public abstract class BaseHuskSyncAPI {
             if (user instanceof OnlineUser) {
                 return ((OnlineUser) user).getUserData(plugin).join();
             } else {
-                return plugin.getDatabase().getCurrentUserData(user).join().map(UserDataSnapshot::userData);
+                return plugin.getDatabase().getCurrentUserDataForDisplay(user).join().map(UserDataSnapshot::userData);
             }
         });
     }
 
+    /**
+     * Returns whether a {@link User} is currently online on any server on the network
+     *
+     * @param user the {@link User} to check
+     * @return future returning {@code true} if the user is online on a server on the network, otherwise {@code false}
+     * @apiNote If this returns {@code true} and the user is not online on the implementing bukkit server,
+     * the {@link UserData} returned by {@link #getUserData(User)} may not reflect their current state
+     * @since 2.3
+     */
+    public final CompletableFuture<Boolean> isUserOnlineOnNetwork(@NotNull User user) {
+        if (user instanceof OnlineUser) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return plugin.getRedisManager().getUserServer(user).thenApply(Optional::isPresent);
+    }
+
     /**
      * Sets the {@link UserData} to the database for the given {@link User}.
      * </p>
@@ -122,6 +148,60 @@ public abstract class BaseHuskSyncAPI {
         return CompletableFuture.supplyAsync(() -> plugin.getDatabase().getUserData(user).join());
     }
 
+    /**
+     * Returns a page of the leaderboard ranking users by a statistic of their current {@link UserData}, highest first
+     *
+     * @param category  the {@link StatisticsProjection.Category} of the statistic
+     * @param statistic the name of the statistic, such as {@code MINE_BLOCK}
+     * @param qualifier the material or entity type of a typed statistic, such as {@code DIAMOND_ORE}, or {@code null}
+     *                  for an untyped statistic
+     * @param page      the page to return, starting from {@code 0}
+     * @param pageSize  the number of entries per page, up to {@value #MAX_LEADERBOARD_PAGE_SIZE}
+     * @return future returning the {@link LeaderboardEntry}s of the page
+     * @throws IllegalArgumentException if the page or page size is out of range, or the page ends deeper than
+     *                                  {@link Database#MAX_LEADERBOARD_DEPTH}
+     * @apiNote Requires the statistics projection to be enabled in the config of a MySQL database; otherwise the
+     * returned future completes exceptionally. Users saved before the projection was enabled are ranked once the
+     * projection has been backfilled by a maintenance job
+     * @since 2.3
+     */
+    public final CompletableFuture<List<LeaderboardEntry>> getStatisticLeaderboard(
+            @NotNull StatisticsProjection.Category category, @NotNull String statistic, @Nullable String qualifier,
+            int page, int pageSize) {
+        return plugin.getDatabase().getStatisticLeaderboard(new StatisticsProjection.Key(category, statistic,
+                qualifier == null ? "" : qualifier), getPageOffset(page, pageSize), pageSize);
+    }
+
+    /**
+     * Returns a page of the leaderboard ranking users by a status field of their current {@link UserData}, highest
+     * first
+     *
+     * @param field    the {@link StatisticsProjection.StatusField} to rank users by
+     * @param page     the page to return, starting from {@code 0}
+     * @param pageSize the number of entries per page, up to {@value #MAX_LEADERBOARD_PAGE_SIZE}
+     * @return future returning the {@link LeaderboardEntry}s of the page
+     * @throws IllegalArgumentException if the page or page size is out of range, or the page ends deeper than
+     *                                  {@link Database#MAX_LEADERBOARD_DEPTH}
+     * @apiNote Requires the statistics projection to be enabled in the config of a MySQL database; otherwise the
+     * returned future completes exceptionally
+     * @since 2.3
+     */
+    public final CompletableFuture<List<LeaderboardEntry>> getStatusLeaderboard(
+            @NotNull StatisticsProjection.StatusField field, int page, int pageSize) {
+        return plugin.getDatabase().getStatusLeaderboard(field, getPageOffset(page, pageSize), pageSize);
+    }
+
+    private static int getPageOffset(int page, int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_LEADERBOARD_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_LEADERBOARD_PAGE_SIZE);
+        }
+        if (page < 0 || ((long) page + 1) * pageSize > Database.MAX_LEADERBOARD_DEPTH) {
+            throw new IllegalArgumentException("Page " + page + " is out of range; leaderboards are ranked to a depth "
+                                               + "of " + Database.MAX_LEADERBOARD_DEPTH + " entries");
+        }
+        return page * pageSize;
+    }
+
     /**
      * Returns the JSON string representation of the given {@link UserData}
      *
@@ -46,10 +46,11 @@ public class EnderChestCommand extends CommandBase implements TabCompletable {
                                     "/enderchest <player> [version_uuid]").ifPresent(player::sendMessage);
                         }
                     } else {
-                        // View (and edit) the latest user data
-                        plugin.getDatabase().getCurrentUserData(user).thenAccept(optionalData -> optionalData.ifPresentOrElse(
-                                versionedUserData -> showEnderChestMenu(player, versionedUserData, user,
-                                        player.hasPermission(Permission.COMMAND_ENDER_CHEST_EDIT.node)),
+                        // View (and edit) the latest user data. Data that can't be edited may be read from a replica
+                        final boolean allowEdit = player.hasPermission(Permission.COMMAND_ENDER_CHEST_EDIT.node);
+                        (allowEdit ? plugin.getDatabase().getCurrentUserData(user)
+                                : plugin.getDatabase().getCurrentUserDataForDisplay(user)).thenAccept(optionalData -> optionalData.ifPresentOrElse(
+                                versionedUserData -> showEnderChestMenu(player, versionedUserData, user, allowEdit),
                                 () -> plugin.getLocales().getLocale("error_no_data_to_display")
                                         .ifPresent(player::sendMessage)));
                     }
@@ -16,7 +16,7 @@ import java.util.stream.Collectors;
 
 public class HuskSyncCommand extends CommandBase implements TabCompletable, ConsoleExecutable {
 
-    private final String[] SUB_COMMANDS = {"update", "about", "reload", "migrate"};
+    private final String[] SUB_COMMANDS = {"update", "about", "reload", "migrate", "status"};
     private final AboutMenu aboutMenu;
 
     public HuskSyncCommand(@NotNull HuskSync implementor) {
@@ -77,7 +77,7 @@ public class HuskSyncCommand extends CommandBase implements TabCompletable, Cons
                 plugin.reload();
                 plugin.getLocales().getLocale("reload_complete").ifPresent(player::sendMessage);
             }
-            case "migrate" ->
+            case "migrate", "status" ->
                     plugin.getLocales().getLocale("error_console_command_only").ifPresent(player::sendMessage);
             default -> plugin.getLocales().getLocale("error_invalid_syntax",
                             "/husksync <update/about/reload>")
@@ -88,7 +88,7 @@ public class HuskSyncCommand extends CommandBase implements TabCompletable, Cons
     @Override
     public void onConsoleExecute(@NotNull String[] args) {
         if (args.length < 1) {
-            plugin.log(Level.INFO, "Console usage: \"husksync <update/about/reload/migrate>\"");
+            plugin.log(Level.INFO, "Console usage: \"husksync <update/about/reload/migrate/status>\"");
             return;
         }
         switch (args[0].toLowerCase()) {
@@ -137,11 +137,23 @@ public class HuskSyncCommand extends CommandBase implements TabCompletable, Cons
                     logMigratorsList();
                 });
             }
+            case "status" -> logStatus();
             default -> plugin.log(Level.INFO,
-                    "Invalid syntax. Console usage: \"husksync <update/about/reload/migrate>\"");
+                    "Invalid syntax. Console usage: \"husksync <update/about/reload/migrate/status>\"");
         }
     }
 
+    private void logStatus() {
+        plugin.log(Level.INFO, "Redis connection status:\n" +
+                               plugin.getRedisManager().getStatistics().entrySet().stream()
+                                       .map(statistic -> statistic.getKey() + ": " + statistic.getValue())
+                                       .collect(Collectors.joining("\n")));
+        plugin.log(Level.INFO, "Database status:\n" +
+                               plugin.getDatabase().getStatistics().entrySet().stream()
+                                       .map(statistic -> statistic.getKey() + ": " + statistic.getValue())
+                                       .collect(Collectors.joining("\n")));
+    }
+
     private void logMigratorsList() {
         plugin.log(Level.INFO,
                 "List of available migrators:\nMigrator ID / Migrator Name:\n" +
@@ -46,10 +46,11 @@ public class InventoryCommand extends CommandBase implements TabCompletable {
                                     "/inventory <player> [version_uuid]").ifPresent(player::sendMessage);
                         }
                     } else {
-                        // View (and edit) the latest user data
-                        plugin.getDatabase().getCurrentUserData(user).thenAccept(optionalData -> optionalData.ifPresentOrElse(
-                                versionedUserData -> showInventoryMenu(player, versionedUserData, user,
-                                        player.hasPermission(Permission.COMMAND_INVENTORY_EDIT.node)),
+                        // View (and edit) the latest user data. Data that can't be edited may be read from a replica
+                        final boolean allowEdit = player.hasPermission(Permission.COMMAND_INVENTORY_EDIT.node);
+                        (allowEdit ? plugin.getDatabase().getCurrentUserData(user)
+                                : plugin.getDatabase().getCurrentUserDataForDisplay(user)).thenAccept(optionalData -> optionalData.ifPresentOrElse(
+                                versionedUserData -> showInventoryMenu(player, versionedUserData, user, allowEdit),
                                 () -> plugin.getLocales().getLocale("error_no_data_to_display")
                                         .ifPresent(player::sendMessage)));
                     }
@@ -65,7 +65,7 @@ public class UserDataCommand extends CommandBase implements TabCompletable {
                     CompletableFuture.runAsync(() -> plugin.getDatabase()
                             .getUserByName(username.toLowerCase())
                             .thenAccept(optionalUser -> optionalUser
-                                    .ifPresentOrElse(user -> plugin.getDatabase().getCurrentUserData(user)
+                                    .ifPresentOrElse(user -> plugin.getDatabase().getCurrentUserDataForDisplay(user)
                                                     .thenAccept(latestData -> latestData.ifPresentOrElse(
                                                             userData -> userData.displayDataOverview(player, user, plugin.getLocales()),
                                                             () -> plugin.getLocales().getLocale("error_no_data_to_display")
@@ -89,7 +89,7 @@ public class UserDataCommand extends CommandBase implements TabCompletable {
                 CompletableFuture.runAsync(() -> plugin.getDatabase()
                         .getUserByName(username.toLowerCase())
                         .thenAccept(optionalUser -> optionalUser.ifPresentOrElse(
-                                user -> plugin.getDatabase().getUserData(user).thenAccept(dataList -> {
+                                user -> plugin.getDatabase().getUserDataMetadata(user).thenAccept(dataList -> {
                                     // Check if there is data to display
                                     if (dataList.isEmpty()) {
                                         plugin.getLocales().getLocale("error_no_data_to_display")
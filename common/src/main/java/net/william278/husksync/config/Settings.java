@@ -38,6 +38,14 @@ public class Settings {
 
 
     // Database settings
+    @YamlComment("Where to store user data (MYSQL or EMBEDDED). EMBEDDED stores data in a file in the plugin folder, for a single server without a MySQL server")
+    @YamlKey("database.type")
+    private DatabaseType databaseType = DatabaseType.MYSQL;
+
+    @YamlComment("The file the EMBEDDED database stores user data in, relative to the plugin folder")
+    @YamlKey("database.embedded.file")
+    private String embeddedDatabaseFile = "husksync_data.log";
+
     @YamlComment("Database connection settings")
     @YamlKey("database.credentials.host")
     private String mySqlHost = "localhost";
@@ -73,6 +81,94 @@ public class Settings {
     @YamlKey("database.connection_pool.connection_timeout")
     private long mySqlConnectionPoolTimeout = 5000;
 
+    @YamlComment("Background database work - world saves, commands, hooks, migrators and maintenance - uses its own, smaller pool of connections, so it cannot starve players joining and leaving of connections")
+    @YamlKey("database.connection_pool.background_pool_size")
+    private int mySqlBackgroundPoolSize = 4;
+
+    @YamlComment("Number of threads running database queries for joining and leaving players, so slow queries queue up on their own threads instead of stalling the rest of the plugin's asynchronous work. Set to 0 to use one thread per pooled connection. Background work runs on one thread per background connection")
+    @YamlKey("database.io_threads")
+    private int databaseIoThreads = 0;
+
+    @YamlComment("Optional read replica of the MySQL database. Reads that tolerate slightly stale data, such as snapshot lists, data views and the Plan hook, are sent to it while it is at most max_lag_seconds behind. Reading the replica's lag requires the REPLICATION CLIENT privilege. A blank username or password uses the primary database's")
+    @YamlKey("database.replica.enabled")
+    private boolean replicaEnabled = false;
+
+    @YamlKey("database.replica.host")
+    private String replicaHost = "localhost";
+
+    @YamlKey("database.replica.port")
+    private int replicaPort = 3306;
+
+    @YamlKey("database.replica.username")
+    private String replicaUsername = "";
+
+    @YamlKey("database.replica.password")
+    private String replicaPassword = "";
+
+    @YamlKey("database.replica.max_lag_seconds")
+    private int replicaMaxLagSeconds = 5;
+
+    @YamlComment("Optionally spread user data across several MySQL databases, each given as host:port/database and sharing the credentials above. Each user is stored on one shard, chosen by a hash of their UUID. Shards can only be added, to the end of the list; when adding shards, set previous_shard_count to the number of shards before, so users are moved to their new shard, then set it back to 0 once the move is logged as complete. Leave empty to use the single database above")
+    @YamlKey("database.sharding.shards")
+    private List<String> databaseShards = new ArrayList<>();
+
+    @YamlKey("database.sharding.previous_shard_count")
+    private int previousShardCount = 0;
+
+    @YamlComment("Saves are queued and written to the database in batches. When the queue is full, world save snapshots are skipped")
+    @YamlKey("database.save_queue.batch_size")
+    private int databaseSaveQueueBatchSize = 100;
+
+    @YamlKey("database.save_queue.max_pending")
+    private int databaseSaveQueueMaxPending = 1000;
+
+    @YamlComment("Maximum number of users whose name and UUID are cached in memory, for name lookups")
+    @YamlKey("database.user_cache_size")
+    private int userCacheSize = 5000;
+
+    @YamlComment("Store snapshots as deltas against the previous snapshot, with a full snapshot every keyframe_interval saves. Older snapshots are kept until their whole chain can be rotated")
+    @YamlKey("database.delta_storage.enabled")
+    private boolean deltaStorage = false;
+
+    @YamlKey("database.delta_storage.keyframe_interval")
+    private int deltaStorageKeyframeInterval = 10;
+
+    @YamlComment("Store the inventory, ender chest, advancements, statistics and persistent data of snapshots as sections shared between snapshots with identical contents. Replaces delta storage when enabled")
+    @YamlKey("database.section_storage.enabled")
+    private boolean sectionStorage = false;
+
+    @YamlComment("Keep the statistics and some status fields of each user's current snapshot in indexed tables, for leaderboard queries through the API. Users saved before this was enabled are filled in by a maintenance job")
+    @YamlKey("database.statistics_projection.enabled")
+    private boolean statisticsProjection = false;
+
+    @YamlComment("Move the data of snapshots older than this many days out of the database into compressed archive segment files, as a maintenance job. The newest snapshot of each user is never archived. Set to 0 to disable")
+    @YamlKey("database.archive.after_days")
+    private int archiveAfterDays = 0;
+
+    @YamlComment("The absolute path of the directory archive segment files are written to. Every server must share this directory, such as over a network mount, as any server may read an archived snapshot. Archiving is not enabled until this is set")
+    @YamlKey("database.archive.directory")
+    private String archiveDirectory = "";
+
+    @YamlKey("database.archive.segment_size_mb")
+    private int archiveSegmentSizeMb = 64;
+
+    @YamlComment("Background maintenance of the whole database; rotating the snapshots of users who have not returned, enforcing the retention period, cleaning up orphaned rows and archiving. Jobs run in small chunks, on one server in the cluster at a time. Disabled by default")
+    @YamlKey("database.maintenance.enabled")
+    private boolean maintenanceEnabled = false;
+
+    @YamlKey("database.maintenance.interval_minutes")
+    private int maintenanceIntervalMinutes = 360;
+
+    @YamlKey("database.maintenance.chunk_size")
+    private int maintenanceChunkSize = 100;
+
+    @YamlKey("database.maintenance.chunk_delay_millis")
+    private long maintenanceChunkDelayMillis = 250;
+
+    @YamlComment("Delete unpinned snapshots older than this many days, always keeping each user's newest snapshot. Set to 0 to keep snapshots until they are rotated out")
+    @YamlKey("database.maintenance.retention_days")
+    private int retentionDays = 0;
+
     @YamlKey("database.table_names")
     private Map<String, String> tableNames = TableName.getDefaults();
 
@@ -91,6 +187,53 @@ public class Settings {
     @YamlKey("redis.use_ssl")
     private boolean redisUseSsl = false;
 
+    @YamlComment("How to connect to Redis (STANDALONE, SENTINEL or CLUSTER). Sentinel and cluster nodes are listed as host:port")
+    @YamlKey("redis.topology")
+    private RedisTopology redisTopology = RedisTopology.STANDALONE;
+
+    @YamlKey("redis.sentinel.master_name")
+    private String redisSentinelMasterName = "mymaster";
+
+    @YamlKey("redis.sentinel.nodes")
+    private List<String> redisSentinelNodes = new ArrayList<>(List.of("localhost:26379"));
+
+    @YamlKey("redis.sentinel.password")
+    private String redisSentinelPassword = "";
+
+    @YamlKey("redis.cluster.nodes")
+    private List<String> redisClusterNodes = new ArrayList<>(List.of("localhost:7000"));
+
+    @YamlComment("Redis connection pool properties")
+    @YamlKey("redis.connection_pool.maximum_pool_size")
+    private int redisConnectionPoolSize = 16;
+
+    @YamlKey("redis.connection_pool.minimum_idle")
+    private int redisConnectionPoolIdle = 4;
+
+    @YamlKey("redis.connection_pool.connection_timeout")
+    private long redisConnectionPoolTimeout = 5000;
+
+    @YamlKey("redis.connection_pool.eviction_interval")
+    private long redisConnectionPoolEvictionInterval = 30000;
+
+    @YamlComment("Send server switch handoffs over a single shared, pipelined connection instead of the pool")
+    @YamlKey("redis.pipelining")
+    private boolean redisPipelining = false;
+
+    @YamlComment("Also send messages in the legacy JSON format, for clusters with servers running HuskSync v2.2.4 or older")
+    @YamlKey("redis.send_legacy_messages")
+    private boolean sendLegacyRedisMessages = false;
+
+    @YamlComment("Queue data saves in a Redis stream, to be written to the database in batches in the background")
+    @YamlKey("redis.write_behind.enabled")
+    private boolean redisWriteBehind = false;
+
+    @YamlKey("redis.write_behind.batch_size")
+    private int redisWriteBehindBatchSize = 100;
+
+    @YamlKey("redis.write_behind.reclaim_after")
+    private long redisWriteBehindReclaimAfter = 60000;
+
 
     // Synchronization settings
     @YamlComment("Synchronization settings")
@@ -106,6 +249,10 @@ public class Settings {
     @YamlKey("synchronization.save_empty_drops_on_death")
     private boolean saveEmptyDropsOnDeath = true;
 
+    @YamlComment("Interval, in seconds, at which changed online players' data is checkpointed to Redis (0 to disable)")
+    @YamlKey("synchronization.checkpoint_interval")
+    private int checkpointInterval = 0;
+
     @YamlKey("synchronization.compress_data")
     private boolean compressData = true;
 
@@ -151,6 +298,16 @@ public class Settings {
         return debugLogging;
     }
 
+    @NotNull
+    public DatabaseType getDatabaseType() {
+        return databaseType;
+    }
+
+    @NotNull
+    public String getEmbeddedDatabaseFile() {
+        return embeddedDatabaseFile;
+    }
+
     @NotNull
     public String getMySqlHost() {
         return mySqlHost;
@@ -205,6 +362,50 @@ public class Settings {
         return mySqlConnectionPoolTimeout;
     }
 
+    public int getMySqlBackgroundPoolSize() {
+        return mySqlBackgroundPoolSize;
+    }
+
+    public int getDatabaseIoThreads() {
+        return databaseIoThreads;
+    }
+
+    public boolean isReplicaEnabled() {
+        return replicaEnabled;
+    }
+
+    @NotNull
+    public String getReplicaHost() {
+        return replicaHost;
+    }
+
+    public int getReplicaPort() {
+        return replicaPort;
+    }
+
+    @NotNull
+    public String getReplicaUsername() {
+        return replicaUsername.isBlank() ? mySqlUsername : replicaUsername;
+    }
+
+    @NotNull
+    public String getReplicaPassword() {
+        return replicaPassword.isBlank() ? mySqlPassword : replicaPassword;
+    }
+
+    public int getReplicaMaxLagSeconds() {
+        return replicaMaxLagSeconds;
+    }
+
+    @NotNull
+    public List<String> getDatabaseShards() {
+        return databaseShards;
+    }
+
+    public int getPreviousShardCount() {
+        return previousShardCount;
+    }
+
     @NotNull
     public String getRedisHost() {
         return redisHost;
@@ -223,6 +424,128 @@ public class Settings {
         return redisUseSsl;
     }
 
+    @NotNull
+    public RedisTopology getRedisTopology() {
+        return redisTopology;
+    }
+
+    @NotNull
+    public String getRedisSentinelMasterName() {
+        return redisSentinelMasterName;
+    }
+
+    @NotNull
+    public List<String> getRedisSentinelNodes() {
+        return redisSentinelNodes;
+    }
+
+    @NotNull
+    public String getRedisSentinelPassword() {
+        return redisSentinelPassword;
+    }
+
+    @NotNull
+    public List<String> getRedisClusterNodes() {
+        return redisClusterNodes;
+    }
+
+    public int getRedisConnectionPoolSize() {
+        return redisConnectionPoolSize;
+    }
+
+    public int getRedisConnectionPoolIdle() {
+        return redisConnectionPoolIdle;
+    }
+
+    public long getRedisConnectionPoolTimeout() {
+        return redisConnectionPoolTimeout;
+    }
+
+    public long getRedisConnectionPoolEvictionInterval() {
+        return redisConnectionPoolEvictionInterval;
+    }
+
+    public boolean doRedisPipelining() {
+        return redisPipelining;
+    }
+
+    public boolean doSendLegacyRedisMessages() {
+        return sendLegacyRedisMessages;
+    }
+
+    public boolean doRedisWriteBehind() {
+        return redisWriteBehind;
+    }
+
+    public boolean doDeltaStorage() {
+        return deltaStorage;
+    }
+
+    public boolean doSectionStorage() {
+        return sectionStorage;
+    }
+
+    public boolean doStatisticsProjection() {
+        return statisticsProjection;
+    }
+
+    public int getArchiveAfterDays() {
+        return archiveAfterDays;
+    }
+
+    @NotNull
+    public String getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    public int getArchiveSegmentSizeMb() {
+        return archiveSegmentSizeMb;
+    }
+
+    public boolean doMaintenance() {
+        return maintenanceEnabled;
+    }
+
+    public int getMaintenanceIntervalMinutes() {
+        return maintenanceIntervalMinutes;
+    }
+
+    public int getMaintenanceChunkSize() {
+        return maintenanceChunkSize;
+    }
+
+    public long getMaintenanceChunkDelayMillis() {
+        return maintenanceChunkDelayMillis;
+    }
+
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+
+    public int getDeltaStorageKeyframeInterval() {
+        return deltaStorageKeyframeInterval;
+    }
+
+    public int getUserCacheSize() {
+        return userCacheSize;
+    }
+
+    public int getDatabaseSaveQueueBatchSize() {
+        return databaseSaveQueueBatchSize;
+    }
+
+    public int getDatabaseSaveQueueMaxPending() {
+        return databaseSaveQueueMaxPending;
+    }
+
+    public int getRedisWriteBehindBatchSize() {
+        return redisWriteBehindBatchSize;
+    }
+
+    public long getRedisWriteBehindReclaimAfter() {
+        return redisWriteBehindReclaimAfter;
+    }
+
     public int getMaxUserDataSnapshots() {
         return maxUserDataSnapshots;
     }
@@ -239,6 +562,10 @@ public class Settings {
         return saveEmptyDropsOnDeath;
     }
 
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
     public boolean doCompressData() {
         return compressData;
     }
@@ -285,7 +612,11 @@ public class Settings {
      */
     public enum TableName {
         USERS("husksync_users"),
-        USER_DATA("husksync_user_data");
+        USER_DATA("husksync_user_data"),
+        SCHEMA_VERSION("husksync_schema_version"),
+        SECTIONS("husksync_data_sections"),
+        STATISTICS("husksync_statistics"),
+        PLAYER_STATUS("husksync_player_status");
 
         private final String defaultName;
 
@@ -307,6 +638,38 @@ public class Settings {
         }
     }
 
+    /**
+     * Determines where user data is stored
+     */
+    public enum DatabaseType {
+        /**
+         * Stores data on a MySQL server, or across several MySQL shards
+         */
+        MYSQL,
+        /**
+         * Stores data in an append-only file in the plugin folder
+         */
+        EMBEDDED
+    }
+
+    /**
+     * Determines how the plugin connects to Redis
+     */
+    public enum RedisTopology {
+        /**
+         * Connects to a single Redis server
+         */
+        STANDALONE,
+        /**
+         * Connects to the master of a Sentinel-monitored group, following failovers
+         */
+        SENTINEL,
+        /**
+         * Connects to a Redis Cluster
+         */
+        CLUSTER
+    }
+
     /**
      * Determines the slot a system notification should be displayed in
      */
@@ -3,10 +3,25 @@ package net.william278.husksync.data;
 import org.jetbrains.annotations.NotNull;
 import org.xerial.snappy.Snappy;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 
 public class CompressedDataAdapter extends JsonDataAdapter {
 
+    /**
+     * Maximum size of the buffers each thread keeps to read and decompress data into. Larger data is read into buffers
+     * allocated for that read only
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> COMPRESSED_BUFFER = ThreadLocal.withInitial(
+            () -> new byte[INITIAL_BUFFER_SIZE]);
+    private static final ThreadLocal<byte[]> UNCOMPRESSED_BUFFER = ThreadLocal.withInitial(
+            () -> new byte[INITIAL_BUFFER_SIZE]);
+
     @Override
     public byte[] toBytes(@NotNull UserData data) throws DataAdaptionException {
         try {
@@ -18,8 +33,60 @@ public class CompressedDataAdapter extends JsonDataAdapter {
 
     @Override
     public @NotNull UserData fromBytes(byte[] data) throws DataAdaptionException {
+        return decompressAndParse(data, data.length);
+    }
+
+    @Override
+    public byte[] toJsonBytes(byte[] data) throws DataAdaptionException {
+        try {
+            return Snappy.uncompress(data);
+        } catch (IOException e) {
+            throw new DataAdaptionException("Failed to decompress data", e);
+        }
+    }
+
+    @Override
+    public @NotNull UserData fromStream(@NotNull InputStream stream) throws DataAdaptionException {
+        try {
+            byte[] buffer = COMPRESSED_BUFFER.get();
+            int length = 0;
+            int read;
+            while ((read = stream.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+                COMPRESSED_BUFFER.set(buffer);
+            }
+            return decompressAndParse(buffer, length);
+        } catch (IOException e) {
+            throw new DataAdaptionException("Failed to read data", e);
+        }
+    }
+
+    /**
+     * Decompress data into this thread's pooled buffer and parse it from there
+     *
+     * @param compressed the buffer holding the compressed data
+     * @param length     the length of the compressed data in the buffer
+     * @return the parsed {@link UserData}
+     * @throws DataAdaptionException if the data could not be decompressed or parsed
+     */
+    @NotNull
+    private UserData decompressAndParse(byte[] compressed, int length) throws DataAdaptionException {
         try {
-            return super.fromBytes(Snappy.uncompress(data));
+            final int uncompressedLength = Snappy.uncompressedLength(compressed, 0, length);
+            byte[] buffer = UNCOMPRESSED_BUFFER.get();
+            if (buffer.length < uncompressedLength) {
+                buffer = new byte[Math.max(uncompressedLength, Math.min(buffer.length * 2, MAX_POOLED_BUFFER_SIZE))];
+                if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+                    UNCOMPRESSED_BUFFER.set(buffer);
+                }
+            }
+            Snappy.uncompress(compressed, 0, length, buffer, 0);
+            return super.fromStream(new ByteArrayInputStream(buffer, 0, uncompressedLength));
         } catch (IOException e) {
             throw new DataAdaptionException("Failed to decompress data", e);
         }
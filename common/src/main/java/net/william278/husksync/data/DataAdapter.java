@@ -2,6 +2,10 @@ package net.william278.husksync.data;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * An adapter that adapts {@link UserData} to and from a portable byte array.
  */
@@ -37,4 +41,37 @@ public interface DataAdapter {
     @NotNull
     UserData fromBytes(final byte[] data) throws DataAdaptionException;
 
+    /**
+     * Get the UTF-8 JSON form of a byte array produced by this adapter, exactly as it was serialized.
+     * <p>
+     * The default implementation adapts the byte array and serializes the {@link UserData} again, which need not
+     * reproduce the original JSON byte-for-byte. Implementations should override this to return the JSON as stored.
+     *
+     * @param data The byte array to read the JSON of.
+     * @return The JSON bytes.
+     * @throws DataAdaptionException If an error occurred during adaptation, such as if the byte array is invalid.
+     */
+    default byte[] toJsonBytes(final byte[] data) throws DataAdaptionException {
+        return toJson(fromBytes(data), false).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Converts a stream of bytes to {@link UserData}, reading the stream to its end.
+     * <p>
+     * The default implementation reads the whole stream into a byte array and adapts it with {@link #fromBytes(byte[])}.
+     * Implementations should override this to adapt the stream without first copying it in full.
+     *
+     * @param stream The stream to adapt. The stream is not closed.
+     * @return The {@link UserData}.
+     * @throws DataAdaptionException If an error occurred during adaptation, such as if the stream could not be read.
+     */
+    @NotNull
+    default UserData fromStream(@NotNull InputStream stream) throws DataAdaptionException {
+        try {
+            return fromBytes(stream.readAllBytes());
+        } catch (IOException e) {
+            throw new DataAdaptionException("Failed to read data", e);
+        }
+    }
+
 }
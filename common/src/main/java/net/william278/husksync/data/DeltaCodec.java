@@ -0,0 +1,105 @@
+package net.william278.husksync.data;
+
+import net.william278.husksync.util.BinaryDelta;
+import org.jetbrains.annotations.NotNull;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+/**
+ * Encodes {@link UserData} as compressed deltas against the data of a previous snapshot.
+ * <p>
+ * Deltas are computed between the uncompressed JSON forms of snapshots. The JSON a delta is encoded against must be
+ * byte-for-byte identical to the JSON it is later applied to, so the base JSON of a snapshot stored in full is always
+ * the JSON in its stored bytes, read with {@link #toBaseJson(byte[])} rather than serialized again, and the base JSON of
+ * a delta-encoded snapshot is exactly the JSON that was encoded. Each delta also records a checksum of its base, so a
+ * delta applied to any other base fails rather than producing corrupt data.
+ */
+public class DeltaCodec {
+
+    private final DataAdapter dataAdapter;
+    private final JsonDataAdapter jsonAdapter;
+
+    public DeltaCodec(@NotNull DataAdapter dataAdapter) {
+        this.dataAdapter = dataAdapter;
+        this.jsonAdapter = new JsonDataAdapter();
+    }
+
+    /**
+     * Get the JSON form of user data, as encoded in a delta
+     *
+     * @param data the {@link UserData} to serialize
+     * @return the JSON bytes
+     * @throws DataAdaptionException if the data could not be serialized
+     */
+    public byte[] toJson(@NotNull UserData data) throws DataAdaptionException {
+        return jsonAdapter.toBytes(data);
+    }
+
+    /**
+     * Get the JSON form of a snapshot stored in full by the data adapter, for deltas to be encoded against
+     *
+     * @param fullData the snapshot's data, as stored by the data adapter
+     * @return the JSON bytes, exactly as stored
+     * @throws DataAdaptionException if the data could not be read
+     */
+    public byte[] toBaseJson(byte[] fullData) throws DataAdaptionException {
+        return dataAdapter.toJsonBytes(fullData);
+    }
+
+    /**
+     * Convert the JSON form of a snapshot to be stored in full by the data adapter
+     *
+     * @param json the JSON bytes
+     * @return the snapshot's data, as stored by the data adapter
+     * @throws DataAdaptionException if the data could not be adapted
+     */
+    public byte[] toFullData(byte[] json) throws DataAdaptionException {
+        return dataAdapter.toBytes(fromJson(json));
+    }
+
+    /**
+     * Parse the JSON form of a snapshot
+     *
+     * @param json the JSON bytes
+     * @return the {@link UserData}
+     * @throws DataAdaptionException if the JSON is invalid
+     */
+    @NotNull
+    public UserData fromJson(byte[] json) throws DataAdaptionException {
+        return jsonAdapter.fromBytes(json);
+    }
+
+    /**
+     * Encode the JSON form of a snapshot as a compressed delta against a base
+     *
+     * @param baseJson   the JSON the delta is encoded against
+     * @param targetJson the JSON to encode
+     * @return the compressed delta
+     * @throws DataAdaptionException if the delta could not be compressed
+     */
+    public byte[] encode(byte[] baseJson, byte[] targetJson) throws DataAdaptionException {
+        try {
+            return Snappy.compress(BinaryDelta.encode(baseJson, targetJson));
+        } catch (IOException e) {
+            throw new DataAdaptionException("Failed to compress data delta", e);
+        }
+    }
+
+    /**
+     * Apply a compressed delta to the base it was encoded against
+     *
+     * @param baseJson the JSON the delta was encoded against
+     * @param delta    the compressed delta
+     * @return the reconstructed JSON
+     * @throws DataAdaptionException if the delta is invalid or was encoded against a different base
+     */
+    public byte[] apply(byte[] baseJson, byte[] delta) throws DataAdaptionException {
+        try {
+            return BinaryDelta.apply(baseJson, Snappy.uncompress(delta));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new DataAdaptionException("Failed to apply data delta", e);
+        }
+    }
+
+}
@@ -1,9 +1,13 @@
 package net.william278.husksync.data;
 
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 
 public class JsonDataAdapter implements DataAdapter {
@@ -20,9 +24,32 @@ public class JsonDataAdapter implements DataAdapter {
 
     @Override
     public @NotNull UserData fromBytes(byte[] data) throws DataAdaptionException {
+        return parseJson(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public byte[] toJsonBytes(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public @NotNull UserData fromStream(@NotNull InputStream stream) throws DataAdaptionException {
+        return parseJson(stream);
+    }
+
+    /**
+     * Parse {@link UserData} from a stream of UTF-8 JSON, without first reading it into a string
+     *
+     * @param stream the stream to parse
+     * @return the parsed {@link UserData}
+     * @throws DataAdaptionException if the JSON is invalid or the stream could not be read
+     */
+    @NotNull
+    private UserData parseJson(@NotNull InputStream stream) throws DataAdaptionException {
         try {
-            return new GsonBuilder().create().fromJson(new String(data, StandardCharsets.UTF_8), UserData.class);
-        } catch (JsonSyntaxException e) {
+            return new GsonBuilder().create().fromJson(new InputStreamReader(stream, StandardCharsets.UTF_8),
+                    UserData.class);
+        } catch (JsonSyntaxException | JsonIOException e) {
             throw new DataAdaptionException("Failed to parse JSON data", e);
         }
     }
@@ -0,0 +1,187 @@
+package net.william278.husksync.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits {@link UserData} into content-addressed sections, so sections that are unchanged between snapshots can be
+ * stored once and shared.
+ * <p>
+ * The large sections of user data - such as the inventory, ender chest and advancements - are each serialized to JSON
+ * and identified by the SHA-256 hash of their JSON. A snapshot is stored as a compressed manifest; its JSON with each
+ * of these sections replaced by its hash.
+ */
+public class SectionCodec {
+
+    /**
+     * The names of the user data fields stored as sections, as serialized
+     */
+    public static final Set<String> SECTIONS = Set.of("inventory", "ender_chest", "advancements", "statistics",
+            "persistent_data_container");
+
+    /**
+     * The length of a section hash, in bytes
+     */
+    public static final int HASH_LENGTH = 32;
+
+    private final Gson gson;
+
+    public SectionCodec() {
+        this.gson = new GsonBuilder().create();
+    }
+
+    /**
+     * Split user data into a manifest and its sections
+     *
+     * @param data the {@link UserData} to split
+     * @return the manifest and the JSON of each section, by hash
+     * @throws DataAdaptionException if the data could not be serialized
+     */
+    @NotNull
+    public SplitData split(@NotNull UserData data) throws DataAdaptionException {
+        try {
+            final JsonObject manifest = gson.toJsonTree(data).getAsJsonObject();
+            final Map<String, byte[]> sections = new LinkedHashMap<>();
+            for (String section : SECTIONS) {
+                final JsonElement element = manifest.get(section);
+                if (element == null || element.isJsonNull()) {
+                    continue;
+                }
+                final byte[] sectionJson = gson.toJson(element).getBytes(StandardCharsets.UTF_8);
+                final String hash = hash(sectionJson);
+                sections.put(hash, sectionJson);
+                manifest.addProperty(section, hash);
+            }
+            return new SplitData(compress(gson.toJson(manifest).getBytes(StandardCharsets.UTF_8)), sections);
+        } catch (JsonParseException e) {
+            throw new DataAdaptionException("Failed to split data into sections", e);
+        }
+    }
+
+    /**
+     * Get the hashes of the sections a manifest references
+     *
+     * @param manifest the compressed manifest
+     * @return the distinct section hashes, as hex strings
+     * @throws DataAdaptionException if the manifest is invalid
+     */
+    @NotNull
+    public Set<String> getSectionHashes(byte[] manifest) throws DataAdaptionException {
+        final JsonObject manifestJson = readManifest(manifest);
+        final Set<String> hashes = new LinkedHashSet<>();
+        for (String section : SECTIONS) {
+            final JsonElement element = manifestJson.get(section);
+            if (element != null && element.isJsonPrimitive()) {
+                hashes.add(element.getAsString());
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Reassemble user data from its manifest and sections
+     *
+     * @param manifest the compressed manifest
+     * @param sections the JSON of each section the manifest references, by hash
+     * @return the reassembled {@link UserData}
+     * @throws DataAdaptionException if the manifest is invalid or a referenced section is missing
+     */
+    @NotNull
+    public UserData assemble(byte[] manifest, @NotNull Map<String, byte[]> sections) throws DataAdaptionException {
+        final JsonObject manifestJson = readManifest(manifest);
+        try {
+            for (String section : SECTIONS) {
+                final JsonElement element = manifestJson.get(section);
+                if (element == null || !element.isJsonPrimitive()) {
+                    continue;
+                }
+                final byte[] sectionJson = sections.get(element.getAsString());
+                if (sectionJson == null) {
+                    throw new DataAdaptionException("Missing data section " + element.getAsString(), null);
+                }
+                manifestJson.add(section, JsonParser.parseString(new String(sectionJson, StandardCharsets.UTF_8)));
+            }
+            return gson.fromJson(manifestJson, UserData.class);
+        } catch (JsonParseException e) {
+            throw new DataAdaptionException("Failed to reassemble data from sections", e);
+        }
+    }
+
+    /**
+     * Compress a section's JSON for storage
+     *
+     * @param data the bytes to compress
+     * @return the compressed bytes
+     * @throws DataAdaptionException if the bytes could not be compressed
+     */
+    public byte[] compress(byte[] data) throws DataAdaptionException {
+        try {
+            return Snappy.compress(data);
+        } catch (IOException e) {
+            throw new DataAdaptionException("Failed to compress data section", e);
+        }
+    }
+
+    /**
+     * Decompress a stored section's JSON
+     *
+     * @param data the compressed bytes
+     * @return the decompressed bytes
+     * @throws DataAdaptionException if the bytes could not be decompressed
+     */
+    public byte[] uncompress(byte[] data) throws DataAdaptionException {
+        try {
+            return Snappy.uncompress(data);
+        } catch (IOException e) {
+            throw new DataAdaptionException("Failed to decompress data section", e);
+        }
+    }
+
+    @NotNull
+    private JsonObject readManifest(byte[] manifest) throws DataAdaptionException {
+        try {
+            return JsonParser.parseString(new String(uncompress(manifest), StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new DataAdaptionException("Failed to parse data section manifest", e);
+        }
+    }
+
+    @NotNull
+    private static String hash(byte[] data) {
+        try {
+            final StringBuilder hash = new StringBuilder(HASH_LENGTH * 2);
+            for (byte hashByte : MessageDigest.getInstance("SHA-256").digest(data)) {
+                hash.append(Character.forDigit((hashByte >> 4) & 0xF, 16))
+                        .append(Character.forDigit(hashByte & 0xF, 16));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * User data split into sections
+     *
+     * @param manifest the compressed manifest, referencing each section by hash
+     * @param sections the JSON of each section, by hash
+     */
+    public record SplitData(byte[] manifest, @NotNull Map<String, byte[]> sections) {
+    }
+
+}
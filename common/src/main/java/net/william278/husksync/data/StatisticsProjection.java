@@ -0,0 +1,126 @@
+package net.william278.husksync.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The statistics and status fields of a snapshot's {@link UserData}, flattened into the typed rows the database ranks
+ * users by, so leaderboards can be queried without decoding every user's data
+ */
+public class StatisticsProjection {
+
+    /**
+     * The value of each statistic, by its key
+     */
+    private final Map<Key, Integer> statistics;
+
+    @Nullable
+    private final StatusData status;
+
+    private StatisticsProjection(@NotNull Map<Key, Integer> statistics, @Nullable StatusData status) {
+        this.statistics = statistics;
+        this.status = status;
+    }
+
+    /**
+     * Project the statistics and status of user data
+     *
+     * @param data the {@link UserData} to project
+     * @return the {@link StatisticsProjection} of the data
+     */
+    @NotNull
+    public static StatisticsProjection of(@NotNull UserData data) {
+        final Map<Key, Integer> statistics = new HashMap<>();
+        data.getStatistics().ifPresent(statisticsData -> {
+            if (statisticsData.untypedStatistics != null) {
+                statisticsData.untypedStatistics.forEach((statistic, value) ->
+                        statistics.put(new Key(Category.UNTYPED, statistic, ""), value));
+            }
+            putTyped(statistics, Category.BLOCK, statisticsData.blockStatistics);
+            putTyped(statistics, Category.ITEM, statisticsData.itemStatistics);
+            putTyped(statistics, Category.ENTITY, statisticsData.entityStatistics);
+        });
+        return new StatisticsProjection(statistics, data.getStatus().orElse(null));
+    }
+
+    private static void putTyped(@NotNull Map<Key, Integer> statistics, @NotNull Category category,
+                                 @Nullable Map<String, Map<String, Integer>> typedStatistics) {
+        if (typedStatistics == null) {
+            return;
+        }
+        typedStatistics.forEach((statistic, values) -> values.forEach((qualifier, value) ->
+                statistics.put(new Key(category, statistic, qualifier), value)));
+    }
+
+    /**
+     * Get the value of each projected statistic
+     *
+     * @return a map of statistic keys to their values
+     */
+    @NotNull
+    public Map<Key, Integer> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Get the projected status, if the data had any
+     *
+     * @return an optional containing the {@link StatusData}, if present
+     */
+    public Optional<StatusData> getStatus() {
+        return Optional.ofNullable(status);
+    }
+
+    /**
+     * Identifies a projected statistic
+     *
+     * @param category  The {@link Category} of the statistic
+     * @param statistic The name of the statistic, such as {@code MINE_BLOCK}
+     * @param qualifier The material or entity type of a typed statistic, such as {@code DIAMOND_ORE}, or an empty
+     *                  string for an untyped statistic
+     */
+    public record Key(@NotNull Category category, @NotNull String statistic, @NotNull String qualifier) {
+    }
+
+    /**
+     * The categories of statistics, matching the maps of {@link StatisticsData}
+     */
+    public enum Category {
+        UNTYPED,
+        BLOCK,
+        ITEM,
+        ENTITY
+    }
+
+    /**
+     * The fields of {@link StatusData} users can be ranked by
+     */
+    public enum StatusField {
+        HEALTH("health"),
+        MAX_HEALTH("max_health"),
+        HUNGER("hunger"),
+        EXPERIENCE_LEVEL("experience_level"),
+        TOTAL_EXPERIENCE("total_experience");
+
+        private final String columnName;
+
+        StatusField(@NotNull String columnName) {
+            this.columnName = columnName;
+        }
+
+        /**
+         * Get the name of the column the field is projected to
+         *
+         * @return the column name
+         */
+        @NotNull
+        public String getColumnName() {
+            return columnName;
+        }
+    }
+
+}
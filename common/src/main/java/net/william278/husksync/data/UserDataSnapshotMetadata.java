@@ -0,0 +1,20 @@
+package net.william278.husksync.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Describes a {@link UserDataSnapshot} without its {@link UserData}, for listing snapshots without reading or
+ * decoding their data
+ *
+ * @param versionUUID      The unique identifier of the snapshot's user data version
+ * @param versionTimestamp When the snapshot was created
+ * @param cause            The {@link DataSaveCause} that caused the snapshot to be saved
+ * @param pinned           Whether the snapshot is pinned, exempting it from rotation
+ * @param dataSize         The size of the snapshot's serialized data, in bytes
+ */
+public record UserDataSnapshotMetadata(@NotNull UUID versionUUID, @NotNull Date versionTimestamp,
+                                       @NotNull DataSaveCause cause, boolean pinned, long dataSize) {
+}
@@ -0,0 +1,28 @@
+package net.william278.husksync.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Indicates a queued data save was not written to the database, either because it failed or because it was shed
+ * from a full {@link DataSaveQueue}
+ */
+public class DataSaveException extends RuntimeException {
+
+    private final boolean shed;
+
+    protected DataSaveException(@NotNull String message, @Nullable Throwable cause, boolean shed) {
+        super(message, cause);
+        this.shed = shed;
+    }
+
+    /**
+     * Get whether the save was shed from a full queue without being attempted, rather than failing to be written
+     *
+     * @return whether the save was shed
+     */
+    public boolean isShed() {
+        return shed;
+    }
+
+}
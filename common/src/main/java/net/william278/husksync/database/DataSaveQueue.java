@@ -0,0 +1,397 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataSaveCause;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Queues data saves to be written to the database in batches, on two worker threads.
+ * <p>
+ * Each flush writes every save it takes in one transaction, so a burst of saves - such as on a world save - shares a
+ * connection instead of each borrowing its own. Users are flushed in order of the highest {@link SavePriority} they
+ * have queued, and all of a user's queued saves are flushed together, in the order they were queued. One worker
+ * flushes users of every priority; the other flushes only users with {@link SavePriority#HIGH high priority} saves, so
+ * the saves of users leaving the server are not held up behind a slow batch of background saves. A user's saves are
+ * only ever being flushed by one worker at a time. When the queue is full, {@link SavePriority#LOW low priority}
+ * saves are shed rather than queued.
+ * <p>
+ * A batch that fails to be written is queued again ahead of newer saves, up to {@link #MAX_SAVE_ATTEMPTS} attempts.
+ * Saves that are shed or run out of attempts complete exceptionally with a {@link DataSaveException}, so callers do
+ * not treat them as written.
+ */
+public class DataSaveQueue {
+
+    /**
+     * How long to wait for queued saves to be flushed when closing the queue
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * How many times a save is attempted before it fails
+     */
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
+    /**
+     * How long to wait after a batch fails before flushing again, so an unavailable database is not retried at once
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final HuskSync plugin;
+    private final Database database;
+    private final int batchSize;
+    private final int maxPendingSaves;
+
+    /**
+     * Users with queued saves, by the highest priority they have queued. A user may be listed at more than one
+     * priority if a higher priority save was queued after a lower one; stale entries are skipped when polled
+     */
+    private final Map<SavePriority, Deque<UUID>> scheduledUsers;
+
+    /**
+     * Each user's queued saves, in the order they were queued, and the priority their saves are scheduled at
+     */
+    private final Map<UUID, List<QueuedSave>> pendingSaves;
+    private final Map<UUID, SavePriority> scheduledPriorities;
+
+    /**
+     * Users whose saves are being flushed by a worker, who cannot be taken by the other until the flush is done
+     */
+    private final Set<UUID> flushingUsers;
+    private final List<Thread> workers;
+    private final AtomicLong shedSaves;
+    private final AtomicLong failedSaves;
+    private final AtomicLong flushes;
+    private final AtomicLong flushedSaves;
+    private final AtomicLong totalFlushMillis;
+    private volatile long lastFlushMillis;
+    private volatile boolean running;
+    private int pendingSaveCount;
+
+    protected DataSaveQueue(@NotNull HuskSync plugin, @NotNull Database database) {
+        this.plugin = plugin;
+        this.database = database;
+        this.batchSize = Math.max(1, plugin.getSettings().getDatabaseSaveQueueBatchSize());
+        this.maxPendingSaves = plugin.getSettings().getDatabaseSaveQueueMaxPending();
+        this.scheduledUsers = new EnumMap<>(SavePriority.class);
+        for (SavePriority priority : SavePriority.values()) {
+            scheduledUsers.put(priority, new ArrayDeque<>());
+        }
+        this.pendingSaves = new HashMap<>();
+        this.scheduledPriorities = new HashMap<>();
+        this.flushingUsers = new HashSet<>();
+        this.shedSaves = new AtomicLong();
+        this.failedSaves = new AtomicLong();
+        this.flushes = new AtomicLong();
+        this.flushedSaves = new AtomicLong();
+        this.totalFlushMillis = new AtomicLong();
+        this.workers = List.of(createWorker("HuskSync-DataSaveQueue", false),
+                createWorker("HuskSync-DataSaveQueue-Interactive", true));
+    }
+
+    @NotNull
+    private Thread createWorker(@NotNull String name, boolean interactive) {
+        final Thread worker = new Thread(() -> run(interactive), name);
+        worker.setDaemon(true);
+        return worker;
+    }
+
+    /**
+     * Start flushing queued saves
+     */
+    public void start() {
+        this.running = true;
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * Queue a versioned snapshot to be written to the database
+     *
+     * @param data the user and snapshot to save
+     * @return a future returning void once the save has been written, or completing exceptionally with a
+     * {@link DataSaveException} if it was shed or could not be written
+     */
+    public CompletableFuture<Void> add(@NotNull PendingUserData data) {
+        final SavePriority priority = SavePriority.of(data.snapshot().cause());
+        final QueuedSave save = new QueuedSave(data, new CompletableFuture<>(), 1);
+        synchronized (this) {
+            if (!running) {
+                save.future().completeExceptionally(new DataSaveException("The data save queue is not running",
+                        null, false));
+                return save.future();
+            }
+            if (priority == SavePriority.LOW && maxPendingSaves > 0 && pendingSaveCount >= maxPendingSaves) {
+                shedSaves.incrementAndGet();
+                save.future().completeExceptionally(new DataSaveException("The data save queue is full",
+                        null, true));
+                return save.future();
+            }
+
+            final UUID userUuid = data.user().uuid;
+            pendingSaves.computeIfAbsent(userUuid, uuid -> new ArrayList<>()).add(save);
+            pendingSaveCount++;
+            final SavePriority scheduled = scheduledPriorities.get(userUuid);
+            if (scheduled == null || priority.ordinal() < scheduled.ordinal()) {
+                scheduledPriorities.put(userUuid, priority);
+                scheduledUsers.get(priority).add(userUuid);
+            }
+            notifyAll();
+        }
+        return save.future();
+    }
+
+    private void run(boolean interactive) {
+        try {
+            while (true) {
+                final List<QueuedSave> batch = takeBatch(interactive);
+                if (batch.isEmpty()) {
+                    return;
+                }
+                if (!flush(batch)) {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            failPendingSaves();
+        }
+    }
+
+    /**
+     * Wait for saves to be queued, then take up to a batch of them, highest priority users first. Users whose saves
+     * are being flushed by the other worker are left queued until it is done
+     *
+     * @param interactive whether to take only users with high priority saves
+     * @return the saves to flush, or an empty list if the queue has been closed and drained
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private synchronized List<QueuedSave> takeBatch(boolean interactive) throws InterruptedException {
+        while (true) {
+            final List<QueuedSave> batch = new ArrayList<>();
+            for (SavePriority priority : interactive ? List.of(SavePriority.HIGH) : List.of(SavePriority.values())) {
+                final Iterator<UUID> users = scheduledUsers.get(priority).iterator();
+                while (batch.size() < batchSize && users.hasNext()) {
+                    final UUID userUuid = users.next();
+                    if (scheduledPriorities.get(userUuid) != priority) {
+                        users.remove();
+                        continue;
+                    }
+                    if (flushingUsers.contains(userUuid)) {
+                        continue;
+                    }
+                    users.remove();
+                    scheduledPriorities.remove(userUuid);
+                    final List<QueuedSave> userSaves = pendingSaves.remove(userUuid);
+                    pendingSaveCount -= userSaves.size();
+                    flushingUsers.add(userUuid);
+                    batch.addAll(userSaves);
+                }
+            }
+            if (!batch.isEmpty() || (!running && pendingSaveCount == 0 && flushingUsers.isEmpty())) {
+                return batch;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Let the users of a flushed batch be taken by either worker again
+     *
+     * @param batch the saves that were flushed
+     */
+    private synchronized void release(@NotNull List<QueuedSave> batch) {
+        batch.forEach(save -> flushingUsers.remove(save.data().user().uuid));
+        notifyAll();
+    }
+
+    /**
+     * Write a batch of saves to the database in one transaction, then update the snapshot cache. If the batch could
+     * not be written, its saves are retried or failed.
+     * <p>
+     * Each user's cached snapshot is dropped before the batch is written, and only set again once it has been
+     * committed, so a cache write failing after the commit cannot leave an older snapshot cached in its place.
+     *
+     * @param batch the saves to write
+     * @return whether the batch was written
+     */
+    private boolean flush(@NotNull List<QueuedSave> batch) {
+        final long startMillis = System.currentTimeMillis();
+        boolean written = false;
+        Throwable failure = null;
+        try {
+            final List<PendingUserData> pendingData = batch.stream().map(QueuedSave::data).toList();
+
+            // Saves are in queue order per user, so the last of each user's saves is their current snapshot
+            final Map<UUID, PendingUserData> currentData = new LinkedHashMap<>();
+            pendingData.forEach(data -> currentData.put(data.user().uuid, data));
+            currentData.values().forEach(data -> plugin.getRedisManager()
+                    .invalidateCachedUserData(data.user()).join());
+            written = database.setUserData(pendingData).join();
+            if (written) {
+                for (PendingUserData data : currentData.values()) {
+                    if (!plugin.getRedisManager().setCachedUserData(data.user(), data.snapshot()).join()) {
+                        // A read since the cache was dropped may have cached an older snapshot, so it is dropped again
+                        plugin.getRedisManager().invalidateCachedUserData(data.user()).join();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+            plugin.log(Level.SEVERE, "An exception occurred flushing queued data saves to the database", e);
+        } finally {
+            lastFlushMillis = System.currentTimeMillis() - startMillis;
+            totalFlushMillis.addAndGet(lastFlushMillis);
+            flushes.incrementAndGet();
+            flushedSaves.addAndGet(batch.size());
+        }
+        if (written) {
+            batch.forEach(save -> save.future().complete(null));
+        } else {
+            retry(batch, failure);
+        }
+        release(batch);
+        return written;
+    }
+
+    /**
+     * Queue the saves of a batch that failed to be written again, ahead of any saves their users have queued since,
+     * failing those that have run out of attempts
+     *
+     * @param batch the saves that failed to be written
+     * @param cause the exception the batch failed with, if any
+     */
+    private synchronized void retry(@NotNull List<QueuedSave> batch, @Nullable Throwable cause) {
+        final Map<UUID, List<QueuedSave>> retries = new LinkedHashMap<>();
+        for (QueuedSave save : batch) {
+            if (save.attempts() >= MAX_SAVE_ATTEMPTS) {
+                failedSaves.incrementAndGet();
+                save.future().completeExceptionally(new DataSaveException("Failed to write a data save to the "
+                                                                          + "database after " + save.attempts()
+                                                                          + " attempts", cause, false));
+                continue;
+            }
+            retries.computeIfAbsent(save.data().user().uuid, uuid -> new ArrayList<>())
+                    .add(new QueuedSave(save.data(), save.future(), save.attempts() + 1));
+        }
+        retries.forEach((userUuid, saves) -> {
+            pendingSaves.computeIfAbsent(userUuid, uuid -> new ArrayList<>()).addAll(0, saves);
+            pendingSaveCount += saves.size();
+            final SavePriority priority = saves.stream()
+                    .map(save -> SavePriority.of(save.data().snapshot().cause()))
+                    .min(Comparator.naturalOrder()).orElseThrow();
+            final SavePriority scheduled = scheduledPriorities.get(userUuid);
+            if (scheduled == null || priority.ordinal() < scheduled.ordinal()) {
+                scheduledPriorities.put(userUuid, priority);
+                scheduledUsers.get(priority).addFirst(userUuid);
+            }
+        });
+        notifyAll();
+    }
+
+    /**
+     * Fail the saves left in the queue once a worker has stopped, such as if it was interrupted while closing
+     */
+    private synchronized void failPendingSaves() {
+        pendingSaves.values().forEach(saves -> saves.forEach(save -> save.future().completeExceptionally(
+                new DataSaveException("The data save queue was closed before the save was written", null, false))));
+        pendingSaves.clear();
+        scheduledPriorities.clear();
+        scheduledUsers.values().forEach(Deque::clear);
+        pendingSaveCount = 0;
+    }
+
+    /**
+     * Returns statistics about the queue, for diagnostic purposes
+     *
+     * @return a map of statistic names to their current values
+     */
+    @NotNull
+    public Map<String, String> getStatistics() {
+        final Map<String, String> statistics = new LinkedHashMap<>();
+        synchronized (this) {
+            statistics.put("Save queue depth", Integer.toString(pendingSaveCount));
+        }
+        final long flushCount = flushes.get();
+        statistics.put("Save queue flushes", Long.toString(flushCount));
+        statistics.put("Save queue mean batch size", String.format("%.2f",
+                flushCount == 0 ? 0d : (double) flushedSaves.get() / flushCount));
+        statistics.put("Save queue mean flush latency (ms)", Long.toString(
+                flushCount == 0 ? 0 : totalFlushMillis.get() / flushCount));
+        statistics.put("Save queue last flush latency (ms)", Long.toString(lastFlushMillis));
+        statistics.put("Shed data saves", Long.toString(shedSaves.get()));
+        statistics.put("Failed data saves", Long.toString(failedSaves.get()));
+        return statistics;
+    }
+
+    /**
+     * Stop accepting saves and wait for those already queued to be flushed
+     */
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+        }
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS);
+        try {
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (workers.stream().anyMatch(Thread::isAlive)) {
+            plugin.log(Level.WARNING, "Timed out waiting for queued data saves to be written to the database");
+            workers.forEach(Thread::interrupt);
+        }
+    }
+
+    /**
+     * The priority a save is flushed with, by its {@link DataSaveCause}
+     */
+    public enum SavePriority {
+        /**
+         * Saves of users leaving the server, which must be written before they can be loaded elsewhere
+         */
+        HIGH,
+        NORMAL,
+        /**
+         * Periodic saves, which are shed when the queue is full
+         */
+        LOW;
+
+        @NotNull
+        public static SavePriority of(@NotNull DataSaveCause cause) {
+            return switch (cause) {
+                case DISCONNECT, SERVER_SHUTDOWN -> HIGH;
+                case WORLD_SAVE -> LOW;
+                default -> NORMAL;
+            };
+        }
+    }
+
+    private record QueuedSave(@NotNull PendingUserData data, @NotNull CompletableFuture<Void> future, int attempts) {
+    }
+
+}
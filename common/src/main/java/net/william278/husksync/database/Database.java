@@ -3,19 +3,32 @@ package net.william278.husksync.database;
 import net.william278.husksync.HuskSync;
 import net.william278.husksync.config.Settings;
 import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.StatisticsProjection;
 import net.william278.husksync.data.UserData;
 import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.data.UserDataSnapshotMetadata;
 import net.william278.husksync.migrator.Migrator;
 import net.william278.husksync.player.User;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * An abstract representation of the plugin database, storing player data.
@@ -24,10 +37,78 @@ import java.util.concurrent.CompletableFuture;
  */
 public abstract class Database {
 
+    /**
+     * The version of the database schema this version of the plugin uses.
+     * <p>
+     * Each version above 1 has a migration script upgrading the schema from the previous version in place.
+     */
+    protected static final int SCHEMA_VERSION = 8;
+
+    /**
+     * The deepest rank a page of a leaderboard may reach, bounding the rows read to rank it across shards
+     */
+    public static final int MAX_LEADERBOARD_DEPTH = 10000;
+
     protected final HuskSync plugin;
 
+    /**
+     * The queue data saves are written to the database through, once it has been started by {@link #initialize()}
+     */
+    @Nullable
+    private volatile DataSaveQueue saveQueue;
+
+    /**
+     * Cache of the users registered in the database
+     */
+    protected final UserRegistry userRegistry;
+
+    /**
+     * The engine global maintenance jobs are run through
+     */
+    protected final MaintenanceEngine maintenance;
+
+    /**
+     * The bounded pools of threads blocking database operations run on for each {@link Workload}, so they queue for a
+     * connection without tying up the threads of the common pool, and background work cannot delay interactive work.
+     * Empty if the database has no threads of its own
+     */
+    private final Map<Workload, ThreadPoolExecutor> executors;
+
     protected Database(@NotNull HuskSync plugin) {
+        this(plugin, new UserRegistry(plugin.getSettings().getUserCacheSize()));
+    }
+
+    /**
+     * Create a database caching users in the given registry, such as one shared with other databases
+     *
+     * @param plugin       the plugin instance
+     * @param userRegistry the {@link UserRegistry} to cache users in
+     */
+    protected Database(@NotNull HuskSync plugin, @NotNull UserRegistry userRegistry) {
+        this(plugin, userRegistry, true);
+    }
+
+    /**
+     * Create a database caching users in the given registry, optionally without threads of its own, such as one only
+     * delegating its operations to other databases
+     *
+     * @param plugin       the plugin instance
+     * @param userRegistry the {@link UserRegistry} to cache users in
+     * @param ownThreads   whether the database runs blocking operations on threads of its own
+     */
+    protected Database(@NotNull HuskSync plugin, @NotNull UserRegistry userRegistry, boolean ownThreads) {
         this.plugin = plugin;
+        this.executors = new EnumMap<>(Workload.class);
+        if (ownThreads) {
+            executors.put(Workload.INTERACTIVE, createExecutor("HuskSync-Database-",
+                    plugin.getSettings().getDatabaseIoThreads() > 0 ? plugin.getSettings().getDatabaseIoThreads()
+                            : Math.max(1, plugin.getSettings().getMySqlConnectionPoolSize())));
+            executors.put(Workload.BACKGROUND, createExecutor("HuskSync-Database-Background-",
+                    Math.max(1, plugin.getSettings().getMySqlBackgroundPoolSize())
+                    * (plugin.getSettings().isReplicaEnabled() ? 2 : 1)));
+        }
+        this.userRegistry = userRegistry;
+        this.maintenance = new MaintenanceEngine(plugin);
     }
 
     /**
@@ -37,10 +118,11 @@ public abstract class Database {
      * @return Array of string-formatted table creation schema statements
      * @throws IOException if the resource could not be read
      */
-    @SuppressWarnings("SameParameterValue")
     protected final String[] getSchemaStatements(@NotNull String schemaFileName) throws IOException {
-        return formatStatementTables(new String(Objects.requireNonNull(plugin.getResource(schemaFileName))
-                .readAllBytes(), StandardCharsets.UTF_8)).split(";");
+        return Arrays.stream(formatStatementTables(new String(Objects.requireNonNull(plugin.getResource(schemaFileName))
+                .readAllBytes(), StandardCharsets.UTF_8)).split(";"))
+                .filter(statement -> !statement.isBlank())
+                .toArray(String[]::new);
     }
 
     /**
@@ -51,7 +133,118 @@ public abstract class Database {
      */
     protected final String formatStatementTables(@NotNull String sql) {
         return sql.replaceAll("%users_table%", plugin.getSettings().getTableName(Settings.TableName.USERS))
-                .replaceAll("%user_data_table%", plugin.getSettings().getTableName(Settings.TableName.USER_DATA));
+                .replaceAll("%user_data_table%", plugin.getSettings().getTableName(Settings.TableName.USER_DATA))
+                .replaceAll("%schema_version_table%", plugin.getSettings().getTableName(Settings.TableName.SCHEMA_VERSION))
+                .replaceAll("%sections_table%", plugin.getSettings().getTableName(Settings.TableName.SECTIONS))
+                .replaceAll("%statistics_table%", plugin.getSettings().getTableName(Settings.TableName.STATISTICS))
+                .replaceAll("%player_status_table%", plugin.getSettings().getTableName(Settings.TableName.PLAYER_STATUS));
+    }
+
+    @NotNull
+    private static ThreadPoolExecutor createExecutor(@NotNull String threadName, int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, threadName + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Get the threads blocking database operations of a workload run on
+     *
+     * @param workload the {@link Workload}
+     * @return the executor
+     * @throws IllegalStateException if the database has no threads of its own
+     */
+    @NotNull
+    protected final Executor getExecutor(@NotNull Workload workload) {
+        final Executor executor = executors.get(workload);
+        if (executor == null) {
+            throw new IllegalStateException("This database has no threads of its own to run operations on");
+        }
+        return executor;
+    }
+
+    /**
+     * Run a blocking database operation on the database's own threads for its workload
+     *
+     * @param workload the {@link Workload} the operation is part of
+     * @param supplier the operation to run
+     * @param <T>      the type of the operation's result
+     * @return a future returning the result of the operation
+     */
+    protected final <T> CompletableFuture<T> supplyAsync(@NotNull Workload workload, @NotNull Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, getExecutor(workload));
+    }
+
+    /**
+     * Run a blocking database operation on the database's own threads for its workload
+     *
+     * @param workload the {@link Workload} the operation is part of
+     * @param runnable the operation to run
+     * @return a future returning void when complete
+     */
+    protected final CompletableFuture<Void> runAsync(@NotNull Workload workload, @NotNull Runnable runnable) {
+        return CompletableFuture.runAsync(runnable, getExecutor(workload));
+    }
+
+    /**
+     * Get the {@link Workload} a batch of saves is part of; batches saving the data of users leaving the server are
+     * interactive, as players may be waiting to load it
+     *
+     * @param pendingData the batch of saves
+     * @return the workload
+     */
+    @NotNull
+    protected static Workload getSaveWorkload(@NotNull List<PendingUserData> pendingData) {
+        return pendingData.stream().anyMatch(data -> DataSaveQueue.SavePriority
+                .of(data.snapshot().cause()) == DataSaveQueue.SavePriority.HIGH)
+                ? Workload.INTERACTIVE : Workload.BACKGROUND;
+    }
+
+    /**
+     * Start the queue data saves are written to the database through. This is called once the database has been
+     * initialized, so the queue never sees a partially constructed database
+     */
+    protected final void startSaveQueue() {
+        final DataSaveQueue queue = new DataSaveQueue(plugin, this);
+        queue.start();
+        saveQueue = queue;
+    }
+
+    /**
+     * Queue a versioned snapshot to be written to the database through the save queue
+     *
+     * @param data the user and snapshot to save
+     * @return a future returning void once the save has been written, or completing exceptionally with a
+     * {@link DataSaveException} if it was shed or could not be written
+     */
+    protected final CompletableFuture<Void> queueSave(@NotNull PendingUserData data) {
+        final DataSaveQueue queue = saveQueue;
+        if (queue == null) {
+            return CompletableFuture.failedFuture(new DataSaveException("The database has not been initialized",
+                    null, false));
+        }
+        return queue.add(data);
+    }
+
+    /**
+     * Stop accepting saves and wait for those already queued to be written, if the save queue was started
+     */
+    protected final void closeSaveQueue() {
+        final DataSaveQueue queue = saveQueue;
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    /**
+     * Stop the database's threads once the operations already submitted have run
+     */
+    protected final void shutdownExecutor() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
     }
 
     /**
@@ -93,6 +286,18 @@ public abstract class Database {
      */
     public abstract CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserData(@NotNull User user);
 
+    /**
+     * Get the current uniquely versioned user data for a given user, if it exists, for a read that tolerates data a few
+     * seconds out of date, such as to display it. Unlike {@link #getCurrentUserData(User)}, this may be served from a
+     * read replica.
+     *
+     * @param user the user to get data for
+     * @return an optional containing the {@link UserDataSnapshot}, if it exists, or an empty optional if it does not
+     */
+    public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserDataForDisplay(@NotNull User user) {
+        return getCurrentUserData(user);
+    }
+
     /**
      * Get all {@link UserDataSnapshot} entries for a user from the database.
      *
@@ -101,6 +306,14 @@ public abstract class Database {
      */
     public abstract CompletableFuture<List<UserDataSnapshot>> getUserData(@NotNull User user);
 
+    /**
+     * Get the metadata of all {@link UserDataSnapshot} entries for a user from the database, without reading their data.
+     *
+     * @param user The user to get snapshot metadata for
+     * @return A future returning a list of a user's {@link UserDataSnapshotMetadata}, newest first
+     */
+    public abstract CompletableFuture<List<UserDataSnapshotMetadata>> getUserDataMetadata(@NotNull User user);
+
     /**
      * Gets a specific {@link UserDataSnapshot} entry for a user from the database, by its UUID.
      *
@@ -133,11 +346,24 @@ public abstract class Database {
      *
      * @param user     The user to add data for
      * @param userData The {@link UserData} to set. The implementation should version it with a random UUID and the current timestamp during insertion.
-     * @return A future returning void when complete
+     * @return A future returning void when complete. Saves are written through the {@link DataSaveQueue}, so this
+     * completes once the save has been written, or exceptionally with a {@link DataSaveException} if it was shed or
+     * could not be written
      * @see UserDataSnapshot#create(UserData)
      */
     public abstract CompletableFuture<Void> setUserData(@NotNull User user, @NotNull UserData userData, @NotNull DataSaveCause dataSaveCause);
 
+    /**
+     * Save a batch of already-versioned user data snapshots to the database in a single transaction.
+     * <p>
+     * Snapshots that have already been saved are skipped, so a batch may safely be retried. Unlike
+     * {@link #setUserData(User, UserData, DataSaveCause)}, this does not fire a data save event.
+     *
+     * @param pendingData The {@link PendingUserData} snapshots to save
+     * @return A future returning a boolean; {@code true} if the batch was committed, {@code false} if it failed
+     */
+    public abstract CompletableFuture<Boolean> setUserData(@NotNull List<PendingUserData> pendingData);
+
     /**
      * Pin a saved {@link UserDataSnapshot} by given version UUID, setting it's {@code pinned} state to {@code true}.
      *
@@ -158,6 +384,66 @@ public abstract class Database {
      */
     public abstract CompletableFuture<Void> unpinUserData(@NotNull User user, @NotNull UUID versionUuid);
 
+    /**
+     * Get a page of the leaderboard ranking users by a statistic of their current {@link UserData}, highest first, from
+     * the statistics projection.
+     * <p>
+     * The default implementation fails, as only databases keeping a statistics projection support leaderboards.
+     *
+     * @param key    the {@link StatisticsProjection.Key} of the statistic to rank users by
+     * @param offset the number of entries to skip
+     * @param limit  the maximum number of entries to return; {@code offset + limit} may be at most
+     *               {@link #MAX_LEADERBOARD_DEPTH}
+     * @return A future returning the {@link LeaderboardEntry}s of the page, or completing exceptionally if the
+     * leaderboard could not be read
+     * @throws IllegalArgumentException if the offset or limit is negative, or the page ends deeper than
+     *                                  {@link #MAX_LEADERBOARD_DEPTH}
+     */
+    public CompletableFuture<List<LeaderboardEntry>> getStatisticLeaderboard(@NotNull StatisticsProjection.Key key,
+                                                                            int offset, int limit) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(
+                "Leaderboards are not supported by this database"));
+    }
+
+    /**
+     * Get a page of the leaderboard ranking users by a status field of their current {@link UserData}, highest first,
+     * from the statistics projection.
+     * <p>
+     * The default implementation fails, as only databases keeping a statistics projection support leaderboards.
+     *
+     * @param field  the {@link StatisticsProjection.StatusField} to rank users by
+     * @param offset the number of entries to skip
+     * @param limit  the maximum number of entries to return; {@code offset + limit} may be at most
+     *               {@link #MAX_LEADERBOARD_DEPTH}
+     * @return A future returning the {@link LeaderboardEntry}s of the page, or completing exceptionally if the
+     * leaderboard could not be read
+     * @throws IllegalArgumentException if the offset or limit is negative, or the page ends deeper than
+     *                                  {@link #MAX_LEADERBOARD_DEPTH}
+     */
+    public CompletableFuture<List<LeaderboardEntry>> getStatusLeaderboard(@NotNull StatisticsProjection.StatusField field,
+                                                                         int offset, int limit) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(
+                "Leaderboards are not supported by this database"));
+    }
+
+    /**
+     * Check a page of a leaderboard is in range, before it is read
+     *
+     * @param offset the number of entries to skip
+     * @param limit  the maximum number of entries to return
+     * @throws IllegalArgumentException if the offset or limit is negative, or the page ends deeper than
+     *                                  {@link #MAX_LEADERBOARD_DEPTH}
+     */
+    protected static void checkLeaderboardPage(int offset, int limit) throws IllegalArgumentException {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Leaderboard offset and limit must not be negative");
+        }
+        if ((long) offset + limit > MAX_LEADERBOARD_DEPTH) {
+            throw new IllegalArgumentException("Leaderboards are ranked to a depth of " + MAX_LEADERBOARD_DEPTH
+                                               + " entries");
+        }
+    }
+
     /**
      * Wipes <b>all</b> {@link UserData} entries from the database.
      * <b>This should never be used</b>, except when preparing tables for migration.
@@ -167,9 +453,66 @@ public abstract class Database {
      */
     public abstract CompletableFuture<Void> wipeDatabase();
 
+    /**
+     * Returns statistics about the queue data saves are written through, the user cache, database operations and
+     * maintenance jobs, for diagnostic purposes
+     *
+     * @return a map of statistic names to their current values
+     */
+    @NotNull
+    public Map<String, String> getStatistics() {
+        final DataSaveQueue queue = saveQueue;
+        final Map<String, String> statistics = queue != null ? queue.getStatistics() : new LinkedHashMap<>();
+        statistics.put("Cached users", Integer.toString(userRegistry.size()));
+        executors.forEach((workload, executor) -> {
+            statistics.put(workload.getName() + " database operations running",
+                    Integer.toString(executor.getActiveCount()));
+            statistics.put(workload.getName() + " database operations queued",
+                    Integer.toString(executor.getQueue().size()));
+        });
+        statistics.putAll(maintenance.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * Get the cache of the users registered in the database
+     *
+     * @return the {@link UserRegistry}
+     */
+    @NotNull
+    public UserRegistry getUserRegistry() {
+        return userRegistry;
+    }
+
     /**
      * Close the database connection
      */
     public abstract void close();
 
+    /**
+     * The kinds of database work, each run on its own threads and connections so background work cannot starve the
+     * work players are waiting on
+     */
+    protected enum Workload {
+        /**
+         * Work a player is waiting on; reading their data as they join and saving it as they leave
+         */
+        INTERACTIVE("Interactive"),
+        /**
+         * Work no player is waiting on, such as world saves, commands, hooks, migrators and maintenance
+         */
+        BACKGROUND("Background");
+
+        private final String name;
+
+        Workload(@NotNull String name) {
+            this.name = name;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+    }
+
 }
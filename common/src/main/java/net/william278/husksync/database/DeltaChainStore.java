@@ -0,0 +1,379 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.data.DataAdapter;
+import net.william278.husksync.data.DataAdaptionException;
+import net.william278.husksync.data.DeltaCodec;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Encodes and reconstructs the delta chains of snapshots stored in a {@link MySqlDatabase}.
+ * <p>
+ * A delta-encoded snapshot stores only its difference from the snapshot before it; a chain of deltas starts at a
+ * keyframe stored in full, and a new keyframe is written once a chain reaches the configured interval. Statements run
+ * on the connection passed in, so chains are read and rewritten in the same transaction as the snapshots they hold.
+ */
+class DeltaChainStore {
+
+    /**
+     * Maximum number of users whose newest snapshot is kept in memory, to encode their next snapshot against
+     */
+    private static final int MAX_CACHED_CHAIN_HEADS = 1000;
+
+    private final MySqlDatabase database;
+    private final DeltaCodec codec;
+    private final int keyframeInterval;
+
+    /**
+     * The newest snapshot written by this server for each user, in the form their next snapshot is encoded against
+     */
+    private final Map<UUID, ChainHead> chainHeads;
+
+    DeltaChainStore(@NotNull MySqlDatabase database, @NotNull DataAdapter dataAdapter, int keyframeInterval) {
+        this.database = database;
+        this.codec = new DeltaCodec(dataAdapter);
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.chainHeads = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, ChainHead> eldest) {
+                return size() > MAX_CACHED_CHAIN_HEADS;
+            }
+        });
+    }
+
+    @Nullable
+    static UUID readDeltaBase(@NotNull ResultSet resultSet) throws SQLException {
+        final byte[] deltaBase = resultSet.getBytes("delta_base");
+        return deltaBase == null ? null : MySqlDatabase.fromBinary(deltaBase);
+    }
+
+    @NotNull
+    static StoredData readStoredData(@NotNull ResultSet resultSet) throws SQLException {
+        return new StoredData(readDeltaBase(resultSet), resultSet.getBoolean("sectioned"), resultSet.getBytes("data"));
+    }
+
+    /**
+     * Encode a snapshot against the user's previous snapshot, unless a keyframe is due or it is smaller in full.
+     * Pinned snapshots are stored in full, as when pinned after being saved
+     *
+     * @param connection   the connection to read the user's chain on
+     * @param userUuid     the UUID of the user
+     * @param snapshot     the snapshot to encode
+     * @param fullData     the snapshot's data, as it is stored in full
+     * @param writtenHeads the heads written earlier in the same batch, which the snapshot's head is added to
+     * @return the snapshot's encoded data
+     * @throws SQLException if the user's chain could not be read
+     */
+    @NotNull
+    EncodedData encode(@NotNull Connection connection, @NotNull UUID userUuid, @NotNull UserDataSnapshot snapshot,
+                       byte[] fullData, @NotNull Map<UUID, ChainHead> writtenHeads)
+            throws SQLException, DataAdaptionException {
+        final byte[] json = codec.toJson(snapshot.userData());
+        final Optional<ChainHead> head = writtenHeads.containsKey(userUuid)
+                ? Optional.of(writtenHeads.get(userUuid)) : getChainHead(connection, userUuid);
+        EncodedData encoded = new EncodedData(null, 0, fullData);
+        if (head.isPresent() && !snapshot.pinned() && head.get().chainLength() + 1 < keyframeInterval) {
+            final byte[] delta = codec.encode(head.get().json(), json);
+            if (delta.length < fullData.length) {
+                encoded = new EncodedData(head.get().versionUuid(), head.get().chainLength() + 1, delta);
+            }
+        }
+        writtenHeads.put(userUuid, new ChainHead(snapshot.versionUUID(),
+                encoded.deltaBase() == null ? codec.toBaseJson(fullData) : json, encoded.chainLength()));
+        return encoded;
+    }
+
+    /**
+     * Read the stored data of each of a player's snapshots, to reconstruct delta-encoded snapshots from. Archived
+     * snapshots are never encoded against, so are not read
+     *
+     * @param connection the connection to read data on
+     * @param playerUuid the UUID of the player whose snapshots to read
+     * @return a map of version UUIDs to stored snapshot data
+     * @throws SQLException if the statement fails
+     */
+    @NotNull
+    Map<UUID, StoredData> selectStoredData(@NotNull Connection connection,
+                                           @NotNull UUID playerUuid) throws SQLException {
+        final Map<UUID, StoredData> storedData = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `version_uuid`, `delta_base`, `sectioned`, `data`
+                FROM `%user_data_table%`
+                WHERE `player_uuid`=? AND `archive_segment` IS NULL;"""))) {
+            statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                storedData.put(MySqlDatabase.fromBinary(resultSet.getBytes("version_uuid")),
+                        readStoredData(resultSet));
+            }
+        }
+        return storedData;
+    }
+
+    /**
+     * Reconstruct a delta-encoded snapshot, reading only the snapshots in its chain
+     *
+     * @param connection the connection to read the snapshot's chain on
+     * @param stored     the snapshot's stored data, which must be delta-encoded
+     * @return the reconstructed {@link UserData}
+     * @throws SQLException if the snapshot's chain could not be read
+     */
+    @NotNull
+    UserData decode(@NotNull Connection connection,
+                    @NotNull StoredData stored) throws SQLException, DataAdaptionException {
+        final UUID deltaBase = Objects.requireNonNull(stored.deltaBase(), "The snapshot is not delta-encoded");
+        final byte[] baseJson = resolveJson(deltaBase, selectDeltaChain(connection, deltaBase), new HashMap<>());
+        return codec.fromJson(codec.apply(baseJson, stored.data()));
+    }
+
+    /**
+     * Reconstruct a delta-encoded snapshot from the stored data of the player's snapshots
+     *
+     * @param versionUuid the version UUID of the snapshot
+     * @param storedData  the stored data of the player's snapshots
+     * @param resolved    snapshots already reconstructed, which are reused and added to
+     * @return the reconstructed {@link UserData}
+     * @throws DataAdaptionException if the chain is broken or a delta could not be applied
+     */
+    @NotNull
+    UserData decode(@NotNull UUID versionUuid, @NotNull Map<UUID, StoredData> storedData,
+                    @NotNull Map<UUID, byte[]> resolved) throws DataAdaptionException {
+        return codec.fromJson(resolveJson(versionUuid, storedData, resolved));
+    }
+
+    /**
+     * Read the stored data of the snapshots in a delta chain, from a snapshot back to the keyframe the chain starts at,
+     * so the snapshot can be reconstructed without reading the player's other snapshots
+     *
+     * @param connection  the connection to read data on
+     * @param versionUuid the version UUID of the snapshot at the end of the chain
+     * @return a map of version UUIDs to stored snapshot data, of the snapshots in the chain that could be read
+     * @throws SQLException if the statement fails
+     */
+    @NotNull
+    private Map<UUID, StoredData> selectDeltaChain(@NotNull Connection connection,
+                                                   @NotNull UUID versionUuid) throws SQLException {
+        final Map<UUID, StoredData> chain = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `delta_base`, `sectioned`, `data`
+                FROM `%user_data_table%`
+                WHERE `version_uuid`=? AND `archive_segment` IS NULL;"""))) {
+            UUID current = versionUuid;
+            while (current != null && !chain.containsKey(current)) {
+                statement.setBytes(1, MySqlDatabase.toBinary(current));
+                final ResultSet resultSet = statement.executeQuery();
+                if (!resultSet.next()) {
+                    break;
+                }
+                final StoredData stored = readStoredData(resultSet);
+                chain.put(current, stored);
+                current = stored.deltaBase();
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Reconstruct the JSON form of a snapshot, by applying the deltas in its chain to the keyframe the chain starts at
+     *
+     * @param versionUuid the version UUID of the snapshot
+     * @param storedData  the stored data of the player's snapshots
+     * @param resolved    snapshots already reconstructed, which are reused and added to
+     * @return the snapshot's JSON form
+     * @throws DataAdaptionException if the chain is broken or a delta could not be applied
+     */
+    private byte[] resolveJson(@NotNull UUID versionUuid, @NotNull Map<UUID, StoredData> storedData,
+                               @NotNull Map<UUID, byte[]> resolved) throws DataAdaptionException {
+        final Deque<UUID> chain = new ArrayDeque<>();
+        UUID current = versionUuid;
+        while (!resolved.containsKey(current)) {
+            final StoredData stored = storedData.get(current);
+            if (stored == null || chain.size() > storedData.size()) {
+                throw new IllegalStateException("The delta chain of snapshot " + versionUuid + " is broken");
+            }
+            if (stored.deltaBase() == null) {
+                resolved.put(current, codec.toBaseJson(stored.data()));
+                break;
+            }
+            chain.push(current);
+            current = stored.deltaBase();
+        }
+
+        byte[] json = resolved.get(current);
+        while (!chain.isEmpty()) {
+            final UUID next = chain.pop();
+            json = codec.apply(json, storedData.get(next).data());
+            resolved.put(next, json);
+        }
+        return json;
+    }
+
+    /**
+     * Get the newest snapshot in a player's chain, to encode their next snapshot against
+     *
+     * @param connection the connection to read the chain on
+     * @param playerUuid the UUID of the player
+     * @return the newest snapshot, or an empty optional if the next snapshot should be stored in full
+     * @throws SQLException if the statement fails
+     */
+    private Optional<ChainHead> getChainHead(@NotNull Connection connection,
+                                             @NotNull UUID playerUuid) throws SQLException, DataAdaptionException {
+        final UUID currentVersion;
+        final int chainLength;
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `version_uuid`, `chain_length`, `sectioned`, `archive_segment`
+                FROM `%users_table%`
+                INNER JOIN `%user_data_table%`
+                    ON `%user_data_table%`.`version_uuid`=`%users_table%`.`current_version`
+                WHERE `uuid`=?;"""))) {
+            statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+            final ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next() || resultSet.getBoolean("sectioned")
+                || resultSet.getBytes("archive_segment") != null) {
+                return Optional.empty();
+            }
+            currentVersion = MySqlDatabase.fromBinary(resultSet.getBytes("version_uuid"));
+            chainLength = resultSet.getInt("chain_length");
+        }
+        if (chainLength + 1 >= keyframeInterval) {
+            return Optional.empty();
+        }
+
+        // Reconstruct the current snapshot if it has been written or rewritten since this server last wrote it
+        final ChainHead cachedHead = chainHeads.get(playerUuid);
+        if (cachedHead != null && cachedHead.versionUuid().equals(currentVersion)
+            && cachedHead.chainLength() == chainLength) {
+            return Optional.of(cachedHead);
+        }
+        return Optional.of(new ChainHead(currentVersion, resolveJson(currentVersion,
+                selectDeltaChain(connection, currentVersion), new HashMap<>()), chainLength));
+    }
+
+    /**
+     * Rewrite a delta-encoded snapshot in full, re-encoding the snapshots encoded against it so their chains stay intact
+     *
+     * @param connection  the connection to write on
+     * @param versionUuid the version UUID of the snapshot to rewrite
+     * @param storedData  the stored data of the player's snapshots
+     * @throws SQLException if a statement fails
+     */
+    void rewriteAsKeyframe(@NotNull Connection connection, @NotNull UUID versionUuid,
+                           @NotNull Map<UUID, StoredData> storedData) throws SQLException, DataAdaptionException {
+        final StoredData stored = storedData.get(versionUuid);
+        if (stored == null || stored.deltaBase() == null) {
+            return;
+        }
+        final Map<UUID, byte[]> resolved = new HashMap<>();
+        final byte[] fullData = codec.toFullData(resolveJson(versionUuid, storedData, resolved));
+        updateStoredData(connection, versionUuid, null, 0, fullData);
+
+        final byte[] baseJson = codec.toBaseJson(fullData);
+        for (Map.Entry<UUID, StoredData> entry : storedData.entrySet()) {
+            if (versionUuid.equals(entry.getValue().deltaBase())) {
+                updateStoredData(connection, entry.getKey(), versionUuid, 1,
+                        codec.encode(baseJson, resolveJson(entry.getKey(), storedData, resolved)));
+            }
+        }
+
+        // The chains of deeper dependents now start at the rewritten snapshot, so their lengths are shortened to match
+        final Map<UUID, Integer> chainLengths = new HashMap<>();
+        final Deque<UUID> dependents = new ArrayDeque<>();
+        storedData.forEach((dependent, data) -> {
+            if (versionUuid.equals(data.deltaBase())) {
+                chainLengths.put(dependent, 1);
+                dependents.add(dependent);
+            }
+        });
+        while (!dependents.isEmpty()) {
+            final UUID base = dependents.poll();
+            storedData.forEach((dependent, data) -> {
+                if (base.equals(data.deltaBase()) && !chainLengths.containsKey(dependent)) {
+                    chainLengths.put(dependent, chainLengths.get(base) + 1);
+                    dependents.add(dependent);
+                }
+            });
+        }
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                UPDATE `%user_data_table%`
+                SET `chain_length`=?
+                WHERE `version_uuid`=?;"""))) {
+            for (Map.Entry<UUID, Integer> chainLength : chainLengths.entrySet()) {
+                if (chainLength.getValue() > 1) {
+                    statement.setInt(1, chainLength.getValue());
+                    statement.setBytes(2, MySqlDatabase.toBinary(chainLength.getKey()));
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void updateStoredData(@NotNull Connection connection, @NotNull UUID versionUuid, @Nullable UUID deltaBase,
+                                  int chainLength, byte[] data) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                UPDATE `%user_data_table%`
+                SET `delta_base`=?, `chain_length`=?, `data_size`=?, `data`=?
+                WHERE `version_uuid`=?;"""))) {
+            statement.setBytes(1, deltaBase == null ? null : MySqlDatabase.toBinary(deltaBase));
+            statement.setInt(2, chainLength);
+            statement.setInt(3, data.length);
+            statement.setBlob(4, new ByteArrayInputStream(data));
+            statement.setBytes(5, MySqlDatabase.toBinary(versionUuid));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Remember the heads written in a committed batch, to encode each user's next snapshot against
+     *
+     * @param writtenHeads the heads written, by user UUID
+     */
+    void cacheHeads(@NotNull Map<UUID, ChainHead> writtenHeads) {
+        chainHeads.putAll(writtenHeads);
+    }
+
+    /**
+     * Forget the cached head of a user's chain, such as when their current snapshot changes without a save
+     *
+     * @param playerUuid the UUID of the user
+     */
+    void forgetHead(@NotNull UUID playerUuid) {
+        chainHeads.remove(playerUuid);
+    }
+
+    /**
+     * Forget the cached head of every user's chain, such as when the database is wiped
+     */
+    void clearHeads() {
+        chainHeads.clear();
+    }
+
+    /**
+     * A snapshot's stored data; either its data in full, a delta against the snapshot it is encoded against, or a
+     * manifest referencing its sections
+     */
+    record StoredData(@Nullable UUID deltaBase, boolean sectioned, byte[] data) {
+    }
+
+    /**
+     * A snapshot's data as it is written; either in full, or as a delta against the snapshot it is encoded against
+     */
+    record EncodedData(@Nullable UUID deltaBase, int chainLength, byte[] data) {
+    }
+
+    /**
+     * The newest snapshot in a user's chain, with its JSON form and the number of deltas since the last keyframe
+     */
+    record ChainHead(@NotNull UUID versionUuid, byte[] json, int chainLength) {
+    }
+
+}
@@ -0,0 +1,927 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataAdaptionException;
+import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.data.UserDataSnapshotMetadata;
+import net.william278.husksync.event.DataSaveEvent;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * A database storing user data in an append-only log file in the plugin folder, for a single server without a MySQL
+ * server.
+ * <p>
+ * Every change - registering a user, or saving, pinning or deleting a snapshot - is appended to the log as a
+ * checksummed record. The log is replayed into an in-memory index on startup, and the data of each snapshot is read
+ * from the log by its offset, so reads never leave the machine. A record torn by a crash is discarded on replay. Once
+ * more of the log is superseded records than live ones, it is compacted by rewriting the live records to a new file.
+ */
+public class EmbeddedDatabase extends Database {
+
+    private static final byte USER_RECORD = 1;
+    private static final byte SNAPSHOT_RECORD = 2;
+    private static final byte PIN_RECORD = 3;
+    private static final byte DELETE_RECORD = 4;
+
+    /**
+     * The length of a record's type and payload length, before its payload
+     */
+    private static final int RECORD_HEADER_LENGTH = 5;
+
+    /**
+     * The length of a record's checksum, after its payload
+     */
+    private static final int RECORD_FOOTER_LENGTH = 4;
+
+    /**
+     * The largest payload a snapshot record may have, so a snapshot's data is limited to a little less
+     */
+    private static final int MAX_SNAPSHOT_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * The longest username a user record may hold, in UTF-8 bytes
+     */
+    private static final int MAX_USERNAME_LENGTH = 255;
+
+    /**
+     * The size the log must reach before it is compacted
+     */
+    private static final long MIN_COMPACTION_SIZE = 4 * 1024 * 1024;
+
+    private final File file;
+    private final ReadWriteLock lock;
+
+    /**
+     * Every registered user, by UUID, with their snapshots
+     */
+    private final NavigableMap<UUID, StoredUser> users;
+
+    /**
+     * Every snapshot, by version UUID
+     */
+    private final Map<UUID, StoredSnapshot> snapshots;
+
+    private FileChannel channel;
+
+    /**
+     * The length of the log; where the next record is appended
+     */
+    private long size;
+
+    /**
+     * The length of the records in the log that have not been superseded
+     */
+    private long liveSize;
+
+    public EmbeddedDatabase(@NotNull HuskSync plugin) {
+        super(plugin);
+        final File configuredFile = new File(plugin.getSettings().getEmbeddedDatabaseFile());
+        this.file = configuredFile.isAbsolute() ? configuredFile
+                : new File(plugin.getDataFolder(), plugin.getSettings().getEmbeddedDatabaseFile());
+        this.lock = new ReentrantReadWriteLock();
+        this.users = new TreeMap<>();
+        this.snapshots = new HashMap<>();
+    }
+
+    @Override
+    public boolean initialize() {
+        lock.writeLock().lock();
+        try {
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create the directory of the embedded database " + directory);
+            }
+            openLog();
+            compactIfNeeded();
+            plugin.log(Level.INFO, "Loaded " + users.size() + " users and " + snapshots.size()
+                                   + " snapshots from the embedded database");
+        } catch (IOException e) {
+            plugin.log(Level.SEVERE, "Failed to open the embedded database", e);
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        startSaveQueue();
+        maintenance.start(List.of(getPruneJob()));
+        return true;
+    }
+
+    /**
+     * Open the log and replay it into the index, discarding a record torn by a crash part way through being appended
+     * at its end. A record that fails its checksum anywhere else, or claims a length it could not have been written
+     * with, means the log is corrupt, so it is not truncated. A discarded record is copied to a file beside the log
+     * first, so it can be recovered by hand if it was not torn after all
+     *
+     * @throws IOException if the log could not be read, or is corrupt before its last record
+     */
+    private void openLog() throws IOException {
+        users.clear();
+        snapshots.clear();
+        liveSize = 0;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final long fileSize = channel.size();
+        long position = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (position + RECORD_HEADER_LENGTH + RECORD_FOOTER_LENGTH <= fileSize) {
+                final byte type = input.readByte();
+                final int length = input.readInt();
+                // A record claiming a length it could never have been written with was not torn, but is corrupt
+                if (length < 0 || length > getMaxPayloadLength(type)) {
+                    throw new IOException("The embedded database is corrupt; the record at byte " + position
+                                          + " of " + fileSize + " has an invalid header. Restore the file from a "
+                                          + "backup");
+                }
+                if (position + RECORD_HEADER_LENGTH + length + RECORD_FOOTER_LENGTH > fileSize) {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                input.readFully(payload);
+                if (input.readInt() != checksum(type, payload)) {
+                    if (position + RECORD_HEADER_LENGTH + length + RECORD_FOOTER_LENGTH < fileSize) {
+                        throw new IOException("The embedded database is corrupt; the record at byte " + position
+                                              + " of " + fileSize + " failed its checksum. Restore the file from a "
+                                              + "backup");
+                    }
+                    break;
+                }
+                apply(type, payload, position);
+                position += RECORD_HEADER_LENGTH + length + RECORD_FOOTER_LENGTH;
+            }
+        }
+        if (position < fileSize) {
+            final File tornFile = new File(file.getParentFile(), file.getName() + ".torn-" + System.currentTimeMillis());
+            try (FileChannel torn = FileChannel.open(tornFile.toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                long copied = 0;
+                while (position + copied < fileSize) {
+                    copied += channel.transferTo(position + copied, fileSize - position - copied, torn);
+                }
+                torn.force(false);
+            }
+            plugin.log(Level.WARNING, "Discarding " + (fileSize - position) + " bytes of an incomplete record at the "
+                                      + "end of the embedded database; they were copied to " + tornFile.getName());
+            channel.truncate(position);
+        }
+        size = position;
+    }
+
+    /**
+     * Get the largest payload a record of a type can have
+     *
+     * @param type the type of the record
+     * @return the largest payload length, or {@code -1} if the type is unknown
+     */
+    private static int getMaxPayloadLength(byte type) {
+        return switch (type) {
+            case USER_RECORD -> 16 + 2 + MAX_USERNAME_LENGTH;
+            case SNAPSHOT_RECORD -> MAX_SNAPSHOT_RECORD_LENGTH;
+            case PIN_RECORD -> 17;
+            case DELETE_RECORD -> 16;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Apply a record to the index
+     *
+     * @param type     the type of the record
+     * @param payload  the record's payload
+     * @param position the position of the record in the log
+     * @throws IOException if the record is invalid
+     */
+    private void apply(byte type, byte[] payload, long position) throws IOException {
+        final int recordLength = RECORD_HEADER_LENGTH + payload.length + RECORD_FOOTER_LENGTH;
+        final ByteBuffer buffer = ByteBuffer.wrap(payload);
+        switch (type) {
+            case USER_RECORD -> {
+                final UUID uuid = readUuid(buffer);
+                final String username = readString(buffer);
+                final StoredUser existing = users.get(uuid);
+                if (existing != null) {
+                    liveSize -= existing.recordLength;
+                    existing.username = username;
+                    existing.recordLength = recordLength;
+                } else {
+                    users.put(uuid, new StoredUser(username, recordLength));
+                }
+                liveSize += recordLength;
+            }
+            case SNAPSHOT_RECORD -> {
+                final UUID userUuid = readUuid(buffer);
+                final UUID versionUuid = readUuid(buffer);
+                final Date timestamp = new Date(buffer.getLong());
+                final DataSaveCause cause = DataSaveCause.getCauseByName(readString(buffer));
+                final boolean pinned = buffer.get() != 0;
+                final int dataLength = buffer.getInt();
+                final StoredUser owner = users.get(userUuid);
+                if (owner == null || snapshots.containsKey(versionUuid)) {
+                    return;
+                }
+                final StoredSnapshot snapshot = new StoredSnapshot(userUuid, versionUuid, timestamp, cause, pinned,
+                        position + RECORD_HEADER_LENGTH + buffer.position(), dataLength, recordLength);
+                snapshots.put(versionUuid, snapshot);
+                owner.add(snapshot);
+                liveSize += recordLength;
+            }
+            case PIN_RECORD -> {
+                final StoredSnapshot snapshot = snapshots.get(readUuid(buffer));
+                if (snapshot != null) {
+                    snapshot.pinned = buffer.get() != 0;
+                }
+            }
+            case DELETE_RECORD -> {
+                final StoredSnapshot snapshot = snapshots.remove(readUuid(buffer));
+                if (snapshot != null) {
+                    users.get(snapshot.userUuid).snapshots.remove(snapshot);
+                    liveSize -= snapshot.recordLength;
+                }
+            }
+            default -> throw new IOException("Unknown record type " + type + " in the embedded database");
+        }
+    }
+
+    /**
+     * Append a record to the log and apply it to the index. The record is not durable until {@link #sync()}
+     *
+     * @param type    the type of the record
+     * @param payload the record's payload
+     * @throws IOException if the record could not be written, or is too large
+     */
+    private void append(byte type, byte[] payload) throws IOException {
+        if (payload.length > getMaxPayloadLength(type)) {
+            throw new IOException("A record of " + payload.length + " bytes is larger than the embedded database's "
+                                  + "limit of " + getMaxPayloadLength(type) + " bytes for its type");
+        }
+        final ByteBuffer record = ByteBuffer.wrap(encodeRecord(type, payload));
+        final long position = size;
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+        size += record.limit();
+        apply(type, payload, position);
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+    }
+
+    private static byte[] encodeRecord(byte type, byte[] payload) {
+        return ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length + RECORD_FOOTER_LENGTH)
+                .put(type)
+                .putInt(payload.length)
+                .put(payload)
+                .putInt(checksum(type, payload))
+                .array();
+    }
+
+    private static byte[] encodeUser(@NotNull User user) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(bytes);
+        writeUuid(payload, user.uuid);
+        writeString(payload, user.username);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeSnapshot(@NotNull UUID userUuid, @NotNull UUID versionUuid, @NotNull Date timestamp,
+                                         @NotNull DataSaveCause cause, boolean pinned,
+                                         byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 64);
+        final DataOutputStream payload = new DataOutputStream(bytes);
+        writeUuid(payload, userUuid);
+        writeUuid(payload, versionUuid);
+        payload.writeLong(timestamp.getTime());
+        writeString(payload, cause.name());
+        payload.writeBoolean(pinned);
+        payload.writeInt(data.length);
+        payload.write(data);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodePin(@NotNull UUID versionUuid, boolean pinned) {
+        return ByteBuffer.allocate(17)
+                .putLong(versionUuid.getMostSignificantBits())
+                .putLong(versionUuid.getLeastSignificantBits())
+                .put((byte) (pinned ? 1 : 0))
+                .array();
+    }
+
+    private static byte[] encodeDelete(@NotNull UUID versionUuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(versionUuid.getMostSignificantBits())
+                .putLong(versionUuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Read a snapshot's data from the log
+     *
+     * @param snapshot the snapshot to read
+     * @return the snapshot's data, as stored by the data adapter
+     * @throws IOException if the data could not be read
+     */
+    private byte[] readData(@NotNull StoredSnapshot snapshot) throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(snapshot.dataLength);
+        while (data.hasRemaining()) {
+            if (channel.read(data, snapshot.dataOffset + data.position()) == -1) {
+                throw new IOException("Data of snapshot " + snapshot.versionUuid + " is truncated");
+            }
+        }
+        return data.array();
+    }
+
+    @NotNull
+    private UserDataSnapshot readSnapshot(@NotNull StoredSnapshot snapshot) throws IOException {
+        return new UserDataSnapshot(snapshot.versionUuid, snapshot.timestamp, snapshot.cause, snapshot.pinned,
+                plugin.getDataAdapter().fromBytes(readData(snapshot)));
+    }
+
+    /**
+     * Compact the log if more of it is superseded records than live ones
+     *
+     * @throws IOException if the log could not be compacted
+     */
+    private void compactIfNeeded() throws IOException {
+        if (size > MIN_COMPACTION_SIZE && size - liveSize > liveSize) {
+            final long previousSize = size;
+            compact(true);
+            plugin.log(Level.INFO, "Compacted the embedded database from " + previousSize / 1024 + "KB to "
+                                   + size / 1024 + "KB");
+        }
+    }
+
+    /**
+     * Rewrite the live records of the log to a new file, replace the log with it, then replay it
+     *
+     * @param keepSnapshots whether to keep the snapshots, or only the users
+     * @throws IOException if the log could not be rewritten
+     */
+    private void compact(boolean keepSnapshots) throws IOException {
+        final File compactedFile = new File(file.getPath() + ".compact");
+        try (FileOutputStream fileOutput = new FileOutputStream(compactedFile);
+             BufferedOutputStream output = new BufferedOutputStream(fileOutput)) {
+            for (Map.Entry<UUID, StoredUser> user : users.entrySet()) {
+                output.write(encodeRecord(USER_RECORD, encodeUser(new User(user.getKey(), user.getValue().username))));
+                if (!keepSnapshots) {
+                    continue;
+                }
+                for (StoredSnapshot snapshot : user.getValue().snapshots) {
+                    output.write(encodeRecord(SNAPSHOT_RECORD, encodeSnapshot(snapshot.userUuid,
+                            snapshot.versionUuid, snapshot.timestamp, snapshot.cause, snapshot.pinned,
+                            readData(snapshot))));
+                }
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        channel.close();
+        try {
+            Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            openLog();
+        }
+    }
+    /**
+     * Delete a user's oldest unpinned snapshots in excess of the configured maximum, and their unpinned snapshots older
+     * than the configured retention period other than their newest snapshot. The deletions are not durable until
+     * {@link #sync()}
+     *
+     * @param userUuid the UUID of the user to rotate data for
+     * @throws IOException if the deletions could not be written
+     */
+    private void rotate(@NotNull UUID userUuid) throws IOException {
+        final StoredUser user = users.get(userUuid);
+        if (user == null) {
+            return;
+        }
+        final int retentionDays = plugin.getSettings().getRetentionDays();
+        final long retainedSince = retentionDays > 0
+                ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays) : Long.MIN_VALUE;
+        final int maxSnapshots = plugin.getSettings().getMaxUserDataSnapshots();
+        final List<UUID> expiredSnapshots = new ArrayList<>();
+        int unpinnedSnapshots = 0;
+        for (int i = 0; i < user.snapshots.size(); i++) {
+            final StoredSnapshot snapshot = user.snapshots.get(i);
+            if (snapshot.pinned) {
+                continue;
+            }
+            if (++unpinnedSnapshots > maxSnapshots || (i > 0 && snapshot.timestamp.getTime() < retainedSince)) {
+                expiredSnapshots.add(snapshot.versionUuid);
+            }
+        }
+        for (UUID versionUuid : expiredSnapshots) {
+            append(DELETE_RECORD, encodeDelete(versionUuid));
+        }
+    }
+
+    @NotNull
+    private MaintenanceJob getPruneJob() {
+        return new MaintenanceJob() {
+            private UUID lastUser;
+            private boolean complete;
+
+            @NotNull
+            @Override
+            public String getName() {
+                return "embedded_prune";
+            }
+
+            @Override
+            public void start() {
+                lastUser = null;
+                complete = false;
+            }
+
+            @Override
+            public int runChunk(int chunkSize) throws IOException {
+                lock.writeLock().lock();
+                try {
+                    final List<UUID> chunk = new ArrayList<>();
+                    for (UUID userUuid : lastUser == null ? users.keySet()
+                            : users.tailMap(lastUser, false).keySet()) {
+                        if (chunk.size() >= chunkSize) {
+                            break;
+                        }
+                        chunk.add(userUuid);
+                    }
+                    for (UUID userUuid : chunk) {
+                        rotate(userUuid);
+                    }
+                    sync();
+                    complete = chunk.size() < chunkSize;
+                    if (!chunk.isEmpty()) {
+                        lastUser = chunk.get(chunk.size() - 1);
+                    }
+                    return chunk.size();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            @Override
+            public boolean isComplete() {
+                return complete;
+            }
+
+            @Override
+            public void finish(boolean leaseHeld) throws IOException {
+                lock.writeLock().lock();
+                try {
+                    compactIfNeeded();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Void> ensureUser(@NotNull User user) {
+        if (userRegistry.isRegistered(user)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return runAsync(Workload.INTERACTIVE, () -> {
+            final StoredUser existingUser;
+            lock.writeLock().lock();
+            try {
+                existingUser = users.get(user.uuid);
+                if (existingUser == null || !existingUser.username.equals(user.username)) {
+                    // Insert the user, or update their name if it has changed
+                    final String previousName = existingUser == null ? null : existingUser.username;
+                    append(USER_RECORD, encodeUser(user));
+                    sync();
+                    if (previousName != null) {
+                        plugin.log(Level.INFO, "Updated " + user.username + "'s name in the database ("
+                                               + previousName + " -> " + user.username + ")");
+                    }
+                }
+            } catch (IOException e) {
+                plugin.log(Level.SEVERE, "Failed to insert or update a user in the embedded database", e);
+                return;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            userRegistry.put(user);
+            if (existingUser != null && !existingUser.username.equals(user.username)) {
+                plugin.getRedisManager().sendUserRename(user);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUser(@NotNull UUID uuid) {
+        final Optional<User> cachedUser = userRegistry.get(uuid);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser);
+        }
+        return supplyAsync(Workload.INTERACTIVE, () -> {
+            lock.readLock().lock();
+            try {
+                final Optional<User> user = Optional.ofNullable(users.get(uuid))
+                        .map(storedUser -> new User(uuid, storedUser.username));
+                user.ifPresent(userRegistry::put);
+                return user;
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUserByName(@NotNull String username) {
+        final Optional<User> cachedUser = userRegistry.getByName(username);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser);
+        }
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            lock.readLock().lock();
+            try {
+                final Optional<User> user = users.entrySet().stream()
+                        .filter(storedUser -> storedUser.getValue().username.equalsIgnoreCase(username))
+                        .findFirst()
+                        .map(storedUser -> new User(storedUser.getKey(), storedUser.getValue().username));
+                user.ifPresent(userRegistry::put);
+                return user;
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserData(@NotNull User user) {
+        return plugin.getRedisManager().getCachedUserData(user).thenApplyAsync(cachedData -> cachedData.or(() -> {
+            final Optional<UserDataSnapshot> currentData = selectCurrentUserData(user);
+            currentData.ifPresent(snapshot -> plugin.getRedisManager().setCachedUserData(user, snapshot));
+            return currentData;
+        }), getExecutor(Workload.INTERACTIVE));
+    }
+
+    /**
+     * Read the current user data for a given user from the log, bypassing the cache
+     *
+     * @param user the user to get data for
+     * @return an optional containing the {@link UserDataSnapshot}, if it exists, or an empty optional if it does not
+     */
+    private Optional<UserDataSnapshot> selectCurrentUserData(@NotNull User user) {
+        lock.readLock().lock();
+        try {
+            final StoredUser storedUser = users.get(user.uuid);
+            if (storedUser != null && !storedUser.snapshots.isEmpty()) {
+                return Optional.of(readSnapshot(storedUser.snapshots.get(0)));
+            }
+        } catch (IOException | DataAdaptionException e) {
+            plugin.log(Level.SEVERE, "Failed to fetch a user's current user data from the embedded database", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<List<UserDataSnapshot>> getUserData(@NotNull User user) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            final List<UserDataSnapshot> retrievedData = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                final StoredUser storedUser = users.get(user.uuid);
+                if (storedUser != null) {
+                    for (StoredSnapshot snapshot : storedUser.snapshots) {
+                        retrievedData.add(readSnapshot(snapshot));
+                    }
+                }
+            } catch (IOException | DataAdaptionException e) {
+                plugin.log(Level.SEVERE, "Failed to fetch a user's data from the embedded database", e);
+            } finally {
+                lock.readLock().unlock();
+            }
+            return retrievedData;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<UserDataSnapshotMetadata>> getUserDataMetadata(@NotNull User user) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            lock.readLock().lock();
+            try {
+                final StoredUser storedUser = users.get(user.uuid);
+                return storedUser == null ? List.<UserDataSnapshotMetadata>of() : storedUser.snapshots.stream()
+                        .map(snapshot -> new UserDataSnapshotMetadata(snapshot.versionUuid, snapshot.timestamp,
+                                snapshot.cause, snapshot.pinned, snapshot.dataLength))
+                        .toList();
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            lock.readLock().lock();
+            try {
+                final StoredSnapshot snapshot = snapshots.get(versionUuid);
+                if (snapshot != null && snapshot.userUuid.equals(user.uuid)) {
+                    return Optional.of(readSnapshot(snapshot));
+                }
+            } catch (IOException | DataAdaptionException e) {
+                plugin.log(Level.SEVERE, "Failed to fetch specific user data by UUID from the embedded database", e);
+            } finally {
+                lock.readLock().unlock();
+            }
+            return Optional.empty();
+        });
+    }
+
+    @Override
+    protected void rotateUserData(@NotNull User user) {
+        lock.writeLock().lock();
+        try {
+            rotate(user.uuid);
+            sync();
+        } catch (IOException e) {
+            plugin.log(Level.SEVERE, "Failed to prune user data from the embedded database", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            lock.writeLock().lock();
+            try {
+                final StoredSnapshot snapshot = snapshots.get(versionUuid);
+                if (snapshot == null || !snapshot.userUuid.equals(user.uuid)) {
+                    return false;
+                }
+                append(DELETE_RECORD, encodeDelete(versionUuid));
+                sync();
+            } catch (IOException e) {
+                plugin.log(Level.SEVERE, "Failed to delete specific user data from the embedded database", e);
+                return false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            plugin.getRedisManager().invalidateCachedUserData(user).join();
+            return true;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> setUserData(@NotNull User user, @NotNull UserData userData,
+                                               @NotNull DataSaveCause saveCause) {
+        // Chain on the event rather than joining it, as it is fired on the next main thread tick
+        return plugin.getEventCannon().fireDataSaveEvent(user, userData, saveCause).thenCompose(event -> {
+            final DataSaveEvent dataSaveEvent = (DataSaveEvent) event;
+            if (dataSaveEvent.isCancelled()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            final UserDataSnapshot snapshot = new UserDataSnapshot(UUID.randomUUID(), new Date(), saveCause, false,
+                    dataSaveEvent.getUserData());
+            return queueSave(new PendingUserData(user, snapshot));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setUserData(@NotNull List<PendingUserData> pendingData) {
+        final Workload workload = getSaveWorkload(pendingData);
+        return supplyAsync(workload, () -> {
+            // Adapt the data before taking the lock, so reads are not held up by it
+            final List<byte[]> adaptedData = new ArrayList<>();
+            try {
+                for (PendingUserData data : pendingData) {
+                    adaptedData.add(plugin.getDataAdapter().toBytes(data.snapshot().userData()));
+                }
+            } catch (DataAdaptionException e) {
+                plugin.log(Level.SEVERE, "Failed to set a batch of user data in the embedded database", e);
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                // Append each snapshot, skipping any already written by an earlier try, then rotate each user once
+                final Set<UUID> updatedUsers = new LinkedHashSet<>();
+                for (int i = 0; i < pendingData.size(); i++) {
+                    final PendingUserData data = pendingData.get(i);
+                    final UUID userUuid = data.user().uuid;
+                    if (!users.containsKey(userUuid)) {
+                        append(USER_RECORD, encodeUser(data.user()));
+                    }
+                    if (!snapshots.containsKey(data.snapshot().versionUUID())) {
+                        append(SNAPSHOT_RECORD, encodeSnapshot(userUuid, data.snapshot().versionUUID(),
+                                data.snapshot().versionTimestamp(), data.snapshot().cause(),
+                                data.snapshot().pinned(), adaptedData.get(i)));
+                    }
+                    updatedUsers.add(userUuid);
+                }
+                for (UUID userUuid : updatedUsers) {
+                    rotate(userUuid);
+                }
+                sync();
+                return true;
+            } catch (IOException e) {
+                plugin.log(Level.SEVERE, "Failed to set a batch of user data in the embedded database", e);
+                return false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> pinUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return setPinned(user, versionUuid, true);
+    }
+
+    @Override
+    public CompletableFuture<Void> unpinUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return setPinned(user, versionUuid, false);
+    }
+
+    private CompletableFuture<Void> setPinned(@NotNull User user, @NotNull UUID versionUuid, boolean pinned) {
+        return runAsync(Workload.BACKGROUND, () -> {
+            lock.writeLock().lock();
+            try {
+                final StoredSnapshot snapshot = snapshots.get(versionUuid);
+                if (snapshot == null || !snapshot.userUuid.equals(user.uuid)) {
+                    return;
+                }
+                append(PIN_RECORD, encodePin(versionUuid, pinned));
+                sync();
+            } catch (IOException e) {
+                plugin.log(Level.SEVERE, "Failed to " + (pinned ? "pin" : "unpin")
+                                         + " user data in the embedded database", e);
+                return;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            plugin.getRedisManager().invalidateCachedUserData(user).join();
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> wipeDatabase() {
+        return runAsync(Workload.BACKGROUND, () -> {
+            lock.writeLock().lock();
+            try {
+                compact(false);
+            } catch (IOException e) {
+                plugin.log(Level.SEVERE, "Failed to wipe the embedded database", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            plugin.getRedisManager().invalidateAllCachedUserData().join();
+        });
+    }
+
+    @NotNull
+    @Override
+    public Map<String, String> getStatistics() {
+        final Map<String, String> statistics = super.getStatistics();
+        lock.readLock().lock();
+        try {
+            statistics.put("Embedded database size (KB)", Long.toString(size / 1024));
+            statistics.put("Embedded database live data (KB)", Long.toString(liveSize / 1024));
+            statistics.put("Embedded database snapshots", Integer.toString(snapshots.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        closeSaveQueue();
+        maintenance.close();
+        shutdownExecutor();
+        lock.writeLock().lock();
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Failed to close the embedded database", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @NotNull
+    private static UUID readUuid(@NotNull ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void writeUuid(@NotNull DataOutputStream output, @NotNull UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    @NotNull
+    private static String readString(@NotNull ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(@NotNull DataOutputStream output, @NotNull String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * A user in the index, with their snapshots, newest first
+     */
+    private static class StoredUser {
+        private final List<StoredSnapshot> snapshots = new ArrayList<>();
+        private String username;
+        private int recordLength;
+
+        private StoredUser(@NotNull String username, int recordLength) {
+            this.username = username;
+            this.recordLength = recordLength;
+        }
+
+        // Snapshots are added in the order they were written, so a snapshot goes ahead of those with the same timestamp
+        private void add(@NotNull StoredSnapshot snapshot) {
+            int index = 0;
+            while (index < snapshots.size()
+                   && snapshots.get(index).timestamp.after(snapshot.timestamp)) {
+                index++;
+            }
+            snapshots.add(index, snapshot);
+        }
+    }
+
+    /**
+     * A snapshot in the index, and where its data is in the log
+     */
+    private static class StoredSnapshot {
+        private final UUID userUuid;
+        private final UUID versionUuid;
+        private final Date timestamp;
+        private final DataSaveCause cause;
+        private final long dataOffset;
+        private final int dataLength;
+        private final int recordLength;
+        private boolean pinned;
+
+        private StoredSnapshot(@NotNull UUID userUuid, @NotNull UUID versionUuid, @NotNull Date timestamp,
+                               @NotNull DataSaveCause cause, boolean pinned, long dataOffset, int dataLength,
+                               int recordLength) {
+            this.userUuid = userUuid;
+            this.versionUuid = versionUuid;
+            this.timestamp = timestamp;
+            this.cause = cause;
+            this.pinned = pinned;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.recordLength = recordLength;
+        }
+    }
+
+}
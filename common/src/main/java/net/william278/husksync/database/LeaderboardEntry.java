@@ -0,0 +1,14 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A user's place on a leaderboard ranking users by a projected statistic or status field of their current data
+ *
+ * @param user  The {@link User} ranked
+ * @param rank  The user's rank on the leaderboard, starting from {@code 1}
+ * @param value The value of the statistic or status field the user is ranked by
+ */
+public record LeaderboardEntry(@NotNull User user, int rank, @NotNull Number value) {
+}
@@ -0,0 +1,202 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.HuskSync;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Runs global {@link MaintenanceJob}s against the database in small, rate-limited chunks, on a single background
+ * thread.
+ * <p>
+ * Scheduled jobs run on only one server in the cluster at a time; a server holds a lease on a job on Redis while it
+ * runs it, extending the lease before each chunk and giving the job up if the lease is lost or cannot be confirmed.
+ * Each chunk is committed on its own, so a job interrupted part way through simply resumes on its next run.
+ */
+public class MaintenanceEngine {
+
+    /**
+     * How many chunks of a job to run between progress reports
+     */
+    private static final int PROGRESS_REPORT_CHUNKS = 50;
+
+    private final HuskSync plugin;
+    private final int chunkSize;
+    private final long chunkDelayMillis;
+    private final Map<String, JobProgress> progress;
+    private ScheduledExecutorService executor;
+    private volatile boolean closing;
+
+    protected MaintenanceEngine(@NotNull HuskSync plugin) {
+        this.plugin = plugin;
+        this.chunkSize = Math.max(1, plugin.getSettings().getMaintenanceChunkSize());
+        this.chunkDelayMillis = Math.max(0, plugin.getSettings().getMaintenanceChunkDelayMillis());
+        this.progress = new LinkedHashMap<>();
+    }
+
+    /**
+     * Start running jobs periodically, as configured
+     *
+     * @param jobs the jobs to run, in order, on each run
+     */
+    public void start(@NotNull List<MaintenanceJob> jobs) {
+        if (!plugin.getSettings().doMaintenance() || jobs.isEmpty()) {
+            return;
+        }
+        final List<MaintenanceJob> scheduledJobs = new ArrayList<>(jobs);
+        final long interval = Math.max(1, plugin.getSettings().getMaintenanceIntervalMinutes());
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "HuskSync-Maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> scheduledJobs.forEach(this::runLeased),
+                Math.min(interval, 5), interval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Run a job to completion on the calling thread, without taking a lease; such as to wipe the database
+     *
+     * @param job the job to run
+     * @return {@code true} if the job completed, {@code false} if it failed
+     */
+    public boolean runNow(@NotNull MaintenanceJob job) {
+        return run(job, false);
+    }
+
+    /**
+     * Run a job as it is run on schedule, only if this server can take the job's lease
+     *
+     * @param job the job to run
+     */
+    void runLeased(@NotNull MaintenanceJob job) {
+        if (!closing && holdLease(job)) {
+            try {
+                run(job, true);
+            } finally {
+                releaseLease(job);
+            }
+        }
+    }
+
+    private boolean run(@NotNull MaintenanceJob job, boolean leased) {
+        final JobProgress jobProgress = new JobProgress(System.currentTimeMillis());
+        synchronized (progress) {
+            progress.put(job.getName(), jobProgress);
+        }
+        try {
+            job.start();
+            while (!job.isComplete()) {
+                if (closing || (leased && !holdLease(job))) {
+                    jobProgress.status = "Stopped";
+                    plugin.log(Level.INFO, "Stopped the " + job.getName() + " maintenance job after processing "
+                                           + jobProgress.processed + " items");
+                    return false;
+                }
+                jobProgress.processed += job.runChunk(chunkSize);
+                jobProgress.chunks++;
+                if (jobProgress.chunks % PROGRESS_REPORT_CHUNKS == 0) {
+                    plugin.log(Level.INFO, "The " + job.getName() + " maintenance job has processed "
+                                           + jobProgress.processed + " items in " + jobProgress.chunks + " chunks");
+                }
+                if (chunkDelayMillis > 0 && !job.isComplete()) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+            jobProgress.status = "Complete";
+            if (jobProgress.processed > 0) {
+                plugin.log(Level.INFO, "Completed the " + job.getName() + " maintenance job, processing "
+                                       + jobProgress.processed + " items in "
+                                       + (System.currentTimeMillis() - jobProgress.startedAt) + "ms");
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            jobProgress.status = "Stopped";
+            return false;
+        } catch (Exception e) {
+            jobProgress.status = "Failed";
+            plugin.log(Level.SEVERE, "Failed to run the " + job.getName() + " maintenance job", e);
+            return false;
+        } finally {
+            jobProgress.finishedAt = System.currentTimeMillis();
+            try {
+                job.finish(leased && !closing && holdLease(job));
+            } catch (Exception e) {
+                plugin.log(Level.WARNING, "Failed to clean up after the " + job.getName() + " maintenance job", e);
+            }
+        }
+    }
+
+    private boolean holdLease(@NotNull MaintenanceJob job) {
+        try {
+            return plugin.getRedisManager().acquireLease(getLeaseName(job)).join();
+        } catch (Exception e) {
+            plugin.log(Level.WARNING, "Failed to take the lease on the " + job.getName() + " maintenance job", e);
+            return false;
+        }
+    }
+
+    private void releaseLease(@NotNull MaintenanceJob job) {
+        try {
+            plugin.getRedisManager().releaseLease(getLeaseName(job)).join();
+        } catch (Exception e) {
+            plugin.log(Level.WARNING, "Failed to release the lease on the " + job.getName() + " maintenance job", e);
+        }
+    }
+
+    @NotNull
+    private static String getLeaseName(@NotNull MaintenanceJob job) {
+        return "maintenance_" + job.getName();
+    }
+
+    /**
+     * Returns the progress of the last run of each job on this server, for diagnostic purposes
+     *
+     * @return a map of statistic names to their current values
+     */
+    @NotNull
+    public Map<String, String> getStatistics() {
+        final Map<String, String> statistics = new LinkedHashMap<>();
+        synchronized (progress) {
+            progress.forEach((name, jobProgress) -> statistics.put("Maintenance job " + name,
+                    jobProgress.status + ", " + jobProgress.processed + " items in " + jobProgress.chunks + " chunks"
+                    + (jobProgress.finishedAt > 0
+                            ? " (" + (jobProgress.finishedAt - jobProgress.startedAt) + "ms)" : "")));
+        }
+        return statistics;
+    }
+
+    /**
+     * Stop running jobs, abandoning any job part way through; it will resume on its next run
+     */
+    public void close() {
+        closing = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The progress of a run of a job
+     */
+    private static class JobProgress {
+        private final long startedAt;
+        private volatile String status = "Running";
+        private volatile long processed;
+        private volatile long chunks;
+        private volatile long finishedAt;
+
+        private JobProgress(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+}
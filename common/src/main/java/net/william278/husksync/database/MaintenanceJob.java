@@ -0,0 +1,113 @@
+package net.william278.husksync.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * A global database maintenance job, run by the {@link MaintenanceEngine} in small chunks
+ */
+public interface MaintenanceJob {
+
+    /**
+     * Get the name of the job, unique among jobs
+     *
+     * @return the job name
+     */
+    @NotNull
+    String getName();
+
+    /**
+     * Prepare to run the job from the beginning; called before the first chunk of each run
+     *
+     * @throws SQLException if the job could not be prepared
+     * @throws IOException  if a file could not be read or written
+     */
+    default void start() throws SQLException, IOException {
+    }
+
+    /**
+     * Run the next chunk of the job
+     *
+     * @param chunkSize the maximum number of items to process in the chunk
+     * @return the number of items processed
+     * @throws SQLException if a statement fails
+     * @throws IOException  if a file could not be read or written
+     */
+    int runChunk(int chunkSize) throws SQLException, IOException;
+
+    /**
+     * Whether the current run of the job is complete
+     *
+     * @return {@code true} once there are no more chunks to run
+     */
+    boolean isComplete();
+
+    /**
+     * Clean up after a run of the job, whether it completed or not
+     *
+     * @param leaseHeld whether this server has just confirmed it still holds the job's lease, so no other server is
+     *                  running the job; clean up that could affect another server's run should only be done if so
+     * @throws SQLException if a statement fails
+     * @throws IOException  if a file could not be read or written
+     */
+    default void finish(boolean leaseHeld) throws SQLException, IOException {
+    }
+
+    /**
+     * Create a job run by repeating a chunk until a chunk processes fewer items than the chunk size
+     *
+     * @param name  the name of the job
+     * @param chunk the chunk to run, returning the number of items processed
+     * @return the {@link MaintenanceJob}
+     */
+    @NotNull
+    static MaintenanceJob of(@NotNull String name, @NotNull Chunk chunk) {
+        return new MaintenanceJob() {
+            private boolean complete;
+
+            @NotNull
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void start() {
+                complete = false;
+            }
+
+            @Override
+            public int runChunk(int chunkSize) throws SQLException, IOException {
+                final int processed = chunk.run(chunkSize);
+                complete = processed < chunkSize;
+                return processed;
+            }
+
+            @Override
+            public boolean isComplete() {
+                return complete;
+            }
+        };
+    }
+
+    /**
+     * A chunk of a {@link MaintenanceJob}
+     */
+    @FunctionalInterface
+    interface Chunk {
+
+        /**
+         * Run the chunk
+         *
+         * @param chunkSize the maximum number of items to process
+         * @return the number of items processed
+         * @throws SQLException if a statement fails
+         * @throws IOException  if a file could not be read or written
+         */
+        int run(int chunkSize) throws SQLException, IOException;
+
+    }
+
+}
@@ -7,17 +7,31 @@ import net.william278.husksync.data.*;
 import net.william278.husksync.event.DataSaveEvent;
 import net.william278.husksync.player.User;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
+import java.util.stream.Stream;
 
 public class MySqlDatabase extends Database {
 
+    /**
+     * The name of the shard this database is, or {@code null} if the database is not sharded
+     */
+    @Nullable
+    private final String shardName;
+
     /**
      * MySQL server hostname
      */
@@ -43,18 +57,102 @@ public class MySqlDatabase extends Database {
     private final long hikariConnectionTimeOut;
 
     private static final String DATA_POOL_NAME = "HuskSyncHikariPool";
+    private static final String REPLICA_POOL_NAME = "HuskSyncHikariReplicaPool";
+
+    /**
+     * How often the replication lag of the read replica is checked
+     */
+    private static final long REPLICA_LAG_CHECK_INTERVAL_MILLIS = 5000;
+
+    /**
+     * How long after an archive segment was last written to before it may be deleted as unused
+     */
+    private static final long ARCHIVE_SEGMENT_GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * How long to wait for another server to finish migrating the schema before giving up
+     */
+    private static final int SCHEMA_LOCK_TIMEOUT_SECONDS = 600;
+
+    /**
+     * Maximum number of users whose last write by this server is remembered, to read their data back from the primary
+     */
+    private static final int MAX_TRACKED_WRITES = 5000;
+
+    private final boolean deltaStorage;
+    private final DeltaChainStore deltaChainStore;
+
+    private final boolean sectionStorage;
+    private final SectionStore sectionStore;
+
+    private final boolean statisticsProjection;
+    private final StatisticsProjector statisticsProjector;
+
+    /**
+     * The archive the data of old snapshots is moved to, or {@code null} if no shared archive directory is configured
+     */
+    @Nullable
+    private final SnapshotArchive archive;
 
     /**
      * The Hikari data source - a pool of database connections that can be fetched on-demand
      */
     private HikariDataSource connectionPool;
 
+    /**
+     * A separate pool of connections for background work, so it cannot starve interactive work of connections
+     */
+    private HikariDataSource backgroundPool;
+    private final int hikariBackgroundPoolSize;
+
+    /**
+     * How long connections of each workload waited to be fetched from their pool
+     */
+    private final Map<Workload, ConnectionWaits> connectionWaits;
+
+    /**
+     * A pool of connections to the read replica, if one is configured
+     */
+    @Nullable
+    private HikariDataSource replicaPool;
+
+    private final long maxReplicaLagMillis;
+    private volatile long replicaLagMillis = Long.MAX_VALUE;
+
+    /**
+     * Executor checking the read replica's lag every few seconds, if one is configured
+     */
+    @Nullable
+    private ScheduledExecutorService replicaLagMonitor;
+
+    /**
+     * The time this server last wrote each user's data, so reads can avoid a replica that may not have applied it yet
+     */
+    private final Map<UUID, Long> lastWrites;
+
     public MySqlDatabase(@NotNull HuskSync plugin) {
-        super(plugin);
+        this(plugin, null, plugin.getSettings().getMySqlHost(), plugin.getSettings().getMySqlPort(),
+                plugin.getSettings().getMySqlDatabase(), new UserRegistry(plugin.getSettings().getUserCacheSize()));
+    }
+
+    /**
+     * Create a database on one shard of a {@link ShardedDatabase}
+     *
+     * @param plugin       the plugin instance
+     * @param shardName    the name of the shard, or {@code null} if the database is not sharded
+     * @param host         the MySQL server hostname
+     * @param port         the MySQL server port
+     * @param databaseName the database to use on the MySQL server
+     * @param userRegistry the {@link UserRegistry} to cache users in, shared between shards
+     */
+    protected MySqlDatabase(@NotNull HuskSync plugin, @Nullable String shardName, @NotNull String host, int port,
+                            @NotNull String databaseName, @NotNull UserRegistry userRegistry) {
+        super(plugin, userRegistry);
         final Settings settings = plugin.getSettings();
-        this.mySqlHost = settings.getMySqlHost();
-        this.mySqlPort = settings.getMySqlPort();
-        this.mySqlDatabaseName = settings.getMySqlDatabase();
+        this.shardName = shardName;
+        this.mySqlHost = host;
+        this.mySqlPort = port;
+        this.mySqlDatabaseName = databaseName;
         this.mySqlUsername = settings.getMySqlUsername();
         this.mySqlPassword = settings.getMySqlPassword();
         this.mySqlConnectionParameters = settings.getMySqlConnectionParameters();
@@ -63,111 +161,969 @@ public class MySqlDatabase extends Database {
         this.hikariMaximumLifetime = settings.getMySqlConnectionPoolLifetime();
         this.hikariKeepAliveTime = settings.getMySqlConnectionPoolKeepAlive();
         this.hikariConnectionTimeOut = settings.getMySqlConnectionPoolTimeout();
+        this.hikariBackgroundPoolSize = Math.max(1, settings.getMySqlBackgroundPoolSize());
+        this.connectionWaits = new EnumMap<>(Workload.class);
+        for (Workload workload : Workload.values()) {
+            connectionWaits.put(workload, new ConnectionWaits());
+        }
+        this.sectionStorage = settings.doSectionStorage();
+        this.deltaStorage = settings.doDeltaStorage() && !sectionStorage;
+        if (settings.doDeltaStorage() && sectionStorage) {
+            plugin.log(Level.WARNING, "Delta storage and section storage are both enabled in the config. "
+                                      + "Section storage will be used");
+        }
+        this.deltaChainStore = new DeltaChainStore(this, plugin.getDataAdapter(),
+                settings.getDeltaStorageKeyframeInterval());
+        this.sectionStore = new SectionStore(this);
+        this.statisticsProjection = settings.doStatisticsProjection();
+        this.statisticsProjector = new StatisticsProjector(this);
+        this.maxReplicaLagMillis = TimeUnit.SECONDS.toMillis(Math.max(0, settings.getReplicaMaxLagSeconds()));
+        this.lastWrites = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                return size() > MAX_TRACKED_WRITES;
+            }
+        });
+        // Archived snapshots may be read by any server, so the archive must be in a directory they all share
+        final File archiveDirectory = new File(settings.getArchiveDirectory());
+        this.archive = settings.getArchiveDirectory().isBlank() || !archiveDirectory.isAbsolute() ? null
+                : new SnapshotArchive(shardName == null ? archiveDirectory : new File(archiveDirectory, shardName),
+                Math.max(1, settings.getArchiveSegmentSizeMb()) * 1024L * 1024L);
     }
 
     /**
-     * Fetch the auto-closeable connection from the hikariDataSource
+     * Fetch the auto-closeable connection from the pool of a workload
      *
+     * @param workload the {@link Workload} the connection is for
      * @return The {@link Connection} to the MySQL database
      * @throws SQLException if the connection fails for some reason
      */
-    private Connection getConnection() throws SQLException {
-        return connectionPool.getConnection();
+    private Connection getConnection(@NotNull Workload workload) throws SQLException {
+        final long startedAt = System.nanoTime();
+        try {
+            return (workload == Workload.BACKGROUND ? backgroundPool : connectionPool).getConnection();
+        } finally {
+            connectionWaits.get(workload).record(System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * Fetch a connection for a read of a user's data that tolerates data a few seconds out of date. Connections are
+     * fetched from the read replica if one is configured and within the maximum lag, unless this server wrote the
+     * user's data too recently for the replica to be sure to have applied it. Such reads are background work
+     *
+     * @param userUuid the UUID of the user whose data is to be read
+     * @return The {@link Connection} to the replica or primary MySQL database
+     * @throws SQLException if the connection fails for some reason
+     */
+    private Connection getReadConnection(@NotNull UUID userUuid) throws SQLException {
+        if (replicaPool == null || replicaLagMillis > maxReplicaLagMillis) {
+            return getConnection(Workload.BACKGROUND);
+        }
+        final Long lastWrite = lastWrites.get(userUuid);
+        if (lastWrite != null && System.currentTimeMillis() - lastWrite <= maxReplicaLagMillis) {
+            return getConnection(Workload.BACKGROUND);
+        }
+        return replicaPool.getConnection();
+    }
+
+    /**
+     * Record that this server has written a user's data, so their data is read back from the primary for a while
+     *
+     * @param userUuid the UUID of the user whose data was written
+     */
+    private void recordWrite(@NotNull UUID userUuid) {
+        if (replicaPool != null) {
+            lastWrites.put(userUuid, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Check how far the read replica is behind the primary, so reads can tell whether to use it without waiting on
+     * the replica themselves. Run every few seconds on the replica lag monitor
+     */
+    private void refreshReplicaLag() {
+        final HikariDataSource replicaPool = this.replicaPool;
+        if (replicaPool == null) {
+            return;
+        }
+        final long previousLag = replicaLagMillis;
+        try (Connection connection = replicaPool.getConnection()) {
+            replicaLagMillis = queryReplicaLag(connection);
+        } catch (SQLException e) {
+            replicaLagMillis = Long.MAX_VALUE;
+            if (previousLag != Long.MAX_VALUE) {
+                plugin.log(Level.WARNING, "Failed to check the read replica's lag. Reads will use the primary "
+                                          + "database until it can be checked", e);
+            }
+            return;
+        }
+        if (replicaLagMillis > maxReplicaLagMillis && previousLag <= maxReplicaLagMillis) {
+            plugin.log(Level.WARNING, "The read replica has fallen behind the primary database. "
+                                      + "Reads will use the primary database until it catches up");
+        }
+    }
+
+    private long queryReplicaLag(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            ResultSet resultSet;
+            String lagColumn = "Seconds_Behind_Source";
+            try {
+                resultSet = statement.executeQuery("SHOW REPLICA STATUS;");
+            } catch (SQLSyntaxErrorException e) {
+                // MySQL versions before 8.0.22
+                resultSet = statement.executeQuery("SHOW SLAVE STATUS;");
+                lagColumn = "Seconds_Behind_Master";
+            }
+            if (!resultSet.next()) {
+                throw new SQLException("The read replica is not replicating from a primary database");
+            }
+            final long lagSeconds = resultSet.getLong(lagColumn);
+            return resultSet.wasNull() ? Long.MAX_VALUE : TimeUnit.SECONDS.toMillis(lagSeconds);
+        }
+    }
+
+    /**
+     * Create the pool of connections to the read replica, if one is configured
+     */
+    private void prepareReplicaPool() {
+        final Settings settings = plugin.getSettings();
+        if (!settings.isReplicaEnabled() || shardName != null) {
+            return;
+        }
+        replicaPool = new HikariDataSource();
+        replicaPool.setJdbcUrl("jdbc:mysql://" + settings.getReplicaHost() + ":" + settings.getReplicaPort() + "/"
+                               + mySqlDatabaseName + mySqlConnectionParameters);
+        replicaPool.setUsername(settings.getReplicaUsername());
+        replicaPool.setPassword(settings.getReplicaPassword());
+        replicaPool.setMaximumPoolSize(hikariMaximumPoolSize);
+        replicaPool.setMinimumIdle(hikariMinimumIdle);
+        replicaPool.setMaxLifetime(hikariMaximumLifetime);
+        replicaPool.setKeepaliveTime(hikariKeepAliveTime);
+        replicaPool.setConnectionTimeout(hikariConnectionTimeOut);
+        replicaPool.setPoolName(REPLICA_POOL_NAME);
+        replicaPool.setReadOnly(true);
+        try (Connection connection = replicaPool.getConnection()) {
+            replicaLagMillis = queryReplicaLag(connection);
+            plugin.log(Level.INFO, "Connected to the read replica (" + TimeUnit.MILLISECONDS.toSeconds(
+                    replicaLagMillis) + "s behind the primary database)");
+        } catch (Exception e) {
+            plugin.log(Level.WARNING, "Failed to connect to the read replica or read its lag. "
+                                      + "All reads will use the primary database", e);
+            replicaPool.close();
+            replicaPool = null;
+            return;
+        }
+
+        // Keep the replica's lag up to date off the threads reading through it
+        replicaLagMonitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "HuskSync-ReplicaLagMonitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replicaLagMonitor.scheduleWithFixedDelay(this::refreshReplicaLag, REPLICA_LAG_CHECK_INTERVAL_MILLIS,
+                REPLICA_LAG_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a pool of connections to the database
+     *
+     * @param poolName        the name of the pool
+     * @param maximumPoolSize the maximum number of connections in the pool
+     * @param minimumIdle     the minimum number of idle connections to keep in the pool
+     * @return the {@link HikariDataSource}
+     */
+    @NotNull
+    private HikariDataSource createConnectionPool(@NotNull String poolName, int maximumPoolSize, int minimumIdle) {
+        // Create jdbc driver connection url
+        final String jdbcUrl = "jdbc:mysql://" + mySqlHost + ":" + mySqlPort + "/" + mySqlDatabaseName + mySqlConnectionParameters;
+        final HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl(jdbcUrl);
+
+        // Authenticate
+        pool.setUsername(mySqlUsername);
+        pool.setPassword(mySqlPassword);
+
+        // Set various additional parameters
+        pool.setMaximumPoolSize(maximumPoolSize);
+        pool.setMinimumIdle(minimumIdle);
+        pool.setMaxLifetime(hikariMaximumLifetime);
+        pool.setKeepaliveTime(hikariKeepAliveTime);
+        pool.setConnectionTimeout(hikariConnectionTimeOut);
+        pool.setPoolName(poolName);
+        return pool;
     }
 
     @Override
     public boolean initialize() {
         try {
-            // Create jdbc driver connection url
-            final String jdbcUrl = "jdbc:mysql://" + mySqlHost + ":" + mySqlPort + "/" + mySqlDatabaseName + mySqlConnectionParameters;
-            connectionPool = new HikariDataSource();
-            connectionPool.setJdbcUrl(jdbcUrl);
-
-            // Authenticate
-            connectionPool.setUsername(mySqlUsername);
-            connectionPool.setPassword(mySqlPassword);
-
-            // Set various additional parameters
-            connectionPool.setMaximumPoolSize(hikariMaximumPoolSize);
-            connectionPool.setMinimumIdle(hikariMinimumIdle);
-            connectionPool.setMaxLifetime(hikariMaximumLifetime);
-            connectionPool.setKeepaliveTime(hikariKeepAliveTime);
-            connectionPool.setConnectionTimeout(hikariConnectionTimeOut);
-            connectionPool.setPoolName(DATA_POOL_NAME);
-
-            // Prepare database schema; make tables if they don't exist
+            final String poolName = shardName == null ? DATA_POOL_NAME : DATA_POOL_NAME + "-" + shardName;
+            connectionPool = createConnectionPool(poolName, hikariMaximumPoolSize,
+                    Math.min(hikariMinimumIdle, hikariMaximumPoolSize));
+            backgroundPool = createConnectionPool(poolName + "-Background", hikariBackgroundPoolSize,
+                    Math.min(hikariMinimumIdle, hikariBackgroundPoolSize));
+
+            // Prepare database schema; make tables if they don't exist, or migrate them to the current version
             try (Connection connection = connectionPool.getConnection()) {
-                // Load database schema CREATE statements from schema file
-                final String[] databaseSchema = getSchemaStatements("database/mysql_schema.sql");
-                try (Statement statement = connection.createStatement()) {
-                    for (String tableCreationStatement : databaseSchema) {
-                        statement.execute(tableCreationStatement);
-                    }
+                if (prepareSchema(connection)) {
+                    warmUserRegistry(connection);
+                    prepareReplicaPool();
+                    startSaveQueue();
+                    maintenance.start(getMaintenanceJobs());
+                    return true;
                 }
-                return true;
+                return false;
             } catch (SQLException | IOException e) {
                 plugin.log(Level.SEVERE, "Failed to perform database setup: " + e.getMessage());
             }
         } catch (Exception e) {
             plugin.log(Level.SEVERE, "An unhandled exception occurred during database setup!", e);
         }
-        return false;
+        return false;
+    }
+
+    /**
+     * Create the database tables if they do not exist, or migrate existing tables to the current schema version
+     *
+     * @param connection the connection to prepare the schema over
+     * @return whether the schema is ready to be used
+     * @throws SQLException if a statement fails
+     * @throws IOException  if a schema resource could not be read
+     */
+    private boolean prepareSchema(@NotNull Connection connection) throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(formatStatementTables("""
+                    CREATE TABLE IF NOT EXISTS `%schema_version_table%`
+                    (
+                        `version`    int      NOT NULL,
+                        `applied_at` datetime NOT NULL,
+
+                        PRIMARY KEY (`version`)
+                    );"""));
+        }
+
+        // Hold a named lock while migrating, so servers starting together do not apply the same migration twice
+        final String lockName = getSchemaLockName();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?,?);")) {
+            statement.setString(1, lockName);
+            statement.setInt(2, SCHEMA_LOCK_TIMEOUT_SECONDS);
+            final ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                plugin.log(Level.SEVERE, "Timed out waiting for another server to finish migrating the database "
+                                         + "schema. Please restart the server once it has finished");
+                return false;
+            }
+        }
+        try {
+            return migrateSchema(connection);
+        } finally {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?);")) {
+                statement.setString(1, lockName);
+                statement.executeQuery();
+            }
+        }
+    }
+
+    /**
+     * Create or migrate the database tables, while holding the schema lock. The schema version is read inside the
+     * lock, so a server that waited on another's migration finds it already applied.
+     *
+     * @param connection the connection holding the schema lock
+     * @return whether the schema is ready to be used
+     * @throws SQLException if a statement fails
+     * @throws IOException  if a schema resource could not be read
+     */
+    private boolean migrateSchema(@NotNull Connection connection) throws SQLException, IOException {
+        int schemaVersion = getSchemaVersion(connection);
+        if (schemaVersion == 0) {
+            if (!connection.getMetaData().getTables(mySqlDatabaseName, null,
+                    plugin.getSettings().getTableName(Settings.TableName.USERS), new String[]{"TABLE"}).next()) {
+                // Create the tables at the current version on a fresh install
+                executeStatements(connection, getSchemaStatements("database/mysql_schema.sql"));
+                setSchemaVersion(connection, SCHEMA_VERSION);
+                return true;
+            }
+
+            // Tables created before the schema was versioned are at version 1
+            schemaVersion = 1;
+        }
+        if (schemaVersion > SCHEMA_VERSION) {
+            plugin.log(Level.SEVERE, "The database schema (v" + schemaVersion + ") is newer than this version of "
+                                     + "HuskSync supports (v" + SCHEMA_VERSION + "). Please update the plugin");
+            return false;
+        }
+
+        // Apply each migration in order, recording the version as each is completed
+        for (int version = schemaVersion + 1; version <= SCHEMA_VERSION; version++) {
+            plugin.log(Level.INFO, "Migrating the database schema to v" + version + ". This may take a while...");
+            if (version == 2 && hasBinaryUuids(connection)) {
+                // A previous run was interrupted after swapping in the converted tables, so must not convert them
+                // again; only the old tables remain to be dropped
+                executeStatements(connection, new String[]{
+                        formatStatementTables("DROP TABLE IF EXISTS `%user_data_table%_v1`;"),
+                        formatStatementTables("DROP TABLE IF EXISTS `%users_table%_v1`;")});
+            } else {
+                executeStatements(connection, getSchemaStatements("database/migrations/mysql_v" + version + ".sql"));
+            }
+            setSchemaVersion(connection, version);
+            plugin.log(Level.INFO, "Successfully migrated the database schema to v" + version);
+        }
+        return true;
+    }
+
+    private int getSchemaVersion(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            final ResultSet resultSet = statement.executeQuery(formatStatementTables("""
+                    SELECT MAX(`version`)
+                    FROM `%schema_version_table%`;"""));
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Get whether the users table already stores UUIDs in the binary form introduced by the v2 schema
+     *
+     * @param connection the connection to check the table over
+     * @return whether the users table has binary UUIDs
+     * @throws SQLException if the table metadata could not be read
+     */
+    private boolean hasBinaryUuids(@NotNull Connection connection) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(mySqlDatabaseName, null,
+                plugin.getSettings().getTableName(Settings.TableName.USERS), "uuid")) {
+            return columns.next() && columns.getString("TYPE_NAME").equalsIgnoreCase("BINARY");
+        }
+    }
+
+    /**
+     * Get the name of the lock held while migrating the schema, unique to the database and its tables. Lock names
+     * are shared by every database on a MySQL server and limited to 64 characters, so the name is hashed.
+     *
+     * @return the schema lock name
+     */
+    @NotNull
+    private String getSchemaLockName() {
+        final String versionTable = plugin.getSettings().getTableName(Settings.TableName.SCHEMA_VERSION);
+        return "husksync_schema_" + Integer.toHexString((mySqlDatabaseName + "." + versionTable).hashCode());
+    }
+
+    private void setSchemaVersion(@NotNull Connection connection, int version) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                INSERT IGNORE INTO `%schema_version_table%` (`version`,`applied_at`)
+                VALUES (?,NOW());"""))) {
+            statement.setInt(1, version);
+            statement.executeUpdate();
+        }
+    }
+
+    private void executeStatements(@NotNull Connection connection, @NotNull String[] statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Point a user at their most recent data snapshot, so that their current data can be read by primary key
+     *
+     * @param connection the connection to update the pointer over
+     * @param playerUuid the UUID of the user to update the pointer of
+     * @throws SQLException if the statement fails
+     */
+    private void updateCurrentVersion(@NotNull Connection connection, @NotNull UUID playerUuid) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                UPDATE `%users_table%`
+                SET `current_version`=(SELECT `version_uuid`
+                                       FROM `%user_data_table%`
+                                       WHERE `player_uuid`=?
+                                       ORDER BY `timestamp` DESC
+                                       LIMIT 1)
+                WHERE `uuid`=?;"""))) {
+            statement.setBytes(1, toBinary(playerUuid));
+            statement.setBytes(2, toBinary(playerUuid));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Project the newest snapshot of each user saved in a batch into the statistics projection, in the background.
+     * A projection that fails is repaired by the backfill maintenance job
+     *
+     * @param pendingData the batch of saves
+     */
+    private void projectStatistics(@NotNull List<PendingUserData> pendingData) {
+        final Map<UUID, UserDataSnapshot> newestSnapshots = new LinkedHashMap<>();
+        for (PendingUserData data : pendingData) {
+            newestSnapshots.merge(data.user().uuid, data.snapshot(), (current, snapshot) ->
+                    snapshot.versionTimestamp().before(current.versionTimestamp()) ? current : snapshot);
+        }
+        runAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                connection.setAutoCommit(false);
+                for (Map.Entry<UUID, UserDataSnapshot> snapshot : newestSnapshots.entrySet()) {
+                    try {
+                        statisticsProjector.project(connection, snapshot.getKey(), snapshot.getValue().versionUUID(),
+                                snapshot.getValue().userData());
+                    } catch (SQLException e) {
+                        plugin.log(Level.WARNING, "Failed to project the statistics of user "
+                                                  + snapshot.getKey(), e);
+                    }
+                }
+            } catch (SQLException e) {
+                plugin.log(Level.WARNING, "Failed to update the statistics projection", e);
+            }
+        });
+    }
+
+    /**
+     * Convert a {@link UUID} to its 16-byte binary column representation
+     *
+     * @param uuid the UUID to convert
+     * @return the UUID's binary representation
+     */
+    static byte[] toBinary(@NotNull UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Convert a 16-byte binary column value to a {@link UUID}
+     *
+     * @param bytes the binary representation to convert
+     * @return the UUID
+     */
+    @NotNull
+    static UUID fromBinary(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static byte[] readData(@NotNull ResultSet resultSet) throws SQLException {
+        return resultSet.getBytes("data");
+    }
+
+    /**
+     * Whether the snapshot at the current row of a result set is stored in full by the data adapter
+     *
+     * @param resultSet the result set, including the {@code delta_base} and {@code sectioned} columns
+     * @return whether the snapshot's data can be adapted as it is stored
+     * @throws SQLException if the columns could not be read
+     */
+    private static boolean isStoredInFull(@NotNull ResultSet resultSet) throws SQLException {
+        return resultSet.getBytes("delta_base") == null && !resultSet.getBoolean("sectioned");
+    }
+
+    /**
+     * Decode the snapshot at the current row of a result set. Snapshots stored in full are adapted straight from the
+     * column's stream, rather than from a copy of the stored bytes
+     *
+     * @param connection the connection to read the snapshot's chain or sections on
+     * @param resultSet  the result set, including the {@code delta_base}, {@code sectioned} and {@code data} columns
+     * @return the decoded {@link UserData}
+     * @throws SQLException if the snapshot could not be read
+     */
+    @NotNull
+    private UserData readUserData(@NotNull Connection connection,
+                                  @NotNull ResultSet resultSet) throws SQLException, DataAdaptionException {
+        if (isStoredInFull(resultSet)) {
+            return readFullData(resultSet);
+        }
+        return decodeData(connection, DeltaChainStore.readStoredData(resultSet));
+    }
+
+    /**
+     * Adapt the snapshot stored in full at the current row of a result set, reading it from the archive if archived
+     *
+     * @param resultSet the result set, including the {@code version_uuid}, {@code data} and archive pointer columns
+     * @return the adapted {@link UserData}
+     * @throws SQLException if the snapshot could not be read
+     */
+    @NotNull
+    private UserData readFullData(@NotNull ResultSet resultSet) throws SQLException, DataAdaptionException {
+        final byte[] archiveSegment = resultSet.getBytes("archive_segment");
+        if (archiveSegment == null) {
+            return plugin.getDataAdapter().fromStream(resultSet.getBinaryStream("data"));
+        }
+        final UUID versionUuid = fromBinary(resultSet.getBytes("version_uuid"));
+        if (archive == null) {
+            throw new IllegalStateException("Snapshot " + versionUuid + " is archived, but no archive directory is "
+                                            + "configured");
+        }
+        try {
+            return plugin.getDataAdapter().fromBytes(archive.read(new SnapshotArchive.ArchivePointer(
+                    fromBinary(archiveSegment), resultSet.getLong("archive_offset"),
+                    resultSet.getInt("archive_length")), versionUuid));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read snapshot " + versionUuid + " from the archive", e);
+        }
+    }
+
+    /**
+     * Decode a snapshot's stored data, reconstructing it from its chain if it is delta-encoded, or from its sections if
+     * it is stored as a manifest
+     *
+     * @param connection the connection to read the snapshot's chain or sections on
+     * @param stored     the snapshot's stored data
+     * @return the decoded {@link UserData}
+     * @throws SQLException if the snapshot's chain or sections could not be read
+     */
+    @NotNull
+    private UserData decodeData(@NotNull Connection connection,
+                                @NotNull DeltaChainStore.StoredData stored) throws SQLException, DataAdaptionException {
+        if (stored.sectioned()) {
+            return sectionStore.assemble(connection, stored.data());
+        }
+        if (stored.deltaBase() == null) {
+            return plugin.getDataAdapter().fromBytes(stored.data());
+        }
+        return deltaChainStore.decode(connection, stored);
+    }
+
+    /**
+     * Cache the database entries of users already online, such as when the plugin is reloaded
+     *
+     * @param connection the connection to read users on
+     * @throws SQLException if the statement fails
+     */
+    private void warmUserRegistry(@NotNull Connection connection) throws SQLException {
+        final List<UUID> onlineUsers = plugin.getOnlineUsers().stream().map(user -> user.uuid).toList();
+        if (onlineUsers.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                SELECT `uuid`, `username`
+                FROM `%users_table%`
+                WHERE `uuid` IN (%placeholders%);""".replace("%placeholders%",
+                String.join(",", Collections.nCopies(onlineUsers.size(), "?")))))) {
+            for (int i = 0; i < onlineUsers.size(); i++) {
+                statement.setBytes(i + 1, toBinary(onlineUsers.get(i)));
+            }
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                userRegistry.put(new User(fromBinary(resultSet.getBytes("uuid")), resultSet.getString("username")));
+            }
+        }
+    }
+
+    /**
+     * Get the name of a maintenance job on this database, distinguishing the jobs of each shard
+     *
+     * @param job the name of the job
+     * @return the name of the job on this database
+     */
+    @NotNull
+    private String getJobName(@NotNull String job) {
+        return shardName == null ? job : job + "_" + shardName;
+    }
+
+    /**
+     * Get the UUIDs of a page of the users registered in the database, in UUID order
+     *
+     * @param after the UUID to list users after, or {@code null} to list from the first user
+     * @param limit the maximum number of users to list
+     * @return the UUIDs of the users
+     * @throws SQLException if the statement fails
+     */
+    @NotNull
+    protected List<UUID> getUserUuids(@Nullable UUID after, int limit) throws SQLException {
+        final List<UUID> users = new ArrayList<>();
+        try (Connection connection = getConnection(Workload.BACKGROUND)) {
+            try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                    SELECT `uuid`
+                    FROM `%users_table%`
+                    WHERE `uuid`>?
+                    ORDER BY `uuid`
+                    LIMIT ?;"""))) {
+                statement.setBytes(1, after == null ? new byte[16] : toBinary(after));
+                statement.setInt(2, limit);
+                final ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    users.add(fromBinary(resultSet.getBytes("uuid")));
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Get the job projecting the current snapshot of each user whose statistics projection is missing or out of date,
+     * such as users saved before the projection was enabled, or whose projection failed
+     *
+     * @return the {@link MaintenanceJob}
+     */
+    @NotNull
+    private MaintenanceJob getStatisticsBackfillJob() {
+        return new MaintenanceJob() {
+            private UUID lastUser;
+            private boolean complete;
+
+            @NotNull
+            @Override
+            public String getName() {
+                return getJobName("statistics_backfill");
+            }
+
+            @Override
+            public void start() {
+                lastUser = null;
+                complete = false;
+            }
+
+            @Override
+            public int runChunk(int chunkSize) throws SQLException {
+                final List<User> users = new ArrayList<>();
+                try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            SELECT `user`.`uuid`, `user`.`username`
+                            FROM `%users_table%` AS `user`
+                            LEFT JOIN `%player_status_table%` AS `status`
+                                ON `status`.`player_uuid`=`user`.`uuid`
+                            WHERE `user`.`uuid`>? AND `user`.`current_version` IS NOT NULL
+                                AND (`status`.`version_uuid` IS NULL
+                                    OR `status`.`version_uuid`<>`user`.`current_version`)
+                            ORDER BY `user`.`uuid`
+                            LIMIT ?;"""))) {
+                        statement.setBytes(1, lastUser == null ? new byte[16] : toBinary(lastUser));
+                        statement.setInt(2, chunkSize);
+                        final ResultSet resultSet = statement.executeQuery();
+                        while (resultSet.next()) {
+                            users.add(new User(fromBinary(resultSet.getBytes("uuid")),
+                                    resultSet.getString("username")));
+                        }
+                    }
+                }
+                for (User user : users) {
+                    final Optional<UserDataSnapshot> snapshot = selectCurrentUserData(user, Workload.BACKGROUND,
+                            false);
+                    if (snapshot.isEmpty()) {
+                        continue;
+                    }
+                    try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                        connection.setAutoCommit(false);
+                        statisticsProjector.project(connection, user.uuid, snapshot.get().versionUUID(),
+                                snapshot.get().userData());
+                    } catch (SQLException e) {
+                        plugin.log(Level.WARNING, "Failed to project the statistics of user " + user.uuid, e);
+                    }
+                }
+                complete = users.size() < chunkSize;
+                if (!users.isEmpty()) {
+                    lastUser = users.get(users.size() - 1).uuid;
+                }
+                return users.size();
+            }
+
+            @Override
+            public boolean isComplete() {
+                return complete;
+            }
+        };
+    }
+
+    /**
+     * Get the global maintenance jobs to run periodically; rotating every user's snapshots, deleting orphaned data
+     * sections, repairing current version pointers to deleted snapshots and, if enabled, backfilling the statistics
+     * projection and archiving old snapshots
+     *
+     * @return the {@link MaintenanceJob}s, in the order to run them
+     */
+    @NotNull
+    private List<MaintenanceJob> getMaintenanceJobs() {
+        final List<MaintenanceJob> jobs = new ArrayList<>();
+        jobs.add(new MaintenanceJob() {
+            private UUID lastUser;
+            private boolean complete;
+
+            @NotNull
+            @Override
+            public String getName() {
+                return getJobName("prune");
+            }
+
+            @Override
+            public void start() {
+                lastUser = null;
+                complete = false;
+            }
+
+            @Override
+            public int runChunk(int chunkSize) throws SQLException {
+                final List<UUID> users = getUserUuids(lastUser, chunkSize);
+                try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                    connection.setAutoCommit(false);
+                    for (UUID user : users) {
+                        try {
+                            rotateUserData(connection, user);
+                            connection.commit();
+                        } catch (SQLException | DataAdaptionException e) {
+                            connection.rollback();
+                            plugin.log(Level.WARNING, "Failed to prune the data of user " + user, e);
+                        }
+                    }
+                }
+                complete = users.size() < chunkSize;
+                if (!users.isEmpty()) {
+                    lastUser = users.get(users.size() - 1);
+                }
+                return users.size();
+            }
+
+            @Override
+            public boolean isComplete() {
+                return complete;
+            }
+        });
+        jobs.add(MaintenanceJob.of(getJobName("orphaned_sections"), chunkSize -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                        DELETE FROM `%sections_table%`
+                        WHERE `ref_count`<=0
+                        LIMIT ?;"""))) {
+                    statement.setInt(1, chunkSize);
+                    return statement.executeUpdate();
+                }
+            }
+        }));
+        jobs.add(MaintenanceJob.of(getJobName("dangling_versions"), chunkSize -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                final List<UUID> users = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                        SELECT `user`.`uuid`
+                        FROM `%users_table%` AS `user`
+                        LEFT JOIN `%user_data_table%` AS `snapshot`
+                            ON `snapshot`.`version_uuid`=`user`.`current_version`
+                        WHERE `user`.`current_version` IS NOT NULL AND `snapshot`.`version_uuid` IS NULL
+                        LIMIT ?;"""))) {
+                    statement.setInt(1, chunkSize);
+                    final ResultSet resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        users.add(fromBinary(resultSet.getBytes("uuid")));
+                    }
+                }
+                for (UUID user : users) {
+                    updateCurrentVersion(connection, user);
+                    deltaChainStore.forgetHead(user);
+                }
+                return users.size();
+            }
+        }));
+        if (statisticsProjection) {
+            jobs.add(getStatisticsBackfillJob());
+        }
+        if (plugin.getSettings().getArchiveAfterDays() > 0 && archive == null) {
+            plugin.log(Level.SEVERE, "Snapshot archiving is not enabled, as database.archive.directory is not set to "
+                                     + "the absolute path of a directory shared by every server");
+        } else if (plugin.getSettings().getArchiveAfterDays() > 0) {
+            final SnapshotArchive archive = this.archive;
+            jobs.add(new MaintenanceJob() {
+                private SnapshotArchive.SegmentWriter writer;
+                private Timestamp threshold;
+                private boolean complete;
+
+                @NotNull
+                @Override
+                public String getName() {
+                    return getJobName("archive");
+                }
+
+                @Override
+                public void start() throws IOException {
+                    archive.initialize();
+                    writer = archive.openWriter();
+                    threshold = new Timestamp(System.currentTimeMillis()
+                                              - TimeUnit.DAYS.toMillis(plugin.getSettings().getArchiveAfterDays()));
+                    complete = false;
+                }
+
+                @Override
+                public int runChunk(int chunkSize) throws SQLException, IOException {
+                    try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                        final int archived = archiveSnapshots(connection, writer, threshold, chunkSize);
+                        complete = archived < chunkSize;
+                        return archived;
+                    }
+                }
+
+                @Override
+                public boolean isComplete() {
+                    return complete;
+                }
+
+                @Override
+                public void finish(boolean leaseHeld) throws SQLException, IOException {
+                    if (writer != null) {
+                        writer.close();
+                        writer = null;
+                    }
+
+                    // Segments are only deleted while no other server can be part way through archiving into one
+                    if (!leaseHeld) {
+                        return;
+                    }
+                    try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                        final int deletedSegments = deleteUnusedSegments(connection, archive);
+                        if (deletedSegments > 0) {
+                            plugin.log(Level.INFO, "Deleted " + deletedSegments + " unused archive segments");
+                        }
+                    }
+                }
+            });
+        }
+        return jobs;
+    }
+
+    /**
+     * Move a batch of old snapshots into the archive. Only snapshots stored in full that are neither the current
+     * snapshot of their user nor encoded against by another snapshot are archived
+     *
+     * @param connection the connection to archive snapshots on
+     * @param writer     the writer to append snapshots to the archive with
+     * @param threshold  the time snapshots must be older than to be archived
+     * @param limit      the maximum number of snapshots to archive
+     * @return the number of snapshots selected to be archived
+     * @throws SQLException if a statement fails
+     * @throws IOException  if the archive could not be written to
+     */
+    private int archiveSnapshots(@NotNull Connection connection, @NotNull SnapshotArchive.SegmentWriter writer,
+                                 @NotNull Timestamp threshold, int limit) throws SQLException, IOException {
+        final Map<UUID, SnapshotArchive.ArchivePointer> pointers = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                SELECT `snapshot`.`version_uuid`, `snapshot`.`data`
+                FROM `%user_data_table%` AS `snapshot`
+                LEFT JOIN `%user_data_table%` AS `dependent`
+                    ON `dependent`.`delta_base`=`snapshot`.`version_uuid`
+                LEFT JOIN `%users_table%` AS `owner`
+                    ON `owner`.`current_version`=`snapshot`.`version_uuid`
+                WHERE `snapshot`.`timestamp`<? AND `snapshot`.`archive_segment` IS NULL
+                    AND `snapshot`.`delta_base` IS NULL AND `snapshot`.`sectioned` IS FALSE
+                    AND `dependent`.`version_uuid` IS NULL AND `owner`.`uuid` IS NULL
+                LIMIT ?;"""))) {
+            statement.setTimestamp(1, threshold);
+            statement.setInt(2, limit);
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                final UUID versionUuid = fromBinary(resultSet.getBytes("version_uuid"));
+                pointers.put(versionUuid, writer.append(versionUuid, readData(resultSet)));
+            }
+        }
+        if (pointers.isEmpty()) {
+            return 0;
+        }
+
+        // Point the snapshots at their records once written, unless they became current or were encoded against since
+        writer.flush();
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                UPDATE `%user_data_table%` AS `snapshot`
+                LEFT JOIN `%user_data_table%` AS `dependent`
+                    ON `dependent`.`delta_base`=`snapshot`.`version_uuid`
+                LEFT JOIN `%users_table%` AS `owner`
+                    ON `owner`.`current_version`=`snapshot`.`version_uuid`
+                SET `snapshot`.`archive_segment`=?, `snapshot`.`archive_offset`=?, `snapshot`.`archive_length`=?,
+                    `snapshot`.`data`=''
+                WHERE `snapshot`.`version_uuid`=? AND `snapshot`.`archive_segment` IS NULL
+                    AND `snapshot`.`delta_base` IS NULL AND `dependent`.`version_uuid` IS NULL
+                    AND `owner`.`uuid` IS NULL;"""))) {
+            for (Map.Entry<UUID, SnapshotArchive.ArchivePointer> pointer : pointers.entrySet()) {
+                statement.setBytes(1, toBinary(pointer.getValue().segment()));
+                statement.setLong(2, pointer.getValue().offset());
+                statement.setInt(3, pointer.getValue().length());
+                statement.setBytes(4, toBinary(pointer.getKey()));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        return pointers.size();
+    }
+
+    /**
+     * Delete the archive segments that no snapshot points into, such as once their snapshots have been rotated.
+     * Segments written to within the grace period are kept, as records are appended to a segment before the snapshots
+     * are pointed at them, and a server that lost the lease may still be archiving into a segment
+     *
+     * @param connection the connection to read archive pointers on
+     * @param archive    the archive to delete segments from
+     * @return the number of segments deleted
+     * @throws SQLException if the statement fails
+     * @throws IOException  if a segment could not be deleted
+     */
+    private int deleteUnusedSegments(@NotNull Connection connection,
+                                     @NotNull SnapshotArchive archive) throws SQLException, IOException {
+        final long modifiedBefore = System.currentTimeMillis() - ARCHIVE_SEGMENT_GRACE_PERIOD_MILLIS;
+        final Set<UUID> unusedSegments = archive.getSegments();
+        unusedSegments.removeIf(segment -> archive.getLastModified(segment) >= modifiedBefore);
+        if (unusedSegments.isEmpty()) {
+            return 0;
+        }
+        try (Statement statement = connection.createStatement()) {
+            final ResultSet resultSet = statement.executeQuery(formatStatementTables("""
+                    SELECT DISTINCT `archive_segment`
+                    FROM `%user_data_table%`
+                    WHERE `archive_segment` IS NOT NULL;"""));
+            while (resultSet.next()) {
+                unusedSegments.remove(fromBinary(resultSet.getBytes("archive_segment")));
+            }
+        }
+        for (UUID segment : unusedSegments) {
+            archive.deleteSegment(segment);
+        }
+        return unusedSegments.size();
     }
 
     @Override
     public CompletableFuture<Void> ensureUser(@NotNull User user) {
-        return getUser(user.uuid).thenAccept(optionalUser ->
-                optionalUser.ifPresentOrElse(existingUser -> {
-                            if (!existingUser.username.equals(user.username)) {
-                                // Update a user's name if it has changed in the database
-                                try (Connection connection = getConnection()) {
-                                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                                            UPDATE `%users_table%`
-                                            SET `username`=?
-                                            WHERE `uuid`=?"""))) {
-
-                                        statement.setString(1, user.username);
-                                        statement.setString(2, existingUser.uuid.toString());
-                                        statement.executeUpdate();
-                                    }
-                                    plugin.log(Level.INFO, "Updated " + user.username + "'s name in the database (" + existingUser.username + " -> " + user.username + ")");
-                                } catch (SQLException e) {
-                                    plugin.log(Level.SEVERE, "Failed to update a user's name on the database", e);
-                                }
-                            }
-                        },
-                        () -> {
-                            // Insert new player data into the database
-                            try (Connection connection = getConnection()) {
-                                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                                        INSERT INTO `%users_table%` (`uuid`,`username`)
-                                        VALUES (?,?);"""))) {
-
-                                    statement.setString(1, user.uuid.toString());
-                                    statement.setString(2, user.username);
-                                    statement.executeUpdate();
-                                }
-                            } catch (SQLException e) {
-                                plugin.log(Level.SEVERE, "Failed to insert a user into the database", e);
-                            }
-                        }));
+        if (userRegistry.isRegistered(user)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getUser(user.uuid).thenAcceptAsync(optionalUser -> {
+            if (optionalUser.isPresent() && optionalUser.get().username.equals(user.username)) {
+                return;
+            }
+
+            // Insert the user, or update their name if it has changed
+            try (Connection connection = getConnection(Workload.INTERACTIVE)) {
+                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                        INSERT INTO `%users_table%` (`uuid`,`username`)
+                        VALUES (?,?)
+                        ON DUPLICATE KEY UPDATE `username`=VALUES(`username`);"""))) {
+                    statement.setBytes(1, toBinary(user.uuid));
+                    statement.setString(2, user.username);
+                    statement.executeUpdate();
+                }
+                userRegistry.put(user);
+                if (optionalUser.isPresent()) {
+                    plugin.log(Level.INFO, "Updated " + user.username + "'s name in the database ("
+                                           + optionalUser.get().username + " -> " + user.username + ")");
+                    plugin.getRedisManager().sendUserRename(user);
+                }
+            } catch (SQLException e) {
+                plugin.log(Level.SEVERE, "Failed to insert or update a user in the database", e);
+            }
+        }, getExecutor(Workload.INTERACTIVE));
     }
 
     @Override
     public CompletableFuture<Optional<User>> getUser(@NotNull UUID uuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = getConnection()) {
+        final Optional<User> cachedUser = userRegistry.get(uuid);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser);
+        }
+        return supplyAsync(Workload.INTERACTIVE, () -> {
+            try (Connection connection = getConnection(Workload.INTERACTIVE)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
                         SELECT `uuid`, `username`
                         FROM `%users_table%`
                         WHERE `uuid`=?"""))) {
 
-                    statement.setString(1, uuid.toString());
+                    statement.setBytes(1, toBinary(uuid));
 
                     final ResultSet resultSet = statement.executeQuery();
                     if (resultSet.next()) {
-                        return Optional.of(new User(UUID.fromString(resultSet.getString("uuid")),
-                                resultSet.getString("username")));
+                        final User user = new User(fromBinary(resultSet.getBytes("uuid")),
+                                resultSet.getString("username"));
+                        userRegistry.put(user);
+                        return Optional.of(user);
                     }
                 }
             } catch (SQLException e) {
@@ -179,8 +1135,12 @@ public class MySqlDatabase extends Database {
 
     @Override
     public CompletableFuture<Optional<User>> getUserByName(@NotNull String username) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = getConnection()) {
+        final Optional<User> cachedUser = userRegistry.getByName(username);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser);
+        }
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
                         SELECT `uuid`, `username`
                         FROM `%users_table%`
@@ -189,8 +1149,10 @@ public class MySqlDatabase extends Database {
 
                     final ResultSet resultSet = statement.executeQuery();
                     if (resultSet.next()) {
-                        return Optional.of(new User(UUID.fromString(resultSet.getString("uuid")),
-                                resultSet.getString("username")));
+                        final User user = new User(fromBinary(resultSet.getBytes("uuid")),
+                                resultSet.getString("username"));
+                        userRegistry.put(user);
+                        return Optional.of(user);
                     }
                 }
             } catch (SQLException e) {
@@ -202,182 +1164,677 @@ public class MySqlDatabase extends Database {
 
     @Override
     public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserData(@NotNull User user) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = getConnection()) {
+        return getCurrentUserData(user, Workload.INTERACTIVE);
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserDataForDisplay(@NotNull User user) {
+        if (replicaPool == null) {
+            return getCurrentUserData(user, Workload.BACKGROUND);
+        }
+        // Data read from the replica may be out of date, so is not cached
+        return plugin.getRedisManager().getCachedUserData(user).thenApplyAsync(cachedData -> cachedData
+                .or(() -> selectCurrentUserData(user, Workload.BACKGROUND, true)), getExecutor(Workload.BACKGROUND));
+    }
+
+    /**
+     * Get the current user data for a given user from the cache, or else from the database, caching it
+     *
+     * @param user     the user to get data for
+     * @param workload the {@link Workload} the read is part of
+     * @return an optional containing the {@link UserDataSnapshot}, if it exists, or an empty optional if it does not
+     */
+    private CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserData(@NotNull User user,
+                                                                             @NotNull Workload workload) {
+        return plugin.getRedisManager().getCachedUserData(user).thenApplyAsync(cachedData -> cachedData.or(() -> {
+            final Optional<UserDataSnapshot> currentData = selectCurrentUserData(user, workload, false);
+            currentData.ifPresent(snapshot -> plugin.getRedisManager().setCachedUserData(user, snapshot));
+            return currentData;
+        }), getExecutor(workload));
+    }
+
+    /**
+     * Select the current user data for a given user from the database, bypassing the cache
+     *
+     * @param user        the user to get data for
+     * @param workload    the {@link Workload} the read is part of
+     * @param fromReplica whether the data may be read from the read replica
+     * @return an optional containing the {@link UserDataSnapshot}, if it exists, or an empty optional if it does not
+     */
+    private Optional<UserDataSnapshot> selectCurrentUserData(@NotNull User user, @NotNull Workload workload,
+                                                             boolean fromReplica) {
+        try (Connection connection = fromReplica ? getReadConnection(user.uuid) : getConnection(workload)) {
+            try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                    SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `delta_base`, `sectioned`,
+                           `archive_segment`, `archive_offset`, `archive_length`, `data`
+                    FROM `%users_table%`
+                    INNER JOIN `%user_data_table%`
+                        ON `%user_data_table%`.`version_uuid`=`%users_table%`.`current_version`
+                    WHERE `uuid`=?;"""))) {
+                statement.setBytes(1, toBinary(user.uuid));
+                final ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    return Optional.of(new UserDataSnapshot(
+                            fromBinary(resultSet.getBytes("version_uuid")),
+                            Date.from(resultSet.getTimestamp("timestamp").toInstant()),
+                            DataSaveCause.getCauseByName(resultSet.getString("save_cause")),
+                            resultSet.getBoolean("pinned"),
+                            readUserData(connection, resultSet)));
+                }
+            }
+        } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+            plugin.log(Level.SEVERE, "Failed to fetch a user's current user data from the database", e);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<List<UserDataSnapshot>> getUserData(@NotNull User user) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getReadConnection(user.uuid)) {
+                return selectUserData(connection, user, true);
+            } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                plugin.log(Level.SEVERE, "Failed to fetch a user's current user data from the database", e);
+            }
+            return new ArrayList<>();
+        });
+    }
+
+    /**
+     * Select all of a user's snapshots, newest first
+     *
+     * @param connection             the connection to read on
+     * @param user                   the user to get data for
+     * @param skipUnreadableArchives whether snapshots whose archive record cannot be read are left out, rather than
+     *                               failing the whole read
+     * @return the user's snapshots
+     * @throws SQLException if a statement fails
+     */
+    @NotNull
+    private List<UserDataSnapshot> selectUserData(@NotNull Connection connection, @NotNull User user,
+                                                  boolean skipUnreadableArchives) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `delta_base`, `sectioned`,
+                       `archive_segment`, `archive_offset`, `archive_length`, `data`
+                FROM `%user_data_table%`
+                WHERE `player_uuid`=?
+                ORDER BY `timestamp` DESC;"""))) {
+            statement.setBytes(1, toBinary(user.uuid));
+            final ResultSet resultSet = statement.executeQuery();
+
+            // Read every snapshot before decoding the rest, as delta-encoded snapshots are reconstructed from
+            // the stored bytes of others. Archived snapshots are never encoded against, so are adapted as
+            // they are read
+            final List<UserDataSnapshotMetadata> snapshots = new ArrayList<>();
+            final Map<UUID, UserData> fullData = new HashMap<>();
+            final Map<UUID, DeltaChainStore.StoredData> storedData = new HashMap<>();
+            while (resultSet.next()) {
+                final UserDataSnapshotMetadata snapshot = new UserDataSnapshotMetadata(
+                        fromBinary(resultSet.getBytes("version_uuid")),
+                        Date.from(resultSet.getTimestamp("timestamp").toInstant()),
+                        DataSaveCause.getCauseByName(resultSet.getString("save_cause")),
+                        resultSet.getBoolean("pinned"), 0);
+                if (isStoredInFull(resultSet) && resultSet.getBytes("archive_segment") != null) {
+                    // An unreadable archive record can be made to fail only its own snapshot, which is left out
+                    try {
+                        fullData.put(snapshot.versionUUID(), readFullData(resultSet));
+                    } catch (IllegalStateException | DataAdaptionException e) {
+                        if (!skipUnreadableArchives) {
+                            throw e;
+                        }
+                        plugin.log(Level.WARNING, "Failed to read an archived snapshot of " + user.username, e);
+                        continue;
+                    }
+                } else {
+                    storedData.put(snapshot.versionUUID(), DeltaChainStore.readStoredData(resultSet));
+                }
+                snapshots.add(snapshot);
+            }
+
+            final List<UserDataSnapshot> retrievedData = new ArrayList<>();
+            final Map<UUID, byte[]> resolved = new HashMap<>();
+            for (UserDataSnapshotMetadata snapshot : snapshots) {
+                UserData userData = fullData.get(snapshot.versionUUID());
+                if (userData == null) {
+                    final DeltaChainStore.StoredData stored = storedData.get(snapshot.versionUUID());
+                    userData = stored.deltaBase() == null ? decodeData(connection, stored)
+                            : deltaChainStore.decode(snapshot.versionUUID(), storedData, resolved);
+                }
+                retrievedData.add(new UserDataSnapshot(snapshot.versionUUID(), snapshot.versionTimestamp(),
+                        snapshot.cause(), snapshot.pinned(), userData));
+            }
+            return retrievedData;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getReadConnection(user.uuid)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                        SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `data`
+                        SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `delta_base`, `sectioned`,
+                               `archive_segment`, `archive_offset`, `archive_length`, `data`
                         FROM `%user_data_table%`
-                        WHERE `player_uuid`=?
+                        WHERE `player_uuid`=? AND `version_uuid`=?
                         ORDER BY `timestamp` DESC
                         LIMIT 1;"""))) {
-                    statement.setString(1, user.uuid.toString());
+                    statement.setBytes(1, toBinary(user.uuid));
+                    statement.setBytes(2, toBinary(versionUuid));
                     final ResultSet resultSet = statement.executeQuery();
                     if (resultSet.next()) {
-                        final Blob blob = resultSet.getBlob("data");
-                        final byte[] dataByteArray = blob.getBytes(1, (int) blob.length());
-                        blob.free();
                         return Optional.of(new UserDataSnapshot(
-                                UUID.fromString(resultSet.getString("version_uuid")),
+                                fromBinary(resultSet.getBytes("version_uuid")),
                                 Date.from(resultSet.getTimestamp("timestamp").toInstant()),
                                 DataSaveCause.getCauseByName(resultSet.getString("save_cause")),
                                 resultSet.getBoolean("pinned"),
-                                plugin.getDataAdapter().fromBytes(dataByteArray)));
+                                readUserData(connection, resultSet)));
                     }
                 }
-            } catch (SQLException | DataAdaptionException e) {
-                plugin.log(Level.SEVERE, "Failed to fetch a user's current user data from the database", e);
+            } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                plugin.log(Level.SEVERE, "Failed to fetch specific user data by UUID from the database", e);
             }
             return Optional.empty();
         });
     }
 
     @Override
-    public CompletableFuture<List<UserDataSnapshot>> getUserData(@NotNull User user) {
-        return CompletableFuture.supplyAsync(() -> {
-            final List<UserDataSnapshot> retrievedData = new ArrayList<>();
-            try (Connection connection = getConnection()) {
+    public CompletableFuture<List<UserDataSnapshotMetadata>> getUserDataMetadata(@NotNull User user) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            final List<UserDataSnapshotMetadata> retrievedMetadata = new ArrayList<>();
+            try (Connection connection = getReadConnection(user.uuid)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                        SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `data`
+                        SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `data_size`
                         FROM `%user_data_table%`
                         WHERE `player_uuid`=?
                         ORDER BY `timestamp` DESC;"""))) {
-                    statement.setString(1, user.uuid.toString());
+                    statement.setBytes(1, toBinary(user.uuid));
                     final ResultSet resultSet = statement.executeQuery();
                     while (resultSet.next()) {
-                        final Blob blob = resultSet.getBlob("data");
-                        final byte[] dataByteArray = blob.getBytes(1, (int) blob.length());
-                        blob.free();
-                        final UserDataSnapshot data = new UserDataSnapshot(
-                                UUID.fromString(resultSet.getString("version_uuid")),
+                        retrievedMetadata.add(new UserDataSnapshotMetadata(
+                                fromBinary(resultSet.getBytes("version_uuid")),
                                 Date.from(resultSet.getTimestamp("timestamp").toInstant()),
                                 DataSaveCause.getCauseByName(resultSet.getString("save_cause")),
                                 resultSet.getBoolean("pinned"),
-                                plugin.getDataAdapter().fromBytes(dataByteArray));
-                        retrievedData.add(data);
+                                resultSet.getLong("data_size")));
                     }
-                    return retrievedData;
                 }
-            } catch (SQLException | DataAdaptionException e) {
-                plugin.log(Level.SEVERE, "Failed to fetch a user's current user data from the database", e);
+            } catch (SQLException e) {
+                plugin.log(Level.SEVERE, "Failed to fetch a user's data snapshot metadata from the database", e);
             }
-            return retrievedData;
+            return retrievedMetadata;
         });
     }
 
     @Override
-    public CompletableFuture<Optional<UserDataSnapshot>> getUserData(@NotNull User user, @NotNull UUID versionUuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = getConnection()) {
+    protected void rotateUserData(@NotNull User user) {
+        try (Connection connection = getConnection(Workload.BACKGROUND)) {
+            connection.setAutoCommit(false);
+            try {
+                rotateUserData(connection, user.uuid);
+                connection.commit();
+            } catch (SQLException | DataAdaptionException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException | DataAdaptionException e) {
+            plugin.log(Level.SEVERE, "Failed to prune user data from the database", e);
+        }
+    }
+
+    /**
+     * Delete a user's oldest unpinned snapshots in excess of the configured maximum, and their unpinned snapshots older
+     * than the configured retention period other than their newest snapshot, on the given connection.
+     * <p>
+     * Snapshots that a kept snapshot is delta-encoded against, directly or through its chain, are kept until the
+     * snapshots that depend on them can be deleted too.
+     *
+     * @param connection the connection to rotate data on
+     * @param userUuid   the UUID of the user to rotate data for
+     * @throws SQLException if the statement fails
+     */
+    private void rotateUserData(@NotNull Connection connection,
+                                @NotNull UUID userUuid) throws SQLException, DataAdaptionException {
+        final int retentionDays = plugin.getSettings().getRetentionDays();
+        final long retainedSince = retentionDays > 0
+                ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays) : Long.MIN_VALUE;
+        final List<UUID> unpinnedSnapshots = new ArrayList<>();
+        final Set<UUID> expiredSnapshots = new HashSet<>();
+        final Map<UUID, UUID> deltaBases = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                SELECT `version_uuid`, `timestamp`, `pinned`, `delta_base`
+                FROM `%user_data_table%`
+                WHERE `player_uuid`=?
+                ORDER BY `timestamp` DESC;"""))) {
+            statement.setBytes(1, toBinary(userUuid));
+            final ResultSet resultSet = statement.executeQuery();
+            boolean newest = true;
+            while (resultSet.next()) {
+                final UUID versionUuid = fromBinary(resultSet.getBytes("version_uuid"));
+                deltaBases.put(versionUuid, DeltaChainStore.readDeltaBase(resultSet));
+                if (!resultSet.getBoolean("pinned")) {
+                    unpinnedSnapshots.add(versionUuid);
+                    if (!newest && resultSet.getTimestamp("timestamp").getTime() < retainedSince) {
+                        expiredSnapshots.add(versionUuid);
+                    }
+                }
+                newest = false;
+            }
+        }
+        final int maxSnapshots = plugin.getSettings().getMaxUserDataSnapshots();
+        if (unpinnedSnapshots.size() > maxSnapshots) {
+            expiredSnapshots.addAll(unpinnedSnapshots.subList(maxSnapshots, unpinnedSnapshots.size()));
+        }
+        if (expiredSnapshots.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<UUID, UUID> snapshot : deltaBases.entrySet()) {
+            if (expiredSnapshots.contains(snapshot.getKey())) {
+                continue;
+            }
+            UUID deltaBase = snapshot.getValue();
+            while (deltaBase != null && expiredSnapshots.remove(deltaBase)) {
+                deltaBase = deltaBases.get(deltaBase);
+            }
+        }
+        if (expiredSnapshots.isEmpty()) {
+            return;
+        }
+        sectionStore.release(connection, expiredSnapshots);
+        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                DELETE FROM `%user_data_table%`
+                WHERE `version_uuid`=?;"""))) {
+            for (UUID versionUuid : expiredSnapshots) {
+                statement.setBytes(1, toBinary(versionUuid));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                connection.setAutoCommit(false);
+                try {
+                    // Rewrite snapshots encoded against this snapshot in full, so they don't depend on it
+                    final List<UUID> dependentSnapshots = new ArrayList<>();
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            SELECT `version_uuid`
+                            FROM `%user_data_table%`
+                            WHERE `delta_base`=?;"""))) {
+                        statement.setBytes(1, toBinary(versionUuid));
+                        final ResultSet resultSet = statement.executeQuery();
+                        while (resultSet.next()) {
+                            dependentSnapshots.add(fromBinary(resultSet.getBytes("version_uuid")));
+                        }
+                    }
+                    if (!dependentSnapshots.isEmpty()) {
+                        final Map<UUID, DeltaChainStore.StoredData> storedData = deltaChainStore.selectStoredData(connection, user.uuid);
+                        for (UUID dependentSnapshot : dependentSnapshots) {
+                            deltaChainStore.rewriteAsKeyframe(connection, dependentSnapshot, storedData);
+                        }
+                    }
+                    sectionStore.release(connection, List.of(versionUuid));
+
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            DELETE FROM `%user_data_table%`
+                            WHERE `player_uuid`=? AND `version_uuid`=?
+                            LIMIT 1;"""))) {
+                        statement.setBytes(1, toBinary(user.uuid));
+                        statement.setBytes(2, toBinary(versionUuid));
+                        if (statement.executeUpdate() == 0) {
+                            connection.rollback();
+                            return false;
+                        }
+                    }
+                    updateCurrentVersion(connection, user.uuid);
+                    connection.commit();
+                } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                    connection.rollback();
+                    throw e;
+                }
+                recordWrite(user.uuid);
+                plugin.getRedisManager().invalidateCachedUserData(user).join();
+                return true;
+            } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                plugin.log(Level.SEVERE, "Failed to delete specific user data from the database", e);
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Look up a user on the primary database, bypassing the user cache, such as to check whether they are still stored
+     * on a shard they are being moved from
+     *
+     * @param uuid the UUID of the user
+     * @return a future returning the user if they are stored in the database, or completing exceptionally if the
+     * lookup fails
+     */
+    protected CompletableFuture<Optional<User>> findStoredUser(@NotNull UUID uuid) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                        SELECT `version_uuid`, `timestamp`, `save_cause`, `pinned`, `data`
-                        FROM `%user_data_table%`
-                        WHERE `player_uuid`=? AND `version_uuid`=?
-                        ORDER BY `timestamp` DESC
-                        LIMIT 1;"""))) {
-                    statement.setString(1, user.uuid.toString());
-                    statement.setString(2, versionUuid.toString());
+                        SELECT `uuid`, `username`
+                        FROM `%users_table%`
+                        WHERE `uuid`=?;"""))) {
+                    statement.setBytes(1, toBinary(uuid));
                     final ResultSet resultSet = statement.executeQuery();
                     if (resultSet.next()) {
-                        final Blob blob = resultSet.getBlob("data");
-                        final byte[] dataByteArray = blob.getBytes(1, (int) blob.length());
-                        blob.free();
-                        return Optional.of(new UserDataSnapshot(
-                                UUID.fromString(resultSet.getString("version_uuid")),
-                                Date.from(resultSet.getTimestamp("timestamp").toInstant()),
-                                DataSaveCause.getCauseByName(resultSet.getString("save_cause")),
-                                resultSet.getBoolean("pinned"),
-                                plugin.getDataAdapter().fromBytes(dataByteArray)));
+                        return Optional.of(new User(uuid, resultSet.getString("username")));
                     }
+                    return Optional.empty();
                 }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to look up user " + uuid + " in the database", e);
+            }
+        });
+    }
+
+    /**
+     * Read all of a user's snapshots from the primary database to export them, such as to move them to another shard.
+     * Unlike {@link #getUserData(User)}, any snapshot that cannot be read fails the export
+     *
+     * @param user the user to export
+     * @return a future returning the user's snapshots, newest first, or completing exceptionally if any could not be
+     * read
+     */
+    protected CompletableFuture<List<UserDataSnapshot>> exportUserData(@NotNull User user) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                return selectUserData(connection, user, false);
             } catch (SQLException | DataAdaptionException e) {
-                plugin.log(Level.SEVERE, "Failed to fetch specific user data by UUID from the database", e);
+                throw new IllegalStateException("Failed to export the data of user " + user.uuid, e);
             }
-            return Optional.empty();
         });
     }
 
-    @Override
-    protected void rotateUserData(@NotNull User user) {
-        final List<UserDataSnapshot> unpinnedUserData = getUserData(user).join().stream()
-                .filter(dataSnapshot -> !dataSnapshot.pinned()).toList();
-        if (unpinnedUserData.size() > plugin.getSettings().getMaxUserDataSnapshots()) {
-            try (Connection connection = getConnection()) {
+    /**
+     * Get the version UUIDs of all of a user's snapshots on the primary database, such as to verify an import
+     *
+     * @param user the user whose snapshots to list
+     * @return a future returning the version UUIDs, or completing exceptionally if they could not be read
+     */
+    protected CompletableFuture<Set<UUID>> getVersionUuids(@NotNull User user) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            final Set<UUID> versionUuids = new HashSet<>();
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                        DELETE FROM `%user_data_table%`
-                        WHERE `player_uuid`=?
-                        AND `pinned` IS FALSE
-                        ORDER BY `timestamp` ASC
-                        LIMIT %entry_count%;""".replace("%entry_count%",
-                        Integer.toString(unpinnedUserData.size() - plugin.getSettings().getMaxUserDataSnapshots()))))) {
-                    statement.setString(1, user.uuid.toString());
-                    statement.executeUpdate();
+                        SELECT `version_uuid`
+                        FROM `%user_data_table%`
+                        WHERE `player_uuid`=?;"""))) {
+                    statement.setBytes(1, toBinary(user.uuid));
+                    final ResultSet resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        versionUuids.add(fromBinary(resultSet.getBytes("version_uuid")));
+                    }
                 }
             } catch (SQLException e) {
-                plugin.log(Level.SEVERE, "Failed to prune user data from the database", e);
+                throw new IllegalStateException("Failed to list the snapshots of user " + user.uuid, e);
             }
-        }
+            return versionUuids;
+        });
     }
 
-    @Override
-    public CompletableFuture<Boolean> deleteUserData(@NotNull User user, @NotNull UUID versionUuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = getConnection()) {
+    /**
+     * Import a user and their snapshots as they are, such as when moving them from another shard. Snapshots already in
+     * the database are skipped, so an import may safely be retried
+     *
+     * @param user      the user to import
+     * @param snapshots the user's snapshots, oldest first
+     * @return a future returning {@code true} if the user was imported, {@code false} if it failed
+     */
+    protected CompletableFuture<Boolean> importUser(@NotNull User user, @NotNull List<UserDataSnapshot> snapshots) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                        DELETE FROM `%user_data_table%`
-                        WHERE `player_uuid`=? AND `version_uuid`=?
-                        LIMIT 1;"""))) {
-                    statement.setString(1, user.uuid.toString());
-                    statement.setString(2, versionUuid.toString());
-                    return statement.executeUpdate() > 0;
+                        INSERT INTO `%users_table%` (`uuid`,`username`)
+                        VALUES (?,?)
+                        ON DUPLICATE KEY UPDATE `username`=VALUES(`username`);"""))) {
+                    statement.setBytes(1, toBinary(user.uuid));
+                    statement.setString(2, user.username);
+                    statement.executeUpdate();
                 }
+                return true;
             } catch (SQLException e) {
-                plugin.log(Level.SEVERE, "Failed to delete specific user data from the database", e);
+                plugin.log(Level.SEVERE, "Failed to import a user into the database", e);
+                return false;
             }
-            return false;
+        }).thenCompose(imported -> imported && !snapshots.isEmpty()
+                ? setUserData(snapshots.stream().map(snapshot -> new PendingUserData(user, snapshot)).toList())
+                : CompletableFuture.completedFuture(imported));
+    }
+
+    /**
+     * Remove the given snapshots of a user from the database, such as once they have been moved to another shard, and
+     * then the user if they have no snapshots left. Snapshots saved since the given ones were read are kept, along with
+     * the user, so they can be moved on a later pass. Unlike deleting their snapshots, this does not invalidate their
+     * cached data, as it is expected to be unchanged
+     *
+     * @param user         the user to remove
+     * @param versionUuids the version UUIDs of the snapshots to remove
+     * @return a future returning {@code true} if the user was removed, or {@code false} if snapshots not among those
+     * given are left, completing exceptionally if the snapshots could not be removed
+     */
+    protected CompletableFuture<Boolean> removeUser(@NotNull User user, @NotNull Collection<UUID> versionUuids) {
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            final boolean removed;
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                connection.setAutoCommit(false);
+                try {
+                    // Locking the user holds off saves, which take a shared lock on the user they reference
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            SELECT `uuid`
+                            FROM `%users_table%`
+                            WHERE `uuid`=?
+                            FOR UPDATE;"""))) {
+                        statement.setBytes(1, toBinary(user.uuid));
+                        if (!statement.executeQuery().next()) {
+                            connection.rollback();
+                            return true;
+                        }
+                    }
+                    final Set<UUID> removedSnapshots = new HashSet<>();
+                    final Set<UUID> remainingSnapshots = new HashSet<>();
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            SELECT `version_uuid`
+                            FROM `%user_data_table%`
+                            WHERE `player_uuid`=?
+                            FOR UPDATE;"""))) {
+                        statement.setBytes(1, toBinary(user.uuid));
+                        final ResultSet resultSet = statement.executeQuery();
+                        while (resultSet.next()) {
+                            final UUID versionUuid = fromBinary(resultSet.getBytes("version_uuid"));
+                            (versionUuids.contains(versionUuid) ? removedSnapshots : remainingSnapshots)
+                                    .add(versionUuid);
+                        }
+                    }
+
+                    // Rewrite kept snapshots encoded against removed ones in full, so they don't depend on them
+                    if (!remainingSnapshots.isEmpty()) {
+                        final Map<UUID, DeltaChainStore.StoredData> storedData = deltaChainStore.selectStoredData(connection, user.uuid);
+                        for (UUID versionUuid : remainingSnapshots) {
+                            final DeltaChainStore.StoredData stored = storedData.get(versionUuid);
+                            if (stored != null && removedSnapshots.contains(stored.deltaBase())) {
+                                deltaChainStore.rewriteAsKeyframe(connection, versionUuid, storedData);
+                            }
+                        }
+                    }
+                    sectionStore.release(connection, removedSnapshots);
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            DELETE FROM `%user_data_table%`
+                            WHERE `player_uuid`=? AND `version_uuid`=?;"""))) {
+                        for (UUID versionUuid : removedSnapshots) {
+                            statement.setBytes(1, toBinary(user.uuid));
+                            statement.setBytes(2, toBinary(versionUuid));
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                    removed = remainingSnapshots.isEmpty();
+                    if (removed) {
+                        try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                                DELETE FROM `%users_table%`
+                                WHERE `uuid`=?;"""))) {
+                            statement.setBytes(1, toBinary(user.uuid));
+                            statement.executeUpdate();
+                        }
+                    } else {
+                        updateCurrentVersion(connection, user.uuid);
+                    }
+                    connection.commit();
+                } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                    connection.rollback();
+                    throw e;
+                }
+                deltaChainStore.forgetHead(user.uuid);
+                statisticsProjector.forget(user.uuid);
+            } catch (SQLException | DataAdaptionException e) {
+                throw new IllegalStateException("Failed to remove user " + user.uuid + " from the database", e);
+            }
+            return removed;
         });
     }
 
     @Override
     public CompletableFuture<Void> setUserData(@NotNull User user, @NotNull UserData userData,
                                                @NotNull DataSaveCause saveCause) {
-        return CompletableFuture.runAsync(() -> {
-            final DataSaveEvent dataSaveEvent = (DataSaveEvent) plugin.getEventCannon().fireDataSaveEvent(user,
-                    userData, saveCause).join();
-            if (!dataSaveEvent.isCancelled()) {
-                final UserData finalData = dataSaveEvent.getUserData();
-                try (Connection connection = getConnection()) {
-                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                            INSERT INTO `%user_data_table%`
-                            (`player_uuid`,`version_uuid`,`timestamp`,`save_cause`,`data`)
-                            VALUES (?,UUID(),NOW(),?,?);"""))) {
-                        statement.setString(1, user.uuid.toString());
-                        statement.setString(2, saveCause.name());
-                        statement.setBlob(3, new ByteArrayInputStream(
-                                plugin.getDataAdapter().toBytes(finalData)));
-                        statement.executeUpdate();
+        // Chain on the event rather than joining it, as it is fired on the next main thread tick
+        return plugin.getEventCannon().fireDataSaveEvent(user, userData, saveCause).thenCompose(event -> {
+            final DataSaveEvent dataSaveEvent = (DataSaveEvent) event;
+            if (dataSaveEvent.isCancelled()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            // Version the data here rather than in SQL, so the exact snapshot inserted can be cached.
+            // Timestamps are truncated to the second precision of the timestamp column
+            final UserDataSnapshot snapshot = new UserDataSnapshot(UUID.randomUUID(),
+                    new Date(System.currentTimeMillis() / 1000 * 1000), saveCause, false,
+                    dataSaveEvent.getUserData());
+            return queueSave(new PendingUserData(user, snapshot));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setUserData(@NotNull List<PendingUserData> pendingData) {
+        final Workload workload = getSaveWorkload(pendingData);
+        return supplyAsync(workload, () -> {
+            final Map<UUID, DeltaChainStore.ChainHead> writtenHeads = new HashMap<>();
+            try (Connection connection = getConnection(workload)) {
+                connection.setAutoCommit(false);
+                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                        INSERT IGNORE INTO `%user_data_table%`
+                        (`player_uuid`,`version_uuid`,`timestamp`,`save_cause`,`pinned`,`delta_base`,`chain_length`,`sectioned`,`data_size`,`data`)
+                        VALUES (?,?,?,?,?,?,?,?,?,?);"""))) {
+                    final List<Map<String, byte[]>> snapshotSections = new ArrayList<>();
+                    for (PendingUserData data : pendingData) {
+                        byte[] dataByteArray;
+                        int dataSize;
+                        UUID deltaBase = null;
+                        int chainLength = 0;
+                        if (sectionStorage) {
+                            // Store the snapshot as a manifest referencing its sections
+                            final SectionCodec.SplitData splitData = sectionStore.split(data.snapshot().userData());
+                            dataByteArray = splitData.manifest();
+                            dataSize = dataByteArray.length + splitData.sections().values().stream()
+                                    .mapToInt(section -> section.length).sum();
+                            snapshotSections.add(splitData.sections());
+                        } else {
+                            dataByteArray = plugin.getDataAdapter().toBytes(data.snapshot().userData());
+                            dataSize = dataByteArray.length;
+                        }
+                        if (deltaStorage) {
+                            final DeltaChainStore.EncodedData encoded = deltaChainStore.encode(connection,
+                                    data.user().uuid, data.snapshot(), dataByteArray, writtenHeads);
+                            deltaBase = encoded.deltaBase();
+                            chainLength = encoded.chainLength();
+                            dataByteArray = encoded.data();
+                            dataSize = dataByteArray.length;
+                        }
+                        statement.setBytes(1, toBinary(data.user().uuid));
+                        statement.setBytes(2, toBinary(data.snapshot().versionUUID()));
+                        statement.setTimestamp(3, new Timestamp(data.snapshot().versionTimestamp().getTime()));
+                        statement.setString(4, data.snapshot().cause().name());
+                        statement.setBoolean(5, data.snapshot().pinned());
+                        statement.setBytes(6, deltaBase == null ? null : toBinary(deltaBase));
+                        statement.setInt(7, chainLength);
+                        statement.setBoolean(8, sectionStorage);
+                        statement.setInt(9, dataSize);
+                        statement.setBlob(10, new ByteArrayInputStream(dataByteArray));
+                        statement.addBatch();
+                    }
+                    final int[] insertedRows = statement.executeBatch();
+
+                    // Reference the sections of each snapshot inserted, skipping any already written by an earlier try
+                    if (sectionStorage) {
+                        final Map<String, Integer> references = new HashMap<>();
+                        final Map<String, byte[]> sections = new HashMap<>();
+                        for (int i = 0; i < snapshotSections.size(); i++) {
+                            if (insertedRows[i] == 0) {
+                                continue;
+                            }
+                            snapshotSections.get(i).forEach((hash, section) -> {
+                                references.merge(hash, 1, Integer::sum);
+                                sections.put(hash, section);
+                            });
+                        }
+                        sectionStore.acquire(connection, references, sections);
                     }
-                } catch (SQLException | DataAdaptionException e) {
-                    plugin.log(Level.SEVERE, "Failed to set user data in the database", e);
+                    // Update the current version of, and then rotate the data of, each user once
+                    final Set<UUID> updatedUsers = new LinkedHashSet<>();
+                    pendingData.forEach(data -> updatedUsers.add(data.user().uuid));
+                    for (UUID userUuid : updatedUsers) {
+                        updateCurrentVersion(connection, userUuid);
+                    }
+                    for (UUID userUuid : updatedUsers) {
+                        rotateUserData(connection, userUuid);
+                    }
+                    connection.commit();
+                } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                    connection.rollback();
+                    throw e;
                 }
+            } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                plugin.log(Level.SEVERE, "Failed to set a batch of user data in the database", e);
+                return false;
             }
-            this.rotateUserData(user);
+            deltaChainStore.cacheHeads(writtenHeads);
+            pendingData.forEach(data -> recordWrite(data.user().uuid));
+            if (statisticsProjection) {
+                projectStatistics(pendingData);
+            }
+            return true;
         });
     }
 
     @Override
     public CompletableFuture<Void> pinUserData(@NotNull User user, @NotNull UUID versionUuid) {
-        return CompletableFuture.runAsync(() -> {
-            try (Connection connection = getConnection()) {
-                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
-                        UPDATE `%user_data_table%`
-                        SET `pinned`=TRUE
-                        WHERE `player_uuid`=? AND `version_uuid`=?
-                        LIMIT 1;"""))) {
-                    statement.setString(1, user.uuid.toString());
-                    statement.setString(2, versionUuid.toString());
-                    statement.executeUpdate();
+        return runAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                connection.setAutoCommit(false);
+                try {
+                    // Store pinned snapshots in full, so the chain they were encoded against can still be rotated
+                    final Map<UUID, DeltaChainStore.StoredData> storedData = deltaChainStore.selectStoredData(connection, user.uuid);
+                    deltaChainStore.rewriteAsKeyframe(connection, versionUuid, storedData);
+
+                    try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                            UPDATE `%user_data_table%`
+                            SET `pinned`=TRUE
+                            WHERE `player_uuid`=? AND `version_uuid`=?
+                            LIMIT 1;"""))) {
+                        statement.setBytes(1, toBinary(user.uuid));
+                        statement.setBytes(2, toBinary(versionUuid));
+                        statement.executeUpdate();
+                    }
+                    connection.commit();
+                } catch (SQLException | DataAdaptionException | IllegalStateException e) {
+                    connection.rollback();
+                    throw e;
                 }
-            } catch (SQLException e) {
+                recordWrite(user.uuid);
+                plugin.getRedisManager().invalidateCachedUserData(user).join();
+            } catch (SQLException | DataAdaptionException | IllegalStateException e) {
                 plugin.log(Level.SEVERE, "Failed to pin user data in the database", e);
             }
         });
@@ -385,17 +1842,19 @@ public class MySqlDatabase extends Database {
 
     @Override
     public CompletableFuture<Void> unpinUserData(@NotNull User user, @NotNull UUID versionUuid) {
-        return CompletableFuture.runAsync(() -> {
-            try (Connection connection = getConnection()) {
+        return runAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
                 try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
                         UPDATE `%user_data_table%`
                         SET `pinned`=FALSE
                         WHERE `player_uuid`=? AND `version_uuid`=?
                         LIMIT 1;"""))) {
-                    statement.setString(1, user.uuid.toString());
-                    statement.setString(2, versionUuid.toString());
+                    statement.setBytes(1, toBinary(user.uuid));
+                    statement.setBytes(2, toBinary(versionUuid));
                     statement.executeUpdate();
                 }
+                recordWrite(user.uuid);
+                plugin.getRedisManager().invalidateCachedUserData(user).join();
             } catch (SQLException e) {
                 plugin.log(Level.SEVERE, "Failed to unpin user data in the database", e);
             }
@@ -403,20 +1862,148 @@ public class MySqlDatabase extends Database {
     }
 
     @Override
-    public CompletableFuture<Void> wipeDatabase() {
-        return CompletableFuture.runAsync(() -> {
-            try (Connection connection = getConnection()) {
-                try (Statement statement = connection.createStatement()) {
-                    statement.executeUpdate(formatStatementTables("DELETE FROM `%user_data_table%`;"));
-                }
+    public CompletableFuture<List<LeaderboardEntry>> getStatisticLeaderboard(@NotNull StatisticsProjection.Key key,
+                                                                            int offset, int limit) {
+        checkLeaderboardPage(offset, limit);
+        if (!statisticsProjection) {
+            return CompletableFuture.failedFuture(new IllegalStateException(
+                    "The statistics projection is not enabled in the config"));
+        }
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                return statisticsProjector.selectStatisticLeaderboard(connection, key, offset, limit);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to fetch a statistic leaderboard from the database", e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<LeaderboardEntry>> getStatusLeaderboard(@NotNull StatisticsProjection.StatusField field,
+                                                                         int offset, int limit) {
+        checkLeaderboardPage(offset, limit);
+        if (!statisticsProjection) {
+            return CompletableFuture.failedFuture(new IllegalStateException(
+                    "The statistics projection is not enabled in the config"));
+        }
+        return supplyAsync(Workload.BACKGROUND, () -> {
+            try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                return statisticsProjector.selectStatusLeaderboard(connection, field, offset, limit);
             } catch (SQLException e) {
-                plugin.log(Level.SEVERE, "Failed to wipe the database", e);
+                throw new IllegalStateException("Failed to fetch a status leaderboard from the database", e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> wipeDatabase() {
+        return runAsync(Workload.BACKGROUND, () -> {
+            // Wipe in chunks, so the tables are not locked for the length of the whole wipe. Snapshots release their
+            // sections as they are deleted, rather than the sections table being emptied, so the sections of any
+            // snapshot saved while the wipe runs are kept
+            final boolean wiped = Stream.concat(Stream.of(MaintenanceJob.of("wipe", this::wipeSnapshots)),
+                    Stream.of(
+                            "UPDATE `%users_table%` SET `current_version`=NULL WHERE `current_version` IS NOT NULL LIMIT ?;",
+                            "DELETE FROM `%statistics_table%` LIMIT ?;",
+                            "DELETE FROM `%player_status_table%` LIMIT ?;"
+                    ).map(sql -> MaintenanceJob.of("wipe", chunkSize -> {
+                        try (Connection connection = getConnection(Workload.BACKGROUND)) {
+                            try (PreparedStatement statement = connection.prepareStatement(formatStatementTables(sql))) {
+                                statement.setInt(1, chunkSize);
+                                return statement.executeUpdate();
+                            }
+                        }
+                    }))).allMatch(maintenance::runNow);
+            deltaChainStore.clearHeads();
+            sectionStore.clearCache();
+            statisticsProjector.clear();
+            plugin.getRedisManager().invalidateAllCachedUserData().join();
+            if (!wiped) {
+                plugin.log(Level.SEVERE, "Failed to wipe the database");
             }
         });
     }
 
+    /**
+     * Delete a chunk of snapshots as part of a wipe, releasing the sections they reference in the same transaction
+     *
+     * @param chunkSize the maximum number of snapshots to delete
+     * @return the number of snapshots deleted
+     * @throws SQLException if a statement fails
+     */
+    private int wipeSnapshots(int chunkSize) throws SQLException {
+        try (Connection connection = getConnection(Workload.BACKGROUND)) {
+            connection.setAutoCommit(false);
+            try {
+                final List<UUID> snapshots = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                        SELECT `version_uuid`
+                        FROM `%user_data_table%`
+                        LIMIT ?
+                        FOR UPDATE;"""))) {
+                    statement.setInt(1, chunkSize);
+                    final ResultSet resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        snapshots.add(fromBinary(resultSet.getBytes("version_uuid")));
+                    }
+                }
+                if (snapshots.isEmpty()) {
+                    connection.commit();
+                    return 0;
+                }
+                sectionStore.release(connection, snapshots);
+                try (PreparedStatement statement = connection.prepareStatement(formatStatementTables("""
+                        DELETE FROM `%user_data_table%`
+                        WHERE `version_uuid` IN (%placeholders%);""".replace("%placeholders%",
+                        String.join(",", Collections.nCopies(snapshots.size(), "?")))))) {
+                    for (int i = 0; i < snapshots.size(); i++) {
+                        statement.setBytes(i + 1, toBinary(snapshots.get(i)));
+                    }
+                    statement.executeUpdate();
+                }
+                connection.commit();
+                return snapshots.size();
+            } catch (SQLException | DataAdaptionException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<String, String> getStatistics() {
+        final Map<String, String> statistics = super.getStatistics();
+        for (Workload workload : Workload.values()) {
+            final HikariDataSource pool = workload == Workload.BACKGROUND ? backgroundPool : connectionPool;
+            final ConnectionWaits waits = connectionWaits.get(workload);
+            final String prefix = workload.getName() + " connection pool ";
+            if (pool != null && pool.getHikariPoolMXBean() != null) {
+                statistics.put(prefix + "active connections",
+                        Integer.toString(pool.getHikariPoolMXBean().getActiveConnections()));
+                statistics.put(prefix + "waiting threads",
+                        Integer.toString(pool.getHikariPoolMXBean().getThreadsAwaitingConnection()));
+            }
+            statistics.put(prefix + "mean wait (ms)", String.format("%.2f", waits.getMeanMillis()));
+            statistics.put(prefix + "max wait (ms)", String.format("%.2f", waits.getMaxMillis()));
+        }
+        return statistics;
+    }
+
     @Override
     public void close() {
+        closeSaveQueue();
+        maintenance.close();
+        shutdownExecutor();
+        if (replicaLagMonitor != null) {
+            replicaLagMonitor.shutdownNow();
+        }
+        if (replicaPool != null && !replicaPool.isClosed()) {
+            replicaPool.close();
+        }
+        if (backgroundPool != null && !backgroundPool.isClosed()) {
+            backgroundPool.close();
+        }
         if (connectionPool != null) {
             if (!connectionPool.isClosed()) {
                 connectionPool.close();
@@ -424,4 +2011,28 @@ public class MySqlDatabase extends Database {
         }
     }
 
+    /**
+     * The time connections were waited on for, to report how contended a pool is
+     */
+    private static class ConnectionWaits {
+        private final AtomicLong fetches = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long waitNanos) {
+            fetches.incrementAndGet();
+            totalNanos.addAndGet(waitNanos);
+            maxNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        private double getMeanMillis() {
+            final long fetchCount = fetches.get();
+            return fetchCount == 0 ? 0d : totalNanos.get() / (double) fetchCount / 1_000_000d;
+        }
+
+        private double getMaxMillis() {
+            return maxNanos.get() / 1_000_000d;
+        }
+    }
+
 }
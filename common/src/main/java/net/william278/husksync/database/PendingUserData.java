@@ -0,0 +1,14 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A versioned {@link UserDataSnapshot} awaiting being written to the database
+ *
+ * @param user     The {@link User} who owns the snapshot
+ * @param snapshot The {@link UserDataSnapshot} to write
+ */
+public record PendingUserData(@NotNull User user, @NotNull UserDataSnapshot snapshot) {
+}
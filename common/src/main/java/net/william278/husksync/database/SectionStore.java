@@ -0,0 +1,212 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.data.DataAdaptionException;
+import net.william278.husksync.data.SectionCodec;
+import net.william278.husksync.data.UserData;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Stores the sections of snapshots saved as manifests in the sections table of a {@link MySqlDatabase}.
+ * <p>
+ * Each section is stored once, compressed, and counts the snapshots referencing it; a section is deleted once the
+ * last snapshot referencing it is. Statements run on the connection passed in, so sections are referenced and released
+ * in the same transaction as the snapshots they belong to.
+ */
+class SectionStore {
+
+    /**
+     * Maximum number of data sections kept in memory, to save reading sections shared between snapshots
+     */
+    private static final int MAX_CACHED_SECTIONS = 512;
+
+    private final MySqlDatabase database;
+    private final SectionCodec codec;
+
+    /**
+     * Recently read or written data sections, compressed, by hash
+     */
+    private final Map<String, byte[]> cache;
+
+    SectionStore(@NotNull MySqlDatabase database) {
+        this.database = database;
+        this.codec = new SectionCodec();
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > MAX_CACHED_SECTIONS;
+            }
+        });
+    }
+
+    /**
+     * Split a snapshot's data into a manifest and the sections it references
+     *
+     * @param data the {@link UserData} to split
+     * @return the manifest and the JSON of each section, by hash
+     */
+    @NotNull
+    SectionCodec.SplitData split(@NotNull UserData data) throws DataAdaptionException {
+        return codec.split(data);
+    }
+
+    /**
+     * Reassemble a snapshot stored as a manifest from its sections, reading only the sections not already cached
+     *
+     * @param connection the connection to read sections on
+     * @param manifest   the snapshot's manifest
+     * @return the reassembled {@link UserData}
+     * @throws SQLException if the sections could not be read
+     */
+    @NotNull
+    UserData assemble(@NotNull Connection connection, byte[] manifest) throws SQLException, DataAdaptionException {
+        final Map<String, byte[]> sections = new HashMap<>();
+        final List<String> uncachedHashes = new ArrayList<>();
+        for (String hash : codec.getSectionHashes(manifest)) {
+            final byte[] cachedSection = cache.get(hash);
+            if (cachedSection != null) {
+                sections.put(hash, codec.uncompress(cachedSection));
+            } else {
+                uncachedHashes.add(hash);
+            }
+        }
+        if (!uncachedHashes.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                    SELECT `hash`, `data`
+                    FROM `%sections_table%`
+                    WHERE `hash` IN (%placeholders%);""".replace("%placeholders%",
+                    String.join(",", Collections.nCopies(uncachedHashes.size(), "?")))))) {
+                for (int i = 0; i < uncachedHashes.size(); i++) {
+                    statement.setString(i + 1, uncachedHashes.get(i));
+                }
+                final ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    final byte[] section = resultSet.getBytes("data");
+                    cache.put(resultSet.getString("hash"), section);
+                    sections.put(resultSet.getString("hash"), codec.uncompress(section));
+                }
+            }
+        }
+        return codec.assemble(manifest, sections);
+    }
+
+    /**
+     * Reference each section written with a batch of snapshots, storing sections not yet in the sections table
+     *
+     * @param connection the connection to write on
+     * @param references the number of new references to each section, by hash
+     * @param sections   the JSON of each section, by hash
+     * @throws SQLException if a statement fails
+     */
+    void acquire(@NotNull Connection connection, @NotNull Map<String, Integer> references,
+                 @NotNull Map<String, byte[]> sections) throws SQLException, DataAdaptionException {
+        if (references.isEmpty()) {
+            return;
+        }
+        final List<String> hashes = new ArrayList<>(references.keySet());
+        final int[] updatedRows;
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                UPDATE `%sections_table%`
+                SET `ref_count`=`ref_count`+?
+                WHERE `hash`=?;"""))) {
+            for (String hash : hashes) {
+                statement.setInt(1, references.get(hash));
+                statement.setString(2, hash);
+                statement.addBatch();
+            }
+            updatedRows = statement.executeBatch();
+        }
+
+        // Insert the sections that aren't stored yet, counting references if another server inserted them first
+        final Map<String, byte[]> writtenSections = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                INSERT INTO `%sections_table%` (`hash`,`ref_count`,`data`)
+                VALUES (?,?,?)
+                ON DUPLICATE KEY UPDATE `ref_count`=`ref_count`+VALUES(`ref_count`);"""))) {
+            for (int i = 0; i < hashes.size(); i++) {
+                if (updatedRows[i] != 0) {
+                    continue;
+                }
+                final byte[] section = codec.compress(sections.get(hashes.get(i)));
+                statement.setString(1, hashes.get(i));
+                statement.setInt(2, references.get(hashes.get(i)));
+                statement.setBlob(3, new ByteArrayInputStream(section));
+                statement.addBatch();
+                writtenSections.put(hashes.get(i), section);
+            }
+            if (!writtenSections.isEmpty()) {
+                statement.executeBatch();
+            }
+        }
+        cache.putAll(writtenSections);
+    }
+
+    /**
+     * Release the sections referenced by snapshots about to be deleted, deleting sections no longer referenced
+     *
+     * @param connection   the connection to write on
+     * @param versionUuids the version UUIDs of the snapshots being deleted
+     * @throws SQLException if a statement fails
+     */
+    void release(@NotNull Connection connection,
+                 @NotNull Collection<UUID> versionUuids) throws SQLException, DataAdaptionException {
+        if (versionUuids.isEmpty()) {
+            return;
+        }
+        final List<UUID> versions = new ArrayList<>(versionUuids);
+        final Map<String, Integer> references = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `data`
+                FROM `%user_data_table%`
+                WHERE `sectioned` IS TRUE AND `version_uuid` IN (%placeholders%);""".replace("%placeholders%",
+                String.join(",", Collections.nCopies(versions.size(), "?")))))) {
+            for (int i = 0; i < versions.size(); i++) {
+                statement.setBytes(i + 1, MySqlDatabase.toBinary(versions.get(i)));
+            }
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                for (String hash : codec.getSectionHashes(resultSet.getBytes("data"))) {
+                    references.merge(hash, 1, Integer::sum);
+                }
+            }
+        }
+        if (references.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                UPDATE `%sections_table%`
+                SET `ref_count`=`ref_count`-?
+                WHERE `hash`=?;"""))) {
+            for (Map.Entry<String, Integer> reference : references.entrySet()) {
+                statement.setInt(1, reference.getValue());
+                statement.setString(2, reference.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                DELETE FROM `%sections_table%`
+                WHERE `hash`=? AND `ref_count`<=0;"""))) {
+            for (String hash : references.keySet()) {
+                statement.setString(1, hash);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Forget every cached section, such as when the database is wiped
+     */
+    void clearCache() {
+        cache.clear();
+    }
+
+}
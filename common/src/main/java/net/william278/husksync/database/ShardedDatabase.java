@@ -0,0 +1,480 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.StatisticsProjection;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.data.UserDataSnapshotMetadata;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * A database spreading user data across several MySQL databases, or shards.
+ * <p>
+ * Each user is stored on exactly one shard, chosen by a jump consistent hash of their UUID, so all of a user's data can
+ * be read and written on one shard. When shards are added, only the users whose shard changes are moved; each is moved
+ * the first time their data is accessed, and a maintenance job moves the rest in the background.
+ */
+public class ShardedDatabase extends Database {
+
+    /**
+     * Maximum number of users remembered as having been moved to their shard, so they are not checked on every access
+     */
+    private static final int MAX_TRACKED_MOVES = 5000;
+
+    /**
+     * How long a user is trusted to have been moved to their shard before their previous shard is checked again, as
+     * servers not yet configured with the new shards may still store their data there
+     */
+    private static final long MOVE_RECHECK_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * How many times a user saved to on their previous shard while being moved is moved again at once, before the rest
+     * of their data is left to be moved the next time it is accessed
+     */
+    private static final int MAX_MOVE_PASSES = 3;
+
+    private final List<MySqlDatabase> shards;
+
+    /**
+     * The number of shards before shards were last added, or the number of shards if users are not being moved
+     */
+    private final int previousShardCount;
+
+    /**
+     * The time each user was last found to be stored only on their shard, while users are being moved
+     */
+    private final Map<UUID, Long> movedUsers;
+
+    public ShardedDatabase(@NotNull HuskSync plugin) {
+        this(plugin, new UserRegistry(plugin.getSettings().getUserCacheSize()));
+    }
+
+    private ShardedDatabase(@NotNull HuskSync plugin, @NotNull UserRegistry userRegistry) {
+        this(plugin, userRegistry, createShards(plugin, userRegistry), plugin.getSettings().getPreviousShardCount());
+    }
+
+    /**
+     * Create a database spreading users across the given shards. The shards run their own operations, so the sharded
+     * database has no threads of its own
+     *
+     * @param plugin         the plugin instance
+     * @param userRegistry   the {@link UserRegistry} shared between the shards
+     * @param shards         the shards, in order
+     * @param previousShards the number of shards before shards were last added, or {@code 0} if users are not moving
+     */
+    protected ShardedDatabase(@NotNull HuskSync plugin, @NotNull UserRegistry userRegistry,
+                              @NotNull List<MySqlDatabase> shards, int previousShards) {
+        super(plugin, userRegistry, false);
+        this.shards = new ArrayList<>(shards);
+        this.previousShardCount = previousShards > 0 && previousShards < shards.size() ? previousShards : shards.size();
+        this.movedUsers = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                return size() > MAX_TRACKED_MOVES;
+            }
+        });
+    }
+
+    @NotNull
+    private static List<MySqlDatabase> createShards(@NotNull HuskSync plugin, @NotNull UserRegistry userRegistry) {
+        final List<MySqlDatabase> shards = new ArrayList<>();
+        final List<String> shardAddresses = plugin.getSettings().getDatabaseShards();
+        for (int i = 0; i < shardAddresses.size(); i++) {
+            final String address = shardAddresses.get(i);
+            final int portIndex = address.indexOf(':');
+            final int databaseIndex = address.indexOf('/');
+            if (portIndex < 0 || databaseIndex < portIndex) {
+                throw new IllegalArgumentException("Invalid database shard address " + address
+                                                   + "; expected host:port/database");
+            }
+            shards.add(new MySqlDatabase(plugin, "shard-" + (i + 1), address.substring(0, portIndex),
+                    Integer.parseInt(address.substring(portIndex + 1, databaseIndex)),
+                    address.substring(databaseIndex + 1), userRegistry));
+        }
+        return shards;
+    }
+
+    /**
+     * Get the index of the shard a user is stored on, by a jump consistent hash of their UUID. When the number of
+     * shards grows, a user either stays on their shard or moves to one of the new shards
+     *
+     * @param uuid       the UUID of the user
+     * @param shardCount the number of shards
+     * @return the index of the user's shard
+     */
+    protected static int getShardIndex(@NotNull UUID uuid, int shardCount) {
+        long key = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+        long bucket = -1;
+        long next = 0;
+        while (next < shardCount) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    @NotNull
+    private MySqlDatabase getShard(@NotNull UUID uuid) {
+        return shards.get(getShardIndex(uuid, shards.size()));
+    }
+
+    /**
+     * Get the shard a user is stored on, first moving them there from the shard they were stored on before shards were
+     * added if they have not been moved yet. The previous shard is checked again every so often, in case a server not
+     * yet configured with the new shards has stored data for the user there since they were moved
+     *
+     * @param uuid the UUID of the user
+     * @return a future returning the user's shard
+     */
+    private CompletableFuture<MySqlDatabase> locate(@NotNull UUID uuid) {
+        final MySqlDatabase shard = getShard(uuid);
+        final MySqlDatabase previousShard = shards.get(getShardIndex(uuid, previousShardCount));
+        final Long movedAt = movedUsers.get(uuid);
+        if (previousShard == shard || (movedAt != null && System.currentTimeMillis() - movedAt < MOVE_RECHECK_MILLIS)) {
+            return CompletableFuture.completedFuture(shard);
+        }
+        return moveUser(uuid, previousShard, shard).thenApply(moved -> shard);
+    }
+
+    /**
+     * Move a user and their snapshots from one shard to another. Moves are idempotent, so a move interrupted part way
+     * through, or made by two servers at once, completes safely when retried. Only the snapshots read from the source
+     * and found on the target are removed from the source, and the user once none are left
+     *
+     * @param uuid   the UUID of the user to move
+     * @param source the shard to move the user from
+     * @param target the shard to move the user to
+     * @return a future returning whether the user had data to move, or completing exceptionally if the move failed and
+     * the user was left on the source
+     */
+    protected CompletableFuture<Boolean> moveUser(@NotNull UUID uuid, @NotNull MySqlDatabase source,
+                                                  @NotNull MySqlDatabase target) {
+        return moveUser(uuid, source, target, 1);
+    }
+
+    private CompletableFuture<Boolean> moveUser(@NotNull UUID uuid, @NotNull MySqlDatabase source,
+                                                @NotNull MySqlDatabase target, int pass) {
+        return source.findStoredUser(uuid).thenCompose(optionalUser -> {
+            if (optionalUser.isEmpty()) {
+                movedUsers.put(uuid, System.currentTimeMillis());
+                return CompletableFuture.completedFuture(false);
+            }
+            final User user = optionalUser.get();
+            return source.exportUserData(user).thenCompose(snapshots -> {
+                final List<UserDataSnapshot> oldestFirst = new ArrayList<>(snapshots);
+                Collections.reverse(oldestFirst);
+                return target.importUser(user, oldestFirst).thenCompose(imported -> {
+                    if (!imported) {
+                        throw new IllegalStateException("Failed to move user " + uuid + " to their new shard");
+                    }
+                    return target.getVersionUuids(user);
+                }).thenCompose(importedVersions -> {
+                    final List<UUID> exportedVersions = snapshots.stream().map(UserDataSnapshot::versionUUID).toList();
+                    if (!importedVersions.containsAll(exportedVersions)) {
+                        throw new IllegalStateException("Not every snapshot of user " + uuid
+                                                        + " was found on their new shard after moving them");
+                    }
+                    return source.removeUser(user, exportedVersions);
+                });
+            }).thenCompose(removed -> {
+                if (removed) {
+                    movedUsers.put(uuid, System.currentTimeMillis());
+                    return CompletableFuture.completedFuture(true);
+                }
+
+                // The user was saved to on the source while being moved, so the snapshots saved since are moved too
+                return pass < MAX_MOVE_PASSES
+                        ? moveUser(uuid, source, target, pass + 1).thenApply(moved -> true)
+                        : CompletableFuture.completedFuture(true);
+            });
+        });
+    }
+
+    @Override
+    public boolean initialize() {
+        if (shards.isEmpty()) {
+            plugin.log(Level.SEVERE, "No database shards are configured");
+            return false;
+        }
+
+        // Prepare the schema of each shard in parallel
+        final List<CompletableFuture<Boolean>> initialized = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(shard::initialize))
+                .toList();
+        if (!initialized.stream().allMatch(CompletableFuture::join)) {
+            return false;
+        }
+        if (previousShardCount < shards.size() && !plugin.getSettings().doMaintenance()) {
+            plugin.log(Level.WARNING, "Users will not be moved from " + previousShardCount + " to " + shards.size()
+                                      + " database shards, as database maintenance is disabled");
+        } else if (previousShardCount < shards.size()) {
+            plugin.log(Level.INFO, "Moving users from " + previousShardCount + " to " + shards.size()
+                                   + " database shards");
+            maintenance.start(List.of(getReshardJob()));
+        }
+        return true;
+    }
+
+    /**
+     * Get the job moving users stored on the shards that existed before shards were added to their new shard
+     *
+     * @return the {@link MaintenanceJob}
+     */
+    @NotNull
+    private MaintenanceJob getReshardJob() {
+        return new MaintenanceJob() {
+            private int shardIndex;
+            private UUID lastUser;
+            private long movedUserCount;
+            private long failedUserCount;
+
+            @NotNull
+            @Override
+            public String getName() {
+                return "reshard";
+            }
+
+            @Override
+            public void start() {
+                shardIndex = 0;
+                lastUser = null;
+                movedUserCount = 0;
+                failedUserCount = 0;
+            }
+
+            @Override
+            public int runChunk(int chunkSize) throws SQLException {
+                final MySqlDatabase source = shards.get(shardIndex);
+                final List<UUID> users = source.getUserUuids(lastUser, chunkSize);
+                for (UUID uuid : users) {
+                    final MySqlDatabase target = getShard(uuid);
+                    if (target == source) {
+                        continue;
+                    }
+                    // A user who could not be moved is left on their previous shard, to be moved on the next run
+                    try {
+                        if (moveUser(uuid, source, target).join()) {
+                            movedUserCount++;
+                        }
+                    } catch (CompletionException e) {
+                        failedUserCount++;
+                        plugin.log(Level.WARNING, "Failed to move user " + uuid + " to their new database shard",
+                                e.getCause());
+                    }
+                }
+                if (users.size() < chunkSize) {
+                    shardIndex++;
+                    lastUser = null;
+                } else {
+                    lastUser = users.get(users.size() - 1);
+                }
+                return users.size();
+            }
+
+            @Override
+            public boolean isComplete() {
+                return shardIndex >= previousShardCount;
+            }
+
+            @Override
+            public void finish(boolean leaseHeld) {
+                if (isComplete() && failedUserCount > 0) {
+                    plugin.log(Level.WARNING, "Moved " + movedUserCount + " users to their new database shard, but "
+                                              + failedUserCount + " could not be moved and will be retried on the "
+                                              + "next run");
+                } else if (isComplete()) {
+                    plugin.log(Level.INFO, "Moved " + movedUserCount + " users to their new database shard. "
+                                           + "Users have finished moving; set previous_shard_count to 0 on every "
+                                           + "server");
+                }
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Void> ensureUser(@NotNull User user) {
+        return locate(user.uuid).thenCompose(shard -> shard.ensureUser(user));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUser(@NotNull UUID uuid) {
+        final Optional<User> cachedUser = userRegistry.get(uuid);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser);
+        }
+        return locate(uuid).thenCompose(shard -> shard.getUser(uuid));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUserByName(@NotNull String username) {
+        final Optional<User> cachedUser = userRegistry.getByName(username);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser);
+        }
+        final List<CompletableFuture<Optional<User>>> lookups = shards.stream()
+                .map(shard -> shard.getUserByName(username))
+                .toList();
+        return CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new))
+                .thenApply(done -> lookups.stream()
+                        .map(CompletableFuture::join)
+                        .flatMap(Optional::stream)
+                        .findFirst());
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserData(@NotNull User user) {
+        return locate(user.uuid).thenCompose(shard -> shard.getCurrentUserData(user));
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserDataForDisplay(@NotNull User user) {
+        return locate(user.uuid).thenCompose(shard -> shard.getCurrentUserDataForDisplay(user));
+    }
+
+    @Override
+    public CompletableFuture<List<UserDataSnapshot>> getUserData(@NotNull User user) {
+        return locate(user.uuid).thenCompose(shard -> shard.getUserData(user));
+    }
+
+    @Override
+    public CompletableFuture<List<UserDataSnapshotMetadata>> getUserDataMetadata(@NotNull User user) {
+        return locate(user.uuid).thenCompose(shard -> shard.getUserDataMetadata(user));
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserDataSnapshot>> getUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return locate(user.uuid).thenCompose(shard -> shard.getUserData(user, versionUuid));
+    }
+
+    @Override
+    protected void rotateUserData(@NotNull User user) {
+        locate(user.uuid).join().rotateUserData(user);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return locate(user.uuid).thenCompose(shard -> shard.deleteUserData(user, versionUuid));
+    }
+
+    @Override
+    public CompletableFuture<Void> setUserData(@NotNull User user, @NotNull UserData userData,
+                                               @NotNull DataSaveCause dataSaveCause) {
+        return locate(user.uuid).thenCompose(shard -> shard.setUserData(user, userData, dataSaveCause));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setUserData(@NotNull List<PendingUserData> pendingData) {
+        final Map<UUID, CompletableFuture<MySqlDatabase>> userShards = new LinkedHashMap<>();
+        pendingData.forEach(data -> userShards.computeIfAbsent(data.user().uuid, this::locate));
+        return CompletableFuture.allOf(userShards.values().toArray(CompletableFuture[]::new)).thenCompose(done -> {
+            // Write each shard's share of the batch in parallel
+            final Map<MySqlDatabase, List<PendingUserData>> batches = pendingData.stream().collect(Collectors
+                    .groupingBy(data -> userShards.get(data.user().uuid).join(), LinkedHashMap::new,
+                            Collectors.toList()));
+            final List<CompletableFuture<Boolean>> writes = batches.entrySet().stream()
+                    .map(batch -> batch.getKey().setUserData(batch.getValue()))
+                    .toList();
+            return CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+                    .thenApply(written -> writes.stream().allMatch(CompletableFuture::join));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> pinUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return locate(user.uuid).thenCompose(shard -> shard.pinUserData(user, versionUuid));
+    }
+
+    @Override
+    public CompletableFuture<Void> unpinUserData(@NotNull User user, @NotNull UUID versionUuid) {
+        return locate(user.uuid).thenCompose(shard -> shard.unpinUserData(user, versionUuid));
+    }
+
+    @Override
+    public CompletableFuture<List<LeaderboardEntry>> getStatisticLeaderboard(@NotNull StatisticsProjection.Key key,
+                                                                            int offset, int limit) {
+        checkLeaderboardPage(offset, limit);
+        return mergeLeaderboards(shards.stream()
+                .map(shard -> shard.getStatisticLeaderboard(key, 0, offset + limit))
+                .toList(), offset, limit);
+    }
+
+    @Override
+    public CompletableFuture<List<LeaderboardEntry>> getStatusLeaderboard(@NotNull StatisticsProjection.StatusField field,
+                                                                         int offset, int limit) {
+        checkLeaderboardPage(offset, limit);
+        return mergeLeaderboards(shards.stream()
+                .map(shard -> shard.getStatusLeaderboard(field, 0, offset + limit))
+                .toList(), offset, limit);
+    }
+
+    /**
+     * Merge the top entries of a leaderboard on each shard into a page of the leaderboard across all shards
+     *
+     * @param leaderboards the first {@code offset + limit} entries of the leaderboard on each shard
+     * @param offset       the number of entries to skip
+     * @param limit        the maximum number of entries to return
+     * @return a future returning the entries of the page, re-ranked
+     */
+    private CompletableFuture<List<LeaderboardEntry>> mergeLeaderboards(
+            @NotNull List<CompletableFuture<List<LeaderboardEntry>>> leaderboards, int offset, int limit) {
+        return CompletableFuture.allOf(leaderboards.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            // A user part way through being moved between shards may be on both, so is ranked once
+            final Map<UUID, LeaderboardEntry> entries = new LinkedHashMap<>();
+            leaderboards.stream()
+                    .flatMap(leaderboard -> leaderboard.join().stream())
+                    .sorted(Comparator.comparingDouble((LeaderboardEntry entry) -> entry.value().doubleValue())
+                            .reversed())
+                    .forEach(entry -> entries.putIfAbsent(entry.user().uuid, entry));
+            final List<LeaderboardEntry> page = new ArrayList<>();
+            entries.values().stream()
+                    .skip(offset)
+                    .limit(limit)
+                    .forEach(entry -> page.add(new LeaderboardEntry(entry.user(), offset + page.size() + 1,
+                            entry.value())));
+            return page;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> wipeDatabase() {
+        return CompletableFuture.allOf(shards.stream()
+                .map(Database::wipeDatabase)
+                .toArray(CompletableFuture[]::new));
+    }
+
+    @NotNull
+    @Override
+    public Map<String, String> getStatistics() {
+        final Map<String, String> statistics = super.getStatistics();
+        for (int i = 0; i < shards.size(); i++) {
+            final String prefix = "[shard-" + (i + 1) + "] ";
+            shards.get(i).getStatistics().forEach((name, value) -> statistics.put(prefix + name, value));
+        }
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        maintenance.close();
+        shards.forEach(MySqlDatabase::close);
+    }
+
+}
@@ -0,0 +1,256 @@
+package net.william278.husksync.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.xerial.snappy.Snappy;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only archive of snapshot data, stored in compressed segment files on the filesystem.
+ * <p>
+ * Each segment file holds a sequence of records; the version UUID of a snapshot, the length of its compressed data,
+ * the compressed data and a CRC32 checksum of it. Alongside each segment is an index file listing the version UUID,
+ * offset and length of each record, so an archive can be inspected or recovered without the database. The database
+ * points each archived snapshot at its record, and segments no row points into are deleted.
+ */
+public class SnapshotArchive {
+
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String INDEX_EXTENSION = ".idx";
+
+    /**
+     * The length of a record's version UUID and data length, before its data
+     */
+    private static final int RECORD_HEADER_LENGTH = 20;
+
+    /**
+     * The length of a record's checksum, after its data
+     */
+    private static final int RECORD_FOOTER_LENGTH = 4;
+
+    private final File directory;
+    private final long maxSegmentSize;
+
+    public SnapshotArchive(@NotNull File directory, long maxSegmentSize) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Create the archive directory if it does not exist
+     *
+     * @throws IOException if the directory could not be created
+     */
+    public void initialize() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the snapshot archive directory " + directory);
+        }
+    }
+
+    /**
+     * Open a writer appending records to new segments
+     *
+     * @return the {@link SegmentWriter}
+     */
+    @NotNull
+    public SegmentWriter openWriter() {
+        return new SegmentWriter();
+    }
+
+    /**
+     * Read a snapshot's data from its archive record
+     *
+     * @param pointer     the location of the record
+     * @param versionUuid the version UUID of the snapshot the record should hold
+     * @return the snapshot's data, as it was appended
+     * @throws IOException if the record could not be read, or is corrupt or holds another snapshot
+     */
+    public byte[] read(@NotNull ArchivePointer pointer, @NotNull UUID versionUuid) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(pointer.length());
+        try (FileChannel channel = FileChannel.open(getSegmentFile(pointer.segment()).toPath(),
+                StandardOpenOption.READ)) {
+            while (record.hasRemaining()) {
+                if (channel.read(record, pointer.offset() + record.position()) == -1) {
+                    throw new IOException("Archive record of snapshot " + versionUuid + " is truncated");
+                }
+            }
+        }
+        record.flip();
+        if (record.getLong() != versionUuid.getMostSignificantBits()
+            || record.getLong() != versionUuid.getLeastSignificantBits()) {
+            throw new IOException("Archive record does not hold snapshot " + versionUuid);
+        }
+        final int dataLength = record.getInt();
+        if (dataLength != pointer.length() - RECORD_HEADER_LENGTH - RECORD_FOOTER_LENGTH) {
+            throw new IOException("Archive record of snapshot " + versionUuid + " has an invalid length");
+        }
+        final byte[] compressed = new byte[dataLength];
+        record.get(compressed);
+        if (record.getInt() != checksum(compressed)) {
+            throw new IOException("Archive record of snapshot " + versionUuid + " is corrupt");
+        }
+        return Snappy.uncompress(compressed);
+    }
+
+    /**
+     * Get the segments in the archive
+     *
+     * @return the UUIDs of each segment
+     */
+    @NotNull
+    public Set<UUID> getSegments() {
+        final Set<UUID> segments = new HashSet<>();
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                try {
+                    segments.add(UUID.fromString(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Get when a segment was last written to
+     *
+     * @param segment the UUID of the segment
+     * @return the time the segment was last modified, in milliseconds since the epoch, or {@code 0} if it does not exist
+     */
+    public long getLastModified(@NotNull UUID segment) {
+        return getSegmentFile(segment).lastModified();
+    }
+
+    /**
+     * Delete a segment and its index
+     *
+     * @param segment the UUID of the segment
+     * @throws IOException if the segment could not be deleted
+     */
+    public void deleteSegment(@NotNull UUID segment) throws IOException {
+        final File segmentFile = getSegmentFile(segment);
+        final File indexFile = getIndexFile(segment);
+        if ((segmentFile.exists() && !segmentFile.delete()) || (indexFile.exists() && !indexFile.delete())) {
+            throw new IOException("Failed to delete archive segment " + segment);
+        }
+    }
+
+    @NotNull
+    private File getSegmentFile(@NotNull UUID segment) {
+        return new File(directory, segment + SEGMENT_EXTENSION);
+    }
+
+    @NotNull
+    private File getIndexFile(@NotNull UUID segment) {
+        return new File(directory, segment + INDEX_EXTENSION);
+    }
+
+    private static int checksum(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The location of a snapshot's record in the archive
+     *
+     * @param segment the UUID of the segment holding the record
+     * @param offset  the offset of the record in the segment
+     * @param length  the length of the whole record
+     */
+    public record ArchivePointer(@NotNull UUID segment, long offset, int length) {
+    }
+
+    /**
+     * Appends records to the archive, starting a new segment whenever the current one reaches the maximum size
+     */
+    public class SegmentWriter implements Closeable {
+
+        private UUID segment;
+        private FileChannel channel;
+        private BufferedWriter index;
+        private long position;
+
+        private SegmentWriter() {
+        }
+
+        /**
+         * Append a snapshot's data to the archive
+         *
+         * @param versionUuid the version UUID of the snapshot
+         * @param data        the snapshot's data
+         * @return the location of the record written
+         * @throws IOException if the record could not be written
+         */
+        @NotNull
+        public ArchivePointer append(@NotNull UUID versionUuid, byte[] data) throws IOException {
+            if (channel == null || position >= maxSegmentSize) {
+                startSegment();
+            }
+            final byte[] compressed = Snappy.compress(data);
+            final int recordLength = RECORD_HEADER_LENGTH + compressed.length + RECORD_FOOTER_LENGTH;
+            final ByteBuffer record = ByteBuffer.allocate(recordLength)
+                    .putLong(versionUuid.getMostSignificantBits())
+                    .putLong(versionUuid.getLeastSignificantBits())
+                    .putInt(compressed.length)
+                    .put(compressed)
+                    .putInt(checksum(compressed))
+                    .flip();
+            final ArchivePointer pointer = new ArchivePointer(segment, position, record.remaining());
+            while (record.hasRemaining()) {
+                position += channel.write(record);
+            }
+            index.write(versionUuid + " " + pointer.offset() + " " + pointer.length());
+            index.newLine();
+            return pointer;
+        }
+
+        /**
+         * Force the records appended so far to disk, so database rows can safely be pointed at them
+         *
+         * @throws IOException if the records could not be written
+         */
+        public void flush() throws IOException {
+            if (channel != null) {
+                channel.force(true);
+                index.flush();
+            }
+        }
+
+        private void startSegment() throws IOException {
+            close();
+            segment = UUID.randomUUID();
+            channel = FileChannel.open(getSegmentFile(segment).toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            index = new BufferedWriter(new FileWriter(getIndexFile(segment), StandardCharsets.UTF_8));
+            position = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                flush();
+                channel.close();
+                index.close();
+                channel = null;
+                index = null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,285 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.data.StatisticsProjection;
+import net.william278.husksync.data.StatusData;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Projects the statistics and status of users' current snapshots into the statistics projection tables of a
+ * {@link MySqlDatabase}, and reads leaderboards from them.
+ * <p>
+ * Only the statistics that changed since a user's last projection are written. Statements run on the connection
+ * passed in; a projection is committed on its own, with the user locked, so it always matches their current snapshot.
+ */
+class StatisticsProjector {
+
+    /**
+     * Maximum number of users whose projected statistics are kept in memory, to write only those that change
+     */
+    private static final int MAX_CACHED_PROJECTIONS = 1000;
+
+    /**
+     * Maximum length of the name and qualifier of a projected statistic; longer statistics are not projected
+     */
+    private static final int MAX_STATISTIC_NAME_LENGTH = 64;
+
+    private final MySqlDatabase database;
+
+    /**
+     * The statistics this server last projected for each user, to diff their next projection against while no other
+     * server has projected the user since
+     */
+    private final Map<UUID, ProjectedStatistics> projectedStatistics;
+
+    StatisticsProjector(@NotNull MySqlDatabase database) {
+        this.database = database;
+        this.projectedStatistics = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, ProjectedStatistics> eldest) {
+                return size() > MAX_CACHED_PROJECTIONS;
+            }
+        });
+    }
+
+    /**
+     * Project the statistics and status of a user's current snapshot into the statistics projection tables, writing
+     * only the statistics that changed since their last projection, and commit it
+     *
+     * @param connection  the connection to write the projection over, with auto-commit disabled
+     * @param playerUuid  the UUID of the user to project
+     * @param versionUuid the version UUID of the snapshot to project
+     * @param data        the {@link UserData} of the snapshot
+     * @throws SQLException if a statement fails
+     */
+    void project(@NotNull Connection connection, @NotNull UUID playerUuid,
+                 @NotNull UUID versionUuid, @NotNull UserData data) throws SQLException {
+        try {
+            // Lock the user, so a newer snapshot cannot become current until the projection is committed
+            try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                    SELECT `current_version`
+                    FROM `%users_table%`
+                    WHERE `uuid`=?
+                    FOR UPDATE;"""))) {
+                statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+                final ResultSet resultSet = statement.executeQuery();
+                final byte[] currentVersion = resultSet.next() ? resultSet.getBytes("current_version") : null;
+                if (currentVersion == null || !MySqlDatabase.fromBinary(currentVersion).equals(versionUuid)) {
+                    connection.rollback();
+                    return;
+                }
+            }
+
+            final StatisticsProjection projection = StatisticsProjection.of(data);
+            final Map<StatisticsProjection.Key, Integer> statistics = new HashMap<>();
+            projection.getStatistics().forEach((key, value) -> {
+                if (key.statistic().length() <= MAX_STATISTIC_NAME_LENGTH
+                    && key.qualifier().length() <= MAX_STATISTIC_NAME_LENGTH) {
+                    statistics.put(key, value);
+                }
+            });
+            final Map<StatisticsProjection.Key, Integer> previousStatistics = selectProjectedStatistics(connection,
+                    playerUuid);
+            try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                    DELETE FROM `%statistics_table%`
+                    WHERE `player_uuid`=? AND `category`=? AND `statistic`=? AND `qualifier`=?;"""))) {
+                for (StatisticsProjection.Key key : previousStatistics.keySet()) {
+                    if (!statistics.containsKey(key)) {
+                        statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+                        statement.setString(2, key.category().name());
+                        statement.setString(3, key.statistic());
+                        statement.setString(4, key.qualifier());
+                        statement.addBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                    INSERT INTO `%statistics_table%` (`player_uuid`,`category`,`statistic`,`qualifier`,`value`)
+                    VALUES (?,?,?,?,?)
+                    ON DUPLICATE KEY UPDATE `value`=VALUES(`value`);"""))) {
+                for (Map.Entry<StatisticsProjection.Key, Integer> statistic : statistics.entrySet()) {
+                    if (!statistic.getValue().equals(previousStatistics.get(statistic.getKey()))) {
+                        statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+                        statement.setString(2, statistic.getKey().category().name());
+                        statement.setString(3, statistic.getKey().statistic());
+                        statement.setString(4, statistic.getKey().qualifier());
+                        statement.setInt(5, statistic.getValue());
+                        statement.addBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+
+            final Optional<StatusData> status = projection.getStatus();
+            try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                    INSERT INTO `%player_status_table%`
+                    (`player_uuid`,`version_uuid`,`health`,`max_health`,`hunger`,`experience_level`,`total_experience`,`game_mode`)
+                    VALUES (?,?,?,?,?,?,?,?)
+                    ON DUPLICATE KEY UPDATE `version_uuid`=VALUES(`version_uuid`), `health`=VALUES(`health`),
+                        `max_health`=VALUES(`max_health`), `hunger`=VALUES(`hunger`),
+                        `experience_level`=VALUES(`experience_level`),
+                        `total_experience`=VALUES(`total_experience`), `game_mode`=VALUES(`game_mode`);"""))) {
+                statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+                statement.setBytes(2, MySqlDatabase.toBinary(versionUuid));
+                statement.setObject(3, status.map(statusData -> statusData.health).orElse(null), Types.DOUBLE);
+                statement.setObject(4, status.map(statusData -> statusData.maxHealth).orElse(null), Types.DOUBLE);
+                statement.setObject(5, status.map(statusData -> statusData.hunger).orElse(null), Types.INTEGER);
+                statement.setObject(6, status.map(statusData -> statusData.expLevel).orElse(null), Types.INTEGER);
+                statement.setObject(7, status.map(statusData -> statusData.totalExperience).orElse(null),
+                        Types.INTEGER);
+                statement.setString(8, status.map(statusData -> statusData.gameMode).orElse(null));
+                statement.executeUpdate();
+            }
+            connection.commit();
+            projectedStatistics.put(playerUuid, new ProjectedStatistics(versionUuid, statistics));
+        } catch (SQLException e) {
+            connection.rollback();
+            projectedStatistics.remove(playerUuid);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the statistics last projected for a user. The statistics this server last projected are used if the
+     * projection table still holds the version it projected; otherwise, such as if another server has projected the
+     * user since, they are read from the table. Called with the user locked, so no other projection can interleave
+     *
+     * @param connection the connection to read the projection over
+     * @param playerUuid the UUID of the user
+     * @return a map of statistic keys to their projected values
+     * @throws SQLException if a statement fails
+     */
+    @NotNull
+    private Map<StatisticsProjection.Key, Integer> selectProjectedStatistics(@NotNull Connection connection,
+                                                                            @NotNull UUID playerUuid) throws SQLException {
+        final ProjectedStatistics cachedStatistics = projectedStatistics.get(playerUuid);
+        if (cachedStatistics != null) {
+            try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                    SELECT `version_uuid`
+                    FROM `%player_status_table%`
+                    WHERE `player_uuid`=?;"""))) {
+                statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+                final ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next() && cachedStatistics.versionUuid()
+                        .equals(MySqlDatabase.fromBinary(resultSet.getBytes("version_uuid")))) {
+                    return cachedStatistics.statistics();
+                }
+            }
+        }
+        final Map<StatisticsProjection.Key, Integer> statistics = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `category`, `statistic`, `qualifier`, `value`
+                FROM `%statistics_table%`
+                WHERE `player_uuid`=?;"""))) {
+            statement.setBytes(1, MySqlDatabase.toBinary(playerUuid));
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                statistics.put(new StatisticsProjection.Key(
+                        StatisticsProjection.Category.valueOf(resultSet.getString("category")),
+                        resultSet.getString("statistic"),
+                        resultSet.getString("qualifier")), resultSet.getInt("value"));
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Read a page of the leaderboard of a projected statistic
+     *
+     * @param connection the connection to read the leaderboard on
+     * @param key        the statistic to rank users by
+     * @param offset     the number of entries to skip
+     * @param limit      the maximum number of entries to read
+     * @return the leaderboard entries, highest value first
+     * @throws SQLException if the statement fails
+     */
+    @NotNull
+    List<LeaderboardEntry> selectStatisticLeaderboard(@NotNull Connection connection,
+                                                      @NotNull StatisticsProjection.Key key,
+                                                      int offset, int limit) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `uuid`, `username`, `value`
+                FROM `%statistics_table%`
+                INNER JOIN `%users_table%`
+                    ON `%users_table%`.`uuid`=`%statistics_table%`.`player_uuid`
+                WHERE `category`=? AND `statistic`=? AND `qualifier`=?
+                ORDER BY `value` DESC, `player_uuid` DESC
+                LIMIT ? OFFSET ?;"""))) {
+            statement.setString(1, key.category().name());
+            statement.setString(2, key.statistic());
+            statement.setString(3, key.qualifier());
+            statement.setInt(4, limit);
+            statement.setInt(5, offset);
+            return readLeaderboard(statement.executeQuery(), offset);
+        }
+    }
+
+    /**
+     * Read a page of the leaderboard of a projected status field
+     *
+     * @param connection the connection to read the leaderboard on
+     * @param field      the status field to rank users by
+     * @param offset     the number of entries to skip
+     * @param limit      the maximum number of entries to read
+     * @return the leaderboard entries, highest value first
+     * @throws SQLException if the statement fails
+     */
+    @NotNull
+    List<LeaderboardEntry> selectStatusLeaderboard(@NotNull Connection connection,
+                                                   @NotNull StatisticsProjection.StatusField field,
+                                                   int offset, int limit) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(database.formatStatementTables("""
+                SELECT `uuid`, `username`, `%field%` AS `value`
+                FROM `%player_status_table%`
+                INNER JOIN `%users_table%`
+                    ON `%users_table%`.`uuid`=`%player_status_table%`.`player_uuid`
+                WHERE `%field%` IS NOT NULL
+                ORDER BY `%field%` DESC, `player_uuid` DESC
+                LIMIT ? OFFSET ?;""").replaceAll("%field%", field.getColumnName()))) {
+            statement.setInt(1, limit);
+            statement.setInt(2, offset);
+            return readLeaderboard(statement.executeQuery(), offset);
+        }
+    }
+
+    @NotNull
+    private static List<LeaderboardEntry> readLeaderboard(@NotNull ResultSet resultSet,
+                                                          int offset) throws SQLException {
+        final List<LeaderboardEntry> entries = new ArrayList<>();
+        while (resultSet.next()) {
+            entries.add(new LeaderboardEntry(new User(MySqlDatabase.fromBinary(resultSet.getBytes("uuid")),
+                    resultSet.getString("username")), offset + entries.size() + 1,
+                    (Number) resultSet.getObject("value")));
+        }
+        return entries;
+    }
+
+    /**
+     * Forget the statistics last projected for a user, such as when the user is removed
+     *
+     * @param playerUuid the UUID of the user
+     */
+    void forget(@NotNull UUID playerUuid) {
+        projectedStatistics.remove(playerUuid);
+    }
+
+    /**
+     * Forget the statistics last projected for every user, such as when the database is wiped
+     */
+    void clear() {
+        projectedStatistics.clear();
+    }
+
+    /**
+     * The statistics this server projected for a user, and the version UUID of the snapshot they were projected from
+     */
+    private record ProjectedStatistics(@NotNull UUID versionUuid,
+                                       @NotNull Map<StatisticsProjection.Key, Integer> statistics) {
+    }
+
+}
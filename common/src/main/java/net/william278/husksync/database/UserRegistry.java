@@ -0,0 +1,110 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * A bounded cache of the users registered in the database, mapping UUIDs to usernames and back.
+ * <p>
+ * Entries mirror the database; a user is only cached once their row has been read or written. Name lookups are
+ * case-insensitive, and the least recently used users are evicted once the cache is full.
+ */
+public class UserRegistry {
+
+    private final Map<UUID, String> usernames;
+    private final Map<String, UUID> uuidsByName;
+
+    protected UserRegistry(int maxSize) {
+        this.uuidsByName = new HashMap<>();
+        this.usernames = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                if (size() > maxSize) {
+                    uuidsByName.remove(toKey(eldest.getValue()), eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a cached user by their UUID
+     *
+     * @param uuid the user's UUID
+     * @return the cached {@link User}, or an empty optional if not cached
+     */
+    public synchronized Optional<User> get(@NotNull UUID uuid) {
+        final String username = usernames.get(uuid);
+        return username == null ? Optional.empty() : Optional.of(new User(uuid, username));
+    }
+
+    /**
+     * Get a cached user by their username, ignoring case
+     *
+     * @param username the user's username
+     * @return the cached {@link User}, or an empty optional if not cached
+     */
+    public synchronized Optional<User> getByName(@NotNull String username) {
+        final UUID uuid = uuidsByName.get(toKey(username));
+        return uuid == null ? Optional.empty() : get(uuid);
+    }
+
+    /**
+     * Returns whether a user is cached with exactly their current username, meaning their database entry is
+     * up-to-date
+     *
+     * @param user the user to check
+     * @return {@code true} if the user's database entry is known to be up-to-date
+     */
+    public synchronized boolean isRegistered(@NotNull User user) {
+        return user.username.equals(usernames.get(user.uuid));
+    }
+
+    /**
+     * Cache a user as registered in the database with the given username. Any other user cached with the same name is
+     * evicted, as their entry must be stale
+     *
+     * @param user the user to cache
+     */
+    public synchronized void put(@NotNull User user) {
+        final String previousName = usernames.put(user.uuid, user.username);
+        if (previousName != null) {
+            uuidsByName.remove(toKey(previousName), user.uuid);
+        }
+        final UUID previousOwner = uuidsByName.put(toKey(user.username), user.uuid);
+        if (previousOwner != null && !previousOwner.equals(user.uuid)) {
+            usernames.remove(previousOwner);
+        }
+    }
+
+    /**
+     * Evict all cached users
+     */
+    public synchronized void clear() {
+        usernames.clear();
+        uuidsByName.clear();
+    }
+
+    /**
+     * Returns the number of cached users
+     *
+     * @return the cache size
+     */
+    public synchronized int size() {
+        return usernames.size();
+    }
+
+    @NotNull
+    private static String toKey(@NotNull String username) {
+        return username.toLowerCase(Locale.ENGLISH);
+    }
+
+}
@@ -68,7 +68,7 @@ public class PlanDataExtension implements DataExtension {
         return CompletableFuture.supplyAsync(() -> {
             final Optional<User> optionalUser = plugin.getDatabase().getUser(uuid).join();
             if (optionalUser.isPresent()) {
-                return plugin.getDatabase().getCurrentUserData(optionalUser.get()).join();
+                return plugin.getDatabase().getCurrentUserDataForDisplay(optionalUser.get()).join();
             }
             return Optional.empty();
         });
@@ -207,13 +207,15 @@ public class PlanDataExtension implements DataExtension {
                 .columnOneFormat(TableColumnFormat.DATE_SECOND)
                 .columnTwo("ID", new Icon(Family.SOLID, "bolt", Color.NONE))
                 .columnThree("Cause", new Icon(Family.SOLID, "flag", Color.NONE))
-                .columnFour("Pinned", new Icon(Family.SOLID, "thumbtack", Color.NONE));
+                .columnFour("Pinned", new Icon(Family.SOLID, "thumbtack", Color.NONE))
+                .columnFive("Size", new Icon(Family.SOLID, "weight-hanging", Color.NONE));
         plugin.getDatabase().getUser(playerUUID).join().ifPresent(user ->
-                plugin.getDatabase().getUserData(user).join().forEach(versionedUserData -> dataSnapshotsTable.addRow(
-                        versionedUserData.versionTimestamp().getTime(),
-                        versionedUserData.versionUUID().toString().split("-")[0],
-                        versionedUserData.cause().name().toLowerCase().replaceAll("_", " "),
-                        versionedUserData.pinned() ? PINNED_HTML_STRING + "Pinned" : "Unpinned"
+                plugin.getDatabase().getUserDataMetadata(user).join().forEach(snapshot -> dataSnapshotsTable.addRow(
+                        snapshot.versionTimestamp().getTime(),
+                        snapshot.versionUUID().toString().split("-")[0],
+                        snapshot.cause().name().toLowerCase().replaceAll("_", " "),
+                        snapshot.pinned() ? PINNED_HTML_STRING + "Pinned" : "Unpinned",
+                        String.format("%.1f KiB", snapshot.dataSize() / 1024d)
                 )));
         return dataSnapshotsTable.build();
     }
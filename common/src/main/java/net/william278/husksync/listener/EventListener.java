@@ -4,18 +4,27 @@ import de.themoep.minedown.adventure.MineDown;
 import net.william278.husksync.HuskSync;
 import net.william278.husksync.data.DataSaveCause;
 import net.william278.husksync.data.ItemData;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
 import net.william278.husksync.player.OnlineUser;
+import net.william278.husksync.redis.UserCheckpoint;
+import net.william278.husksync.redis.UserHandoff;
+import net.william278.husksync.redis.WriteBehindQueue;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -31,19 +40,49 @@ public abstract class EventListener {
     /**
      * Set of UUIDs of "locked players", for which events will be cancelled.
      * </p>
-     * Players are locked while their items are being set (on join) or saved (on quit)
+     * Players are locked while their items are being set (on join) or saved (on quit). The set is concurrent, as
+     * players are unlocked from async tasks, such as the lock timeout, while events read it on the main thread
      */
     private final Set<UUID> lockedPlayers;
 
+    /**
+     * Maximum time to wait for a user's data to be set by the server they are switching from
+     */
+    private static final long SERVER_SWITCH_TIMEOUT_MILLISECONDS = 3200;
+
     /**
      * Whether the plugin is currently being disabled
      */
     private boolean disabling;
 
+    /**
+     * Hashes of the data last checkpointed for each online user, to skip checkpointing unchanged data
+     */
+    private final Map<UUID, Integer> checkpointHashes;
+
+    /**
+     * Executor periodically checkpointing online users' data, if checkpoints are enabled
+     */
+    @Nullable
+    private ScheduledExecutorService checkpointExecutor;
+
     protected EventListener(@NotNull HuskSync plugin) {
         this.plugin = plugin;
-        this.lockedPlayers = new HashSet<>();
+        this.lockedPlayers = ConcurrentHashMap.newKeySet();
         this.disabling = false;
+        this.checkpointHashes = new ConcurrentHashMap<>();
+
+        // Schedule checkpoints of online users' data
+        final int checkpointInterval = plugin.getSettings().getCheckpointInterval();
+        if (checkpointInterval > 0) {
+            this.checkpointExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "HuskSync-Checkpoints");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.checkpointExecutor.scheduleAtFixedRate(this::checkpointOnlineUsers, checkpointInterval,
+                    checkpointInterval, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -56,49 +95,37 @@ public abstract class EventListener {
             return;
         }
 
+        // Route data updates for the user to this server
+        plugin.getRedisManager().setUserPresence(user);
+
+        // Wait for the source server to announce the server switch handoff, for up to the network latency threshold
         lockedPlayers.add(user.uuid);
-        CompletableFuture.runAsync(() -> {
-            try {
-                // Hold reading data for the network latency threshold, to ensure the source server has set the redis key
-                Thread.sleep(Math.max(0, plugin.getSettings().getNetworkLatencyMilliseconds()));
-            } catch (InterruptedException e) {
-                plugin.log(Level.SEVERE, "An exception occurred handling a player join", e);
-            } finally {
-                plugin.getRedisManager().getUserServerSwitch(user).thenAccept(changingServers -> {
-                    if (!changingServers) {
+        plugin.getRedisManager().awaitUserHandoff(user, plugin.getSettings().getNetworkLatencyMilliseconds())
+                .thenCompose(handoff -> {
+                    if (!handoff.changingServers() || handoff.userData().isPresent()) {
+                        return CompletableFuture.completedFuture(handoff);
+                    }
+
+                    // Wait for the data if the source server has only set the switch key
+                    return plugin.getRedisManager().awaitUserData(user, SERVER_SWITCH_TIMEOUT_MILLISECONDS)
+                            .thenApply(redisUserData -> new UserHandoff(true, redisUserData));
+                })
+                .thenAccept(handoff -> {
+                    if (user.isOffline()) {
+                        return;
+                    }
+                    if (disabling || handoff.userData().isEmpty()) {
                         // Fetch from the database if the user isn't changing servers
                         setUserFromDatabase(user).thenAccept(succeeded -> handleSynchronisationCompletion(user, succeeded));
-                    } else {
-                        final int TIME_OUT_MILLISECONDS = 3200;
-                        CompletableFuture.runAsync(() -> {
-                            final AtomicInteger currentMilliseconds = new AtomicInteger(0);
-                            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-
-                            // Set the user as soon as the source server has set the data to redis
-                            executor.scheduleAtFixedRate(() -> {
-                                if (user.isOffline()) {
-                                    executor.shutdown();
-                                    return;
-                                }
-                                if (disabling || currentMilliseconds.get() > TIME_OUT_MILLISECONDS) {
-                                    executor.shutdown();
-                                    setUserFromDatabase(user).thenAccept(
-                                            succeeded -> handleSynchronisationCompletion(user, succeeded));
-                                    return;
-                                }
-                                plugin.getRedisManager().getUserData(user).thenAccept(redisUserData ->
-                                        redisUserData.ifPresent(redisData -> {
-                                            user.setData(redisData, plugin)
-                                                    .thenAccept(succeeded -> handleSynchronisationCompletion(user, succeeded)).join();
-                                            executor.shutdown();
-                                        })).join();
-                                currentMilliseconds.addAndGet(200);
-                            }, 0, 200L, TimeUnit.MILLISECONDS);
-                        });
+                        return;
                     }
+                    user.setData(handoff.userData().get(), plugin)
+                            .thenAccept(succeeded -> handleSynchronisationCompletion(user, succeeded));
+                })
+                .exceptionally(throwable -> {
+                    plugin.log(Level.SEVERE, "An exception occurred handling a player join", throwable);
+                    return null;
                 });
-            }
-        });
     }
 
     /**
@@ -108,9 +135,17 @@ public abstract class EventListener {
      * @return Whether the data was successfully set
      */
     private CompletableFuture<Boolean> setUserFromDatabase(@NotNull OnlineUser user) {
-        return plugin.getDatabase().getCurrentUserData(user).thenApply(databaseUserData -> {
-            if (databaseUserData.isPresent()) {
-                return user.setData(databaseUserData.get().userData(), plugin).join();
+        final CompletableFuture<Optional<UserCheckpoint>> checkpointFuture = checkpointExecutor != null
+                ? plugin.getRedisManager().getUserCheckpoint(user) : CompletableFuture.completedFuture(Optional.empty());
+        return plugin.getDatabase().getCurrentUserData(user).thenCombine(checkpointFuture, (databaseUserData, checkpoint) -> {
+            // Prefer a checkpoint taken after the latest saved snapshot, such as one left by a crashed server
+            final Optional<UserData> userData = checkpoint
+                    .filter(userCheckpoint -> databaseUserData.isEmpty() || userCheckpoint.timestamp()
+                            .after(databaseUserData.get().versionTimestamp()))
+                    .map(UserCheckpoint::userData)
+                    .or(() -> databaseUserData.map(UserDataSnapshot::userData));
+            if (userData.isPresent()) {
+                return user.setData(userData.get(), plugin).join();
             }
             return true;
         });
@@ -153,18 +188,43 @@ public abstract class EventListener {
         if (disabling) {
             return;
         }
+        if (user.isNpc()) {
+            return;
+        }
+        plugin.getRedisManager().clearUserPresence(user);
+        checkpointHashes.remove(user.uuid);
+
         // Don't sync players awaiting synchronization
-        if (lockedPlayers.contains(user.uuid) || user.isNpc()) {
+        if (lockedPlayers.contains(user.uuid)) {
             return;
         }
 
-        // Handle asynchronous disconnection
+        // Mark the user as switching servers before serializing their data, so the server they are switching to waits
+        // for it rather than reading stale data from the database. The data is set once the marker has been written
         lockedPlayers.add(user.uuid);
-        CompletableFuture.runAsync(() -> plugin.getRedisManager().setUserServerSwitch(user)
-                .thenRun(() -> user.getUserData(plugin).thenAccept(
-                        optionalUserData -> optionalUserData.ifPresent(userData -> plugin.getRedisManager()
-                                .setUserData(user, userData).thenRun(() -> plugin.getDatabase()
-                                        .setUserData(user, userData, DataSaveCause.DISCONNECT)))))
+        final CompletableFuture<Void> serverSwitch = plugin.getRedisManager().setUserServerSwitch(user)
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to set a user's server switch key", throwable);
+                    return null;
+                });
+        CompletableFuture.runAsync(() -> user.getUserData(plugin)
+                .thenAccept(optionalUserData -> optionalUserData.ifPresent(userData -> serverSwitch
+                        .thenCompose(ignored -> plugin.getRedisManager().setUserHandoff(user, userData))
+                        .handle((ignored, throwable) -> {
+                            // The handoff only spares the next server a database read, so the data is saved anyway
+                            if (throwable != null) {
+                                plugin.log(Level.WARNING, "Failed to hand off a disconnecting user's data",
+                                        throwable);
+                            }
+                            return null;
+                        })
+                        .thenCompose(ignored -> saveUserData(user, userData, DataSaveCause.DISCONNECT))
+                        .thenRun(() -> clearUserCheckpoint(user))
+                        .exceptionally(throwable -> {
+                            // Any checkpoint of the user's data is kept, so it can be recovered on their next join
+                            plugin.log(Level.SEVERE, "Failed to save a disconnecting user's data", throwable);
+                            return null;
+                        })))
                 .exceptionally(throwable -> {
                     plugin.log(Level.SEVERE,
                             "An exception occurred handling a player disconnection");
@@ -185,8 +245,8 @@ public abstract class EventListener {
         usersInWorld.stream()
                 .filter(user -> !lockedPlayers.contains(user.uuid) && !user.isNpc())
                 .forEach(user -> user.getUserData(plugin)
-                        .thenAccept(data -> data.ifPresent(userData -> plugin.getDatabase()
-                                .setUserData(user, userData, DataSaveCause.WORLD_SAVE))));
+                        .thenAccept(data -> data.ifPresent(userData -> saveUserData(user, userData,
+                                DataSaveCause.WORLD_SAVE))));
     }
 
     /**
@@ -204,10 +264,60 @@ public abstract class EventListener {
         user.getUserData(plugin)
                 .thenAccept(data -> data.ifPresent(userData -> {
                     userData.getInventory().orElse(ItemData.empty()).serializedItems = drops.serializedItems;
-                    plugin.getDatabase().setUserData(user, userData, DataSaveCause.DEATH);
+                    saveUserData(user, userData, DataSaveCause.DEATH);
                 }));
     }
 
+    /**
+     * Save a user's data, through the write-behind queue if it is enabled, or else directly to the database
+     *
+     * @param user          The user to save data for
+     * @param userData      The {@link UserData} to save
+     * @param dataSaveCause The {@link DataSaveCause} of the save
+     * @return A future returning void when the data has been saved or durably queued
+     */
+    private CompletableFuture<Void> saveUserData(@NotNull OnlineUser user, @NotNull UserData userData,
+                                                 @NotNull DataSaveCause dataSaveCause) {
+        final Optional<WriteBehindQueue> writeBehindQueue = plugin.getRedisManager().getWriteBehindQueue();
+        if (writeBehindQueue.isPresent()) {
+            return writeBehindQueue.get().add(user, userData, dataSaveCause);
+        }
+        return plugin.getDatabase().setUserData(user, userData, dataSaveCause);
+    }
+
+    /**
+     * Checkpoint the data of online users whose data has changed since their last checkpoint
+     */
+    private void checkpointOnlineUsers() {
+        if (disabling) {
+            return;
+        }
+        plugin.getOnlineUsers().stream()
+                .filter(user -> !lockedPlayers.contains(user.uuid) && !user.isNpc())
+                .forEach(user -> user.getUserData(plugin).thenAccept(data -> data.ifPresent(userData -> {
+                    final byte[] dataByteArray = plugin.getDataAdapter().toBytes(userData);
+                    final int dataHash = Arrays.hashCode(dataByteArray);
+                    final Integer previousHash = checkpointHashes.put(user.uuid, dataHash);
+                    if (previousHash == null || previousHash != dataHash) {
+                        plugin.getRedisManager().setUserCheckpoint(user, dataByteArray);
+                    }
+                })).exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to checkpoint a user's data", throwable);
+                    return null;
+                }));
+    }
+
+    /**
+     * Clear a user's data checkpoint once their data has been saved, if checkpoints are enabled
+     *
+     * @param user The user to clear the checkpoint of
+     */
+    private void clearUserCheckpoint(@NotNull OnlineUser user) {
+        if (checkpointExecutor != null) {
+            plugin.getRedisManager().clearUserCheckpoint(user);
+        }
+    }
+
     /**
      * Determine whether a player event should be cancelled
      *
@@ -223,16 +333,24 @@ public abstract class EventListener {
      */
     public final void handlePluginDisable() {
         disabling = true;
+        if (checkpointExecutor != null) {
+            checkpointExecutor.shutdownNow();
+        }
 
-        // Save data for all online users
+        // Save data for all online users, queueing every save before waiting so they are written in batches
+        final List<CompletableFuture<Void>> saves = new ArrayList<>();
         plugin.getOnlineUsers().stream()
                 .filter(user -> !lockedPlayers.contains(user.uuid) && !user.isNpc())
                 .forEach(user -> {
                     lockedPlayers.add(user.uuid);
                     user.getUserData(plugin).join()
-                            .ifPresent(userData -> plugin.getDatabase()
-                                    .setUserData(user, userData, DataSaveCause.SERVER_SHUTDOWN).join());
+                            .ifPresent(userData -> saves.add(saveUserData(user, userData, DataSaveCause.SERVER_SHUTDOWN)
+                                    .thenRun(() -> clearUserCheckpoint(user))));
                 });
+        CompletableFuture.allOf(saves.toArray(CompletableFuture[]::new)).exceptionally(throwable -> {
+            plugin.log(Level.SEVERE, "An exception occurred saving user data on shutdown", throwable);
+            return null;
+        }).join();
 
         // Close outstanding connections
         plugin.getDatabase().close();
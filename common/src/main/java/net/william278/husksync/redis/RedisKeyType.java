@@ -2,10 +2,16 @@ package net.william278.husksync.redis;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
 public enum RedisKeyType {
     CACHE(60 * 60 * 24),
     DATA_UPDATE(10),
-    SERVER_SWITCH(10);
+    SERVER_SWITCH(10),
+    PRESENCE(30),
+    CHECKPOINT(60 * 60 * 24),
+    MAINTENANCE_LEASE(60);
 
     public final int timeToLive;
 
@@ -17,4 +23,28 @@ public enum RedisKeyType {
     public String getKeyPrefix() {
         return RedisManager.KEY_NAMESPACE.toLowerCase() + ":" + RedisManager.clusterId.toLowerCase() + ":" + name().toLowerCase();
     }
+
+    /**
+     * Get the key of this type for a user.
+     * <p>
+     * When connected to a Redis Cluster, the user's UUID is wrapped in a hash tag, so that all of a user's keys
+     * map to the same hash slot and can be operated on together atomically.
+     *
+     * @param uuid the user's UUID
+     * @return the key, as bytes
+     */
+    public byte[] getKey(@NotNull UUID uuid) {
+        return (getKeyPrefix() + ":" + (RedisManager.hashTagKeys ? "{" + uuid + "}" : uuid.toString()))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the key of this type for a named resource shared by the cluster, rather than a user
+     *
+     * @param name the name of the resource
+     * @return the key, as bytes
+     */
+    public byte[] getKey(@NotNull String name) {
+        return (getKeyPrefix() + ":" + name).getBytes(StandardCharsets.UTF_8);
+    }
 }
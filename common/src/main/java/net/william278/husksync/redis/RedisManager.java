@@ -1,51 +1,277 @@
 package net.william278.husksync.redis;
 
-import de.themoep.minedown.adventure.MineDown;
+import com.google.gson.JsonParseException;
 import net.william278.husksync.HuskSync;
+import net.william278.husksync.config.Settings;
+import net.william278.husksync.data.DataSaveCause;
 import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
 import net.william278.husksync.player.User;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.*;
-import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.commands.JedisCommands;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.Pool;
 
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Manages the connection to the Redis server, handling the caching of user data
  */
-public class RedisManager extends JedisPubSub {
+public class RedisManager extends BinaryJedisPubSub {
 
     protected static final String KEY_NAMESPACE = "husksync:";
     protected static String clusterId = "";
+
+    /**
+     * Lua script to read and delete all keys passed to it in one atomic call
+     */
+    static final byte[] CONSUME_KEYS_SCRIPT = """
+            local values = {}
+            for index, key in ipairs(KEYS) do
+                values[index] = redis.call('GET', key)
+                if values[index] then
+                    redis.call('DEL', key)
+                end
+            end
+            return values""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to set a user's server switch key and data, then announce the handoff, in one atomic call
+     */
+    static final byte[] SET_HANDOFF_SCRIPT = """
+            redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2])
+            redis.call('PUBLISH', ARGV[3], ARGV[4])
+            return 1""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to set a user's server switch key and announce it to the cluster
+     */
+    static final byte[] SET_SERVER_SWITCH_SCRIPT = """
+            redis.call('SET', KEYS[1], '', 'EX', ARGV[1])
+            redis.call('PUBLISH', ARGV[2], ARGV[3])
+            return 1""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to read the fields of a user's cached data snapshot
+     */
+    private static final byte[] GET_CACHED_SNAPSHOT_SCRIPT = """
+            return redis.call('HMGET', KEYS[1], 'version', 'timestamp', 'cause', 'pinned', 'data')"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to cache a user's data snapshot, unless a newer snapshot has already been cached
+     */
+    private static final byte[] SET_CACHED_SNAPSHOT_SCRIPT = """
+            local cached = redis.call('HGET', KEYS[1], 'timestamp')
+            if cached and tonumber(cached) > tonumber(ARGV[2]) then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], 'version', ARGV[1], 'timestamp', ARGV[2], 'cause', ARGV[3],
+                    'pinned', ARGV[4], 'data', ARGV[5])
+            redis.call('EXPIRE', KEYS[1], ARGV[6])
+            return 1""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to refresh a user's presence key, unless another server has since claimed the user
+     */
+    private static final byte[] REFRESH_PRESENCE_SCRIPT = """
+            local owner = redis.call('GET', KEYS[1])
+            if owner and owner ~= ARGV[1] then
+                return 0
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2])
+            return 1""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to claim a user's presence key for a server, regardless of its current owner
+     */
+    private static final byte[] SET_PRESENCE_SCRIPT = """
+            return redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2])""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to delete a user's presence key, only if it is still owned by the calling server
+     */
+    private static final byte[] CLEAR_PRESENCE_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to set a user's data checkpoint, recording the server that took it
+     */
+    private static final byte[] SET_CHECKPOINT_SCRIPT = """
+            redis.call('HSET', KEYS[1], 'server', ARGV[1], 'timestamp', ARGV[2], 'data', ARGV[3])
+            return redis.call('EXPIRE', KEYS[1], ARGV[4])""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to read the fields of a user's data checkpoint
+     */
+    private static final byte[] GET_CHECKPOINT_SCRIPT = """
+            return redis.call('HMGET', KEYS[1], 'timestamp', 'data')""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to delete a user's data checkpoint, only if it was taken by the calling server
+     */
+    private static final byte[] CLEAR_CHECKPOINT_SCRIPT = """
+            if redis.call('HGET', KEYS[1], 'server') == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to take or extend a lease for a server, unless another server holds it
+     */
+    private static final byte[] ACQUIRE_LEASE_SCRIPT = """
+            local holder = redis.call('GET', KEYS[1])
+            if holder and holder ~= ARGV[1] then
+                return 0
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2])
+            return 1""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to release a lease, only if it is still held by the calling server
+     */
+    private static final byte[] RELEASE_LEASE_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to read the value of a single key
+     */
+    private static final byte[] GET_KEY_SCRIPT = """
+            return redis.call('GET', KEYS[1])""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lua script to delete all keys passed to it
+     */
+    private static final byte[] DELETE_KEYS_SCRIPT = """
+            return redis.call('DEL', unpack(KEYS))""".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Delay before re-subscribing to message channels after the subscriber connection is lost
+     */
+    private static final long RESUBSCRIBE_DELAY_MILLISECONDS = 2000;
+
+    /**
+     * Number of times a command is retried against the cluster when slots are being moved between nodes
+     */
+    private static final int CLUSTER_MAX_ATTEMPTS = 5;
+
+    /**
+     * Interval at which the presence keys of users online on this server are refreshed
+     */
+    private static final long PRESENCE_HEARTBEAT_SECONDS = RedisKeyType.PRESENCE.timeToLive / 3;
+
+    /**
+     * Whether keys should be hash-tagged by user UUID, so that all of a user's keys are stored in the same
+     * Redis Cluster hash slot
+     */
+    protected static boolean hashTagKeys = false;
+
     private final HuskSync plugin;
-    private final JedisPoolConfig jedisPoolConfig;
+    private final Settings.RedisTopology topology;
+
+    /**
+     * Unique ID of this server, identifying it in the presence registry and its routed message channels
+     */
+    private final String serverId;
     private final String redisHost;
     private final int redisPort;
     private final String redisPassword;
     private final boolean redisUseSsl;
-    private JedisPool jedisPool;
+
+    /**
+     * The connection pool, when connecting to a standalone server or a Sentinel-monitored master
+     */
+    @Nullable
+    private Pool<Jedis> jedisPool;
+
+    /**
+     * The cluster client, when connecting to a Redis Cluster
+     */
+    @Nullable
+    private JedisCluster jedisCluster;
+
+    /**
+     * The shared connection hot-path commands are pipelined over, if enabled
+     */
+    @Nullable
+    private RedisPipeline pipeline;
+
+    /**
+     * Futures for users awaiting a server switch handoff from another server, completed when the source server
+     * announces it on the {@link RedisMessageType#SERVER_SWITCH_SET} channel
+     */
+    private final Map<UUID, CompletableFuture<Void>> pendingHandoffs;
+
+    /**
+     * Queue incoming data updates are applied to online users through
+     */
+    private final UserDataUpdateQueue updateQueue;
+
+    /**
+     * Whether the manager is closing, in which case the subscriber should not reconnect
+     */
+    private volatile boolean closing;
+
+    /**
+     * Executor refreshing the presence keys of online users
+     */
+    @Nullable
+    private ScheduledExecutorService presenceHeartbeat;
+
+    /**
+     * The queue data saves are written to the database through, if write-behind is enabled
+     */
+    @Nullable
+    private WriteBehindQueue writeBehindQueue;
 
     public RedisManager(@NotNull HuskSync plugin) {
         this.plugin = plugin;
         clusterId = plugin.getSettings().getClusterId();
 
         // Set redis credentials
+        this.topology = plugin.getSettings().getRedisTopology();
         this.redisHost = plugin.getSettings().getRedisHost();
         this.redisPort = plugin.getSettings().getRedisPort();
         this.redisPassword = plugin.getSettings().getRedisPassword();
         this.redisUseSsl = plugin.getSettings().isRedisUseSsl();
+        hashTagKeys = topology == Settings.RedisTopology.CLUSTER;
+        this.serverId = UUID.randomUUID().toString();
 
-        // Configure the jedis pool
-        this.jedisPoolConfig = new JedisPoolConfig();
-        this.jedisPoolConfig.setMaxIdle(0);
-        this.jedisPoolConfig.setTestOnBorrow(true);
-        this.jedisPoolConfig.setTestOnReturn(true);
+        // Prepare the handoff registry and data update queue
+        this.pendingHandoffs = new ConcurrentHashMap<>();
+        this.updateQueue = new UserDataUpdateQueue(plugin);
     }
 
     /**
@@ -54,114 +280,502 @@ public class RedisManager extends JedisPubSub {
      * @return a future returning void when complete
      */
     public boolean initialize() {
-        if (redisPassword.isBlank()) {
-            jedisPool = new JedisPool(jedisPoolConfig, redisHost, redisPort, 0, redisUseSsl);
-        } else {
-            jedisPool = new JedisPool(jedisPoolConfig, redisHost, redisPort, 0, redisPassword, redisUseSsl);
-        }
+        final Settings settings = plugin.getSettings();
         try {
-            jedisPool.getResource().ping();
-        } catch (JedisException e) {
+            switch (topology) {
+                case STANDALONE -> jedisPool = new JedisPool(configurePool(new JedisPoolConfig()),
+                        new HostAndPort(redisHost, redisPort), getClientConfig(Protocol.DEFAULT_TIMEOUT));
+                case SENTINEL -> jedisPool = new JedisSentinelPool(settings.getRedisSentinelMasterName(),
+                        parseNodes(settings.getRedisSentinelNodes()), configurePool(new JedisPoolConfig()),
+                        getClientConfig(Protocol.DEFAULT_TIMEOUT), DefaultJedisClientConfig.builder()
+                                .password(settings.getRedisSentinelPassword().isBlank()
+                                        ? null : settings.getRedisSentinelPassword())
+                                .ssl(redisUseSsl).build());
+                case CLUSTER -> jedisCluster = new JedisCluster(parseNodes(settings.getRedisClusterNodes()),
+                        getClientConfig(Protocol.DEFAULT_TIMEOUT), CLUSTER_MAX_ATTEMPTS,
+                        configurePool(new ConnectionPoolConfig()));
+            }
+
+            if (jedisPool != null) {
+                try (Jedis jedis = jedisPool.getResource()) {
+                    jedis.ping();
+                }
+
+                // Warm the pool up to the minimum number of idle connections
+                jedisPool.preparePool();
+            } else if (jedisCluster != null) {
+                for (ConnectionPool nodePool : jedisCluster.getClusterNodes().values()) {
+                    nodePool.preparePool();
+                }
+            }
+        } catch (Exception e) {
+            plugin.log(Level.SEVERE, "Failed to connect to Redis with the " + topology.name().toLowerCase()
+                                     + " topology", e);
+            closeConnections();
             return false;
         }
+        if (settings.doRedisPipelining()) {
+            if (jedisPool != null) {
+                pipeline = new RedisPipeline(jedisPool::getResource);
+                pipeline.start();
+            } else {
+                plugin.log(Level.WARNING, "Redis pipelining is not supported with the Redis Cluster topology");
+            }
+        }
         CompletableFuture.runAsync(this::subscribe);
+        if (settings.doRedisWriteBehind()) {
+            try {
+                writeBehindQueue = new WriteBehindQueue(plugin, this, serverId);
+                writeBehindQueue.start();
+            } catch (Exception e) {
+                plugin.log(Level.SEVERE, "Failed to start the write-behind queue", e);
+                writeBehindQueue = null;
+            }
+        }
+
+        // Keep the presence keys of online users from expiring
+        presenceHeartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "HuskSync-PresenceHeartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        presenceHeartbeat.scheduleAtFixedRate(this::refreshPresence, PRESENCE_HEARTBEAT_SECONDS,
+                PRESENCE_HEARTBEAT_SECONDS, TimeUnit.SECONDS);
         return true;
     }
 
+    /**
+     * Apply the configured connection pool properties, keeping idle connections open and validating them in the
+     * background rather than on each borrow
+     *
+     * @param poolConfig the pool configuration to apply properties to
+     * @param <T>        the type of pooled connection
+     * @param <C>        the type of pool configuration
+     * @return the configured pool configuration
+     */
+    @NotNull
+    private <T, C extends GenericObjectPoolConfig<T>> C configurePool(@NotNull C poolConfig) {
+        final Settings settings = plugin.getSettings();
+        poolConfig.setMaxTotal(settings.getRedisConnectionPoolSize());
+        poolConfig.setMaxIdle(settings.getRedisConnectionPoolSize());
+        poolConfig.setMinIdle(settings.getRedisConnectionPoolIdle());
+        poolConfig.setMaxWait(Duration.ofMillis(settings.getRedisConnectionPoolTimeout()));
+        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestOnReturn(false);
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setTimeBetweenEvictionRuns(Duration.ofMillis(settings.getRedisConnectionPoolEvictionInterval()));
+        return poolConfig;
+    }
+
+    @NotNull
+    private JedisClientConfig getClientConfig(int timeoutMillis) {
+        return DefaultJedisClientConfig.builder()
+                .password(redisPassword.isBlank() ? null : redisPassword)
+                .timeoutMillis(timeoutMillis)
+                .ssl(redisUseSsl)
+                .build();
+    }
+
+    @NotNull
+    private static Set<HostAndPort> parseNodes(@NotNull List<String> nodes) {
+        return nodes.stream().map(HostAndPort::from).collect(Collectors.toSet());
+    }
+
+    /**
+     * Subscribe to all message channels, blocking until the manager is closed.
+     * <p>
+     * If the subscriber connection is lost, such as during a Sentinel failover, the channels are re-subscribed
+     * to on the current master.
+     */
     private void subscribe() {
-        try (final Jedis subscriber = redisPassword.isBlank() ? new Jedis(redisHost, redisPort, 0, redisUseSsl) :
-                new Jedis(redisHost, redisPort, DefaultJedisClientConfig.builder()
-                        .password(redisPassword).timeoutMillis(0).ssl(redisUseSsl).build())) {
-            subscriber.connect();
-            subscriber.subscribe(this, Arrays.stream(RedisMessageType.values())
-                    .map(RedisMessageType::getMessageChannel)
-                    .toArray(String[]::new));
+        final byte[][] channels = Arrays.stream(RedisMessageType.values())
+                .flatMap(messageType -> Stream.of(messageType.getBinaryMessageChannel(),
+                        messageType.getBinaryMessageChannel(serverId),
+                        messageType.getMessageChannel().getBytes(StandardCharsets.UTF_8)))
+                .toArray(byte[][]::new);
+        while (!closing) {
+            try {
+                if (jedisCluster != null) {
+                    jedisCluster.subscribe(this, channels);
+                } else {
+                    final HostAndPort master = jedisPool instanceof JedisSentinelPool sentinelPool
+                            ? sentinelPool.getCurrentHostMaster() : new HostAndPort(redisHost, redisPort);
+                    try (final Jedis subscriber = new Jedis(master, getClientConfig(0))) {
+                        subscriber.subscribe(this, channels);
+                    }
+                }
+            } catch (Exception e) {
+                if (closing) {
+                    return;
+                }
+                plugin.log(Level.WARNING, "Lost connection to Redis message channels, re-subscribing: "
+                                          + e.getMessage());
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MILLISECONDS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
         }
     }
 
     @Override
-    public void onMessage(@NotNull String channel, @NotNull String message) {
-        final RedisMessageType messageType = RedisMessageType.getTypeFromChannel(channel).orElse(null);
-        if (messageType != RedisMessageType.UPDATE_USER_DATA) {
+    public void onMessage(byte[] channel, byte[] message) {
+        // Read binary messages, falling back to the legacy JSON format for servers running older versions
+        final Optional<RedisMessageType> binaryMessageType = RedisMessageType.getTypeFromBinaryChannel(channel,
+                serverId);
+        final Optional<RedisMessageType> messageType = binaryMessageType.or(() -> RedisMessageType
+                .getTypeFromChannel(new String(channel, StandardCharsets.UTF_8)));
+        if (messageType.isEmpty()) {
             return;
         }
 
-        final RedisMessage redisMessage = RedisMessage.fromJson(message);
-        plugin.getOnlineUser(redisMessage.targetUserUuid).ifPresent(user -> {
-            final UserData userData = plugin.getDataAdapter().fromBytes(redisMessage.data);
-            user.setData(userData, plugin).thenAccept(succeeded -> {
-                if (succeeded) {
-                    switch (plugin.getSettings().getNotificationDisplaySlot()) {
-                        case CHAT -> plugin.getLocales().getLocale("data_update_complete")
-                                .ifPresent(user::sendMessage);
-                        case ACTION_BAR -> plugin.getLocales().getLocale("data_update_complete")
-                                .ifPresent(user::sendActionBar);
-                        case TOAST -> plugin.getLocales().getLocale("data_update_complete")
-                                .ifPresent(locale -> user.sendToast(locale, new MineDown(""),
-                                        "minecraft:bell", "TASK"));
-                    }
-                    plugin.getEventCannon().fireSyncCompleteEvent(user);
-                } else {
-                    plugin.getLocales().getLocale("data_update_failed")
-                            .ifPresent(user::sendMessage);
-                }
-            });
+        // Drop malformed messages, such as those from foreign publishers, rather than let them kill the subscriber
+        final RedisMessage redisMessage;
+        try {
+            redisMessage = binaryMessageType.isPresent() ? RedisMessage.fromBytes(message)
+                    : RedisMessage.fromJson(new String(message, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException | JsonParseException e) {
+            plugin.log(Level.WARNING, "Dropped a malformed redis message on the " + messageType.get().name()
+                                      + " channel", e);
+            return;
+        }
+        if (redisMessage == null || redisMessage.targetUserUuid == null) {
+            plugin.log(Level.WARNING, "Dropped an empty redis message on the " + messageType.get().name()
+                                      + " channel");
+            return;
+        }
+        switch (messageType.get()) {
+            case UPDATE_USER_DATA -> updateQueue.submit(redisMessage.targetUserUuid, redisMessage.data);
+            case SERVER_SWITCH_SET -> completeHandoff(redisMessage.targetUserUuid);
+            case USER_RENAMED -> plugin.getDatabase().getUserRegistry().put(new User(redisMessage.targetUserUuid,
+                    new String(redisMessage.data, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Complete a pending server switch handoff for a user, if this server is waiting on one
+     *
+     * @param userUuid the UUID of the user the handoff has been set for
+     */
+    private void completeHandoff(@NotNull UUID userUuid) {
+        final CompletableFuture<Void> handoff = pendingHandoffs.remove(userUuid);
+        if (handoff != null) {
+            handoff.complete(null);
+        }
+    }
+
+    /**
+     * Wait for a server switch handoff to be announced by a source server, or for the timeout to elapse.
+     * <p>
+     * The timeout is scheduled on the shared {@link CompletableFuture} delay scheduler, so no thread is
+     * held while waiting.
+     *
+     * @param user          the user to wait for
+     * @param timeoutMillis the maximum time to wait, in milliseconds
+     * @return a future completing when the handoff has been announced or the timeout elapsed
+     */
+    @NotNull
+    private CompletableFuture<Void> awaitHandoff(@NotNull User user, long timeoutMillis) {
+        final CompletableFuture<Void> handoff = pendingHandoffs.computeIfAbsent(user.uuid,
+                uuid -> new CompletableFuture<>());
+        return handoff.completeOnTimeout(null, Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS)
+                .whenComplete((result, throwable) -> pendingHandoffs.remove(user.uuid, handoff));
+    }
+
+    /**
+     * Consume a user's server switch handoff, waiting for the source server to announce it if it is not yet present.
+     * <p>
+     * If neither handoff key is present, this waits up to the given timeout before checking again.
+     *
+     * @param user          the user to consume the handoff for
+     * @param timeoutMillis the maximum time to wait for the handoff to be announced, in milliseconds
+     * @return a future returning the consumed {@link UserHandoff}
+     */
+    public CompletableFuture<UserHandoff> awaitUserHandoff(@NotNull User user, long timeoutMillis) {
+        final CompletableFuture<Void> handoff = awaitHandoff(user, timeoutMillis);
+        return consumeUserHandoff(user).thenCompose(userHandoff -> {
+            if (userHandoff.changingServers()) {
+                completeHandoff(user.uuid);
+                return CompletableFuture.completedFuture(userHandoff);
+            }
+            return handoff.thenComposeAsync(ignored -> consumeUserHandoff(user));
+        });
+    }
+
+    /**
+     * Fetch a user's data set by the server they are switching from, consuming the key if found.
+     * <p>
+     * This is used when a user's server switch key has been set before their data; if the data is not yet present,
+     * it is checked again once the source server announces it, or once the given timeout has elapsed.
+     *
+     * @param user          the user to fetch data for
+     * @param timeoutMillis the maximum time to wait for the data to be announced, in milliseconds
+     * @return a future returning the user's data, if it was set within the timeout
+     */
+    public CompletableFuture<Optional<UserData>> awaitUserData(@NotNull User user, long timeoutMillis) {
+        final CompletableFuture<Void> handoff = awaitHandoff(user, timeoutMillis);
+        return getUserData(user).thenCompose(userData -> {
+            if (userData.isPresent()) {
+                completeHandoff(user.uuid);
+                return CompletableFuture.completedFuture(userData);
+            }
+            return handoff.thenComposeAsync(ignored -> getUserData(user));
         });
     }
 
-    protected void sendMessage(@NotNull String channel, @NotNull String message) {
-        try (Jedis jedis = jedisPool.getResource()) {
+    protected void sendMessage(@NotNull RedisMessageType type, @NotNull RedisMessage message) {
+        publish(type.getBinaryMessageChannel(), message.toBytes());
+        if (plugin.getSettings().doSendLegacyRedisMessages()) {
+            publish(type.getMessageChannel().getBytes(StandardCharsets.UTF_8),
+                    message.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void publish(byte[] channel, byte[] message) {
+        if (jedisCluster != null) {
+            jedisCluster.publish(channel, message);
+            return;
+        }
+        try (Jedis jedis = Objects.requireNonNull(jedisPool).getResource()) {
             jedis.publish(channel, message);
         }
     }
 
+    /**
+     * Announce that a user's name has been updated in the database, so other servers update their user cache
+     *
+     * @param user the user, with their new name
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> sendUserRename(@NotNull User user) {
+        return CompletableFuture.runAsync(() -> publish(RedisMessageType.USER_RENAMED.getBinaryMessageChannel(),
+                new RedisMessage(user.uuid, user.username.getBytes(StandardCharsets.UTF_8)).toBytes()));
+    }
+
+    /**
+     * Send a user's updated data to the server they are online on, if they are online on the cluster
+     *
+     * @param user     the user to send the update to
+     * @param userData the user's updated data
+     * @return a future returning void when complete
+     */
     public CompletableFuture<Void> sendUserDataUpdate(@NotNull User user, @NotNull UserData userData) {
-        return CompletableFuture.runAsync(() -> {
+        return getUserServer(user).thenAcceptAsync(userServer -> {
+            final boolean sendLegacyMessage = plugin.getSettings().doSendLegacyRedisMessages();
+            if (userServer.isEmpty() && !sendLegacyMessage) {
+                plugin.debug("[" + user.username + "] Skipped sending a data update, as they are not online");
+                return;
+            }
+
             final RedisMessage redisMessage = new RedisMessage(user.uuid, plugin.getDataAdapter().toBytes(userData));
-            redisMessage.dispatch(this, RedisMessageType.UPDATE_USER_DATA);
+            userServer.ifPresent(server -> publish(RedisMessageType.UPDATE_USER_DATA.getBinaryMessageChannel(server),
+                    redisMessage.toBytes()));
+
+            // Servers running older versions do not register presence, so must be sent the update regardless
+            if (sendLegacyMessage) {
+                publish(RedisMessageType.UPDATE_USER_DATA.getMessageChannel().getBytes(StandardCharsets.UTF_8),
+                        redisMessage.toJson().getBytes(StandardCharsets.UTF_8));
+            }
         });
     }
 
     /**
-     * Set a user's data to the Redis server
+     * Register a user as online on this server, so that data updates for them are routed here
      *
-     * @param user     the user to set data for
-     * @param userData the user's data to set
+     * @param user the user who is online on this server
      * @return a future returning void when complete
      */
-    public CompletableFuture<Void> setUserData(@NotNull User user, @NotNull UserData userData) {
+    public CompletableFuture<Void> setUserPresence(@NotNull User user) {
+        return eval(SET_PRESENCE_SCRIPT, new byte[][]{getKey(RedisKeyType.PRESENCE, user.uuid)},
+                serverId.getBytes(StandardCharsets.UTF_8),
+                Integer.toString(RedisKeyType.PRESENCE.timeToLive).getBytes(StandardCharsets.UTF_8))
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Set " + RedisKeyType.PRESENCE.name()
+                                                   + " key to redis"))
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to register a user's presence on redis", throwable);
+                    return null;
+                });
+    }
+
+    /**
+     * Unregister a user as online on this server, unless another server has already registered them
+     *
+     * @param user the user who has left this server
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> clearUserPresence(@NotNull User user) {
+        return eval(CLEAR_PRESENCE_SCRIPT, new byte[][]{getKey(RedisKeyType.PRESENCE, user.uuid)},
+                serverId.getBytes(StandardCharsets.UTF_8))
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Cleared " + RedisKeyType.PRESENCE.name()
+                                                   + " key on redis"))
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to clear a user's presence on redis", throwable);
+                    return null;
+                });
+    }
+
+    /**
+     * Get the ID of the server a user is online on, according to the presence registry
+     *
+     * @param user the user to look up
+     * @return a future returning the ID of the user's server, or an empty optional if they are not online
+     */
+    public CompletableFuture<Optional<String>> getUserServer(@NotNull User user) {
+        return eval(GET_KEY_SCRIPT, new byte[][]{getKey(RedisKeyType.PRESENCE, user.uuid)})
+                .thenApply(result -> Optional.ofNullable((byte[]) result)
+                        .map(serverId -> new String(serverId, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Set a checkpoint of a user's data, replacing any previous checkpoint
+     *
+     * @param user          the user to set the checkpoint for
+     * @param dataByteArray the user's data, serialized by the plugin's data adapter
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> setUserCheckpoint(@NotNull User user, byte[] dataByteArray) {
+        // Timestamps are truncated to the second, to compare fairly with saved snapshot timestamps
+        return eval(SET_CHECKPOINT_SCRIPT, new byte[][]{getKey(RedisKeyType.CHECKPOINT, user.uuid)},
+                serverId.getBytes(StandardCharsets.UTF_8),
+                Long.toString(System.currentTimeMillis() / 1000 * 1000).getBytes(StandardCharsets.UTF_8),
+                dataByteArray,
+                Integer.toString(RedisKeyType.CHECKPOINT.timeToLive).getBytes(StandardCharsets.UTF_8))
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Set " + RedisKeyType.CHECKPOINT.name()
+                                                   + " key to redis at: " +
+                                                   new SimpleDateFormat("mm:ss.SSS").format(new Date())))
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to set a data checkpoint on redis", throwable);
+                    return null;
+                });
+    }
+
+    /**
+     * Fetch a user's data checkpoint, if one is present
+     *
+     * @param user the user to fetch the checkpoint for
+     * @return a future returning the {@link UserCheckpoint}, or an empty optional if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Optional<UserCheckpoint>> getUserCheckpoint(@NotNull User user) {
+        return eval(GET_CHECKPOINT_SCRIPT, new byte[][]{getKey(RedisKeyType.CHECKPOINT, user.uuid)})
+                .thenApplyAsync(result -> {
+                    final List<byte[]> fields = (List<byte[]>) result;
+                    if (fields.stream().anyMatch(Objects::isNull)) {
+                        return Optional.<UserCheckpoint>empty();
+                    }
+                    return Optional.of(new UserCheckpoint(
+                            new Date(Long.parseLong(new String(fields.get(0), StandardCharsets.UTF_8))),
+                            plugin.getDataAdapter().fromBytes(fields.get(1))));
+                }).exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to read a data checkpoint from redis", throwable);
+                    return Optional.empty();
+                });
+    }
+
+    /**
+     * Delete a user's data checkpoint, unless it has since been replaced by another server
+     *
+     * @param user the user to delete the checkpoint of
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> clearUserCheckpoint(@NotNull User user) {
+        return eval(CLEAR_CHECKPOINT_SCRIPT, new byte[][]{getKey(RedisKeyType.CHECKPOINT, user.uuid)},
+                serverId.getBytes(StandardCharsets.UTF_8))
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Cleared "
+                                                   + RedisKeyType.CHECKPOINT.name() + " key on redis"))
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to clear a data checkpoint on redis", throwable);
+                    return null;
+                });
+    }
+
+    /**
+     * Refresh the presence keys of all users online on this server
+     */
+    private void refreshPresence() {
+        final byte[] serverIdBytes = serverId.getBytes(StandardCharsets.UTF_8);
+        final byte[] timeToLive = Integer.toString(RedisKeyType.PRESENCE.timeToLive).getBytes(StandardCharsets.UTF_8);
         try {
-            return CompletableFuture.runAsync(() -> {
-                try (Jedis jedis = jedisPool.getResource()) {
-                    // Set the user's data as a compressed byte array of the json using Snappy
-                    jedis.setex(getKey(RedisKeyType.DATA_UPDATE, user.uuid),
-                            RedisKeyType.DATA_UPDATE.timeToLive,
-                            plugin.getDataAdapter().toBytes(userData));
-
-                    // Debug logging
-                    plugin.debug("[" + user.username + "] Set " + RedisKeyType.DATA_UPDATE.name()
-                                                     + " key to redis at: " +
-                                                     new SimpleDateFormat("mm:ss.SSS").format(new Date()));
-                }
-            });
+            CompletableFuture.allOf(plugin.getOnlineUsers().stream()
+                    .filter(user -> !user.isNpc())
+                    .map(user -> eval(REFRESH_PRESENCE_SCRIPT, new byte[][]{getKey(RedisKeyType.PRESENCE, user.uuid)},
+                            serverIdBytes, timeToLive))
+                    .toArray(CompletableFuture[]::new)).join();
         } catch (Exception e) {
-            e.printStackTrace();
+            plugin.log(Level.WARNING, "Failed to refresh user presence on redis", e);
         }
-        return null;
     }
 
+    /**
+     * Take or extend a lease on a named task, so only one server in the cluster runs it at a time. The lease expires if
+     * it is not extended, such as if this server stops
+     *
+     * @param name the name of the task
+     * @return a future returning whether this server now holds the lease
+     */
+    public CompletableFuture<Boolean> acquireLease(@NotNull String name) {
+        return eval(ACQUIRE_LEASE_SCRIPT, new byte[][]{RedisKeyType.MAINTENANCE_LEASE.getKey(name)},
+                serverId.getBytes(StandardCharsets.UTF_8),
+                Integer.toString(RedisKeyType.MAINTENANCE_LEASE.timeToLive).getBytes(StandardCharsets.UTF_8))
+                .thenApply(result -> Long.valueOf(1).equals(result));
+    }
+
+    /**
+     * Release a lease on a named task, if this server holds it
+     *
+     * @param name the name of the task
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> releaseLease(@NotNull String name) {
+        return eval(RELEASE_LEASE_SCRIPT, new byte[][]{RedisKeyType.MAINTENANCE_LEASE.getKey(name)},
+                serverId.getBytes(StandardCharsets.UTF_8))
+                .thenAccept(result -> plugin.debug("Released the " + name + " lease on redis"));
+    }
+
+    /**
+     * Set a user's server switch key on the Redis server, announcing to the cluster that the user is leaving this
+     * server and their data will follow.
+     * <p>
+     * This is set before the user's data is serialized, so the target server knows to wait for the data rather than
+     * reading possibly stale data from the database.
+     *
+     * @param user the user switching servers
+     * @return a future returning void when complete
+     */
     public CompletableFuture<Void> setUserServerSwitch(@NotNull User user) {
-        return CompletableFuture.runAsync(() -> {
-            try (Jedis jedis = jedisPool.getResource()) {
-                jedis.setex(getKey(RedisKeyType.SERVER_SWITCH, user.uuid),
-                        RedisKeyType.SERVER_SWITCH.timeToLive, new byte[0]);
-                plugin.debug("[" + user.username + "] Set " + RedisKeyType.SERVER_SWITCH.name()
-                                                 + " key to redis at: " +
-                                                 new SimpleDateFormat("mm:ss.SSS").format(new Date()));
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+        return eval(SET_SERVER_SWITCH_SCRIPT, new byte[][]{getKey(RedisKeyType.SERVER_SWITCH, user.uuid)},
+                Integer.toString(RedisKeyType.SERVER_SWITCH.timeToLive).getBytes(StandardCharsets.UTF_8),
+                RedisMessageType.SERVER_SWITCH_SET.getBinaryMessageChannel(),
+                new RedisMessage(user.uuid, new byte[0]).toBytes())
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Set " + RedisKeyType.SERVER_SWITCH.name()
+                                                   + " key to redis at: " +
+                                                   new SimpleDateFormat("mm:ss.SSS").format(new Date())));
+    }
+
+    /**
+     * Set a user's data to the Redis server for the server they are switching to, announcing the handoff to the
+     * cluster. The user's server switch key should already have been set with {@link #setUserServerSwitch(User)}.
+     * <p>
+     * The data is written and the announcement published in a single script call, so the handoff costs one round
+     * trip and a target server waiting on the announcement finds the data when woken.
+     *
+     * @param user     the user to set the handoff for
+     * @param userData the user's data to set
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> setUserHandoff(@NotNull User user, @NotNull UserData userData) {
+        return CompletableFuture.supplyAsync(() -> plugin.getDataAdapter().toBytes(userData))
+                .thenCompose(dataByteArray -> eval(SET_HANDOFF_SCRIPT,
+                        new byte[][]{getKey(RedisKeyType.DATA_UPDATE, user.uuid)},
+                        dataByteArray,
+                        Integer.toString(RedisKeyType.DATA_UPDATE.timeToLive).getBytes(StandardCharsets.UTF_8),
+                        RedisMessageType.SERVER_SWITCH_SET.getBinaryMessageChannel(),
+                        new RedisMessage(user.uuid, new byte[0]).toBytes()))
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Set " + RedisKeyType.DATA_UPDATE.name()
+                                                   + " key to redis at: " +
+                                                   new SimpleDateFormat("mm:ss.SSS").format(new Date())));
     }
 
     /**
@@ -171,67 +785,309 @@ public class RedisManager extends JedisPubSub {
      * @return The user's data, if it's present on the database. Otherwise, an empty optional.
      */
     public CompletableFuture<Optional<UserData>> getUserData(@NotNull User user) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Jedis jedis = jedisPool.getResource()) {
-                final byte[] key = getKey(RedisKeyType.DATA_UPDATE, user.uuid);
-                final byte[] dataByteArray = jedis.get(key);
-                if (dataByteArray == null) {
-                    plugin.debug("[" + user.username + "] Could not read " +
-                                                     RedisKeyType.DATA_UPDATE.name() + " key from redis at: " +
-                                                     new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+        return consumeKeys(getKey(RedisKeyType.DATA_UPDATE, user.uuid)).thenApplyAsync(values -> {
+            final byte[] dataByteArray = values.get(0);
+            if (dataByteArray == null) {
+                plugin.debug("[" + user.username + "] Could not read " +
+                             RedisKeyType.DATA_UPDATE.name() + " key from redis at: " +
+                             new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+                return Optional.<UserData>empty();
+            }
+            plugin.debug("[" + user.username + "] Successfully read "
+                         + RedisKeyType.DATA_UPDATE.name() + " key from redis at: " +
+                         new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+
+            // Use Snappy to decompress the json
+            return Optional.of(plugin.getDataAdapter().fromBytes(dataByteArray));
+        }).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Fetch and consume a user's server switch key and data from the Redis server in a single atomic call
+     *
+     * @param user The user to consume the handoff for
+     * @return The consumed {@link UserHandoff}; not changing servers if neither key was present
+     */
+    public CompletableFuture<UserHandoff> consumeUserHandoff(@NotNull User user) {
+        return consumeKeys(getKey(RedisKeyType.SERVER_SWITCH, user.uuid), getKey(RedisKeyType.DATA_UPDATE, user.uuid))
+                .thenApplyAsync(values -> {
+                    final boolean changingServers = values.get(0) != null || values.get(1) != null;
+                    plugin.debug("[" + user.username + "] " + (changingServers ? "Successfully read " : "Could not read ")
+                                 + RedisKeyType.SERVER_SWITCH.name() + " key from redis at: " +
+                                 new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+                    if (values.get(1) == null) {
+                        return new UserHandoff(changingServers, Optional.empty());
+                    }
+
+                    // Use Snappy to decompress the json
+                    return new UserHandoff(true, Optional.of(plugin.getDataAdapter().fromBytes(values.get(1))));
+                }).exceptionally(throwable -> {
+                    throwable.printStackTrace();
+                    return new UserHandoff(false, Optional.empty());
+                });
+    }
+
+    /**
+     * Fetch a user's latest data snapshot from the shared cache, if it is present
+     *
+     * @param user the user to fetch the cached snapshot for
+     * @return a future returning the cached {@link UserDataSnapshot}, or an empty optional if it is not cached
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Optional<UserDataSnapshot>> getCachedUserData(@NotNull User user) {
+        return eval(GET_CACHED_SNAPSHOT_SCRIPT, new byte[][]{getKey(RedisKeyType.CACHE, user.uuid)})
+                .thenApplyAsync(result -> {
+                    final List<byte[]> fields = (List<byte[]>) result;
+                    if (fields.stream().anyMatch(Objects::isNull)) {
+                        return Optional.<UserDataSnapshot>empty();
+                    }
+                    plugin.debug("[" + user.username + "] Read " + RedisKeyType.CACHE.name() + " key from redis at: " +
+                                 new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+                    return Optional.of(new UserDataSnapshot(
+                            UUID.fromString(new String(fields.get(0), StandardCharsets.UTF_8)),
+                            new Date(Long.parseLong(new String(fields.get(1), StandardCharsets.UTF_8))),
+                            DataSaveCause.getCauseByName(new String(fields.get(2), StandardCharsets.UTF_8)),
+                            Boolean.parseBoolean(new String(fields.get(3), StandardCharsets.UTF_8)),
+                            plugin.getDataAdapter().fromBytes(fields.get(4))));
+                }).exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to read a cached data snapshot from redis", throwable);
                     return Optional.empty();
-                }
-                plugin.debug("[" + user.username + "] Successfully read "
-                                                 + RedisKeyType.DATA_UPDATE.name() + " key from redis at: " +
-                                                 new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+                });
+    }
 
-                // Consume the key (delete from redis)
-                jedis.del(key);
+    /**
+     * Set a user's latest data snapshot to the shared cache.
+     * <p>
+     * If a snapshot newer than the one being set has already been cached, the cache is left unchanged, so
+     * out-of-order writes can never replace a user's latest snapshot with an older one.
+     *
+     * @param user     the user to cache the snapshot for
+     * @param snapshot the user's latest {@link UserDataSnapshot}
+     * @return a future returning {@code true} once the snapshot, or a newer one, is cached, or {@code false} if the
+     * cache could not be written
+     */
+    public CompletableFuture<Boolean> setCachedUserData(@NotNull User user, @NotNull UserDataSnapshot snapshot) {
+        return CompletableFuture.supplyAsync(() -> plugin.getDataAdapter().toBytes(snapshot.userData()))
+                .thenCompose(dataByteArray -> eval(SET_CACHED_SNAPSHOT_SCRIPT,
+                        new byte[][]{getKey(RedisKeyType.CACHE, user.uuid)},
+                        snapshot.versionUUID().toString().getBytes(StandardCharsets.UTF_8),
+                        Long.toString(snapshot.versionTimestamp().getTime()).getBytes(StandardCharsets.UTF_8),
+                        snapshot.cause().name().getBytes(StandardCharsets.UTF_8),
+                        Boolean.toString(snapshot.pinned()).getBytes(StandardCharsets.UTF_8),
+                        dataByteArray,
+                        Integer.toString(RedisKeyType.CACHE.timeToLive).getBytes(StandardCharsets.UTF_8)))
+                .thenApply(result -> {
+                    plugin.debug("[" + user.username + "] Set " + RedisKeyType.CACHE.name() + " key to redis at: "
+                                 + new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+                    return true;
+                })
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to cache a data snapshot to redis", throwable);
+                    return false;
+                });
+    }
 
-                // Use Snappy to decompress the json
-                return Optional.of(plugin.getDataAdapter().fromBytes(dataByteArray));
-            } catch (Exception e) {
-                e.printStackTrace();
-                return Optional.empty();
+    /**
+     * Invalidate a user's cached data snapshot, so that it is next read from the database
+     *
+     * @param user the user to invalidate the cached snapshot of
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> invalidateCachedUserData(@NotNull User user) {
+        return eval(DELETE_KEYS_SCRIPT, new byte[][]{getKey(RedisKeyType.CACHE, user.uuid)})
+                .thenAccept(result -> plugin.debug("[" + user.username + "] Invalidated "
+                                                   + RedisKeyType.CACHE.name() + " key on redis"))
+                .exceptionally(throwable -> {
+                    plugin.log(Level.WARNING, "Failed to invalidate a cached data snapshot on redis", throwable);
+                    return null;
+                });
+    }
+
+    /**
+     * Invalidate every user's cached data snapshot, such as after the database has been wiped
+     *
+     * @return a future returning void when complete
+     */
+    public CompletableFuture<Void> invalidateAllCachedUserData() {
+        return CompletableFuture.runAsync(() -> {
+            final String pattern = RedisKeyType.CACHE.getKeyPrefix() + ":*";
+            if (jedisCluster != null) {
+                // Keys are spread across the cluster, so each node is scanned and matches deleted via the cluster
+                for (ConnectionPool nodePool : jedisCluster.getClusterNodes().values()) {
+                    try (Connection connection = nodePool.getResource()) {
+                        scanKeys(new Jedis(connection), pattern).forEach(jedisCluster::del);
+                    }
+                }
+                return;
+            }
+            try (Jedis jedis = Objects.requireNonNull(jedisPool).getResource()) {
+                final List<String> keys = scanKeys(jedis, pattern);
+                if (!keys.isEmpty()) {
+                    jedis.del(keys.toArray(String[]::new));
+                }
             }
+        }).exceptionally(throwable -> {
+            plugin.log(Level.WARNING, "Failed to invalidate cached data snapshots on redis", throwable);
+            return null;
         });
     }
 
-    public CompletableFuture<Boolean> getUserServerSwitch(@NotNull User user) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Jedis jedis = jedisPool.getResource()) {
-                final byte[] key = getKey(RedisKeyType.SERVER_SWITCH, user.uuid);
-                final byte[] readData = jedis.get(key);
-                if (readData == null) {
-                    plugin.debug("[" + user.username + "] Could not read " +
-                                                     RedisKeyType.SERVER_SWITCH.name() + " key from redis at: " +
-                                                     new SimpleDateFormat("mm:ss.SSS").format(new Date()));
-                    return false;
-                }
-                plugin.debug("[" + user.username + "] Successfully read "
-                                                 + RedisKeyType.SERVER_SWITCH.name() + " key from redis at: " +
-                                                 new SimpleDateFormat("mm:ss.SSS").format(new Date()));
+    @NotNull
+    private static List<String> scanKeys(@NotNull Jedis jedis, @NotNull String pattern) {
+        final List<String> keys = new ArrayList<>();
+        final ScanParams params = new ScanParams().match(pattern).count(1000);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            final ScanResult<String> result = jedis.scan(cursor, params);
+            keys.addAll(result.getResult());
+            cursor = result.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        return keys;
+    }
 
-                // Consume the key (delete from redis)
-                jedis.del(key);
-                return true;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return false;
+    /**
+     * Atomically read and delete a set of keys, via {@link #CONSUME_KEYS_SCRIPT}
+     *
+     * @param keys the keys to consume
+     * @return a future returning the values of each key, in order; {@code null} for keys that were not present
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<List<byte[]>> consumeKeys(byte[]... keys) {
+        return eval(CONSUME_KEYS_SCRIPT, keys).thenApply(result -> (List<byte[]>) result);
+    }
+
+    /**
+     * Evaluate a Lua script on the Redis server, over the shared pipeline if enabled, or a pooled connection
+     *
+     * @param script    the script to evaluate
+     * @param keys      the keys the script accesses
+     * @param arguments additional arguments to pass to the script
+     * @return a future returning the result of the script
+     */
+    @NotNull
+    protected CompletableFuture<Object> eval(byte[] script, byte[][] keys, byte[]... arguments) {
+        final byte[][] parameters = new byte[keys.length + arguments.length][];
+        System.arraycopy(keys, 0, parameters, 0, keys.length);
+        System.arraycopy(arguments, 0, parameters, keys.length, arguments.length);
+        if (pipeline != null) {
+            return pipeline.submit(pipelined -> pipelined.eval(script, keys.length, parameters));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            if (jedisCluster != null) {
+                return jedisCluster.eval(script, keys.length, parameters);
+            }
+            try (Jedis jedis = Objects.requireNonNull(jedisPool).getResource()) {
+                return jedis.eval(script, keys.length, parameters);
             }
         });
     }
 
-    public void close() {
+    /**
+     * Run a command on a pooled connection, or via the cluster client in cluster mode
+     *
+     * @param command the command to run
+     * @param <T>     the type of the command's result
+     * @return the result of the command
+     */
+    protected <T> T executeCommand(@NotNull Function<JedisCommands, T> command) {
+        if (jedisCluster != null) {
+            return command.apply(jedisCluster);
+        }
+        try (Jedis jedis = Objects.requireNonNull(jedisPool).getResource()) {
+            return command.apply(jedis);
+        }
+    }
+
+    /**
+     * Get the queue data saves should be written to the database through, if write-behind is enabled
+     *
+     * @return the {@link WriteBehindQueue}, or an empty optional if saves should be written directly
+     */
+    public Optional<WriteBehindQueue> getWriteBehindQueue() {
+        return Optional.ofNullable(writeBehindQueue);
+    }
+
+    /**
+     * Returns statistics about the Redis connection pool and pipeline, for diagnostic purposes
+     *
+     * @return a map of statistic names to their current values
+     */
+    @NotNull
+    public Map<String, String> getStatistics() {
+        final Map<String, String> statistics = new LinkedHashMap<>();
+        statistics.put("Topology", topology.name().toLowerCase());
+        statistics.put("Server ID", serverId);
+        final List<GenericObjectPool<?>> pools = new ArrayList<>();
         if (jedisPool != null) {
-            if (!jedisPool.isClosed()) {
+            pools.add(jedisPool);
+        } else if (jedisCluster != null) {
+            pools.addAll(jedisCluster.getClusterNodes().values());
+        }
+        statistics.put("Active connections", Integer.toString(pools.stream()
+                .mapToInt(GenericObjectPool::getNumActive).sum()));
+        statistics.put("Idle connections", Integer.toString(pools.stream()
+                .mapToInt(GenericObjectPool::getNumIdle).sum()));
+        statistics.put("Threads awaiting connections", Integer.toString(pools.stream()
+                .mapToInt(GenericObjectPool::getNumWaiters).sum()));
+        statistics.put("Mean borrow wait (ms)", Long.toString(pools.stream()
+                .mapToLong(GenericObjectPool::getMeanBorrowWaitTimeMillis).max().orElse(0)));
+        statistics.put("Max borrow wait (ms)", Long.toString(pools.stream()
+                .mapToLong(GenericObjectPool::getMaxBorrowWaitTimeMillis).max().orElse(0)));
+        if (pipeline != null) {
+            statistics.put("Pipeline queue depth", Integer.toString(pipeline.getQueueDepth()));
+            statistics.put("Pipeline mean batch size", String.format("%.2f", pipeline.getMeanBatchSize()));
+        }
+        statistics.put("Pending data updates", Integer.toString(updateQueue.getPendingUpdates()));
+        statistics.put("Superseded data updates", Long.toString(updateQueue.getDroppedUpdates()));
+        if (writeBehindQueue != null) {
+            statistics.put("Write-behind queue length", Long.toString(writeBehindQueue.getLength()));
+        }
+        return statistics;
+    }
+
+    public void close() {
+        // Release users still awaiting a handoff
+        pendingHandoffs.values().forEach(handoff -> handoff.complete(null));
+        pendingHandoffs.clear();
+
+        closing = true;
+        if (presenceHeartbeat != null) {
+            presenceHeartbeat.shutdownNow();
+        }
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+        }
+        if (isSubscribed()) {
+            unsubscribe();
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        closeConnections();
+    }
+
+    /**
+     * Close the connection pool or cluster connection, if one was created
+     */
+    private void closeConnections() {
+        try {
+            if (jedisPool != null && !jedisPool.isClosed()) {
                 jedisPool.close();
             }
+            if (jedisCluster != null) {
+                jedisCluster.close();
+            }
+        } catch (Exception e) {
+            plugin.log(Level.WARNING, "Failed to close the connection to Redis", e);
         }
     }
 
     private static byte[] getKey(@NotNull RedisKeyType keyType, @NotNull UUID uuid) {
-        return (keyType.getKeyPrefix() + ":" + uuid).getBytes(StandardCharsets.UTF_8);
+        return keyType.getKey(uuid);
     }
 
 }
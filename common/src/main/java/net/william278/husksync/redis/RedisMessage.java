@@ -4,11 +4,23 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 public class RedisMessage {
 
+    /**
+     * The version of the binary message format, written as the first byte of each binary message
+     */
+    private static final byte BINARY_FORMAT_VERSION = 1;
+
+    /**
+     * The length of the binary message header; the format version, followed by the target user UUID
+     */
+    private static final int BINARY_HEADER_LENGTH = 1 + 2 * Long.BYTES;
+
     public UUID targetUserUuid;
     public byte[] data;
 
@@ -21,8 +33,17 @@ public class RedisMessage {
     }
 
     public void dispatch(@NotNull RedisManager redisManager, @NotNull RedisMessageType type) {
-        CompletableFuture.runAsync(() -> redisManager.sendMessage(type.getMessageChannel(),
-                new GsonBuilder().create().toJson(this)));
+        CompletableFuture.runAsync(() -> redisManager.sendMessage(type, this));
+    }
+
+    /**
+     * Serialize this message to the legacy JSON format, as understood by servers running older versions of the plugin
+     *
+     * @return the JSON string representation of this message
+     */
+    @NotNull
+    public String toJson() {
+        return new GsonBuilder().create().toJson(this);
     }
 
     @NotNull
@@ -30,4 +51,37 @@ public class RedisMessage {
         return new GsonBuilder().create().fromJson(json, RedisMessage.class);
     }
 
-}
\ No newline at end of file
+    /**
+     * Serialize this message to the binary format; a header containing the format version and target user UUID,
+     * followed by the raw data payload
+     *
+     * @return the binary representation of this message
+     */
+    public byte[] toBytes() {
+        final byte[] payload = data == null ? new byte[0] : data;
+        return ByteBuffer.allocate(BINARY_HEADER_LENGTH + payload.length)
+                .put(BINARY_FORMAT_VERSION)
+                .putLong(targetUserUuid.getMostSignificantBits())
+                .putLong(targetUserUuid.getLeastSignificantBits())
+                .put(payload)
+                .array();
+    }
+
+    /**
+     * Deserialize a message from the binary format
+     *
+     * @param bytes the binary representation of the message
+     * @return the deserialized {@link RedisMessage}
+     * @throws IllegalArgumentException if the message is truncated or uses an unsupported format version
+     */
+    @NotNull
+    public static RedisMessage fromBytes(byte[] bytes) throws IllegalArgumentException {
+        if (bytes.length < BINARY_HEADER_LENGTH || bytes[0] != BINARY_FORMAT_VERSION) {
+            throw new IllegalArgumentException("Invalid or unsupported binary redis message");
+        }
+        final ByteBuffer header = ByteBuffer.wrap(bytes, 1, BINARY_HEADER_LENGTH - 1);
+        return new RedisMessage(new UUID(header.getLong(), header.getLong()),
+                Arrays.copyOfRange(bytes, BINARY_HEADER_LENGTH, bytes.length));
+    }
+
+}
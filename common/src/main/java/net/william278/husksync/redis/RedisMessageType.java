@@ -2,22 +2,57 @@ package net.william278.husksync.redis;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Optional;
 
 public enum RedisMessageType {
 
-    UPDATE_USER_DATA;
+    UPDATE_USER_DATA,
+    SERVER_SWITCH_SET,
+    USER_RENAMED;
 
+    /**
+     * Returns the channel used for messages in the legacy JSON format
+     *
+     * @return the legacy JSON message channel
+     */
     @NotNull
     public String getMessageChannel() {
         return RedisManager.KEY_NAMESPACE.toLowerCase() + ":" + RedisManager.clusterId.toLowerCase()
                + ":" + name().toLowerCase();
     }
 
+    /**
+     * Returns the channel used for messages in the binary format
+     *
+     * @return the binary message channel
+     * @see RedisMessage#toBytes()
+     */
+    public byte[] getBinaryMessageChannel() {
+        return (getMessageChannel() + ":binary").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the channel used for messages in the binary format that are routed to a single server
+     *
+     * @param serverId the ID of the server the messages are routed to
+     * @return the server's binary message channel
+     */
+    public byte[] getBinaryMessageChannel(@NotNull String serverId) {
+        return (getMessageChannel() + ":" + serverId + ":binary").getBytes(StandardCharsets.UTF_8);
+    }
+
     public static Optional<RedisMessageType> getTypeFromChannel(@NotNull String messageChannel) {
         return Arrays.stream(values()).filter(messageType -> messageType.getMessageChannel()
                 .equalsIgnoreCase(messageChannel)).findFirst();
     }
 
-}
\ No newline at end of file
+    public static Optional<RedisMessageType> getTypeFromBinaryChannel(byte[] messageChannel,
+                                                                       @NotNull String serverId) {
+        return Arrays.stream(values()).filter(messageType -> Arrays.equals(messageType.getBinaryMessageChannel(),
+                messageChannel) || Arrays.equals(messageType.getBinaryMessageChannel(serverId), messageChannel))
+                .findFirst();
+    }
+
+}
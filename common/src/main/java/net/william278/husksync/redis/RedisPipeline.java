@@ -0,0 +1,153 @@
+package net.william278.husksync.redis;
+
+import org.jetbrains.annotations.NotNull;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A single, shared Redis connection that commands are multiplexed over.
+ * <p>
+ * Commands submitted from any thread are queued and written to the connection in pipelined batches by one worker
+ * thread, so concurrent callers share a single round trip instead of each borrowing a pooled connection.
+ */
+public class RedisPipeline {
+
+    private final Supplier<Jedis> connectionSupplier;
+    private final BlockingQueue<PipelinedCommand<?>> queue;
+    private final AtomicLong batchesFlushed;
+    private final AtomicLong commandsFlushed;
+    private final Thread worker;
+    private volatile boolean running;
+    private Jedis connection;
+
+    protected RedisPipeline(@NotNull Supplier<Jedis> connectionSupplier) {
+        this.connectionSupplier = connectionSupplier;
+        this.queue = new LinkedBlockingQueue<>();
+        this.batchesFlushed = new AtomicLong();
+        this.commandsFlushed = new AtomicLong();
+        this.worker = new Thread(this::run, "HuskSync-RedisPipeline");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Open the connection and start flushing queued commands
+     */
+    public void start() {
+        this.connection = connectionSupplier.get();
+        this.running = true;
+        this.worker.start();
+    }
+
+    /**
+     * Queue a command to be sent in the next pipelined batch
+     *
+     * @param command function queueing the command on a {@link Pipeline}, returning its {@link Response}
+     * @param <T>     the type of the command's response
+     * @return a future returning the response once the batch has been flushed
+     */
+    public <T> CompletableFuture<T> submit(@NotNull Function<Pipeline, Response<T>> command) {
+        final PipelinedCommand<T> pipelinedCommand = new PipelinedCommand<>(command, new CompletableFuture<>());
+        if (!running) {
+            pipelinedCommand.future().completeExceptionally(new IllegalStateException("Redis pipeline is not running"));
+            return pipelinedCommand.future();
+        }
+        queue.add(pipelinedCommand);
+        return pipelinedCommand.future();
+    }
+
+    private void run() {
+        final List<PipelinedCommand<?>> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(@NotNull List<PipelinedCommand<?>> batch) {
+        try {
+            if (connection == null || connection.isBroken() || !connection.isConnected()) {
+                if (connection != null) {
+                    connection.close();
+                }
+                connection = connectionSupplier.get();
+            }
+            final Pipeline pipeline = connection.pipelined();
+            final List<Response<?>> responses = new ArrayList<>(batch.size());
+            batch.forEach(command -> responses.add(command.command().apply(pipeline)));
+            pipeline.sync();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(responses.get(i));
+            }
+            batchesFlushed.incrementAndGet();
+            commandsFlushed.addAndGet(batch.size());
+        } catch (Exception e) {
+            batch.forEach(command -> command.future().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Returns the number of commands waiting to be flushed
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the mean number of commands sent per pipelined round trip
+     *
+     * @return the mean batch size
+     */
+    public double getMeanBatchSize() {
+        final long batches = batchesFlushed.get();
+        return batches == 0 ? 0 : (double) commandsFlushed.get() / batches;
+    }
+
+    /**
+     * Stop the worker, failing any queued commands, and close the connection
+     */
+    public void close() {
+        running = false;
+        worker.interrupt();
+        queue.forEach(command -> command.future().completeExceptionally(
+                new IllegalStateException("Redis pipeline has been closed")));
+        queue.clear();
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private record PipelinedCommand<T>(@NotNull Function<Pipeline, Response<T>> command,
+                                       @NotNull CompletableFuture<T> future) {
+
+        private void complete(@NotNull Response<?> response) {
+            try {
+                @SuppressWarnings("unchecked") final T result = (T) response.get();
+                future.complete(result);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+    }
+
+}
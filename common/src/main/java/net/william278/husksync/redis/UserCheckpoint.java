@@ -0,0 +1,15 @@
+package net.william278.husksync.redis;
+
+import net.william278.husksync.data.UserData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Date;
+
+/**
+ * A checkpoint of an online user's data, periodically written to Redis so that it survives a server crash
+ *
+ * @param timestamp When the checkpoint was taken
+ * @param userData  The user's checkpointed {@link UserData}
+ */
+public record UserCheckpoint(@NotNull Date timestamp, @NotNull UserData userData) {
+}
@@ -0,0 +1,132 @@
+package net.william278.husksync.redis;
+
+import de.themoep.minedown.adventure.MineDown;
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.player.OnlineUser;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Applies incoming data updates to online users, one at a time per user.
+ * <p>
+ * Only the newest pending update for each user is kept; updates superseded before they could be applied are
+ * dropped, so a burst of updates for a user collapses into a single apply of the latest data. Updates for
+ * different users are applied independently.
+ */
+public class UserDataUpdateQueue {
+
+    private final HuskSync plugin;
+
+    /**
+     * The newest update awaiting being applied to each user, as serialized {@link UserData}
+     */
+    private final Map<UUID, byte[]> pendingUpdates;
+
+    /**
+     * Users an update is currently being applied to
+     */
+    private final Set<UUID> applyingUsers;
+    private final AtomicLong droppedUpdates;
+
+    protected UserDataUpdateQueue(@NotNull HuskSync plugin) {
+        this.plugin = plugin;
+        this.pendingUpdates = new ConcurrentHashMap<>();
+        this.applyingUsers = ConcurrentHashMap.newKeySet();
+        this.droppedUpdates = new AtomicLong();
+    }
+
+    /**
+     * Queue an update to be applied to a user, superseding any update still pending for them
+     *
+     * @param userUuid      the UUID of the user to apply the update to
+     * @param dataByteArray the user's updated data, serialized by the plugin's data adapter
+     */
+    public void submit(@NotNull UUID userUuid, byte[] dataByteArray) {
+        if (pendingUpdates.put(userUuid, dataByteArray) != null) {
+            droppedUpdates.incrementAndGet();
+        }
+        if (applyingUsers.add(userUuid)) {
+            applyNext(userUuid);
+        }
+    }
+
+    /**
+     * Apply the pending update for a user, then the next once it completes, until none remain
+     *
+     * @param userUuid the UUID of the user to apply updates to
+     */
+    private void applyNext(@NotNull UUID userUuid) {
+        final byte[] dataByteArray = pendingUpdates.remove(userUuid);
+        if (dataByteArray == null) {
+            applyingUsers.remove(userUuid);
+
+            // An update may have been submitted after the check but before this lane was released
+            if (pendingUpdates.containsKey(userUuid) && applyingUsers.add(userUuid)) {
+                applyNext(userUuid);
+            }
+            return;
+        }
+
+        final Optional<OnlineUser> onlineUser = plugin.getOnlineUser(userUuid);
+        if (onlineUser.isEmpty()) {
+            applyNext(userUuid);
+            return;
+        }
+        final OnlineUser user = onlineUser.get();
+        try {
+            final UserData userData = plugin.getDataAdapter().fromBytes(dataByteArray);
+            user.setData(userData, plugin).thenAccept(succeeded -> {
+                if (succeeded) {
+                    switch (plugin.getSettings().getNotificationDisplaySlot()) {
+                        case CHAT -> plugin.getLocales().getLocale("data_update_complete")
+                                .ifPresent(user::sendMessage);
+                        case ACTION_BAR -> plugin.getLocales().getLocale("data_update_complete")
+                                .ifPresent(user::sendActionBar);
+                        case TOAST -> plugin.getLocales().getLocale("data_update_complete")
+                                .ifPresent(locale -> user.sendToast(locale, new MineDown(""),
+                                        "minecraft:bell", "TASK"));
+                    }
+                    plugin.getEventCannon().fireSyncCompleteEvent(user);
+                } else {
+                    plugin.getLocales().getLocale("data_update_failed")
+                            .ifPresent(user::sendMessage);
+                }
+            }).whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    plugin.log(Level.SEVERE, "An exception occurred applying a data update", throwable);
+                }
+                applyNext(userUuid);
+            });
+        } catch (Exception e) {
+            plugin.log(Level.SEVERE, "An exception occurred applying a data update", e);
+            applyNext(userUuid);
+        }
+    }
+
+    /**
+     * Returns the number of updates that were superseded by a newer update before they could be applied
+     *
+     * @return the number of dropped updates
+     */
+    public long getDroppedUpdates() {
+        return droppedUpdates.get();
+    }
+
+    /**
+     * Returns the number of users with an update waiting to be applied
+     *
+     * @return the number of pending updates
+     */
+    public int getPendingUpdates() {
+        return pendingUpdates.size();
+    }
+
+}
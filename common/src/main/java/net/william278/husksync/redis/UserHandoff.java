@@ -0,0 +1,15 @@
+package net.william278.husksync.redis;
+
+import net.william278.husksync.data.UserData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Optional;
+
+/**
+ * Represents a user's server switch handoff, as consumed from the Redis server
+ *
+ * @param changingServers Whether the user is switching from another server on the cluster
+ * @param userData        The {@link UserData} set by the source server, if it has been set
+ */
+public record UserHandoff(boolean changingServers, @NotNull Optional<UserData> userData) {
+}
@@ -0,0 +1,225 @@
+package net.william278.husksync.redis;
+
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.database.PendingUserData;
+import net.william278.husksync.event.DataSaveEvent;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+/**
+ * A durable queue of data saves, written to the database in the background.
+ * <p>
+ * Saves are appended to a Redis stream, which a consumer group made up of every server on the cluster drains into the
+ * database in batches. Entries are only acknowledged once their batch has been committed, and entries left pending
+ * by a server that stopped before committing them are reclaimed by another, so every queued save is persisted at
+ * least once.
+ */
+public class WriteBehindQueue {
+
+    private static final String GROUP_NAME = "husksync";
+    private static final String FIELD_USER_UUID = "user_uuid";
+    private static final String FIELD_USERNAME = "username";
+    private static final String FIELD_VERSION_UUID = "version_uuid";
+    private static final String FIELD_TIMESTAMP = "timestamp";
+    private static final String FIELD_CAUSE = "cause";
+    private static final String FIELD_DATA = "data";
+
+    /**
+     * Maximum time to block waiting for new entries, so the consumer periodically checks for entries to reclaim
+     */
+    private static final int READ_BLOCK_MILLISECONDS = 1000;
+
+    private final HuskSync plugin;
+    private final RedisManager redisManager;
+    private final String streamKey;
+    private final String consumerName;
+    private final int batchSize;
+    private final long reclaimAfterMillis;
+    private final Thread worker;
+    private volatile boolean running;
+    private long lastReclaim;
+
+    protected WriteBehindQueue(@NotNull HuskSync plugin, @NotNull RedisManager redisManager,
+                               @NotNull String consumerName) {
+        this.plugin = plugin;
+        this.redisManager = redisManager;
+        this.streamKey = RedisManager.KEY_NAMESPACE.toLowerCase() + ":" + RedisManager.clusterId.toLowerCase()
+                         + ":save_queue";
+        this.consumerName = consumerName;
+        this.batchSize = plugin.getSettings().getRedisWriteBehindBatchSize();
+        this.reclaimAfterMillis = plugin.getSettings().getRedisWriteBehindReclaimAfter();
+        this.worker = new Thread(this::run, "HuskSync-WriteBehindQueue");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Join the consumer group, creating the stream if it does not exist, and start draining queued saves
+     */
+    public void start() {
+        try {
+            redisManager.executeCommand(commands -> commands.xgroupCreate(streamKey, GROUP_NAME,
+                    new StreamEntryID(), true));
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+        this.running = true;
+        this.worker.start();
+    }
+
+    /**
+     * Queue user data to be saved to the database.
+     * <p>
+     * The data save event is fired and the data versioned when queued, and the new snapshot is written to the
+     * snapshot cache, so readers observe it before it has been written to the database.
+     *
+     * @param user          The user to save data for
+     * @param userData      The {@link UserData} to save
+     * @param dataSaveCause The {@link DataSaveCause} of the save
+     * @return A future returning void once the save has been durably queued
+     */
+    public CompletableFuture<Void> add(@NotNull User user, @NotNull UserData userData,
+                                       @NotNull DataSaveCause dataSaveCause) {
+        return plugin.getEventCannon().fireDataSaveEvent(user, userData, dataSaveCause).thenAcceptAsync(event -> {
+            final DataSaveEvent dataSaveEvent = (DataSaveEvent) event;
+            if (dataSaveEvent.isCancelled()) {
+                return;
+            }
+            final UserDataSnapshot snapshot = new UserDataSnapshot(UUID.randomUUID(),
+                    new Date(System.currentTimeMillis() / 1000 * 1000), dataSaveCause, false,
+                    dataSaveEvent.getUserData());
+            redisManager.executeCommand(commands -> commands.xadd(streamKey, StreamEntryID.NEW_ENTRY, Map.of(
+                    FIELD_USER_UUID, user.uuid.toString(),
+                    FIELD_USERNAME, user.username,
+                    FIELD_VERSION_UUID, snapshot.versionUUID().toString(),
+                    FIELD_TIMESTAMP, Long.toString(snapshot.versionTimestamp().getTime()),
+                    FIELD_CAUSE, dataSaveCause.name(),
+                    FIELD_DATA, Base64.getEncoder().encodeToString(
+                            plugin.getDataAdapter().toBytes(snapshot.userData())))));
+            redisManager.setCachedUserData(user, snapshot).join();
+        });
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (System.currentTimeMillis() - lastReclaim >= reclaimAfterMillis) {
+                    reclaim();
+                    lastReclaim = System.currentTimeMillis();
+                }
+                final List<Map.Entry<String, List<StreamEntry>>> read = redisManager.executeCommand(commands ->
+                        commands.xreadGroup(GROUP_NAME, consumerName, new XReadGroupParams()
+                                        .count(batchSize).block(READ_BLOCK_MILLISECONDS),
+                                Map.of(streamKey, StreamEntryID.UNRECEIVED_ENTRY)));
+                if (read != null) {
+                    for (Map.Entry<String, List<StreamEntry>> stream : read) {
+                        persist(stream.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                plugin.log(Level.WARNING, "Failed to drain the write-behind queue; retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(READ_BLOCK_MILLISECONDS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim and persist entries left pending by consumers that have not acknowledged them in time
+     */
+    private void reclaim() {
+        StreamEntryID cursor = new StreamEntryID();
+        do {
+            final StreamEntryID start = cursor;
+            final Map.Entry<StreamEntryID, List<StreamEntry>> claimed = redisManager.executeCommand(commands ->
+                    commands.xautoclaim(streamKey, GROUP_NAME, consumerName, reclaimAfterMillis, start,
+                            new XAutoClaimParams().count(batchSize)));
+            if (!claimed.getValue().isEmpty()) {
+                plugin.log(Level.INFO, "Reclaimed " + claimed.getValue().size()
+                                       + " unsaved entries from the write-behind queue");
+                persist(claimed.getValue());
+            }
+            cursor = claimed.getKey();
+        } while (running && !cursor.equals(new StreamEntryID()));
+    }
+
+    /**
+     * Write a batch of entries to the database, acknowledging and removing them once committed
+     *
+     * @param entries the stream entries to persist
+     */
+    private void persist(@NotNull List<StreamEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        final List<PendingUserData> pendingData = new ArrayList<>();
+        final List<StreamEntryID> entryIds = new ArrayList<>();
+        for (StreamEntry entry : entries) {
+            entryIds.add(entry.getID());
+            try {
+                final Map<String, String> fields = entry.getFields();
+                pendingData.add(new PendingUserData(
+                        new User(UUID.fromString(fields.get(FIELD_USER_UUID)), fields.get(FIELD_USERNAME)),
+                        new UserDataSnapshot(UUID.fromString(fields.get(FIELD_VERSION_UUID)),
+                                new Date(Long.parseLong(fields.get(FIELD_TIMESTAMP))),
+                                DataSaveCause.getCauseByName(fields.get(FIELD_CAUSE)), false,
+                                plugin.getDataAdapter().fromBytes(Base64.getDecoder().decode(fields.get(FIELD_DATA))))));
+            } catch (Exception e) {
+                // Malformed entries can never be saved, so they are dropped rather than retried forever
+                plugin.log(Level.SEVERE, "Dropping a malformed write-behind queue entry (" + entry.getID() + ")", e);
+            }
+        }
+
+        if (!pendingData.isEmpty() && !plugin.getDatabase().setUserData(pendingData).join()) {
+            return;
+        }
+        final StreamEntryID[] ids = entryIds.toArray(StreamEntryID[]::new);
+        redisManager.executeCommand(commands -> {
+            commands.xack(streamKey, GROUP_NAME, ids);
+            return commands.xdel(streamKey, ids);
+        });
+    }
+
+    /**
+     * Returns the number of saves queued that have not yet been written to the database
+     *
+     * @return the queue length
+     */
+    public long getLength() {
+        return redisManager.executeCommand(commands -> commands.xlen(streamKey));
+    }
+
+    /**
+     * Stop draining the queue. Unacknowledged entries remain queued, to be reclaimed by another server
+     */
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+}
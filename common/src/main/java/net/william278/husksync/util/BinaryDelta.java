@@ -0,0 +1,222 @@
+package net.william278.husksync.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes byte arrays as compact deltas against a base byte array, and applies them to reconstruct the original.
+ * <p>
+ * A delta is a header holding the base length, a CRC32 checksum of the base and the target length, followed by a
+ * sequence of instructions; each a run of literal bytes to append, then a run of bytes to copy from the base. Matching
+ * runs are found by indexing the base in fixed size blocks, so only runs of at least {@link #BLOCK_SIZE} bytes are
+ * copied.
+ */
+public final class BinaryDelta {
+
+    /**
+     * The length of the blocks the base is indexed by, and the minimum length of a copied run
+     */
+    private static final int BLOCK_SIZE = 16;
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * Marks the start of a delta's header
+     */
+    private static final int CHECKSUM_HEADER = 0;
+
+    private BinaryDelta() {
+    }
+
+    /**
+     * Encode a target byte array as a delta against a base
+     *
+     * @param base   the base to encode the target against
+     * @param target the byte array to encode
+     * @return the delta, to be applied to the base with {@link #apply(byte[], byte[])}
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream(Math.max(16, target.length / 8));
+        writeVarInt(delta, CHECKSUM_HEADER);
+        writeVarInt(delta, base.length);
+        writeInt(delta, checksum(base));
+        writeVarInt(delta, target.length);
+
+        // Index the offset of each block of the base by its hash, keeping the first occurrence
+        final int[] blockIndex = new int[tableSize(base.length / BLOCK_SIZE)];
+        for (int offset = base.length - (base.length % BLOCK_SIZE) - BLOCK_SIZE; offset >= 0; offset -= BLOCK_SIZE) {
+            blockIndex[hash(base, offset) & (blockIndex.length - 1)] = offset + 1;
+        }
+
+        final int highestPower = power(BLOCK_SIZE - 1);
+        int literalStart = 0;
+        int position = 0;
+        int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (position + BLOCK_SIZE <= target.length) {
+            int baseOffset = blockIndex[hash & (blockIndex.length - 1)] - 1;
+            if (baseOffset >= 0 && matches(base, baseOffset, target, position)) {
+                // Extend the match backwards into the pending literal, then forwards as far as it goes
+                int start = position;
+                while (start > literalStart && baseOffset > 0 && base[baseOffset - 1] == target[start - 1]) {
+                    start--;
+                    baseOffset--;
+                }
+                int end = position + BLOCK_SIZE;
+                while (end < target.length && baseOffset + (end - start) < base.length
+                       && base[baseOffset + (end - start)] == target[end]) {
+                    end++;
+                }
+
+                writeVarInt(delta, start - literalStart);
+                delta.write(target, literalStart, start - literalStart);
+                writeVarInt(delta, end - start);
+                writeVarInt(delta, baseOffset);
+                literalStart = position = end;
+                if (position + BLOCK_SIZE <= target.length) {
+                    hash = hash(target, position);
+                }
+                continue;
+            }
+
+            // Roll the hash forward by one byte
+            if (position + BLOCK_SIZE < target.length) {
+                hash = (hash - target[position] * highestPower) * HASH_MULTIPLIER + target[position + BLOCK_SIZE];
+            }
+            position++;
+        }
+
+        if (literalStart < target.length) {
+            writeVarInt(delta, target.length - literalStart);
+            delta.write(target, literalStart, target.length - literalStart);
+            writeVarInt(delta, 0);
+        }
+        return delta.toByteArray();
+    }
+
+    /**
+     * Apply a delta to the base it was encoded against, reconstructing the target
+     *
+     * @param base  the base the delta was encoded against
+     * @param delta the delta, as returned by {@link #encode(byte[], byte[])}
+     * @return the reconstructed target byte array
+     * @throws IllegalArgumentException if the delta is malformed or was not encoded against this base
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IllegalArgumentException {
+        final int[] cursor = {0};
+        if (readVarInt(delta, cursor) != CHECKSUM_HEADER) {
+            throw new IllegalArgumentException("Delta has an unknown header");
+        }
+        if (readVarInt(delta, cursor) != base.length) {
+            throw new IllegalArgumentException("Delta was encoded against a base of a different length");
+        }
+        if (readInt(delta, cursor) != checksum(base)) {
+            throw new IllegalArgumentException("Delta was encoded against a different base");
+        }
+        final byte[] target = new byte[readVarInt(delta, cursor)];
+        int position = 0;
+        while (position < target.length) {
+            final int literalLength = readVarInt(delta, cursor);
+            if (literalLength > target.length - position || literalLength > delta.length - cursor[0]) {
+                throw new IllegalArgumentException("Delta literal exceeds the target length");
+            }
+            System.arraycopy(delta, cursor[0], target, position, literalLength);
+            cursor[0] += literalLength;
+            position += literalLength;
+
+            final int copyLength = readVarInt(delta, cursor);
+            if (copyLength == 0) {
+                continue;
+            }
+            final int copyOffset = readVarInt(delta, cursor);
+            if (copyLength > target.length - position || copyOffset > base.length - copyLength) {
+                throw new IllegalArgumentException("Delta copy exceeds the base or target length");
+            }
+            System.arraycopy(base, copyOffset, target, position, copyLength);
+            position += copyLength;
+        }
+        return target;
+    }
+
+    private static boolean matches(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        if (baseOffset + BLOCK_SIZE > base.length) {
+            return false;
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (base[baseOffset + i] != target[targetOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * HASH_MULTIPLIER + bytes[offset + i];
+        }
+        return hash;
+    }
+
+    private static int power(int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= HASH_MULTIPLIER;
+        }
+        return result;
+    }
+
+    private static int tableSize(int blocks) {
+        return Integer.highestOneBit(Math.max(1, blocks * 2 - 1)) << 1;
+    }
+
+    private static int checksum(byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void writeInt(@NotNull ByteArrayOutputStream output, int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            output.write(value >>> shift);
+        }
+    }
+
+    private static int readInt(byte[] bytes, int[] cursor) throws IllegalArgumentException {
+        if (bytes.length - cursor[0] < Integer.BYTES) {
+            throw new IllegalArgumentException("Delta is truncated");
+        }
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << 8) | (bytes[cursor[0]++] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeVarInt(@NotNull ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarInt(byte[] bytes, int[] cursor) throws IllegalArgumentException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (cursor[0] >= bytes.length) {
+                throw new IllegalArgumentException("Delta is truncated");
+            }
+            final byte read = bytes[cursor[0]++];
+            value |= (read & 0x7F) << shift;
+            if ((read & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Delta contains a negative length");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Delta contains a malformed length");
+    }
+
+}
@@ -2,6 +2,7 @@ package net.william278.husksync.util;
 
 import net.william278.husksync.config.Locales;
 import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.data.UserDataSnapshotMetadata;
 import net.william278.husksync.player.OnlineUser;
 import net.william278.husksync.player.User;
 import net.william278.paginedown.PaginatedList;
@@ -22,7 +23,7 @@ public class DataSnapshotList {
     @NotNull
     private final PaginatedList paginatedList;
 
-    private DataSnapshotList(@NotNull List<UserDataSnapshot> snapshots, @NotNull User dataOwner,
+    private DataSnapshotList(@NotNull List<UserDataSnapshotMetadata> snapshots, @NotNull User dataOwner,
                              @NotNull Locales locales) {
         final AtomicInteger snapshotNumber = new AtomicInteger(1);
         this.paginatedList = PaginatedList.of(snapshots.stream()
@@ -45,14 +46,14 @@ public class DataSnapshotList {
     }
 
     /**
-     * Create a new {@link DataSnapshotList} from a list of {@link UserDataSnapshot}s
+     * Create a new {@link DataSnapshotList} from the metadata of a list of {@link UserDataSnapshot}s
      *
-     * @param snapshots The list of {@link UserDataSnapshot}s to display
+     * @param snapshots The list of {@link UserDataSnapshotMetadata} to display
      * @param user      The {@link User} who owns the {@link UserDataSnapshot}s
      * @param locales   The {@link Locales} instance
      * @return A new {@link DataSnapshotList}, to be viewed with {@link #displayPage(OnlineUser, int)}
      */
-    public static DataSnapshotList create(@NotNull List<UserDataSnapshot> snapshots, @NotNull User user,
+    public static DataSnapshotList create(@NotNull List<UserDataSnapshotMetadata> snapshots, @NotNull User user,
                                           @NotNull Locales locales) {
         return new DataSnapshotList(snapshots, user, locales);
     }
@@ -0,0 +1,54 @@
+# Clear up tables left by a previously interrupted migration
+DROP TABLE IF EXISTS `%user_data_table%_v2`;
+DROP TABLE IF EXISTS `%users_table%_v2`;
+
+# Create the users table with binary UUIDs and a pointer to each user's current data version
+CREATE TABLE `%users_table%_v2`
+(
+    `uuid`            binary(16)  NOT NULL,
+    `username`        varchar(16) NOT NULL,
+    `current_version` binary(16)  DEFAULT NULL,
+
+    PRIMARY KEY (`uuid`)
+);
+
+# Create the user data table with binary UUIDs, indexed by player and timestamp
+CREATE TABLE `%user_data_table%_v2`
+(
+    `version_uuid` binary(16)  NOT NULL,
+    `player_uuid`  binary(16)  NOT NULL,
+    `timestamp`    datetime    NOT NULL,
+    `save_cause`   varchar(32) NOT NULL,
+    `pinned`       boolean     NOT NULL DEFAULT FALSE,
+    `data`         longblob    NOT NULL,
+
+    PRIMARY KEY (`version_uuid`),
+    INDEX `player_timestamp` (`player_uuid`, `timestamp`),
+    FOREIGN KEY (`player_uuid`) REFERENCES `%users_table%_v2` (`uuid`) ON DELETE CASCADE
+);
+
+# Copy users and their data, converting UUIDs to binary
+INSERT INTO `%users_table%_v2` (`uuid`, `username`)
+SELECT UNHEX(REPLACE(`uuid`, '-', '')), `username`
+FROM `%users_table%`;
+
+INSERT INTO `%user_data_table%_v2` (`version_uuid`, `player_uuid`, `timestamp`, `save_cause`, `pinned`, `data`)
+SELECT UNHEX(REPLACE(`version_uuid`, '-', '')), UNHEX(REPLACE(`player_uuid`, '-', '')),
+       `timestamp`, `save_cause`, `pinned`, `data`
+FROM `%user_data_table%`;
+
+# Point each user at their most recent data version
+UPDATE `%users_table%_v2` `users`
+SET `current_version`=(SELECT `version_uuid`
+                       FROM `%user_data_table%_v2`
+                       WHERE `player_uuid`=`users`.`uuid`
+                       ORDER BY `timestamp` DESC
+                       LIMIT 1);
+
+# Swap the new tables in and drop the old ones
+RENAME TABLE `%user_data_table%` TO `%user_data_table%_v1`,
+    `%users_table%` TO `%users_table%_v1`,
+    `%users_table%_v2` TO `%users_table%`,
+    `%user_data_table%_v2` TO `%user_data_table%`;
+DROP TABLE `%user_data_table%_v1`;
+DROP TABLE `%users_table%_v1`
@@ -0,0 +1,6 @@
+# Record the size of each snapshot's data, so snapshots can be listed without reading the data column
+ALTER TABLE `%user_data_table%`
+    ADD COLUMN `data_size` int NOT NULL DEFAULT 0 AFTER `pinned`;
+
+UPDATE `%user_data_table%`
+SET `data_size`=LENGTH(`data`);
@@ -0,0 +1,3 @@
+# Index usernames, so users can be looked up by name without scanning the users table
+ALTER TABLE `%users_table%`
+    ADD INDEX `username` (`username`);
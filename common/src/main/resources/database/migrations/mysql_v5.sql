@@ -0,0 +1,5 @@
+# Allow snapshots to be stored as deltas against the previous snapshot in their chain
+ALTER TABLE `%user_data_table%`
+    ADD COLUMN `delta_base`   binary(16) DEFAULT NULL AFTER `pinned`,
+    ADD COLUMN `chain_length` int        NOT NULL DEFAULT 0 AFTER `delta_base`,
+    ADD INDEX `delta_base` (`delta_base`);
@@ -0,0 +1,13 @@
+# Allow snapshots to be stored as manifests referencing deduplicated data sections
+ALTER TABLE `%user_data_table%`
+    ADD COLUMN `sectioned` boolean NOT NULL DEFAULT FALSE AFTER `chain_length`;
+
+# Create the data sections table
+CREATE TABLE IF NOT EXISTS `%sections_table%`
+(
+    `hash`      char(64) NOT NULL,
+    `ref_count` int      NOT NULL DEFAULT 0,
+    `data`      longblob NOT NULL,
+
+    PRIMARY KEY (`hash`)
+);
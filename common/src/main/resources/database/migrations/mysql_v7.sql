@@ -0,0 +1,11 @@
+# Allow the data of old snapshots to be moved out of the database into archive segment files
+ALTER TABLE `%user_data_table%`
+    ADD COLUMN `archive_segment` binary(16) DEFAULT NULL AFTER `sectioned`,
+    ADD COLUMN `archive_offset`  bigint     DEFAULT NULL AFTER `archive_segment`,
+    ADD COLUMN `archive_length`  int        DEFAULT NULL AFTER `archive_offset`,
+    ADD INDEX `archive_segment` (`archive_segment`),
+    ADD INDEX `timestamp` (`timestamp`);
+
+# Index users by their current snapshot, so snapshots that are current can be excluded from archiving
+ALTER TABLE `%users_table%`
+    ADD INDEX `current_version` (`current_version`);
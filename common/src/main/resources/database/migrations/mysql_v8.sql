@@ -0,0 +1,31 @@
+# Create the statistics projection table, ranking users by the statistics of their current snapshot
+CREATE TABLE IF NOT EXISTS `%statistics_table%`
+(
+    `player_uuid` binary(16)  NOT NULL,
+    `category`    varchar(8)  NOT NULL,
+    `statistic`   varchar(64) NOT NULL,
+    `qualifier`   varchar(64) NOT NULL DEFAULT '',
+    `value`       int         NOT NULL,
+
+    PRIMARY KEY (`player_uuid`, `category`, `statistic`, `qualifier`),
+    INDEX `leaderboard` (`category`, `statistic`, `qualifier`, `value`),
+    FOREIGN KEY (`player_uuid`) REFERENCES `%users_table%` (`uuid`) ON DELETE CASCADE
+);
+
+# Create the player status projection table, recording which snapshot each user's projection was made from
+CREATE TABLE IF NOT EXISTS `%player_status_table%`
+(
+    `player_uuid`      binary(16)  NOT NULL,
+    `version_uuid`     binary(16)  NOT NULL,
+    `health`           double      DEFAULT NULL,
+    `max_health`       double      DEFAULT NULL,
+    `hunger`           int         DEFAULT NULL,
+    `experience_level` int         DEFAULT NULL,
+    `total_experience` int         DEFAULT NULL,
+    `game_mode`        varchar(16) DEFAULT NULL,
+
+    PRIMARY KEY (`player_uuid`),
+    INDEX `experience_level` (`experience_level`),
+    INDEX `total_experience` (`total_experience`),
+    FOREIGN KEY (`player_uuid`) REFERENCES `%users_table%` (`uuid`) ON DELETE CASCADE
+);
@@ -1,21 +1,78 @@
 # Create the users table if it does not exist
 CREATE TABLE IF NOT EXISTS `%users_table%`
 (
-    `uuid`     char(36)    NOT NULL UNIQUE,
-    `username` varchar(16) NOT NULL,
+    `uuid`            binary(16)  NOT NULL,
+    `username`        varchar(16) NOT NULL,
+    `current_version` binary(16)  DEFAULT NULL,
 
-    PRIMARY KEY (`uuid`)
+    PRIMARY KEY (`uuid`),
+    INDEX `username` (`username`),
+    INDEX `current_version` (`current_version`)
 );
 
 # Create the user data table if it does not exist
 CREATE TABLE IF NOT EXISTS `%user_data_table%`
 (
-    `version_uuid` char(36)    NOT NULL UNIQUE,
-    `player_uuid`  char(36)    NOT NULL,
-    `timestamp`    datetime    NOT NULL,
-    `save_cause`   varchar(32) NOT NULL,
-    `pinned`       boolean     NOT NULL DEFAULT FALSE,
-    `data`         longblob    NOT NULL,
-    PRIMARY KEY (`version_uuid`, `player_uuid`),
+    `version_uuid`    binary(16)  NOT NULL,
+    `player_uuid`     binary(16)  NOT NULL,
+    `timestamp`       datetime    NOT NULL,
+    `save_cause`      varchar(32) NOT NULL,
+    `pinned`          boolean     NOT NULL DEFAULT FALSE,
+    `delta_base`      binary(16)  DEFAULT NULL,
+    `chain_length`    int         NOT NULL DEFAULT 0,
+    `sectioned`       boolean     NOT NULL DEFAULT FALSE,
+    `archive_segment` binary(16)  DEFAULT NULL,
+    `archive_offset`  bigint      DEFAULT NULL,
+    `archive_length`  int         DEFAULT NULL,
+    `data_size`       int         NOT NULL DEFAULT 0,
+    `data`            longblob    NOT NULL,
+
+    PRIMARY KEY (`version_uuid`),
+    INDEX `player_timestamp` (`player_uuid`, `timestamp`),
+    INDEX `delta_base` (`delta_base`),
+    INDEX `archive_segment` (`archive_segment`),
+    INDEX `timestamp` (`timestamp`),
+    FOREIGN KEY (`player_uuid`) REFERENCES `%users_table%` (`uuid`) ON DELETE CASCADE
+);
+
+# Create the data sections table if it does not exist
+CREATE TABLE IF NOT EXISTS `%sections_table%`
+(
+    `hash`      char(64) NOT NULL,
+    `ref_count` int      NOT NULL DEFAULT 0,
+    `data`      longblob NOT NULL,
+
+    PRIMARY KEY (`hash`)
+);
+
+# Create the statistics projection table, ranking users by the statistics of their current snapshot
+CREATE TABLE IF NOT EXISTS `%statistics_table%`
+(
+    `player_uuid` binary(16)  NOT NULL,
+    `category`    varchar(8)  NOT NULL,
+    `statistic`   varchar(64) NOT NULL,
+    `qualifier`   varchar(64) NOT NULL DEFAULT '',
+    `value`       int         NOT NULL,
+
+    PRIMARY KEY (`player_uuid`, `category`, `statistic`, `qualifier`),
+    INDEX `leaderboard` (`category`, `statistic`, `qualifier`, `value`),
+    FOREIGN KEY (`player_uuid`) REFERENCES `%users_table%` (`uuid`) ON DELETE CASCADE
+);
+
+# Create the player status projection table, recording which snapshot each user's projection was made from
+CREATE TABLE IF NOT EXISTS `%player_status_table%`
+(
+    `player_uuid`      binary(16)  NOT NULL,
+    `version_uuid`     binary(16)  NOT NULL,
+    `health`           double      DEFAULT NULL,
+    `max_health`       double      DEFAULT NULL,
+    `hunger`           int         DEFAULT NULL,
+    `experience_level` int         DEFAULT NULL,
+    `total_experience` int         DEFAULT NULL,
+    `game_mode`        varchar(16) DEFAULT NULL,
+
+    PRIMARY KEY (`player_uuid`),
+    INDEX `experience_level` (`experience_level`),
+    INDEX `total_experience` (`total_experience`),
     FOREIGN KEY (`player_uuid`) REFERENCES `%users_table%` (`uuid`) ON DELETE CASCADE
-);
\ No newline at end of file
+)
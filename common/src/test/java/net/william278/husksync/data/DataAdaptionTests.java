@@ -6,8 +6,11 @@ import net.william278.husksync.player.OnlineUser;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -60,6 +63,56 @@ public class DataAdaptionTests {
         });
     }
 
+    @Test
+    public void testCompressedDataAdapterStream() {
+        final OnlineUser dummyUser = DummyPlayer.create();
+        dummyUser.getUserData(new DummyHuskSync()).join().ifPresent(dummyUserData -> {
+            final DataAdapter dataAdapter = new CompressedDataAdapter();
+            final byte[] data = dataAdapter.toBytes(dummyUserData);
+            final UserData streamedUserData = dataAdapter.fromStream(new ByteArrayInputStream(data));
+
+            // Assert data adapted from a stream is equal to data adapted from bytes
+            Assertions.assertEquals(dataAdapter.toJson(dataAdapter.fromBytes(data), false), dataAdapter.toJson(streamedUserData, false));
+            Assertions.assertEquals(dataAdapter.toJson(dummyUserData, false), dataAdapter.toJson(streamedUserData, false));
+        });
+    }
+
+    @Test
+    public void testSectionCodec() {
+        final OnlineUser dummyUser = DummyPlayer.create();
+        dummyUser.getUserData(new DummyHuskSync()).join().ifPresent(dummyUserData -> {
+            final SectionCodec sectionCodec = new SectionCodec();
+            final SectionCodec.SplitData splitData = sectionCodec.split(dummyUserData);
+            final UserData assembledUserData = sectionCodec.assemble(splitData.manifest(), splitData.sections());
+
+            // Assert the manifest references each section split out, and the reassembled data is equal to the original
+            Assertions.assertEquals(splitData.sections().keySet(), sectionCodec.getSectionHashes(splitData.manifest()));
+            Assertions.assertTrue(assembledUserData.getInventory().isPresent());
+            Assertions.assertEquals(dummyUserData.getInventory().get().serializedItems, assembledUserData.getInventory().get().serializedItems);
+            Assertions.assertEquals(new JsonDataAdapter().toJson(dummyUserData, false), new JsonDataAdapter().toJson(assembledUserData, false));
+        });
+    }
+
+    @Test
+    public void testSectionsAreSharedBetweenSnapshots() {
+        final OnlineUser dummyUser = DummyPlayer.create();
+        dummyUser.getUserData(new DummyHuskSync()).join().ifPresent(dummyUserData -> {
+            final SectionCodec sectionCodec = new SectionCodec();
+            final JsonDataAdapter jsonAdapter = new JsonDataAdapter();
+            final UserData changedUserData = jsonAdapter.fromBytes(jsonAdapter.toBytes(dummyUserData));
+            changedUserData.getInventory().orElseThrow().serializedItems += "changed";
+
+            // Assert a later snapshot references the same sections as an earlier one, except the section that changed
+            final SectionCodec.SplitData first = sectionCodec.split(dummyUserData);
+            final SectionCodec.SplitData second = sectionCodec.split(changedUserData);
+            final Set<String> sharedHashes = new HashSet<>(sectionCodec.getSectionHashes(first.manifest()));
+            sharedHashes.retainAll(sectionCodec.getSectionHashes(second.manifest()));
+            Assertions.assertEquals(first.sections().size() - 1, sharedHashes.size());
+            Assertions.assertEquals(sectionCodec.getSectionHashes(first.manifest()),
+                    sectionCodec.getSectionHashes(sectionCodec.split(dummyUserData).manifest()));
+        });
+    }
+
     private String getTestSerializedPersistentDataContainer() {
         final HashMap<String, PersistentDataTag<?>> persistentDataTest = new HashMap<>();
         persistentDataTest.put("husksync:byte_test", new PersistentDataTag<>(PersistentDataTagType.BYTE, 0x01));
@@ -0,0 +1,34 @@
+package net.william278.husksync.data;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for the flattening of user data into a {@link StatisticsProjection}
+ */
+public class StatisticsProjectionTests {
+
+    @Test
+    public void testStatisticsAreFlattenedByCategory() {
+        final UserData userData = UserData.builder("1.19")
+                .setStatistics(new StatisticsData(
+                        Map.of("PLAY_ONE_MINUTE", 1200),
+                        Map.of("MINE_BLOCK", Map.of("DIAMOND_ORE", 12, "STONE", 640)),
+                        Map.of("USE_ITEM", Map.of("DIAMOND_PICKAXE", 3)),
+                        Map.of("KILL_ENTITY", Map.of("ZOMBIE", 7))))
+                .build();
+        final StatisticsProjection projection = StatisticsProjection.of(userData);
+
+        Assertions.assertEquals(Map.of(
+                new StatisticsProjection.Key(StatisticsProjection.Category.UNTYPED, "PLAY_ONE_MINUTE", ""), 1200,
+                new StatisticsProjection.Key(StatisticsProjection.Category.BLOCK, "MINE_BLOCK", "DIAMOND_ORE"), 12,
+                new StatisticsProjection.Key(StatisticsProjection.Category.BLOCK, "MINE_BLOCK", "STONE"), 640,
+                new StatisticsProjection.Key(StatisticsProjection.Category.ITEM, "USE_ITEM", "DIAMOND_PICKAXE"), 3,
+                new StatisticsProjection.Key(StatisticsProjection.Category.ENTITY, "KILL_ENTITY", "ZOMBIE"), 7
+        ), projection.getStatistics());
+        Assertions.assertTrue(projection.getStatus().isEmpty());
+    }
+
+}
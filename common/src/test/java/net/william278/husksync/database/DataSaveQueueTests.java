@@ -0,0 +1,349 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.DummyHuskSync;
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.config.Settings;
+import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.data.UserDataSnapshotMetadata;
+import net.william278.husksync.player.DummyPlayer;
+import net.william278.husksync.player.User;
+import net.william278.husksync.redis.RedisManager;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for flushing saves through the {@link DataSaveQueue}, writing to a stand-in database held in memory
+ */
+public class DataSaveQueueTests {
+
+    private static final int MAX_PENDING_SAVES = 2;
+    private static final UserData USER_DATA = DummyPlayer.create().getUserData(new DummyHuskSync()).join()
+            .orElseThrow();
+
+    @Test
+    public void testSavesStayInOrderAcrossRetry() throws InterruptedException {
+        final StubDatabase database = new StubDatabase();
+        final DataSaveQueue queue = createQueue(database);
+        final User user = new User(UUID.randomUUID(), "Steve");
+        database.failures.set(1);
+        try {
+            final PendingUserData first = createSave(user, DataSaveCause.INVENTORY_COMMAND);
+            final CompletableFuture<Void> firstSave = queue.add(first);
+            Assertions.assertTrue(database.firstAttempt.await(5, TimeUnit.SECONDS));
+
+            // A save queued while the first is failing is written after it, not before
+            final PendingUserData second = createSave(user, DataSaveCause.INVENTORY_COMMAND);
+            final CompletableFuture<Void> secondSave = queue.add(second);
+            CompletableFuture.allOf(firstSave, secondSave).join();
+            Assertions.assertEquals(List.of(first.snapshot().versionUUID(), second.snapshot().versionUUID()),
+                    database.written);
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testSaveFailsAfterMaxAttempts() {
+        final StubDatabase database = new StubDatabase();
+        final DataSaveQueue queue = createQueue(database);
+        database.failures.set(Integer.MAX_VALUE);
+        try {
+            final CompletableFuture<Void> save = queue.add(createSave(new User(UUID.randomUUID(), "Steve"),
+                    DataSaveCause.INVENTORY_COMMAND));
+            final CompletionException exception = Assertions.assertThrows(CompletionException.class, save::join);
+            Assertions.assertInstanceOf(DataSaveException.class, exception.getCause());
+            Assertions.assertFalse(((DataSaveException) exception.getCause()).isShed());
+            Assertions.assertEquals(3, database.attempts.get());
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testLowPrioritySavesAreShedWhenFull() throws InterruptedException {
+        final StubDatabase database = new StubDatabase();
+        final DataSaveQueue queue = createQueue(database);
+        final User blockedUser = new User(UUID.randomUUID(), "Steve");
+        database.blockedUser = blockedUser.uuid;
+        try {
+            final CompletableFuture<Void> blockedSave = queue.add(createSave(blockedUser, DataSaveCause.API));
+            Assertions.assertTrue(database.firstAttempt.await(5, TimeUnit.SECONDS));
+            final List<CompletableFuture<Void>> queuedSaves = new ArrayList<>();
+            for (int i = 0; i < MAX_PENDING_SAVES; i++) {
+                queuedSaves.add(queue.add(createSave(new User(UUID.randomUUID(), "Alex"), DataSaveCause.API)));
+            }
+
+            // The queue is full, so a periodic save is shed, while other saves are still queued
+            final CompletableFuture<Void> shedSave = queue.add(createSave(new User(UUID.randomUUID(), "Alex"),
+                    DataSaveCause.WORLD_SAVE));
+            final CompletionException exception = Assertions.assertThrows(CompletionException.class, shedSave::join);
+            Assertions.assertTrue(((DataSaveException) exception.getCause()).isShed());
+            queuedSaves.add(queue.add(createSave(new User(UUID.randomUUID(), "Alex"), DataSaveCause.API)));
+
+            database.gate.countDown();
+            blockedSave.join();
+            CompletableFuture.allOf(queuedSaves.toArray(CompletableFuture[]::new)).join();
+            Assertions.assertEquals(MAX_PENDING_SAVES + 2, database.written.size());
+        } finally {
+            database.gate.countDown();
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testHighPrioritySavesDoNotWaitBehindBackgroundBatch() throws InterruptedException {
+        final StubDatabase database = new StubDatabase();
+        final DataSaveQueue queue = createQueue(database);
+        final User blockedUser = new User(UUID.randomUUID(), "Steve");
+        database.blockedUser = blockedUser.uuid;
+        try {
+            final CompletableFuture<Void> blockedSave = queue.add(createSave(blockedUser, DataSaveCause.WORLD_SAVE));
+            Assertions.assertTrue(database.firstAttempt.await(5, TimeUnit.SECONDS));
+
+            // A user leaving is saved by the other worker while the background batch is still being written
+            final PendingUserData disconnect = createSave(new User(UUID.randomUUID(), "Alex"),
+                    DataSaveCause.DISCONNECT);
+            queue.add(disconnect).orTimeout(5, TimeUnit.SECONDS).join();
+            Assertions.assertFalse(blockedSave.isDone());
+            Assertions.assertEquals(List.of(disconnect.snapshot().versionUUID()), database.written);
+
+            database.gate.countDown();
+            blockedSave.join();
+        } finally {
+            database.gate.countDown();
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testUserIsNotFlushedByBothWorkersAtOnce() throws InterruptedException {
+        final StubDatabase database = new StubDatabase();
+        final DataSaveQueue queue = createQueue(database);
+        final User user = new User(UUID.randomUUID(), "Steve");
+        database.blockedUser = user.uuid;
+        try {
+            final PendingUserData worldSave = createSave(user, DataSaveCause.WORLD_SAVE);
+            final CompletableFuture<Void> blockedSave = queue.add(worldSave);
+            Assertions.assertTrue(database.firstAttempt.await(5, TimeUnit.SECONDS));
+
+            // The user's disconnect save waits for their background save, rather than being written alongside it
+            final PendingUserData disconnect = createSave(user, DataSaveCause.DISCONNECT);
+            final CompletableFuture<Void> disconnectSave = queue.add(disconnect);
+            Thread.sleep(200);
+            Assertions.assertFalse(disconnectSave.isDone());
+
+            database.gate.countDown();
+            CompletableFuture.allOf(blockedSave, disconnectSave).join();
+            Assertions.assertFalse(database.overlapped.get());
+            Assertions.assertEquals(List.of(worldSave.snapshot().versionUUID(), disconnect.snapshot().versionUUID()),
+                    database.written);
+        } finally {
+            database.gate.countDown();
+            queue.close();
+        }
+    }
+
+    @NotNull
+    private static PendingUserData createSave(@NotNull User user, @NotNull DataSaveCause cause) {
+        return new PendingUserData(user, new UserDataSnapshot(UUID.randomUUID(), new Date(), cause, false,
+                USER_DATA));
+    }
+
+    @NotNull
+    private static DataSaveQueue createQueue(@NotNull StubDatabase database) {
+        final DataSaveQueue queue = new DataSaveQueue(database.plugin, database);
+        queue.start();
+        return queue;
+    }
+
+    @NotNull
+    private static HuskSync createPlugin() {
+        final Settings settings = new Settings() {
+            @Override
+            public int getDatabaseSaveQueueBatchSize() {
+                return 10;
+            }
+
+            @Override
+            public int getDatabaseSaveQueueMaxPending() {
+                return MAX_PENDING_SAVES;
+            }
+        };
+        return new DummyHuskSync() {
+            private final RedisManager redisManager = new RedisManager(this) {
+                @Override
+                public CompletableFuture<Boolean> setCachedUserData(@NotNull User user,
+                                                                    @NotNull UserDataSnapshot snapshot) {
+                    return CompletableFuture.completedFuture(true);
+                }
+
+                @Override
+                public CompletableFuture<Void> invalidateCachedUserData(@NotNull User user) {
+                    return CompletableFuture.completedFuture(null);
+                }
+            };
+
+            @NotNull
+            @Override
+            public Settings getSettings() {
+                return settings;
+            }
+
+            @NotNull
+            @Override
+            public RedisManager getRedisManager() {
+                return redisManager;
+            }
+        };
+    }
+
+    /**
+     * A database recording the snapshots written to it in order, which can fail writes, or hold a user's writes until
+     * its gate is opened
+     */
+    private static class StubDatabase extends Database {
+
+        private final HuskSync plugin;
+        private final List<UUID> written = new ArrayList<>();
+        private final Set<UUID> writingUsers = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicBoolean overlapped = new AtomicBoolean();
+        private final CountDownLatch firstAttempt = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile UUID blockedUser;
+
+        private StubDatabase() {
+            this(createPlugin());
+        }
+
+        private StubDatabase(@NotNull HuskSync plugin) {
+            super(plugin, new UserRegistry(100), false);
+            this.plugin = plugin;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> setUserData(@NotNull List<PendingUserData> pendingData) {
+            final List<UUID> users = pendingData.stream().map(data -> data.user().uuid).distinct().toList();
+            for (UUID user : users) {
+                if (!writingUsers.add(user)) {
+                    overlapped.set(true);
+                }
+            }
+            try {
+                attempts.incrementAndGet();
+                firstAttempt.countDown();
+                if (users.contains(blockedUser)) {
+                    gate.await();
+                }
+                if (failures.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                synchronized (written) {
+                    pendingData.forEach(data -> written.add(data.snapshot().versionUUID()));
+                }
+                return CompletableFuture.completedFuture(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.completedFuture(false);
+            } finally {
+                users.forEach(writingUsers::remove);
+            }
+        }
+
+        @Override
+        public boolean initialize() {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<Void> ensureUser(@NotNull User user) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Optional<User>> getUser(@NotNull UUID uuid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Optional<User>> getUserByName(@NotNull String username) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Optional<UserDataSnapshot>> getCurrentUserData(@NotNull User user) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<List<UserDataSnapshot>> getUserData(@NotNull User user) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<List<UserDataSnapshotMetadata>> getUserDataMetadata(@NotNull User user) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Optional<UserDataSnapshot>> getUserData(@NotNull User user,
+                                                                         @NotNull UUID versionUuid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void rotateUserData(@NotNull User user) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> deleteUserData(@NotNull User user, @NotNull UUID versionUuid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> setUserData(@NotNull User user, @NotNull UserData userData,
+                                                   @NotNull DataSaveCause dataSaveCause) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> pinUserData(@NotNull User user, @NotNull UUID versionUuid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> unpinUserData(@NotNull User user, @NotNull UUID versionUuid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> wipeDatabase() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,221 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.DummyHuskSync;
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataAdapter;
+import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.JsonDataAdapter;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.data.UserDataSnapshotMetadata;
+import net.william278.husksync.player.DummyPlayer;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for the append-only log of the {@link EmbeddedDatabase}
+ */
+public class EmbeddedDatabaseTests {
+
+    @TempDir
+    File dataFolder;
+
+    @Test
+    public void testSnapshotsAreRotatedAndPersisted() {
+        final HuskSync plugin = createPlugin();
+        final User user = new User(UUID.randomUUID(), "Steve");
+        final List<UUID> versions = new ArrayList<>();
+
+        final EmbeddedDatabase database = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(database.initialize());
+        database.ensureUser(user).join();
+        Assertions.assertTrue(database.getUser(user.uuid).join().isPresent());
+        for (int i = 0; i < 7; i++) {
+            final UserDataSnapshot snapshot = new UserDataSnapshot(UUID.randomUUID(), new Date(i * 1000L),
+                    DataSaveCause.WORLD_SAVE, false, createUserData());
+            versions.add(snapshot.versionUUID());
+            Assertions.assertTrue(database.setUserData(List.of(new PendingUserData(user, snapshot))).join());
+        }
+        assertNewestVersions(database, user, versions);
+        database.close();
+
+        // Reopen the database, replaying the log
+        final EmbeddedDatabase reopenedDatabase = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(reopenedDatabase.initialize());
+        Assertions.assertEquals("Steve", reopenedDatabase.getUser(user.uuid).join().orElseThrow().username);
+        assertNewestVersions(reopenedDatabase, user, versions);
+        Assertions.assertTrue(reopenedDatabase.getUserData(user, versions.get(6)).join().isPresent());
+        Assertions.assertTrue(reopenedDatabase.getUserData(user, versions.get(0)).join().isEmpty());
+        reopenedDatabase.close();
+    }
+
+    @Test
+    public void testIncompleteRecordsAreDiscarded() throws IOException {
+        final HuskSync plugin = createPlugin();
+        final User user = new User(UUID.randomUUID(), "Alex");
+        final UserDataSnapshot snapshot = new UserDataSnapshot(UUID.randomUUID(), new Date(),
+                DataSaveCause.DISCONNECT, false, createUserData());
+
+        final EmbeddedDatabase database = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(database.initialize());
+        Assertions.assertTrue(database.setUserData(List.of(new PendingUserData(user, snapshot))).join());
+        database.close();
+
+        // Simulate a record torn by a crash part way through being appended
+        try (FileOutputStream output = new FileOutputStream(new File(dataFolder,
+                plugin.getSettings().getEmbeddedDatabaseFile()), true)) {
+            output.write(new byte[]{2, 0, 0, 1, 0, 42, 42});
+        }
+
+        final EmbeddedDatabase reopenedDatabase = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(reopenedDatabase.initialize());
+        Assertions.assertEquals(1, reopenedDatabase.getUserDataMetadata(user).join().size());
+        Assertions.assertTrue(reopenedDatabase.setUserData(List.of(new PendingUserData(user,
+                new UserDataSnapshot(UUID.randomUUID(), new Date(), DataSaveCause.DISCONNECT, false,
+                        createUserData())))).join());
+        Assertions.assertEquals(2, reopenedDatabase.getUserDataMetadata(user).join().size());
+        reopenedDatabase.close();
+    }
+
+    @Test
+    public void testOnlyCorruptLastRecordIsDiscarded() throws IOException {
+        final HuskSync plugin = createPlugin();
+        final User user = new User(UUID.randomUUID(), "Alex");
+        final EmbeddedDatabase database = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(database.initialize());
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertTrue(database.setUserData(List.of(new PendingUserData(user, new UserDataSnapshot(
+                    UUID.randomUUID(), new Date(i * 1000L), DataSaveCause.DISCONNECT, false,
+                    createUserData())))).join());
+        }
+        database.close();
+
+        // A last record failing its checksum was torn by a crash, so is discarded
+        final File file = new File(dataFolder, plugin.getSettings().getEmbeddedDatabaseFile());
+        flipByte(file, file.length() - 1);
+        final EmbeddedDatabase reopenedDatabase = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(reopenedDatabase.initialize());
+        Assertions.assertEquals(1, reopenedDatabase.getUserDataMetadata(user).join().size());
+        reopenedDatabase.close();
+        Assertions.assertEquals(1, listTornFiles().length);
+
+        // A record failing its checksum before the end means the log is corrupt, so it is left as it is
+        final long length = file.length();
+        flipByte(file, 10);
+        final EmbeddedDatabase corruptDatabase = new EmbeddedDatabase(plugin);
+        Assertions.assertFalse(corruptDatabase.initialize());
+        corruptDatabase.close();
+        Assertions.assertEquals(length, file.length());
+    }
+
+    @Test
+    public void testCorruptLengthOfFirstRecordIsNotDiscarded() throws IOException {
+        final HuskSync plugin = createPlugin();
+        final User user = new User(UUID.randomUUID(), "Alex");
+        final EmbeddedDatabase database = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(database.initialize());
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertTrue(database.setUserData(List.of(new PendingUserData(user, new UserDataSnapshot(
+                    UUID.randomUUID(), new Date(i * 1000L), DataSaveCause.DISCONNECT, false,
+                    createUserData())))).join());
+        }
+        database.close();
+
+        // A length running past the end of the log is only a torn record if it could have been written
+        final File file = new File(dataFolder, plugin.getSettings().getEmbeddedDatabaseFile());
+        final long length = file.length();
+        for (int position = 1; position < 5; position++) {
+            flipByte(file, position);
+            final EmbeddedDatabase corruptDatabase = new EmbeddedDatabase(plugin);
+            Assertions.assertFalse(corruptDatabase.initialize());
+            corruptDatabase.close();
+            Assertions.assertEquals(length, file.length());
+            flipByte(file, position);
+        }
+        Assertions.assertEquals(0, listTornFiles().length);
+
+        final EmbeddedDatabase restoredDatabase = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(restoredDatabase.initialize());
+        Assertions.assertEquals(2, restoredDatabase.getUserDataMetadata(user).join().size());
+        restoredDatabase.close();
+    }
+
+    @Test
+    public void testSnapshotsWithEqualTimestampsAreNewestFirst() {
+        final HuskSync plugin = createPlugin();
+        final User user = new User(UUID.randomUUID(), "Steve");
+        final Date timestamp = new Date(1000L);
+        final List<UUID> versions = new ArrayList<>();
+
+        final EmbeddedDatabase database = new EmbeddedDatabase(plugin);
+        Assertions.assertTrue(database.initialize());
+        for (int i = 0; i < 2; i++) {
+            final UserDataSnapshot snapshot = new UserDataSnapshot(UUID.randomUUID(), timestamp,
+                    DataSaveCause.WORLD_SAVE, false, createUserData());
+            versions.add(snapshot.versionUUID());
+            Assertions.assertTrue(database.setUserData(List.of(new PendingUserData(user, snapshot))).join());
+        }
+        Assertions.assertEquals(List.of(versions.get(1), versions.get(0)), database.getUserDataMetadata(user).join()
+                .stream().map(UserDataSnapshotMetadata::versionUUID).toList());
+        database.close();
+    }
+
+    @NotNull
+    private File[] listTornFiles() {
+        final File[] tornFiles = dataFolder.listFiles((directory, name) -> name.contains(".torn-"));
+        return tornFiles == null ? new File[0] : tornFiles;
+    }
+
+    private static void flipByte(@NotNull File file, long position) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            final int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0xFF);
+        }
+    }
+
+    private void assertNewestVersions(@NotNull EmbeddedDatabase database, @NotNull User user,
+                                      @NotNull List<UUID> versions) {
+        final List<UUID> storedVersions = database.getUserDataMetadata(user).join().stream()
+                .map(UserDataSnapshotMetadata::versionUUID)
+                .toList();
+        Assertions.assertEquals(List.of(versions.get(6), versions.get(5), versions.get(4), versions.get(3),
+                versions.get(2)), storedVersions);
+    }
+
+    @NotNull
+    private HuskSync createPlugin() {
+        return new DummyHuskSync() {
+            @NotNull
+            @Override
+            public DataAdapter getDataAdapter() {
+                return new JsonDataAdapter();
+            }
+
+            @NotNull
+            @Override
+            public File getDataFolder() {
+                return dataFolder;
+            }
+        };
+    }
+
+    @NotNull
+    private static UserData createUserData() {
+        return DummyPlayer.create().getUserData(new DummyHuskSync()).join().orElseThrow();
+    }
+
+}
@@ -0,0 +1,212 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.DummyHuskSync;
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.config.Settings;
+import net.william278.husksync.redis.RedisManager;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for running {@link MaintenanceJob}s in chunks through the {@link MaintenanceEngine}, with the lease on each
+ * job held on a stand-in for Redis
+ */
+public class MaintenanceEngineTests {
+
+    private static final int CHUNK_SIZE = 10;
+
+    @Test
+    public void testJobRunsInChunksToCompletion() {
+        final Leases leases = new Leases();
+        final CountingJob job = new CountingJob(35);
+        Assertions.assertTrue(createEngine(leases).runNow(job));
+
+        // Three full chunks and a last partial chunk, without taking the lease
+        Assertions.assertEquals(List.of(10, 10, 10, 5), job.chunks);
+        Assertions.assertEquals(List.of(false), job.finishes);
+        Assertions.assertEquals(0, leases.acquired.get());
+    }
+
+    @Test
+    public void testFailedJobIsFinished() {
+        final MaintenanceEngine engine = createEngine(new Leases());
+        final CountingJob job = new CountingJob(35) {
+            @Override
+            public int runChunk(int chunkSize) throws SQLException {
+                if (!chunks.isEmpty()) {
+                    throw new SQLException("Lost connection to the database");
+                }
+                return super.runChunk(chunkSize);
+            }
+        };
+        Assertions.assertFalse(engine.runNow(job));
+        Assertions.assertEquals(List.of(10), job.chunks);
+        Assertions.assertEquals(List.of(false), job.finishes);
+    }
+
+    @Test
+    public void testLeasedJobConfirmsLeaseBeforeFinishing() {
+        final Leases leases = new Leases();
+        final CountingJob job = new CountingJob(25);
+        createEngine(leases).runLeased(job);
+
+        // The lease is taken to start, extended before each chunk and confirmed before finishing
+        Assertions.assertEquals(List.of(10, 10, 5), job.chunks);
+        Assertions.assertEquals(List.of(true), job.finishes);
+        Assertions.assertEquals(5, leases.acquired.get());
+        Assertions.assertEquals(1, leases.released.get());
+    }
+
+    @Test
+    public void testLostLeaseStopsJob() {
+        final Leases leases = new Leases();
+        leases.grants = 2;
+        final CountingJob job = new CountingJob(100);
+        createEngine(leases).runLeased(job);
+
+        // The lease is lost after the first chunk, so the job stops and must not clean up as if it held it
+        Assertions.assertEquals(List.of(10), job.chunks);
+        Assertions.assertEquals(List.of(false), job.finishes);
+        Assertions.assertEquals(1, leases.released.get());
+    }
+
+    @Test
+    public void testUnconfirmedLeaseIsTreatedAsLost() {
+        final Leases leases = new Leases();
+        leases.failAfter = 3;
+        final CountingJob job = new CountingJob(25);
+        createEngine(leases).runLeased(job);
+
+        // Redis failing part way through stops the job, the same as losing the lease
+        Assertions.assertEquals(List.of(10, 10), job.chunks);
+        Assertions.assertEquals(List.of(false), job.finishes);
+    }
+
+    @Test
+    public void testJobIsSkippedWithoutLease() {
+        final Leases leases = new Leases();
+        leases.grants = 0;
+        final CountingJob job = new CountingJob(25);
+        createEngine(leases).runLeased(job);
+
+        Assertions.assertTrue(job.chunks.isEmpty());
+        Assertions.assertTrue(job.finishes.isEmpty());
+        Assertions.assertEquals(0, leases.released.get());
+    }
+
+    @NotNull
+    private static MaintenanceEngine createEngine(@NotNull Leases leases) {
+        final Settings settings = new Settings() {
+            @Override
+            public int getMaintenanceChunkSize() {
+                return CHUNK_SIZE;
+            }
+
+            @Override
+            public long getMaintenanceChunkDelayMillis() {
+                return 0;
+            }
+        };
+        final HuskSync plugin = new DummyHuskSync() {
+            private final RedisManager redisManager = new RedisManager(this) {
+                @Override
+                public CompletableFuture<Boolean> acquireLease(@NotNull String name) {
+                    return leases.acquire();
+                }
+
+                @Override
+                public CompletableFuture<Void> releaseLease(@NotNull String name) {
+                    leases.released.incrementAndGet();
+                    return CompletableFuture.completedFuture(null);
+                }
+            };
+
+            @NotNull
+            @Override
+            public Settings getSettings() {
+                return settings;
+            }
+
+            @NotNull
+            @Override
+            public RedisManager getRedisManager() {
+                return redisManager;
+            }
+        };
+        return new MaintenanceEngine(plugin);
+    }
+
+    /**
+     * A job processing a fixed number of items, recording the size of each chunk and how it was finished
+     */
+    private static class CountingJob implements MaintenanceJob {
+
+        protected final List<Integer> chunks = new ArrayList<>();
+        private final List<Boolean> finishes = new ArrayList<>();
+        private final int items;
+        private int remaining;
+
+        private CountingJob(int items) {
+            this.items = items;
+        }
+
+        @NotNull
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public void start() {
+            remaining = items;
+        }
+
+        @Override
+        public int runChunk(int chunkSize) throws SQLException {
+            final int processed = Math.min(chunkSize, remaining);
+            remaining -= processed;
+            chunks.add(processed);
+            return processed;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return remaining == 0;
+        }
+
+        @Override
+        public void finish(boolean leaseHeld) {
+            finishes.add(leaseHeld);
+        }
+
+    }
+
+    /**
+     * Stand-in for the lease on Redis, granted a set number of times and optionally failing after some attempts
+     */
+    private static class Leases {
+
+        private final AtomicInteger acquired = new AtomicInteger();
+        private final AtomicInteger released = new AtomicInteger();
+        private int grants = Integer.MAX_VALUE;
+        private int failAfter = Integer.MAX_VALUE;
+
+        @NotNull
+        private CompletableFuture<Boolean> acquire() {
+            final int attempt = acquired.incrementAndGet();
+            if (attempt > failAfter) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Lost connection to Redis"));
+            }
+            return CompletableFuture.completedFuture(attempt <= grants);
+        }
+
+    }
+
+}
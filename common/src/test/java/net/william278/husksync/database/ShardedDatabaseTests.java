@@ -0,0 +1,244 @@
+package net.william278.husksync.database;
+
+import net.william278.husksync.DummyHuskSync;
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataAdapter;
+import net.william278.husksync.data.DataSaveCause;
+import net.william278.husksync.data.JsonDataAdapter;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.data.UserDataSnapshot;
+import net.william278.husksync.player.DummyPlayer;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Tests for the routing of users to {@link ShardedDatabase} shards, and moving users between shards held in memory
+ */
+public class ShardedDatabaseTests {
+
+    @Test
+    public void testShardIndexIsStableAndInRange() {
+        for (int i = 0; i < 1000; i++) {
+            final UUID uuid = UUID.randomUUID();
+            final int shard = ShardedDatabase.getShardIndex(uuid, 7);
+            Assertions.assertTrue(shard >= 0 && shard < 7);
+            Assertions.assertEquals(shard, ShardedDatabase.getShardIndex(uuid, 7));
+            Assertions.assertEquals(0, ShardedDatabase.getShardIndex(uuid, 1));
+        }
+    }
+
+    @Test
+    public void testAddingShardsOnlyMovesUsersToNewShards() {
+        int movedUsers = 0;
+        for (int i = 0; i < 10000; i++) {
+            final UUID uuid = UUID.randomUUID();
+            final int previousShard = ShardedDatabase.getShardIndex(uuid, 4);
+            final int shard = ShardedDatabase.getShardIndex(uuid, 5);
+            if (shard != previousShard) {
+                Assertions.assertEquals(4, shard);
+                movedUsers++;
+            }
+        }
+        Assertions.assertTrue(movedUsers > 1000 && movedUsers < 3000);
+    }
+
+    @Test
+    public void testMoveCopiesSnapshotsBeforeRemovingUser() {
+        final MoveFixture fixture = new MoveFixture();
+        final User user = fixture.source.store(2);
+
+        Assertions.assertTrue(fixture.database.moveUser(user.uuid, fixture.source, fixture.target).join());
+        Assertions.assertEquals(2, fixture.target.getSnapshots(user).size());
+        Assertions.assertTrue(fixture.source.users.isEmpty());
+        Assertions.assertTrue(fixture.source.snapshots.isEmpty());
+    }
+
+    @Test
+    public void testFailedSourceReadLeavesUserOnSource() {
+        final MoveFixture fixture = new MoveFixture();
+        final User user = fixture.source.store(3);
+        fixture.source.failReads = true;
+
+        // The move fails rather than treating the unreadable history as empty and removing it
+        Assertions.assertThrows(CompletionException.class,
+                () -> fixture.database.moveUser(user.uuid, fixture.source, fixture.target).join());
+        Assertions.assertTrue(fixture.source.users.containsKey(user.uuid));
+        Assertions.assertEquals(3, fixture.source.getSnapshots(user).size());
+        Assertions.assertTrue(fixture.target.getSnapshots(user).isEmpty());
+
+        // The move completes once the source can be read again
+        fixture.source.failReads = false;
+        Assertions.assertTrue(fixture.database.moveUser(user.uuid, fixture.source, fixture.target).join());
+        Assertions.assertEquals(3, fixture.target.getSnapshots(user).size());
+        Assertions.assertFalse(fixture.source.users.containsKey(user.uuid));
+    }
+
+    @Test
+    public void testIncompleteImportLeavesUserOnSource() {
+        final MoveFixture fixture = new MoveFixture();
+        final User user = fixture.source.store(3);
+        fixture.target.dropImports = 1;
+
+        Assertions.assertThrows(CompletionException.class,
+                () -> fixture.database.moveUser(user.uuid, fixture.source, fixture.target).join());
+        Assertions.assertEquals(3, fixture.source.getSnapshots(user).size());
+        Assertions.assertEquals(2, fixture.target.getSnapshots(user).size());
+    }
+
+    @Test
+    public void testSnapshotSavedDuringMoveIsNotLost() {
+        final MoveFixture fixture = new MoveFixture();
+        final User user = fixture.source.store(2);
+        final UserDataSnapshot savedDuringMove = fixture.source.snapshots.get(user.uuid).get(0);
+        final UUID lateVersion = UUID.randomUUID();
+        fixture.source.afterExport = () -> fixture.source.save(user, new UserDataSnapshot(lateVersion,
+                new Date(2_000_000L), DataSaveCause.DISCONNECT, false, savedDuringMove.userData()));
+
+        // The snapshot saved between reading and removing the user is kept on the source, then moved on another pass
+        Assertions.assertTrue(fixture.database.moveUser(user.uuid, fixture.source, fixture.target).join());
+        Assertions.assertEquals(3, fixture.target.getSnapshots(user).size());
+        Assertions.assertEquals(lateVersion, fixture.target.getSnapshots(user).get(0).versionUUID());
+        Assertions.assertTrue(fixture.source.users.isEmpty());
+        Assertions.assertTrue(fixture.source.snapshots.isEmpty());
+    }
+
+    /**
+     * A sharded database over two shards held in memory, moving users from the first to the second
+     */
+    private static class MoveFixture {
+
+        private final MemoryShard source;
+        private final MemoryShard target;
+        private final ShardedDatabase database;
+
+        private MoveFixture() {
+            final HuskSync plugin = new DummyHuskSync() {
+                @NotNull
+                @Override
+                public DataAdapter getDataAdapter() {
+                    return new JsonDataAdapter();
+                }
+            };
+            final UserRegistry userRegistry = new UserRegistry(100);
+            this.source = new MemoryShard(plugin, "shard-1", userRegistry);
+            this.target = new MemoryShard(plugin, "shard-2", userRegistry);
+            this.database = new ShardedDatabase(plugin, userRegistry, List.of(source, target), 1);
+        }
+
+    }
+
+    /**
+     * A shard storing users and their snapshots in memory in place of a MySQL database
+     */
+    private static class MemoryShard extends MySqlDatabase {
+
+        private final Map<UUID, User> users = new LinkedHashMap<>();
+        private final Map<UUID, List<UserDataSnapshot>> snapshots = new LinkedHashMap<>();
+        private volatile boolean failReads;
+        private volatile int dropImports;
+        private volatile Runnable afterExport;
+
+        private MemoryShard(@NotNull HuskSync plugin, @NotNull String name, @NotNull UserRegistry userRegistry) {
+            super(plugin, name, "localhost", 3306, name, userRegistry);
+        }
+
+        // Store a user with a number of snapshots, newest first
+        @NotNull
+        private synchronized User store(int snapshotCount) {
+            final User user = new User(UUID.randomUUID(), "Steve");
+            final UserData userData = DummyPlayer.create().getUserData(new DummyHuskSync()).join().orElseThrow();
+            final List<UserDataSnapshot> userSnapshots = new ArrayList<>();
+            for (int i = 0; i < snapshotCount; i++) {
+                userSnapshots.add(new UserDataSnapshot(UUID.randomUUID(), new Date(1_000_000L - i * 1000L),
+                        DataSaveCause.WORLD_SAVE, false, userData));
+            }
+            users.put(user.uuid, user);
+            snapshots.put(user.uuid, userSnapshots);
+            return user;
+        }
+
+        // Save a snapshot of a stored user, as their server would
+        private synchronized void save(@NotNull User user, @NotNull UserDataSnapshot snapshot) {
+            snapshots.get(user.uuid).add(0, snapshot);
+        }
+
+        @NotNull
+        private synchronized List<UserDataSnapshot> getSnapshots(@NotNull User user) {
+            return new ArrayList<>(snapshots.getOrDefault(user.uuid, List.of()));
+        }
+
+        @Override
+        protected synchronized CompletableFuture<Optional<User>> findStoredUser(@NotNull UUID uuid) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(users.get(uuid)));
+        }
+
+        @Override
+        protected CompletableFuture<List<UserDataSnapshot>> exportUserData(@NotNull User user) {
+            if (failReads) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Lost connection to the database"));
+            }
+            final List<UserDataSnapshot> exported = getSnapshots(user);
+            final Runnable hook = afterExport;
+            afterExport = null;
+            if (hook != null) {
+                hook.run();
+            }
+            return CompletableFuture.completedFuture(exported);
+        }
+
+        @Override
+        protected synchronized CompletableFuture<Boolean> importUser(@NotNull User user,
+                                                                     @NotNull List<UserDataSnapshot> imported) {
+            users.put(user.uuid, user);
+            final List<UserDataSnapshot> userSnapshots = snapshots.computeIfAbsent(user.uuid, uuid -> new ArrayList<>());
+            for (UserDataSnapshot snapshot : imported) {
+                if (dropImports > 0) {
+                    dropImports--;
+                    continue;
+                }
+                if (userSnapshots.stream().noneMatch(existing -> existing.versionUUID()
+                        .equals(snapshot.versionUUID()))) {
+                    userSnapshots.add(0, snapshot);
+                }
+            }
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        protected synchronized CompletableFuture<Set<UUID>> getVersionUuids(@NotNull User user) {
+            final Set<UUID> versionUuids = new HashSet<>();
+            snapshots.getOrDefault(user.uuid, List.of()).forEach(snapshot -> versionUuids.add(snapshot.versionUUID()));
+            return CompletableFuture.completedFuture(versionUuids);
+        }
+
+        @Override
+        protected synchronized CompletableFuture<Boolean> removeUser(@NotNull User user,
+                                                                     @NotNull Collection<UUID> versionUuids) {
+            final List<UserDataSnapshot> userSnapshots = snapshots.getOrDefault(user.uuid, new ArrayList<>());
+            userSnapshots.removeIf(snapshot -> versionUuids.contains(snapshot.versionUUID()));
+            if (!userSnapshots.isEmpty()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            users.remove(user.uuid);
+            snapshots.remove(user.uuid);
+            return CompletableFuture.completedFuture(true);
+        }
+
+    }
+
+}
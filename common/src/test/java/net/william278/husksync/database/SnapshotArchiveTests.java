@@ -0,0 +1,128 @@
+package net.william278.husksync.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tests for the segment file format of the {@link SnapshotArchive}
+ */
+public class SnapshotArchiveTests {
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void testRecordsRoundTrip() throws IOException {
+        final SnapshotArchive archive = createArchive(1024 * 1024);
+        final Map<UUID, byte[]> snapshots = createSnapshots(5);
+        final List<SnapshotArchive.ArchivePointer> pointers = append(archive, snapshots);
+
+        // Assert records are laid out back to back in one segment, and each reads back as it was appended
+        long offset = 0;
+        for (SnapshotArchive.ArchivePointer pointer : pointers) {
+            Assertions.assertEquals(pointers.get(0).segment(), pointer.segment());
+            Assertions.assertEquals(offset, pointer.offset());
+            offset += pointer.length();
+        }
+        Assertions.assertEquals(offset, getSegmentFile(pointers.get(0).segment()).length());
+        int index = 0;
+        for (Map.Entry<UUID, byte[]> snapshot : snapshots.entrySet()) {
+            Assertions.assertArrayEquals(snapshot.getValue(), archive.read(pointers.get(index++), snapshot.getKey()));
+        }
+    }
+
+    @Test
+    public void testSegmentsRollOver() throws IOException {
+        final SnapshotArchive archive = createArchive(1);
+        final List<SnapshotArchive.ArchivePointer> pointers = append(archive, createSnapshots(3));
+
+        // Assert each record starts a new segment once the last has reached the maximum size
+        final Set<UUID> segments = archive.getSegments();
+        Assertions.assertEquals(3, segments.size());
+        pointers.forEach(pointer -> {
+            Assertions.assertTrue(segments.contains(pointer.segment()));
+            Assertions.assertEquals(0, pointer.offset());
+        });
+
+        archive.deleteSegment(pointers.get(0).segment());
+        Assertions.assertEquals(2, archive.getSegments().size());
+    }
+
+    @Test
+    public void testCorruptRecordsAreRejected() throws IOException {
+        final SnapshotArchive archive = createArchive(1024 * 1024);
+        final Map<UUID, byte[]> snapshots = createSnapshots(2);
+        final List<SnapshotArchive.ArchivePointer> pointers = append(archive, snapshots);
+        final List<UUID> versions = new ArrayList<>(snapshots.keySet());
+
+        // A pointer to another snapshot's record, or of the wrong length, is rejected
+        Assertions.assertThrows(IOException.class, () -> archive.read(pointers.get(0), versions.get(1)));
+        Assertions.assertThrows(IOException.class, () -> archive.read(new SnapshotArchive.ArchivePointer(
+                pointers.get(0).segment(), pointers.get(0).offset(), pointers.get(0).length() - 1), versions.get(0)));
+
+        // A flipped byte in the first record's data fails its checksum, without affecting the second record
+        try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(pointers.get(0).segment()), "rw")) {
+            final long position = pointers.get(0).offset() + 24;
+            file.seek(position);
+            final int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+        Assertions.assertThrows(IOException.class, () -> archive.read(pointers.get(0), versions.get(0)));
+        Assertions.assertArrayEquals(snapshots.get(versions.get(1)), archive.read(pointers.get(1), versions.get(1)));
+
+        // A record cut short by a truncated segment is rejected
+        try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(pointers.get(1).segment()), "rw")) {
+            file.setLength(pointers.get(1).offset() + pointers.get(1).length() - 1);
+        }
+        Assertions.assertThrows(IOException.class, () -> archive.read(pointers.get(1), versions.get(1)));
+    }
+
+    @NotNull
+    private SnapshotArchive createArchive(long maxSegmentSize) throws IOException {
+        final SnapshotArchive archive = new SnapshotArchive(directory, maxSegmentSize);
+        archive.initialize();
+        return archive;
+    }
+
+    @NotNull
+    private static List<SnapshotArchive.ArchivePointer> append(@NotNull SnapshotArchive archive,
+                                                               @NotNull Map<UUID, byte[]> snapshots) throws IOException {
+        final List<SnapshotArchive.ArchivePointer> pointers = new ArrayList<>();
+        try (SnapshotArchive.SegmentWriter writer = archive.openWriter()) {
+            for (Map.Entry<UUID, byte[]> snapshot : snapshots.entrySet()) {
+                pointers.add(writer.append(snapshot.getKey(), snapshot.getValue()));
+            }
+        }
+        return pointers;
+    }
+
+    @NotNull
+    private static Map<UUID, byte[]> createSnapshots(int count) {
+        final Map<UUID, byte[]> snapshots = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            snapshots.put(UUID.randomUUID(), ("{\"status\":{\"health\":" + i + ".0},\"inventory\":\""
+                                              + "A".repeat(512 * (i + 1)) + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        return snapshots;
+    }
+
+    @NotNull
+    private File getSegmentFile(@NotNull UUID segment) {
+        return new File(directory, segment + ".seg");
+    }
+
+}
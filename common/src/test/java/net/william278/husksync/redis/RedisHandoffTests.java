@@ -0,0 +1,168 @@
+package net.william278.husksync.redis;
+
+import net.william278.husksync.DummyHuskSync;
+import net.william278.husksync.HuskSync;
+import net.william278.husksync.data.DataAdapter;
+import net.william278.husksync.data.JsonDataAdapter;
+import net.william278.husksync.data.UserData;
+import net.william278.husksync.player.DummyPlayer;
+import net.william278.husksync.player.User;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Tests for server switch handoffs between servers sharing a Redis server, with two target servers racing to
+ * consume the same handoff keys
+ */
+public class RedisHandoffTests {
+
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void testConcurrentConsumersTakeHandoffOnce() {
+        final LocalRedis redis = new LocalRedis();
+        final RedisManager source = redis.connect();
+        final RedisManager firstTarget = redis.connect();
+        final RedisManager secondTarget = redis.connect();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            final User user = new User(UUID.randomUUID(), "Steve");
+            source.setUserServerSwitch(user).join();
+            source.setUserHandoff(user, createUserData()).join();
+
+            final List<UserHandoff> handoffs = race(
+                    () -> firstTarget.awaitUserHandoff(user, 50),
+                    () -> secondTarget.awaitUserHandoff(user, 50));
+            Assertions.assertEquals(1, handoffs.stream().filter(UserHandoff::changingServers).count());
+            Assertions.assertEquals(1, handoffs.stream().filter(handoff -> handoff.userData().isPresent()).count());
+            Assertions.assertTrue(redis.isEmpty());
+        }
+    }
+
+    @Test
+    public void testAnnouncedHandoffIsConsumedOnce() {
+        final LocalRedis redis = new LocalRedis();
+        final RedisManager source = redis.connect();
+        final RedisManager firstTarget = redis.connect();
+        final RedisManager secondTarget = redis.connect();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            // Both targets start waiting before the source has set the user's data, and are woken by its announcement
+            final User user = new User(UUID.randomUUID(), "Alex");
+            final CompletableFuture<Optional<UserData>> first = firstTarget.awaitUserData(user, 5000);
+            final CompletableFuture<Optional<UserData>> second = secondTarget.awaitUserData(user, 5000);
+            source.setUserHandoff(user, createUserData()).join();
+
+            Assertions.assertEquals(1, CompletableFuture.allOf(first, second)
+                    .thenApply(ignored -> List.of(first.join(), second.join())).join().stream()
+                    .filter(Optional::isPresent).count());
+            Assertions.assertTrue(redis.isEmpty());
+        }
+    }
+
+    // Start both consumers at once from separate threads, returning their results
+    @NotNull
+    private static <T> List<T> race(@NotNull Supplier<CompletableFuture<T>> first,
+                                    @NotNull Supplier<CompletableFuture<T>> second) {
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final List<CompletableFuture<T>> results = new ArrayList<>();
+        for (Supplier<CompletableFuture<T>> consumer : List.of(first, second)) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                return consumer.get().join();
+            }, executor));
+        }
+        start.countDown();
+        try {
+            return results.stream().map(CompletableFuture::join).toList();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @NotNull
+    private static UserData createUserData() {
+        return DummyPlayer.create().getUserData(new DummyHuskSync()).join().orElseThrow();
+    }
+
+    /**
+     * In-process stand-in for a Redis server shared by several servers, running the handoff scripts atomically and
+     * delivering their announcements to every connected server
+     */
+    private static class LocalRedis {
+
+        private final Map<ByteBuffer, byte[]> values = new HashMap<>();
+        private final List<RedisManager> subscribers = new CopyOnWriteArrayList<>();
+
+        @NotNull
+        private RedisManager connect() {
+            final HuskSync plugin = new DummyHuskSync() {
+                @NotNull
+                @Override
+                public DataAdapter getDataAdapter() {
+                    return new JsonDataAdapter();
+                }
+            };
+            final RedisManager redisManager = new RedisManager(plugin) {
+                @NotNull
+                @Override
+                protected CompletableFuture<Object> eval(byte[] script, byte[][] keys, byte[]... arguments) {
+                    return CompletableFuture.supplyAsync(() -> LocalRedis.this.eval(script, keys, arguments));
+                }
+            };
+            subscribers.add(redisManager);
+            return redisManager;
+        }
+
+        private synchronized Object eval(byte[] script, byte[][] keys, byte[][] arguments) {
+            if (script == RedisManager.CONSUME_KEYS_SCRIPT) {
+                final List<byte[]> consumed = new ArrayList<>();
+                for (byte[] key : keys) {
+                    consumed.add(values.remove(ByteBuffer.wrap(key)));
+                }
+                return consumed;
+            } else if (script == RedisManager.SET_SERVER_SWITCH_SCRIPT) {
+                values.put(ByteBuffer.wrap(keys[0]), new byte[0]);
+                publish(arguments[1], arguments[2]);
+                return 1L;
+            } else if (script == RedisManager.SET_HANDOFF_SCRIPT) {
+                values.put(ByteBuffer.wrap(keys[0]), arguments[0]);
+                publish(arguments[2], arguments[3]);
+                return 1L;
+            }
+            throw new UnsupportedOperationException("Script not supported by the stand-in");
+        }
+
+        // Messages are delivered asynchronously, as subscribers receive them after the publishing script returns
+        private void publish(byte[] channel, byte[] message) {
+            subscribers.forEach(subscriber -> CompletableFuture.runAsync(() -> subscriber.onMessage(channel, message)));
+        }
+
+        private synchronized boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+    }
+
+}
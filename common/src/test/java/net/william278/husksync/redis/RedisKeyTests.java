@@ -0,0 +1,37 @@
+package net.william278.husksync.redis;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Tests for the {@link RedisKeyType} key formats
+ */
+public class RedisKeyTests {
+
+    @AfterEach
+    public void resetHashTagging() {
+        RedisManager.hashTagKeys = false;
+    }
+
+    @Test
+    public void testHashTaggedKeysShareSlot() {
+        RedisManager.hashTagKeys = true;
+        final UUID uuid = UUID.randomUUID();
+        final int slot = JedisClusterCRC16.getSlot(RedisKeyType.SERVER_SWITCH.getKey(uuid));
+        Arrays.stream(RedisKeyType.values()).forEach(keyType ->
+                Assertions.assertEquals(slot, JedisClusterCRC16.getSlot(keyType.getKey(uuid))));
+    }
+
+    @Test
+    public void testUntaggedKeyFormat() {
+        final UUID uuid = UUID.randomUUID();
+        Assertions.assertEquals(RedisKeyType.DATA_UPDATE.getKeyPrefix() + ":" + uuid,
+                new String(RedisKeyType.DATA_UPDATE.getKey(uuid)));
+    }
+
+}
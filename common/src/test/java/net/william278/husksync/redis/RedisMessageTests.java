@@ -0,0 +1,56 @@
+package net.william278.husksync.redis;
+
+import net.william278.husksync.DummyHuskSync;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Tests for the {@link RedisMessage} wire formats
+ */
+public class RedisMessageTests {
+
+    @Test
+    public void testBinaryMessageFormat() {
+        final UUID targetUserUuid = UUID.randomUUID();
+        final byte[] payload = "test payload".getBytes(StandardCharsets.UTF_8);
+        final byte[] serialized = new RedisMessage(targetUserUuid, payload).toBytes();
+
+        // Assert the header is compact and the payload is written raw
+        Assertions.assertEquals(17 + payload.length, serialized.length);
+
+        final RedisMessage deserialized = RedisMessage.fromBytes(serialized);
+        Assertions.assertEquals(targetUserUuid, deserialized.targetUserUuid);
+        Assertions.assertArrayEquals(payload, deserialized.data);
+    }
+
+    @Test
+    public void testInvalidBinaryMessage() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RedisMessage.fromBytes(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void testMalformedMessagesAreDropped() {
+        final RedisManager redisManager = new RedisManager(new DummyHuskSync());
+        Assertions.assertDoesNotThrow(() -> redisManager.onMessage(
+                RedisMessageType.UPDATE_USER_DATA.getBinaryMessageChannel(), new byte[]{1, 2, 3}));
+        Assertions.assertDoesNotThrow(() -> redisManager.onMessage(
+                RedisMessageType.UPDATE_USER_DATA.getMessageChannel().getBytes(StandardCharsets.UTF_8),
+                "{not json".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertDoesNotThrow(() -> redisManager.onMessage(
+                RedisMessageType.UPDATE_USER_DATA.getMessageChannel().getBytes(StandardCharsets.UTF_8),
+                new byte[0]));
+    }
+
+    @Test
+    public void testLegacyJsonMessageFormat() {
+        final UUID targetUserUuid = UUID.randomUUID();
+        final byte[] payload = new byte[]{1, 2, 3};
+        final RedisMessage deserialized = RedisMessage.fromJson(new RedisMessage(targetUserUuid, payload).toJson());
+        Assertions.assertEquals(targetUserUuid, deserialized.targetUserUuid);
+        Assertions.assertArrayEquals(payload, deserialized.data);
+    }
+
+}
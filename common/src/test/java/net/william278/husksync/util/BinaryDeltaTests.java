@@ -0,0 +1,68 @@
+package net.william278.husksync.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Tests for encoding and applying {@link BinaryDelta}s
+ */
+public class BinaryDeltaTests {
+
+    @Test
+    public void testSmallChangeRoundTrip() {
+        final byte[] base = ("{\"status\":{\"health\":20.0,\"hunger\":20,\"experience\":1024},"
+                             + "\"inventory\":{\"serialized_items\":\"" + "A".repeat(2048) + "\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+        final byte[] target = ("{\"status\":{\"health\":14.5,\"hunger\":18,\"experience\":1024},"
+                               + "\"inventory\":{\"serialized_items\":\"" + "A".repeat(1024) + "B" + "A".repeat(1023)
+                               + "\"}}").getBytes(StandardCharsets.UTF_8);
+        final byte[] delta = BinaryDelta.encode(base, target);
+        Assertions.assertArrayEquals(target, BinaryDelta.apply(base, delta));
+        Assertions.assertTrue(delta.length < target.length / 10);
+    }
+
+    @Test
+    public void testRandomEditsRoundTrip() {
+        final Random random = new Random(278);
+        for (int i = 0; i < 50; i++) {
+            final byte[] base = new byte[random.nextInt(4096)];
+            random.nextBytes(base);
+            final byte[] target = base.clone();
+            for (int edit = 0; edit < random.nextInt(10) && target.length > 0; edit++) {
+                target[random.nextInt(target.length)] = (byte) random.nextInt();
+            }
+            Assertions.assertArrayEquals(target, BinaryDelta.apply(base, BinaryDelta.encode(base, target)));
+        }
+    }
+
+    @Test
+    public void testUnrelatedAndEmptyRoundTrip() {
+        final Random random = new Random(2);
+        final byte[] base = new byte[512];
+        final byte[] target = new byte[700];
+        random.nextBytes(base);
+        random.nextBytes(target);
+        Assertions.assertArrayEquals(target, BinaryDelta.apply(base, BinaryDelta.encode(base, target)));
+        Assertions.assertArrayEquals(target, BinaryDelta.apply(new byte[0], BinaryDelta.encode(new byte[0], target)));
+        Assertions.assertArrayEquals(new byte[0], BinaryDelta.apply(base, BinaryDelta.encode(base, new byte[0])));
+    }
+
+    @Test
+    public void testRejectsWrongBase() {
+        final byte[] delta = BinaryDelta.encode(new byte[64], new byte[64]);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryDelta.apply(new byte[32], delta));
+    }
+
+    @Test
+    public void testRejectsDifferentBaseOfSameLength() {
+        final byte[] base = "{\"health\":20.0,\"hunger\":20,\"saturation\":5.0}".getBytes(StandardCharsets.UTF_8);
+        final byte[] otherBase = "{\"health\":19.0,\"hunger\":20,\"saturation\":5.0}".getBytes(StandardCharsets.UTF_8);
+        final byte[] delta = BinaryDelta.encode(base, "{\"health\":20.0,\"hunger\":18,\"saturation\":5.0}"
+                .getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryDelta.apply(otherBase, delta));
+    }
+
+}